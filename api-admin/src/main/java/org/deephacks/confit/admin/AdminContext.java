@@ -171,6 +171,30 @@ public abstract class AdminContext {
      */
     public abstract void create(final Collection<Bean> beans) throws AbortRuntimeException;
 
+    /**
+     * Variant of {@link AdminContext#create(Collection)} for importing a large number
+     * of beans.
+     *
+     * <p>
+     * Beans may be written in chunks, where beans are ordered so that references within
+     * the import are created before the beans that reference them. Chunks can be validated
+     * in parallel and observers are notified once, when all beans have been created.
+     * </p>
+     * <p>
+     * Unlike {@link AdminContext#create(Collection)}, the import is not atomic. Chunks
+     * that have been written are kept if a later chunk fails, and observers are notified
+     * of those beans before the failure is thrown.
+     * </p>
+     *
+     * @param beans to be created.
+     * @throws AbortRuntimeException is thrown when the system itself cannot
+     * recover from a certain event and must therefore abort execution, see
+     * {@link org.deephacks.confit.model.Events}.
+     */
+    public void createBulk(final Collection<Bean> beans) throws AbortRuntimeException {
+        create(beans);
+    }
+
     /**
      * Collection variant of {@link AdminContext#createObject(Object)}.
      *
@@ -215,10 +215,7 @@ public class BeanId implements Comparable<BeanId> {
         private byte[] key;
 
         public BinaryBeanId(BeanId beanId) {
-            if (ids == null) {
-                ids = UniqueIds.lookup();
-            }
-
+            UniqueIds ids = getIds();
             int schemaId = ids.getSchemaId(beanId.getSchemaName());
             long instanceId = ids.getInstanceId(beanId.getInstanceId());
             this.key = toKey(schemaId, instanceId);
@@ -238,19 +235,27 @@ public class BeanId implements Comparable<BeanId> {
             return new byte[] {s[0], s[1], s[2], s[3], i[0], i[1], i[2], i[3], i[4], i[5], i[6], i[7]};
         }
 
+        private static UniqueIds getIds() {
+            if (ids == null) {
+                ids = UniqueIds.lookup();
+            }
+            return ids;
+        }
+
         public BeanId getBeanId() {
+            UniqueIds ids = getIds();
             String schemaName = ids.getSchemaName(getSchemaId());
             String instanceId = ids.getInstanceName(getInstanceId());
             return BeanId.create(instanceId, schemaName);
         }
 
         public static BinaryBeanId getMinId(String schemaName) {
-            byte[] key = toKey(ids.getSchemaId(schemaName), 0);
+            byte[] key = toKey(getIds().getSchemaId(schemaName), 0);
             return new BinaryBeanId(key);
         }
 
         public static BinaryBeanId getMaxId(String schemaName) {
-            byte[] key = toKey(ids.getSchemaId(schemaName), -1);
+            byte[] key = toKey(getIds().getSchemaId(schemaName), -1);
             return new BinaryBeanId(key);
         }
 
@@ -18,6 +18,7 @@ import org.deephacks.confit.model.Bean;
 import org.deephacks.confit.model.BeanId;
 import org.deephacks.confit.model.Events;
 import org.deephacks.confit.model.Schema;
+import org.deephacks.confit.model.Schema.AbstractSchemaProperty;
 import org.deephacks.confit.model.Schema.SchemaProperty;
 import org.deephacks.confit.model.Schema.SchemaPropertyList;
 import org.deephacks.confit.model.Schema.SchemaPropertyRef;
@@ -26,8 +27,12 @@ import org.deephacks.confit.model.Schema.SchemaPropertyRefMap;
 import org.deephacks.confit.serialization.Conversion.Converter;
 
 import java.lang.annotation.Annotation;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
-import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Modifier;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
@@ -43,114 +48,101 @@ import static org.deephacks.confit.serialization.Reflections.forName;
 final class BeanToObjectConverter implements Converter<Bean, Object> {
     private Conversion conversion = Conversion.get();
     private ConcurrentHashMap<String, Class<?>> classCache = new ConcurrentHashMap<>();
+    /** class -> injection plan */
+    private ConcurrentHashMap<Class<?>, ObjectPlan> planCache = new ConcurrentHashMap<>();
 
     @Override
     public Object convert(Bean source, Class<? extends Object> specificType) {
-        final Object instance;
-        try {
-            instance = newInstance(specificType);
-        } catch (Exception e) {
-            throw new UnsupportedOperationException(e);
-        }
-        Map<String, Object> valuesToInject = new HashMap<>();
+        ObjectPlan plan = getPlan(specificType, source.getSchema());
         Map<BeanId, Object> instanceCache = new HashMap<>();
-        return convert(source, instance, valuesToInject, instanceCache);
+        return convert(source, plan, instanceCache);
     }
 
-    private Object convert(Bean source, Object instance, Map<String, Object> valuesToInject,
-            Map<BeanId, Object> instanceCache) {
+    private Object convert(Bean source, ObjectPlan plan, Map<BeanId, Object> instanceCache) {
+        final Object instance = plan.newInstance();
         instanceCache.put(source.getId(), instance);
-        convertProperty(source, valuesToInject);
-        convertPropertyList(source, valuesToInject);
-        convertPropertyRef(source, valuesToInject, instanceCache);
-        convertPropertyRefList(source, valuesToInject, instanceCache);
-        convertPropertyRefMap(source, valuesToInject, instanceCache);
-        Schema schema = source.getSchema();
-        if (!schema.getId().isSingleton()) {
-            // do not try to inject lookup id: the field is static final
-            valuesToInject.put(getIdField(instance.getClass()), source.getId().getInstanceId());
+        try {
+            convertProperty(source, instance, plan);
+            convertPropertyList(source, instance, plan);
+            convertPropertyRef(source, instance, plan, instanceCache);
+            convertPropertyRefList(source, instance, plan, instanceCache);
+            convertPropertyRefMap(source, instance, plan, instanceCache);
+            if (plan.id != null) {
+                // lookup id is not injected: the field is static final
+                plan.id.set(instance, source.getId().getInstanceId());
+            }
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new UnsupportedOperationException(e);
         }
-        inject(instance, valuesToInject);
         return instance;
     }
 
-    private void inject(Object instance, Map<String, Object> values) {
-        List<Field> fields = findFields(instance.getClass());
-        for (Field field : fields) {
-            field.setAccessible(true);
-            Object value = values.get(field.getName());
-            if (value == null) {
-                continue;
-            }
-            try {
-                field.set(instance, value);
-            } catch (IllegalArgumentException | IllegalAccessException e) {
-                throw new UnsupportedOperationException(e);
-            }
+    /**
+     * Get the plan for injecting beans of a schema into instances of a class. Plans
+     * are created once and reused as long as the class is registered with the same schema.
+     */
+    private ObjectPlan getPlan(Class<?> type, Schema schema) {
+        ObjectPlan plan = planCache.get(type);
+        if (plan != null && (plan.schema == schema || plan.schema.equals(schema))) {
+            return plan;
         }
+        plan = new ObjectPlan(type, schema);
+        planCache.put(type, plan);
+        return plan;
     }
 
-    private void convertPropertyRefMap(Bean source, Map<String, Object> values,
-            Map<BeanId, Object> instanceCache) {
-        for (SchemaPropertyRefMap prop : source.getSchema().get(SchemaPropertyRefMap.class)) {
-            List<BeanId> beans = source.getReference(prop.getName());
+    private Object getInstance(Bean bean, Map<BeanId, Object> instanceCache) {
+        Object beanInstance = instanceCache.get(bean.getId());
+        if (beanInstance == null) {
+            Schema schema = bean.getSchema();
+            ObjectPlan plan = getPlan(loadClass(schema.getType()), schema);
+            beanInstance = convert(bean, plan, instanceCache);
+        }
+        return beanInstance;
+    }
+
+    private void convertPropertyRefMap(Bean source, Object instance, ObjectPlan plan,
+            Map<BeanId, Object> instanceCache) throws Throwable {
+        for (PropertyPlan prop : plan.refMaps) {
+            List<BeanId> beans = source.getReference(prop.name);
             if (beans == null) {
                 continue;
             }
-            Map<Object, Object> c = newMap(loadClass(prop.getMapType()));
+            Map<Object, Object> c = newMap(prop.containerType);
             for (BeanId beanId : beans) {
                 Bean b = beanId.getBean();
                 if (b != null) {
-                    Object beanInstance = instanceCache.get(beanId);
-                    if (beanInstance == null) {
-                        try {
-                            beanInstance = newInstance(loadClass(b.getSchema().getType()));
-                        } catch (Exception e) {
-                            throw new UnsupportedOperationException(e);
-                        }
-                        beanInstance = convert(b, beanInstance, new HashMap<String, Object>(),
-                                instanceCache);
-                    }
-                    c.put(beanId.getInstanceId(), beanInstance);
+                    c.put(beanId.getInstanceId(), getInstance(b, instanceCache));
                 }
             }
-            values.put(prop.getFieldName(), c);
+            prop.setter.set(instance, c);
         }
     }
 
-    private void convertPropertyRefList(Bean source, Map<String, Object> values,
-            Map<BeanId, Object> instanceCache) {
-        for (SchemaPropertyRefList prop : source.getSchema().get(SchemaPropertyRefList.class)) {
-            List<BeanId> references = source.getReference(prop.getName());
+    private void convertPropertyRefList(Bean source, Object instance, ObjectPlan plan,
+            Map<BeanId, Object> instanceCache) throws Throwable {
+        for (PropertyPlan prop : plan.refLists) {
+            List<BeanId> references = source.getReference(prop.name);
             if (references == null) {
                 continue;
             }
-            Collection<Object> c = newCollection(loadClass(prop.getCollectionType()));
+            Collection<Object> c = newCollection(prop.containerType);
             for (BeanId beanId : references) {
                 Bean b = beanId.getBean();
                 if (b != null) {
-                    Object beanInstance = instanceCache.get(beanId);
-                    if (beanInstance == null) {
-                        String type = b.getSchema().getType();
-                        try {
-                            beanInstance = newInstance(loadClass(type));
-                        } catch (Exception e) {
-                            throw new UnsupportedOperationException(e);
-                        }
-                        beanInstance = convert(b, beanInstance, new HashMap<String, Object>(),
-                                instanceCache);
-                    }
-                    c.add(beanInstance);
+                    c.add(getInstance(b, instanceCache));
                 }
             }
-            values.put(prop.getFieldName(), c);
+            prop.setter.set(instance, c);
         }
     }
 
-    private void convertPropertyRef(Bean source, Map<String, Object> values,
-            Map<BeanId, Object> instanceCache) {
-        for (SchemaPropertyRef prop : source.getSchema().get(SchemaPropertyRef.class)) {
-            BeanId id = source.getFirstReference(prop.getName());
+    private void convertPropertyRef(Bean source, Object instance, ObjectPlan plan,
+            Map<BeanId, Object> instanceCache) throws Throwable {
+        for (PropertyPlan prop : plan.refs) {
+            BeanId id = source.getFirstReference(prop.name);
             if (id == null) {
                 continue;
             }
@@ -158,61 +150,49 @@ final class BeanToObjectConverter implements Converter<Bean, Object> {
             if (ref == null) {
                 continue;
             }
-            Schema refSchema = ref.getSchema();
-            if (refSchema == null) {
+            if (ref.getSchema() == null) {
                 throw Events.CFG101_SCHEMA_NOT_EXIST(ref.getId().getSchemaName());
             }
-            SchemaPropertyRef schemaRef = source.getSchema().get(SchemaPropertyRef.class,
-                    prop.getName());
-            Object beanInstance = instanceCache.get(id);
-            if (beanInstance == null) {
-                try {
-                    beanInstance = newInstance(loadClass(refSchema.getType()));
-                } catch (Exception e) {
-                    throw new UnsupportedOperationException(e);
-                }
-                beanInstance = convert(ref, beanInstance, new HashMap<String, Object>(),
-                        instanceCache);
-            }
-
-            values.put(schemaRef.getFieldName(), beanInstance);
-
+            prop.setter.set(instance, getInstance(ref, instanceCache));
         }
     }
 
-    private void convertPropertyList(Bean source, Map<String, Object> values) {
-        for (SchemaPropertyList prop : source.getSchema().get(SchemaPropertyList.class)) {
-            List<String> vals = source.getValues(prop.getName());
-            String field = prop.getFieldName();
-
+    private void convertPropertyList(Bean source, Object instance, ObjectPlan plan) throws Throwable {
+        for (PropertyPlan prop : plan.lists) {
+            List<String> vals = source.getValues(prop.name);
             if (vals == null) {
                 continue;
             }
-            Collection<Object> c = newCollection(loadClass(prop.getCollectionType()));
+            Collection<Object> c = newCollection(prop.containerType);
             for (String val : vals) {
-                Object converted = conversion.convert(val, loadClass(prop.getType()));
-                c.add(converted);
+                c.add(conversion.convert(val, prop.type));
             }
-
-            values.put(field, c);
+            prop.setter.set(instance, c);
         }
     }
 
-    private void convertProperty(Bean source, Map<String, Object> values) {
-        for (SchemaProperty prop : source.getSchema().get(SchemaProperty.class)) {
-            String value = source.getSingleValue(prop.getName());
-            String field = prop.getFieldName();
-            Object converted = conversion.convert(value, loadClass(prop.getType()));
-            values.put(field, converted);
+    private void convertProperty(Bean source, Object instance, ObjectPlan plan) throws Throwable {
+        for (PropertyPlan prop : plan.properties) {
+            String value = source.getSingleValue(prop.name);
+            if (value == null) {
+                continue;
+            }
+            if (prop.type.isPrimitive()) {
+                prop.setter.setPrimitive(instance, value);
+            } else {
+                Object converted = conversion.convert(value, prop.type);
+                if (converted != null) {
+                    prop.setter.set(instance, converted);
+                }
+            }
         }
     }
 
-    private static String getIdField(Class<?> clazz) {
+    private static Field getIdField(Class<?> clazz) {
         for (Field field : findFields(clazz)) {
-            field.setAccessible(true);
             Annotation annotation = field.getAnnotation(Id.class);
             if (annotation != null) {
-                return field.getName();
+                return field;
             }
         }
         throw new RuntimeException("Class [" + clazz + "] does not decalare @Id.");
@@ -262,11 +242,6 @@ final class BeanToObjectConverter implements Converter<Bean, Object> {
         return clazz;
     }
 
-    public static <T> T newInstance(Class<T> type) throws InstantiationException,
-            IllegalAccessException, InvocationTargetException, NoSuchMethodException {
-        return Reflections.newInstance(type);
-    }
-
     /**
      * Find list field (including private) on a specific class. Searches list
      * super-classes up to {@link Object}.
@@ -288,4 +263,162 @@ final class BeanToObjectConverter implements Converter<Bean, Object> {
         }
         return foundFields;
     }
+
+    /**
+     * Everything needed for injecting a bean into an instance of a class, resolved
+     * up front so that conversion does not need to look up fields or classes.
+     */
+    private final class ObjectPlan {
+        private final Schema schema;
+        private final Constructor<?> constructor;
+        private final FieldSetter id;
+        private final PropertyPlan[] properties;
+        private final PropertyPlan[] lists;
+        private final PropertyPlan[] refs;
+        private final PropertyPlan[] refLists;
+        private final PropertyPlan[] refMaps;
+
+        private ObjectPlan(Class<?> type, Schema schema) {
+            this.schema = schema;
+            try {
+                constructor = Reflections.getDefaultConstructor(type);
+            } catch (NoSuchMethodException e) {
+                throw new UnsupportedOperationException(e);
+            }
+            Map<String, Field> fields = new HashMap<>();
+            List<Field> found = findFields(type);
+            // fields of subclasses shadow fields of super classes
+            for (int i = found.size() - 1; i >= 0; i--) {
+                fields.put(found.get(i).getName(), found.get(i));
+            }
+            id = schema.getId().isSingleton() ? null : new FieldSetter(getIdField(type));
+            ArrayList<PropertyPlan> plans = new ArrayList<>();
+            for (SchemaProperty prop : schema.get(SchemaProperty.class)) {
+                plans.add(new PropertyPlan(prop, fields, loadClass(prop.getType()), null));
+            }
+            properties = plans.toArray(new PropertyPlan[plans.size()]);
+            plans.clear();
+            for (SchemaPropertyList prop : schema.get(SchemaPropertyList.class)) {
+                plans.add(new PropertyPlan(prop, fields, loadClass(prop.getType()),
+                        loadClass(prop.getCollectionType())));
+            }
+            lists = plans.toArray(new PropertyPlan[plans.size()]);
+            plans.clear();
+            for (SchemaPropertyRef prop : schema.get(SchemaPropertyRef.class)) {
+                plans.add(new PropertyPlan(prop, fields, null, null));
+            }
+            refs = plans.toArray(new PropertyPlan[plans.size()]);
+            plans.clear();
+            for (SchemaPropertyRefList prop : schema.get(SchemaPropertyRefList.class)) {
+                plans.add(new PropertyPlan(prop, fields, null, loadClass(prop.getCollectionType())));
+            }
+            refLists = plans.toArray(new PropertyPlan[plans.size()]);
+            plans.clear();
+            for (SchemaPropertyRefMap prop : schema.get(SchemaPropertyRefMap.class)) {
+                plans.add(new PropertyPlan(prop, fields, null, loadClass(prop.getMapType())));
+            }
+            refMaps = plans.toArray(new PropertyPlan[plans.size()]);
+        }
+
+        private Object newInstance() {
+            try {
+                return constructor.newInstance();
+            } catch (Exception e) {
+                throw new UnsupportedOperationException(e);
+            }
+        }
+    }
+
+    private static final class PropertyPlan {
+        private final String name;
+        private final FieldSetter setter;
+        /** property type or element type of collections */
+        private final Class<?> type;
+        /** collection or map type */
+        private final Class<?> containerType;
+
+        private PropertyPlan(AbstractSchemaProperty prop, Map<String, Field> fields, Class<?> type,
+                Class<?> containerType) {
+            this.name = prop.getName();
+            Field field = fields.get(prop.getFieldName());
+            if (field == null) {
+                throw new IllegalArgumentException("Field [" + prop.getFieldName() + "] does not exist.");
+            }
+            this.setter = new FieldSetter(field);
+            this.type = type;
+            this.containerType = containerType;
+        }
+    }
+
+    /**
+     * Write values directly into a field using method handles. Primitives are
+     * parsed and written without boxing. Final and static fields cannot be written
+     * through method handles and fall back on reflection.
+     */
+    private static final class FieldSetter {
+        private final Field field;
+        /** (Object, Object)void or null if reflection must be used */
+        private final MethodHandle setter;
+        /** (Object, primitive)void or null if not a primitive */
+        private final MethodHandle primitiveSetter;
+
+        private FieldSetter(Field field) {
+            field.setAccessible(true);
+            this.field = field;
+            int modifiers = field.getModifiers();
+            MethodHandle handle = null;
+            if (!Modifier.isFinal(modifiers) && !Modifier.isStatic(modifiers)) {
+                try {
+                    handle = MethodHandles.lookup().unreflectSetter(field);
+                } catch (IllegalAccessException e) {
+                    handle = null;
+                }
+            }
+            if (handle == null) {
+                this.setter = null;
+                this.primitiveSetter = null;
+            } else {
+                this.setter = handle.asType(MethodType.methodType(void.class, Object.class, Object.class));
+                Class<?> type = field.getType();
+                this.primitiveSetter = type.isPrimitive()
+                        ? handle.asType(MethodType.methodType(void.class, Object.class, type)) : null;
+            }
+        }
+
+        private void set(Object instance, Object value) throws Throwable {
+            if (setter == null) {
+                field.set(instance, value);
+            } else {
+                setter.invokeExact(instance, value);
+            }
+        }
+
+        private void setPrimitive(Object instance, String value) throws Throwable {
+            if (value.isEmpty()) {
+                throw new IllegalArgumentException("Cannot parse a primitive from empty string.");
+            }
+            Class<?> type = field.getType();
+            if (primitiveSetter == null || !type.isPrimitive()) {
+                set(instance, Conversion.get().convert(value, type));
+            } else if (type == int.class) {
+                primitiveSetter.invokeExact(instance, Integer.parseInt(value));
+            } else if (type == long.class) {
+                primitiveSetter.invokeExact(instance, Long.parseLong(value));
+            } else if (type == boolean.class) {
+                primitiveSetter.invokeExact(instance, Boolean.parseBoolean(value));
+            } else if (type == double.class) {
+                primitiveSetter.invokeExact(instance, Double.parseDouble(value));
+            } else if (type == float.class) {
+                primitiveSetter.invokeExact(instance, Float.parseFloat(value));
+            } else if (type == short.class) {
+                primitiveSetter.invokeExact(instance, Short.parseShort(value));
+            } else if (type == byte.class) {
+                primitiveSetter.invokeExact(instance, Byte.parseByte(value));
+            } else if (type == char.class) {
+                primitiveSetter.invokeExact(instance, value.charAt(0));
+            } else {
+                throw new IllegalArgumentException("Did not recognize primitive type [" + type + "].");
+            }
+        }
+    }
 }
@@ -45,6 +45,8 @@ public final class Conversion {
     /** Lookup cache for finding converters. */
     private static final ConcurrentHashMap<SourceTargetPairKey, Converter> cache = new ConcurrentHashMap<>();
 
+    /** incremented every time converters are registered */
+    private static volatile int generation = 0;
     private static Conversion INSTANCE;
     private static final UniqueId ids = new UniqueId();
     static {
@@ -99,13 +101,21 @@ public final class Conversion {
             return (T) parsePrimitive(source.toString(), targetclass);
         }
 
+        return (T) getConverter(sourceclass, targetclass).convert(source, targetclass);
+    }
+
+    /**
+     * Find the converter that is most suitable for converting values of a
+     * specific class into a target class.
+     */
+    Converter getConverter(final Class<?> sourceclass, final Class<?> targetclass) {
         final int sourceId = ids.getId(sourceclass);
         final int targetId = ids.getId(targetclass);
         final SourceTargetPairKey key = new SourceTargetPairKey(sourceId, targetId);
         Converter converter = cache.get(key);
 
         if (converter != null) {
-            return (T) converter.convert(source, targetclass);
+            return converter;
         }
         final LinkedList<SourceTargetPairMatch> matches = new LinkedList<>();
         for (SourceTargetPair pair : converters.values()) {
@@ -123,8 +133,7 @@ public final class Conversion {
         Collections.sort(matches, SourceTargetPairMatch.bestTargetMatch());
         converter = matches.get(0).pair.converter;
         cache.put(key, converter);
-        return (T) converter.convert(source, targetclass);
-
+        return converter;
     }
 
     private Object parsePrimitive(String value, Class<?> targetclass) {
@@ -187,6 +196,15 @@ public final class Conversion {
         }
         converters.put(converter.getClass(), new SourceTargetPair(converter));
         cache.clear();
+        generation++;
+    }
+
+    /**
+     * @return a number that change every time converters are registered, which
+     * tells if converters found earlier may have been superseded.
+     */
+    static int generation() {
+        return generation;
     }
 
     private static class SourceTargetPair {
@@ -7,114 +7,245 @@ import org.deephacks.confit.model.Bean;
 import org.deephacks.confit.model.BeanId;
 import org.deephacks.confit.model.Events;
 import org.deephacks.confit.model.Schema;
-import org.deephacks.confit.serialization.ClassToSchemaConverter.ConfigClass;
 import org.deephacks.confit.serialization.Conversion.Converter;
 import org.deephacks.confit.serialization.Reflections.ClassIntrospector;
 import org.deephacks.confit.serialization.Reflections.ClassIntrospector.FieldWrap;
 
 import java.lang.annotation.Annotation;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static org.deephacks.confit.model.Events.CFG102_NOT_CONFIGURABLE;
 
 class ObjectToBeanConverter implements Converter<Object, Bean> {
     Conversion conversion = Conversion.get();
+    /** class -> extraction plan */
+    private final ConcurrentHashMap<Class<?>, BeanPlan> planCache = new ConcurrentHashMap<>();
 
     @Override
     public Bean convert(Object source, Class<? extends Bean> specificType) {
-        ClassIntrospector i = new ClassIntrospector(source.getClass());
-        Bean bean = Bean.create(getBeanId(source));
-
-        for (FieldWrap field : i.getNonStaticFieldList()) {
-            field.checkNotPublic();
-            Object value = field.getValue(source);
-            if (value == null) {
-                continue;
+        BeanPlan plan = getPlan(source.getClass());
+        Bean bean = Bean.create(plan.getBeanId(source));
+        try {
+            for (FieldPlan field : plan.fields) {
+                Object value = field.getter.get(source);
+                if (value == null) {
+                    continue;
+                }
+                addProperty(value, bean, field);
             }
-            addProperty(value, bean, field);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new RuntimeException(e);
         }
-
-        Schema schema = conversion.convert(source.getClass(), Schema.class);
-        bean.set(schema);
+        bean.set(plan.schema);
         return bean;
     }
 
-    @SuppressWarnings("unchecked")
-    private void addProperty(Object value, Bean bean, FieldWrap fieldwrap) {
-        Optional<Annotation> optional = fieldwrap.getAnnotation();
-        ConfigClass field = new ConfigClass();
-        if (!optional.isPresent()) {
-            field.name = fieldwrap.getFieldName();
-            field.desc = "";
-        } else {
-            Config config = (Config) optional.get();
-            field.name = config.name();
-            field.desc = config.desc();
-        }
-        String name = field.name;
-        if (name == null || "".equals(name)) {
-            name = fieldwrap.getFieldName();
+    /**
+     * Get the plan for extracting beans from instances of a class. Plans are
+     * created once and reused for all instances of the class.
+     */
+    private BeanPlan getPlan(Class<?> cls) {
+        BeanPlan plan = planCache.get(cls);
+        if (plan == null) {
+            plan = new BeanPlan(cls);
+            planCache.put(cls, plan);
         }
-        if (fieldwrap.isCollection()) {
-            Class<?> paramClass = fieldwrap.getType();
+        return plan;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void addProperty(Object value, Bean bean, FieldPlan field) {
+        if (field.isCollection) {
             Collection<Object> values = (Collection<Object>) value;
-            if (paramClass.isAnnotationPresent(Config.class)) {
+            if (field.isReference) {
                 for (Object object : values) {
-                    bean.addReference(name, getRecursiveBeanId(object));
+                    bean.addReference(field.name, getRecursiveBeanId(object));
                 }
             } else {
-                bean.addProperty(name, conversion.convert(values, String.class));
+                List<String> converted = new ArrayList<>(values.size());
+                for (Object object : values) {
+                    converted.add(field.toString(object));
+                }
+                bean.addProperty(field.name, converted);
             }
-        } else if (fieldwrap.isMap()) {
-            Class<?> paramClass = fieldwrap.getMapParamTypes().get(1);
+        } else if (field.isMap) {
             Map<String, Object> values = (Map<String, Object>) value;
-            if (paramClass.isAnnotationPresent(Config.class)) {
+            if (field.isReference) {
                 for (Object object : values.values()) {
-                    bean.addReference(name, getRecursiveBeanId(object));
+                    bean.addReference(field.name, getRecursiveBeanId(object));
                 }
             }
         } else {
             if (value.getClass().isAnnotationPresent(Config.class)) {
-                bean.addReference(name, getRecursiveBeanId(value));
+                bean.addReference(field.name, getRecursiveBeanId(value));
             } else {
-                String converted = conversion.convert(value, String.class);
-                bean.setProperty(name, converted);
+                bean.setProperty(field.name, field.toString(value));
             }
         }
     }
 
-    private BeanId getBeanId(Object bean) {
-        Config config = bean.getClass().getAnnotation(Config.class);
-        if (config == null) {
-            throw CFG102_NOT_CONFIGURABLE(bean.getClass());
+    private BeanId getRecursiveBeanId(Object bean) {
+        BeanId targetId = getPlan(bean.getClass()).getBeanId(bean);
+        Bean targetBean = convert(bean, Bean.class);
+        targetId.setBean(targetBean);
+        return targetId;
+    }
+
+    /**
+     * Everything needed for extracting a bean from an instance of a class,
+     * resolved up front so that conversion does not need to introspect the class.
+     */
+    private final class BeanPlan {
+        private final String schemaName;
+        private final Schema schema;
+        /** null for singletons */
+        private final FieldGetter id;
+        private final FieldPlan[] fields;
+
+        private BeanPlan(Class<?> cls) {
+            Config config = cls.getAnnotation(Config.class);
+            if (config == null) {
+                throw CFG102_NOT_CONFIGURABLE(cls);
+            }
+            String name = config.name();
+            if (name == null || "".equals(name.trim())) {
+                name = cls.getName();
+            }
+            this.schemaName = name;
+            ClassIntrospector i = new ClassIntrospector(cls);
+            List<FieldWrap> ids = i.getFieldList(Id.class);
+            if (ids == null || ids.size() != 1) {
+                // a lookup
+                this.id = null;
+            } else {
+                this.id = new FieldGetter(ids.get(0).getField());
+            }
+            ArrayList<FieldPlan> plans = new ArrayList<>();
+            for (FieldWrap field : i.getNonStaticFieldList()) {
+                field.checkNotPublic();
+                plans.add(new FieldPlan(field));
+            }
+            this.fields = plans.toArray(new FieldPlan[plans.size()]);
+            this.schema = conversion.convert(cls, Schema.class);
+        }
+
+        private BeanId getBeanId(Object bean) {
+            if (id == null) {
+                return BeanId.createSingleton(schemaName);
+            }
+            Object idValue;
+            try {
+                idValue = id.get(bean);
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new RuntimeException(e);
+            }
+            if (idValue == null) {
+                throw Events.CFG107_MISSING_ID();
+            }
+            return BeanId.create(idValue.toString(), schemaName);
         }
-        String schemaName = config.name();
-        if (schemaName == null || "".equals(schemaName.trim())) {
-            schemaName = bean.getClass().getName();
+    }
+
+    private final class FieldPlan {
+        private final String name;
+        private final FieldGetter getter;
+        private final boolean isCollection;
+        private final boolean isMap;
+        /** true if collection or map values are configurable */
+        private final boolean isReference;
+        /** converter found for the class of the last converted value */
+        private volatile CachedConverter converter;
+
+        private FieldPlan(FieldWrap fieldwrap) {
+            Optional<Annotation> optional = fieldwrap.getAnnotation();
+            String name = null;
+            if (optional.isPresent()) {
+                name = ((Config) optional.get()).name();
+            }
+            if (name == null || "".equals(name)) {
+                name = fieldwrap.getFieldName();
+            }
+            this.name = name;
+            this.getter = new FieldGetter(fieldwrap.getField());
+            this.isCollection = fieldwrap.isCollection();
+            this.isMap = fieldwrap.isMap();
+            if (isCollection) {
+                isReference = fieldwrap.getType().isAnnotationPresent(Config.class);
+            } else if (isMap) {
+                isReference = fieldwrap.getMapParamTypes().get(1).isAnnotationPresent(Config.class);
+            } else {
+                isReference = false;
+            }
         }
-        ClassIntrospector i = new ClassIntrospector(bean.getClass());
-        List<FieldWrap> ids = i.getFieldList(Id.class);
-        if (ids == null || ids.size() != 1) {
-            // a lookup
-            return BeanId.createSingleton(schemaName);
+
+        @SuppressWarnings("unchecked")
+        private String toString(Object value) {
+            CachedConverter cached = converter;
+            if (cached == null || cached.sourceClass != value.getClass()
+                    || cached.generation != Conversion.generation()) {
+                int generation = Conversion.generation();
+                cached = new CachedConverter(value.getClass(), generation,
+                        conversion.getConverter(value.getClass(), String.class));
+                converter = cached;
+            }
+            return (String) cached.converter.convert(value, String.class);
         }
-        FieldWrap id = ids.get(0);
-        BeanId targetId;
-        Object idValue = id.getValue(bean);
-        if (idValue == null) {
-            throw Events.CFG107_MISSING_ID();
+    }
+
+    private static final class CachedConverter {
+        private final Class<?> sourceClass;
+        private final int generation;
+        private final Converter converter;
+
+        private CachedConverter(Class<?> sourceClass, int generation, Converter converter) {
+            this.sourceClass = sourceClass;
+            this.generation = generation;
+            this.converter = converter;
         }
-        targetId = BeanId.create(id.getValue(bean).toString(), schemaName);
-        return targetId;
     }
 
-    private BeanId getRecursiveBeanId(Object bean) {
-        BeanId targetId = getBeanId(bean);
-        Bean targetBean = conversion.convert(bean, Bean.class);
-        targetBean.set(conversion.convert(bean.getClass(), Schema.class));
-        targetId.setBean(targetBean);
-        return targetId;
+    /**
+     * Read values directly from a field using method handles. Static fields
+     * fall back on reflection.
+     */
+    private static final class FieldGetter {
+        private final Field field;
+        /** (Object)Object or null if reflection must be used */
+        private final MethodHandle getter;
+
+        private FieldGetter(Field field) {
+            field.setAccessible(true);
+            this.field = field;
+            MethodHandle handle = null;
+            if (!Modifier.isStatic(field.getModifiers())) {
+                try {
+                    handle = MethodHandles.lookup().unreflectGetter(field)
+                            .asType(MethodType.methodType(Object.class, Object.class));
+                } catch (IllegalAccessException e) {
+                    handle = null;
+                }
+            }
+            this.getter = handle;
+        }
+
+        private Object get(Object instance) throws Throwable {
+            if (getter == null) {
+                return field.get(instance);
+            }
+            return (Object) getter.invokeExact(instance);
+        }
     }
-}
\ No newline at end of file
+}
@@ -108,6 +108,15 @@ public final class Reflections {
 
     public static <T> T newInstance(Class<T> type) throws InstantiationException,
             IllegalAccessException, InvocationTargetException, NoSuchMethodException {
+        return type.cast(getDefaultConstructor(type).newInstance());
+    }
+
+    /**
+     * Get the accessible no-argument constructor of a class.
+     *
+     * @throws IllegalArgumentException if the class is a non-static inner class.
+     */
+    public static Constructor<?> getDefaultConstructor(Class<?> type) throws NoSuchMethodException {
         Constructor<?> c;
         if(Modifier.isStatic(type.getModifiers())) {
             c = type.getDeclaredConstructor(new Class[] {});
@@ -124,7 +133,7 @@ public final class Reflections {
             c = type.getDeclaredConstructor();
         }
         c.setAccessible(true);
-        return type.cast(c.newInstance());
+        return c;
     }
 
     public static Object newInstance(String clazzName, String value) {
@@ -0,0 +1,187 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deephacks.confit.serialization;
+
+import com.google.common.base.Optional;
+import org.deephacks.confit.model.Events;
+import org.deephacks.confit.model.Schema;
+import org.deephacks.confit.serialization.Conversion.ConversionException;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.ServiceLoader;
+import java.util.Set;
+
+/**
+ * Registry of schemas that have been generated at compile time by the confit annotation
+ * processor. Generated registries are registered as a java service provider and creates
+ * schemas without introspecting classes. Only default values are read from a default
+ * instance of the class, since they are not known until runtime.
+ *
+ * Schemas of classes that are not known by any registry must be created using
+ * {@link Conversion}.
+ */
+public abstract class SchemaRegistry {
+    private static final Conversion CONVERSION = Conversion.get();
+    private final Set<String> classNames;
+
+    protected SchemaRegistry(String... classNames) {
+        this.classNames = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(classNames)));
+    }
+
+    /**
+     * Lookup all registries available to the context class loader.
+     */
+    public static List<SchemaRegistry> lookup() {
+        ArrayList<SchemaRegistry> registries = new ArrayList<>();
+        ClassLoader cl = Thread.currentThread().getContextClassLoader();
+        for (SchemaRegistry registry : ServiceLoader.load(SchemaRegistry.class, cl)) {
+            registries.add(registry);
+        }
+        return registries;
+    }
+
+    /**
+     * @return name of classes that this registry have schemas for.
+     */
+    public Set<String> getClassNames() {
+        return classNames;
+    }
+
+    /**
+     * Get the schema of a class.
+     *
+     * @param cls configurable class
+     * @return schema if the registry have generated it.
+     */
+    public Optional<Schema> getSchema(Class<?> cls) {
+        if (!classNames.contains(cls.getName())) {
+            return Optional.absent();
+        }
+        return Optional.fromNullable(create(cls));
+    }
+
+    /**
+     * Create the schema of a class, implemented by generated registries.
+     *
+     * @return schema or null if this registry does not know the class.
+     */
+    protected abstract Schema create(Class<?> cls);
+
+    /**
+     * Load a class using the class loader of a configurable class.
+     */
+    protected static Class<?> load(Class<?> cls, String className) {
+        if (className.indexOf('.') < 0) {
+            // primitive
+            return Reflections.forName(className);
+        }
+        try {
+            return Class.forName(className, false, cls.getClassLoader());
+        } catch (ClassNotFoundException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @return string values of the enum constants of an enum.
+     */
+    protected static List<String> enums(Class<?> cls, String enumClassName) {
+        List<String> enums = new ArrayList<>();
+        for (Object o : load(cls, enumClassName).getEnumConstants()) {
+            enums.add(o.toString());
+        }
+        return enums;
+    }
+
+    /**
+     * Create a reader of default values for a configurable class.
+     */
+    protected static Defaults defaults(Class<?> cls) {
+        return new Defaults(cls);
+    }
+
+    /**
+     * Read default values from default instances of the classes that declare fields.
+     */
+    protected static final class Defaults {
+        private final Class<?> cls;
+        /** declaring class -> default instance */
+        private final HashMap<String, Object> instances = new HashMap<>();
+
+        private Defaults(Class<?> cls) {
+            this.cls = cls;
+        }
+
+        /**
+         * @return default value of a single valued property, converted to string.
+         */
+        public String value(String declaringClass, String fieldName, String name) {
+            Field field = field(declaringClass, fieldName);
+            try {
+                return CONVERSION.convert(get(field), String.class);
+            } catch (ConversionException e) {
+                throw Events.CFG104_UNSUPPORTED_PROPERTY(String.class, name, field.getType());
+            }
+        }
+
+        /**
+         * @return default values of a multi valued property, converted to strings.
+         */
+        @SuppressWarnings("unchecked")
+        public List<String> values(String declaringClass, String fieldName, String name, String type) {
+            Field field = field(declaringClass, fieldName);
+            try {
+                return new ArrayList<>(CONVERSION.convert((Collection<Object>) get(field), String.class));
+            } catch (ConversionException e) {
+                throw Events.CFG104_UNSUPPORTED_PROPERTY(String.class, name, load(cls, type));
+            }
+        }
+
+        private Field field(String declaringClass, String fieldName) {
+            try {
+                Field field = load(cls, declaringClass).getDeclaredField(fieldName);
+                field.setAccessible(true);
+                return field;
+            } catch (NoSuchFieldException e) {
+                throw new IllegalStateException("Generated schema of " + cls
+                        + " is out of date, recompile the class.", e);
+            }
+        }
+
+        private Object get(Field field) {
+            String declaringClass = field.getDeclaringClass().getName();
+            Object instance = instances.get(declaringClass);
+            try {
+                if (instance == null) {
+                    instance = Reflections.newInstance(field.getDeclaringClass());
+                    instances.put(declaringClass, instance);
+                }
+                return field.get(instance);
+            } catch (IllegalAccessException e) {
+                throw new UnsupportedOperationException("Cannot access default values "
+                        + "from fields of class which cannot be accessed.", e);
+            } catch (Exception e) {
+                throw new UnsupportedOperationException("Cannot access default values "
+                        + "from fields of class which cannot be constructed.", e);
+            }
+        }
+    }
+}
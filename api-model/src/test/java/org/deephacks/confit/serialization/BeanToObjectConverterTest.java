@@ -0,0 +1,118 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deephacks.confit.serialization;
+
+import org.deephacks.confit.Config;
+import org.deephacks.confit.Id;
+import org.deephacks.confit.model.Bean;
+import org.deephacks.confit.model.BeanId;
+import org.deephacks.confit.model.Schema;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class BeanToObjectConverterTest {
+    private static final Conversion conversion = Conversion.get();
+
+    @Test
+    public void test_primitives() {
+        Bean bean = newBean(Primitives.class, "p");
+        bean.setProperty("intValue", "-12");
+        bean.setProperty("longValue", "1000000000000");
+        bean.setProperty("booleanValue", "true");
+        bean.setProperty("doubleValue", "1.5");
+        bean.setProperty("floatValue", "2.5");
+        bean.setProperty("shortValue", "123");
+        bean.setProperty("byteValue", "7");
+        Primitives p = conversion.convert(bean, Primitives.class);
+        assertEquals("p", p.id);
+        assertEquals(-12, p.intValue);
+        assertEquals(1000000000000L, p.longValue);
+        assertEquals(true, p.booleanValue);
+        assertEquals(1.5, p.doubleValue, 0);
+        assertEquals(2.5f, p.floatValue, 0);
+        assertEquals(123, p.shortValue);
+        assertEquals(7, p.byteValue);
+    }
+
+    @Test
+    public void test_unparsable_primitive() {
+        Bean bean = newBean(Primitives.class, "p");
+        bean.setProperty("intValue", "one");
+        try {
+            conversion.convert(bean, Primitives.class);
+            fail("one is not an int");
+        } catch (NumberFormatException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Final fields cannot be written through method handles and are set reflectively.
+     */
+    @Test
+    public void test_final_fields() {
+        Bean bean = newBean(Finals.class, "f");
+        bean.setProperty("name", "written");
+        bean.setProperty("count", "42");
+        Finals f = conversion.convert(bean, Finals.class);
+        assertEquals("f", f.id);
+        assertEquals("written", f.name);
+        assertEquals(42, f.count);
+    }
+
+    private static Bean newBean(Class<?> cls, String id) {
+        Schema schema = conversion.convert(cls, Schema.class);
+        Bean bean = Bean.create(BeanId.create(id, schema.getName()));
+        bean.set(schema);
+        return bean;
+    }
+
+    @Config(name = "primitives", desc = "")
+    public static class Primitives {
+        @Id(desc = "")
+        private String id;
+        @Config(desc = "")
+        private int intValue;
+        @Config(desc = "")
+        private long longValue;
+        @Config(desc = "")
+        private boolean booleanValue;
+        @Config(desc = "")
+        private double doubleValue;
+        @Config(desc = "")
+        private float floatValue;
+        @Config(desc = "")
+        private short shortValue;
+        @Config(desc = "")
+        private byte byteValue;
+    }
+
+    @Config(name = "finals", desc = "")
+    public static class Finals {
+        @Id(desc = "")
+        private String id;
+        @Config(desc = "")
+        private final String name;
+        @Config(desc = "")
+        private final int count;
+
+        public Finals() {
+            // assigned in the constructor so that reads are not inlined as constants
+            this.name = null;
+            this.count = 0;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deephacks.confit.serialization;
+
+import com.google.caliper.Param;
+import com.google.caliper.Runner;
+import com.google.caliper.SimpleBenchmark;
+import com.google.common.base.Optional;
+import org.deephacks.confit.Config;
+import org.deephacks.confit.Id;
+import org.deephacks.confit.model.Bean;
+import org.deephacks.confit.model.BeanId;
+import org.deephacks.confit.model.Schema;
+import org.deephacks.confit.serialization.ConfigTestData.Child;
+import org.deephacks.confit.serialization.ConfigTestData.Parent;
+import org.deephacks.confit.serialization.Reflections.ClassIntrospector;
+import org.deephacks.confit.serialization.Reflections.ClassIntrospector.FieldWrap;
+
+import java.lang.annotation.Annotation;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import static org.deephacks.confit.serialization.ConfigTestData.getChild;
+import static org.deephacks.confit.serialization.ConfigTestData.getParent;
+
+/**
+ * Compare object to bean conversion using cached plans against introspecting
+ * each object with reflection, which is how conversion used to work.
+ */
+public class ObjectToBeanCaliperTest extends SimpleBenchmark {
+    private Conversion conversion = Conversion.get();
+    private List<Object> objects = new ArrayList<>();
+    @Param
+    int size;
+
+    @Override
+    protected void setUp() throws Exception {
+        for (int i = 0; i < size; i++) {
+            Parent parent = getParent("p" + i);
+            Child child = getChild("c" + i);
+            parent.add(child);
+            parent.set(child);
+            objects.add(parent);
+        }
+    }
+
+    public void timePlanned(int reps) {
+        for (int i = 0; i < reps; i++) {
+            conversion.convert(objects, Bean.class);
+        }
+    }
+
+    public void timeReflective(int reps) {
+        for (int i = 0; i < reps; i++) {
+            for (Object object : objects) {
+                reflective(object);
+            }
+        }
+    }
+
+    private Bean reflective(Object source) {
+        ClassIntrospector i = new ClassIntrospector(source.getClass());
+        Bean bean = Bean.create(getBeanId(source));
+        for (FieldWrap field : i.getNonStaticFieldList()) {
+            field.checkNotPublic();
+            Object value = field.getValue(source);
+            if (value == null) {
+                continue;
+            }
+            addProperty(value, bean, field);
+        }
+        bean.set(conversion.convert(source.getClass(), Schema.class));
+        return bean;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void addProperty(Object value, Bean bean, FieldWrap fieldwrap) {
+        Optional<Annotation> optional = fieldwrap.getAnnotation();
+        String name = optional.isPresent() ? ((Config) optional.get()).name() : null;
+        if (name == null || "".equals(name)) {
+            name = fieldwrap.getFieldName();
+        }
+        if (fieldwrap.isCollection()) {
+            Collection<Object> values = (Collection<Object>) value;
+            if (fieldwrap.getType().isAnnotationPresent(Config.class)) {
+                for (Object object : values) {
+                    bean.addReference(name, getRecursiveBeanId(object));
+                }
+            } else {
+                bean.addProperty(name, conversion.convert(values, String.class));
+            }
+        } else if (fieldwrap.isMap()) {
+            Map<String, Object> values = (Map<String, Object>) value;
+            if (fieldwrap.getMapParamTypes().get(1).isAnnotationPresent(Config.class)) {
+                for (Object object : values.values()) {
+                    bean.addReference(name, getRecursiveBeanId(object));
+                }
+            }
+        } else if (value.getClass().isAnnotationPresent(Config.class)) {
+            bean.addReference(name, getRecursiveBeanId(value));
+        } else {
+            bean.setProperty(name, conversion.convert(value, String.class));
+        }
+    }
+
+    private BeanId getBeanId(Object bean) {
+        Config config = bean.getClass().getAnnotation(Config.class);
+        String schemaName = config.name();
+        if (schemaName == null || "".equals(schemaName.trim())) {
+            schemaName = bean.getClass().getName();
+        }
+        List<FieldWrap> ids = new ClassIntrospector(bean.getClass()).getFieldList(Id.class);
+        if (ids == null || ids.size() != 1) {
+            return BeanId.createSingleton(schemaName);
+        }
+        return BeanId.create(ids.get(0).getValue(bean).toString(), schemaName);
+    }
+
+    private BeanId getRecursiveBeanId(Object bean) {
+        BeanId targetId = getBeanId(bean);
+        targetId.setBean(reflective(bean));
+        return targetId;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Runner.main(ObjectToBeanCaliperTest.class, new String[]{"-Dsize=1000"});
+    }
+}
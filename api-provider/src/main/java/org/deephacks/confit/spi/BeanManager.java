@@ -27,6 +27,7 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * <p>
@@ -348,4 +349,34 @@ public abstract class BeanManager implements Serializable {
      */
     public abstract BeanQuery newQuery(Schema schema);
 
+    /**
+     * <p>
+     * Get the version of the storage, which increase every time beans are changed.
+     * </p>
+     * <p>
+     * This method is optional for bean managers to implement.
+     * </p>
+     *
+     * @return current version, or -1 if the storage is not versioned.
+     */
+    public long getVersion() {
+        return -1;
+    }
+
+    /**
+     * <p>
+     * Get ids of beans that have been created, changed or deleted after a version,
+     * which allow caches that were filled at that version to catch up.
+     * </p>
+     * <p>
+     * This method is optional for bean managers to implement.
+     * </p>
+     *
+     * @param version a version returned by {@link #getVersion()}.
+     * @return ids of changed beans, absent if the changes are not known, like when
+     * the version is too old or belong to another storage.
+     */
+    public Optional<Set<BeanId>> getChangedSince(final long version) {
+        return Optional.absent();
+    }
 }
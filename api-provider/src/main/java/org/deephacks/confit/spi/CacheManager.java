@@ -132,6 +132,26 @@ public abstract class CacheManager<V> {
      */
     public abstract ConfigQuery newQuery(Schema schema);
 
+    /**
+     * Check if the cache already have all instances of a schema, like when they were
+     * restored from a snapshot, so that it need not be filled from the bean manager.
+     *
+     * @param schemaName schema to check
+     * @return true if the schema need not be filled.
+     */
+    public boolean isFilled(String schemaName) {
+        return false;
+    }
+
+    /**
+     * Called when every instance of a schema have been put into the cache, like
+     * after a warm-up, so that the cache can tell that the schema is filled.
+     *
+     * @param schemaName schema that was filled
+     */
+    public void markFilled(String schemaName) {
+    }
+
 
 
 }
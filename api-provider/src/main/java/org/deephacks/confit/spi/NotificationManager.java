@@ -1,6 +1,7 @@
 package org.deephacks.confit.spi;
 
-import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Predicate;
 import org.deephacks.confit.ConfigChanges;
 import org.deephacks.confit.ConfigChanges.ConfigChange;
 import org.deephacks.confit.ConfigObserver;
@@ -8,11 +9,15 @@ import org.deephacks.confit.model.Bean;
 import org.deephacks.confit.model.BeanId;
 import org.deephacks.confit.model.Events;
 
-import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CopyOnWriteArraySet;
 
 /**
  * Responsible for sending notifications to observers when configuration is
@@ -23,7 +28,10 @@ import java.util.Set;
 public abstract class NotificationManager {
     protected static final BeanManager beanManager = BeanManager.lookup();
     protected static final SchemaManager schemaManager = SchemaManager.lookup();
-    protected static final Set<ConfigObserver> observers = new HashSet<>();
+    /** observers of changes to all configurable classes */
+    protected static final Set<ConfigObserver> observers = new CopyOnWriteArraySet<>();
+    /** observers of changes to specific configurable classes */
+    protected static final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
 
     private static Lookup lookup = Lookup.get();
 
@@ -45,6 +53,35 @@ public abstract class NotificationManager {
         observers.add(observer);
     }
 
+    /**
+     * Register an observer interested in state changes of a specific configurable
+     * class that are accepted by a filter. Changes of other classes are not converted
+     * into objects on behalf of this observer.
+     *
+     * @param observer the instance to receive notifications
+     * @param configurable class of changes to receive
+     * @param filter accept changes to receive
+     */
+    public <T> void register(ConfigObserver observer, Class<T> configurable,
+                             Predicate<ConfigChange<T>> filter) {
+        subscriptions.add(new Subscription(observer, configurable, filter));
+    }
+
+    /**
+     * Remove an observer, including subscriptions of the observer to specific
+     * configurable classes.
+     *
+     * @param observer the instance that should not receive notifications
+     */
+    public void unregister(ConfigObserver observer) {
+        observers.remove(observer);
+        for (Subscription subscription : subscriptions) {
+            if (subscription.getObserver().equals(observer)) {
+                subscriptions.remove(subscription);
+            }
+        }
+    }
+
     /**
      * Called after configuration changes have been validated, committed to
      * storage and cached. The NotificationManager should send notifications to
@@ -71,7 +108,9 @@ public abstract class NotificationManager {
     }
 
     /**
-     * Create a changes object from a delete operation.
+     * Create a changes object from a delete operation. Before-images are fetched in
+     * one call to the bean manager. The changes object is empty if the schema have
+     * no observers, but instances are still checked to exist.
      *
      * @param schemaName schemaName of deleted instances
      * @param instanceIds id of deleted instances
@@ -79,14 +118,22 @@ public abstract class NotificationManager {
      */
     public final ConfigChanges deleted(String schemaName, Collection<String> instanceIds) {
         ConfigChanges changes = new ConfigChanges();
+        Map<BeanId, Bean> before = beanManager.list(schemaName, instanceIds);
+        List<Bean> beans = new ArrayList<>();
         for (String instanceId : instanceIds) {
             BeanId id = BeanId.create(instanceId, schemaName);
-            Optional<Bean> before = beanManager.getEager(id);
-            if (!before.isPresent()) {
+            Bean bean = before.get(id);
+            if (bean == null) {
                 throw Events.CFG304_BEAN_DOESNT_EXIST(id);
             }
-            Bean bean = before.get();
-            schemaManager.setSchema(Arrays.asList(bean));
+            beans.add(bean);
+        }
+        if (!isObserved(schemaName)) {
+            return changes;
+        }
+        initializeReferences(beans);
+        schemaManager.setSchema(beans);
+        for (Bean bean : beans) {
             changes.add(ConfigChange.deleted(bean));
         }
         return changes;
@@ -106,22 +153,161 @@ public abstract class NotificationManager {
     }
 
     /**
-     * Create a changes object from an update operation.
+     * Create a changes object from an update operation. Before-images are fetched
+     * with one call to the bean manager per schema and all instances are checked to
+     * exist. Changes of schemas that have no observers are left out of the changes
+     * object.
      *
      * @param after state after the update have been made
      * @return changes object
      */
     public final ConfigChanges updated(Collection<Bean> after) {
         ConfigChanges changes = new ConfigChanges();
+        // schemaName -> instance ids
+        Map<String, List<String>> ids = new HashMap<>();
+        for (Bean bean : after) {
+            BeanId id = bean.getId();
+            List<String> instanceIds = ids.get(id.getSchemaName());
+            if (instanceIds == null) {
+                instanceIds = new ArrayList<>();
+                ids.put(id.getSchemaName(), instanceIds);
+            }
+            instanceIds.add(id.getInstanceId());
+        }
+        Map<BeanId, Bean> before = new HashMap<>();
+        for (Map.Entry<String, List<String>> entry : ids.entrySet()) {
+            before.putAll(beanManager.list(entry.getKey(), entry.getValue()));
+        }
         for (Bean bean : after) {
-            Optional<Bean> optional = beanManager.getEager(bean.getId());
-            if (!optional.isPresent()) {
+            if (!before.containsKey(bean.getId())) {
                 throw Events.CFG304_BEAN_DOESNT_EXIST(bean.getId());
             }
-            Bean before = optional.get();
-            schemaManager.setSchema(Arrays.asList(before));
-            changes.add(ConfigChange.updated(before, bean));
+        }
+        if (!hasObservers()) {
+            return changes;
+        }
+        Set<String> observed = new HashSet<>();
+        List<Bean> beans = new ArrayList<>();
+        for (String schemaName : ids.keySet()) {
+            if (!isObserved(schemaName)) {
+                continue;
+            }
+            observed.add(schemaName);
+            for (String instanceId : ids.get(schemaName)) {
+                beans.add(before.get(BeanId.create(instanceId, schemaName)));
+            }
+        }
+        initializeReferences(beans);
+        schemaManager.setSchema(beans);
+        for (Bean bean : after) {
+            if (observed.contains(bean.getId().getSchemaName())) {
+                changes.add(ConfigChange.updated(before.get(bean.getId()), bean));
+            }
         }
         return changes;
     }
+
+    /**
+     * Fetch references of before-images, since not every bean manager traverse
+     * references of beans listed by id. References are fetched level by level with
+     * one call to the bean manager per schema, and each bean is only fetched once.
+     */
+    private static void initializeReferences(Collection<Bean> beans) {
+        // reference -> fetched bean, null values for references that were not found
+        Map<BeanId, Bean> fetched = new HashMap<>();
+        Collection<Bean> unresolved = beans;
+        while (!unresolved.isEmpty()) {
+            // schema name -> instance ids of references that have not been fetched
+            Map<String, Set<String>> missing = new HashMap<>();
+            for (Bean bean : unresolved) {
+                for (BeanId ref : bean.getReferences()) {
+                    if (ref.getBean() != null || fetched.containsKey(ref)) {
+                        continue;
+                    }
+                    fetched.put(ref, null);
+                    Set<String> ids = missing.get(ref.getSchemaName());
+                    if (ids == null) {
+                        ids = new HashSet<>();
+                        missing.put(ref.getSchemaName(), ids);
+                    }
+                    ids.add(ref.getInstanceId());
+                }
+            }
+            List<Bean> next = new ArrayList<>();
+            for (Map.Entry<String, Set<String>> entry : missing.entrySet()) {
+                Map<BeanId, Bean> found = beanManager.list(entry.getKey(), entry.getValue());
+                fetched.putAll(found);
+                next.addAll(found.values());
+            }
+            for (Bean bean : unresolved) {
+                for (BeanId ref : bean.getReferences()) {
+                    if (ref.getBean() == null && fetched.get(ref) != null) {
+                        ref.setBean(fetched.get(ref));
+                    }
+                }
+            }
+            unresolved = next;
+        }
+    }
+
+    /**
+     * @return true if there are observers registered that should be notified.
+     */
+    protected boolean hasObservers() {
+        return !observers.isEmpty() || !subscriptions.isEmpty();
+    }
+
+    /**
+     * @return true if there are observers registered for changes of a schema.
+     */
+    protected boolean isObserved(String schemaName) {
+        if (!observers.isEmpty()) {
+            return true;
+        }
+        if (subscriptions.isEmpty()) {
+            return false;
+        }
+        String className = schemaManager.getSchema(schemaName).getType();
+        for (Subscription subscription : subscriptions) {
+            if (subscription.getClassName().equals(className)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * An observer subscribed to changes of a configurable class.
+     */
+    protected static final class Subscription {
+        private final ConfigObserver observer;
+        private final String className;
+        private final Predicate<ConfigChange<?>> filter;
+
+        @SuppressWarnings("unchecked")
+        private Subscription(ConfigObserver observer, Class<?> configurable, Predicate<?> filter) {
+            this.observer = Preconditions.checkNotNull(observer);
+            this.className = configurable.getName();
+            this.filter = (Predicate<ConfigChange<?>>) Preconditions.checkNotNull(filter);
+        }
+
+        public ConfigObserver getObserver() {
+            return observer;
+        }
+
+        /**
+         * @return name of the configurable class.
+         */
+        public String getClassName() {
+            return className;
+        }
+
+        /**
+         * @param change a change of the configurable class converted into objects.
+         * @return true if the filter accept the change.
+         */
+        public boolean accept(ConfigChange<?> change) {
+            return filter.apply(change);
+        }
+    }
 }
@@ -14,6 +14,9 @@
 package org.deephacks.confit;
 
 import com.google.common.base.Optional;
+import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
+import org.deephacks.confit.ConfigChanges.ConfigChange;
 import org.deephacks.confit.query.ConfigQuery;
 import org.deephacks.confit.query.ConfigQueryBuilder;
 
@@ -148,4 +151,34 @@ public abstract class ConfigContext {
      */
     public abstract void registerObserver(ConfigObserver observer);
 
+    /**
+     * Register an observer of changes to a specific configurable class. The
+     * observer is only notified when instances of this class change and instances
+     * of other classes are not converted on its behalf.
+     *
+     * @param observer class of the observer.
+     * @param configurable {@link Config} class.
+     * @param <T> Configurable type
+     */
+    public <T> void registerObserver(ConfigObserver observer, Class<T> configurable) {
+        registerObserver(observer, configurable, Predicates.<ConfigChange<T>>alwaysTrue());
+    }
+
+    /**
+     * Register an observer of changes to a specific configurable class that are
+     * accepted by a filter. The observer is only notified of accepted changes.
+     * <p>
+     * Contexts that do not support filtering register the observer for all
+     * changes, which observers can narrow with {@link ConfigChanges#getChanges(Class)}.
+     *
+     * @param observer class of the observer.
+     * @param configurable {@link Config} class.
+     * @param filter accept changes that the observer should be notified of.
+     * @param <T> Configurable type
+     */
+    public <T> void registerObserver(ConfigObserver observer, Class<T> configurable,
+                                     Predicate<ConfigChange<T>> filter) {
+        registerObserver(observer);
+    }
+
 }
@@ -30,4 +30,26 @@ import java.lang.annotation.Target;
 @Target({ ElementType.TYPE, ElementType.FIELD })
 @Inherited
 public @interface Index {
+    /**
+     * Kind of index that is kept for the field, which should be chosen from how the
+     * field is queried.
+     *
+     * @return kind of index.
+     */
+    Kind value() default Kind.NAVIGABLE;
+
+    /**
+     * Kinds of indexes and the queries that each of them serve. Queries that an index
+     * does not serve are still answered, but by scanning all instances.
+     */
+    enum Kind {
+        /** equals and in queries, for any type of field */
+        HASH,
+        /** equals, in, greater than, less than and between queries, for comparable fields */
+        NAVIGABLE,
+        /** equals, in and contains queries, for String fields */
+        SUFFIX,
+        /** equals and in queries, for fields that have a distinct value in each instance */
+        UNIQUE
+    }
 }
@@ -3,6 +3,9 @@ package org.deephacks.confit.query;
 
 import org.deephacks.confit.query.ConfigQueryBuilder.Restriction;
 
+import java.util.Map;
+import java.util.Set;
+
 /**
  * Used for retrieving configurable instances by composing <tt>Criterion</tt>
  * objects that scan indexed fields.
@@ -25,6 +28,35 @@ public interface ConfigQuery<T> {
      */
     public abstract ConfigQuery<T> add(Restriction restriction);
 
+    /**
+     * Order the result set by the values of a field, instances that do not have a
+     * value come last. The field must be indexed and have a single value.
+     *
+     * Fields that have a navigable index are ordered by the index, which only
+     * evaluate the instances that are iterated.
+     *
+     * @param property field to order by.
+     * @param order ascending or descending.
+     * @return ConfigQuery
+     */
+    public ConfigQuery<T> orderBy(String property, Order order);
+
+    /**
+     * Skip a number of instances at the start of the result set.
+     *
+     * @param offset number of instances to skip, none by default.
+     * @return ConfigQuery
+     */
+    public ConfigQuery<T> offset(int offset);
+
+    /**
+     * Set the maximum number of instances in the result set.
+     *
+     * @param limit max number of instances (all by default)
+     * @return ConfigQuery
+     */
+    public ConfigQuery<T> limit(int limit);
+
     /**
      * Execute the query and retrieve a lazy evaluated result set.
      *
@@ -32,4 +64,92 @@ public interface ConfigQuery<T> {
      */
     public ConfigResultSet<T> retrieve();
 
+    /**
+     * Execute the query and retrieve a lazy evaluated result set of the instance ids of
+     * matching instances, in the order and page of the query. Instances are never fetched.
+     *
+     * @return result set of instance ids.
+     */
+    public ConfigResultSet<String> retrieveIds();
+
+    /**
+     * Execute the query and retrieve a lazy evaluated result set of the values of
+     * indexed fields of matching instances, in the order and page of the query.
+     * Values are read from the index and instances are never fetched. References are
+     * given as instance ids.
+     *
+     * @param properties indexed fields to select.
+     * @return result set of field name -> value, in the order of the fields. Fields that
+     * do not have a value are mapped to null.
+     */
+    public ConfigResultSet<Map<String, Object>> select(String... properties);
+
+    /**
+     * Prepare the query to be retrieved many times with different values of its
+     * parameters, see {@link ConfigQueryBuilder#param(String)}. Fields of the query
+     * are resolved and parts of the query that do not have parameters are built
+     * once, instead of every time the query is composed.
+     *
+     * A prepared query can be retrieved concurrently. Queries that have parameters
+     * must be prepared, other methods of this interface that execute the query
+     * throw IllegalArgumentException if the query has parameters.
+     *
+     * @return prepared query.
+     */
+    public PreparedConfigQuery<T> prepare();
+
+    /**
+     * Count the instances that match the query.
+     *
+     * Aggregations are answered from indexed values alone, instances are never
+     * fetched. Order, offset and limit are ignored.
+     *
+     * @return number of matching instances.
+     */
+    public long count();
+
+    /**
+     * Find the smallest value of an indexed field among instances that match the query.
+     * Fields that have a navigable index are read from the index.
+     *
+     * @param property field to aggregate.
+     * @return smallest value, or null if no matching instance have a value.
+     */
+    public <A> A min(String property);
+
+    /**
+     * Find the largest value of an indexed field among instances that match the query.
+     * Fields that have a navigable index are read from the index.
+     *
+     * @param property field to aggregate.
+     * @return largest value, or null if no matching instance have a value.
+     */
+    public <A> A max(String property);
+
+    /**
+     * Collect the distinct values of an indexed field among instances that match
+     * the query. Each value of fields that have multiple values is collected.
+     *
+     * @param property field to aggregate.
+     * @return distinct values.
+     */
+    public Set<Object> distinct(String property);
+
+    /**
+     * Count the instances that match the query for each value of an indexed field.
+     * Instances are counted once for each value of fields that have multiple values,
+     * and instances that do not have a value are not counted.
+     *
+     * @param property field to group by.
+     * @return value -> number of instances.
+     */
+    public Map<Object, Long> groupBy(String property);
+
+    /**
+     * Order of a result set.
+     */
+    public static enum Order {
+        ASC, DESC
+    }
+
 }
@@ -24,6 +24,30 @@ public class ConfigQueryBuilder {
         return new StringContains(property, value);
     }
 
+    /**
+     * Query which asserts that a property contains a string that is given when
+     * a prepared query is retrieved.
+     *
+     * @param property field to query
+     * @param parameter parameter that give the value to query for
+     * @return restriction to be added to {@link ConfigQuery}.
+     */
+    public static Restriction contains(String property, Parameter parameter) {
+        return new StringContains(property, parameter);
+    }
+
+    /**
+     * A placeholder for a value that is given each time a prepared query is retrieved,
+     * see {@link ConfigQuery#prepare()}. Parameters can be used as values of any
+     * restriction. A parameter of an in restriction can be given a collection of values.
+     *
+     * @param name name of the parameter
+     * @return parameter to use as a value of a restriction.
+     */
+    public static Parameter param(String name) {
+        return new Parameter(name);
+    }
+
     /**
      * Query which asserts that a property equals certain value.
      *
@@ -144,15 +168,28 @@ public class ConfigQueryBuilder {
 
     public static class StringContains extends PropertyRestriction {
         private String value;
+        private Parameter parameter;
 
         public StringContains(String property, String value) {
             super(property);
             this.value = value;
         }
 
+        public StringContains(String property, Parameter parameter) {
+            super(property);
+            this.parameter = parameter;
+        }
+
         public String getValue() {
             return value;
         }
+
+        /**
+         * @return parameter that give the value, or null if the value is given.
+         */
+        public Parameter getParameter() {
+            return parameter;
+        }
     }
 
     public static class Equals extends PropertyRestriction {
@@ -231,6 +268,45 @@ public class ConfigQueryBuilder {
         }
     }
 
+    /**
+     * Parameters are comparable only so that they can be given to restrictions of
+     * comparable values.
+     */
+    public static final class Parameter implements Comparable<Parameter> {
+        private final String name;
+
+        public Parameter(String name) {
+            if (name == null) {
+                throw new IllegalArgumentException("name must not be null");
+            }
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public int compareTo(Parameter o) {
+            return name.compareTo(o.name);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Parameter && name.equals(((Parameter) o).name);
+        }
+
+        @Override
+        public int hashCode() {
+            return name.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return ":" + name;
+        }
+    }
+
     public static abstract class LogicalRestriction implements Restriction {
         private List<Restriction> restrictions;
 
@@ -0,0 +1,73 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deephacks.confit.query;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A query that has been prepared once and is retrieved many times with different
+ * values of its parameters. Every method of {@link ConfigQuery} that execute the
+ * query has a variant here that take values of the parameters, since the methods of
+ * ConfigQuery reject queries that have parameters.
+ *
+ * @see {@link ConfigQuery#prepare()}
+ * @param <T> type of configurable instances
+ */
+public interface PreparedConfigQuery<T> {
+    /**
+     * Execute the query with values of its parameters and retrieve a lazy evaluated
+     * result set.
+     *
+     * @param parameters parameter name -> value, every parameter of the query must
+     *                   have a value.
+     * @return result set.
+     */
+    public ConfigResultSet<T> retrieve(Map<String, ?> parameters);
+
+    /**
+     * @see ConfigQuery#retrieveIds()
+     */
+    public ConfigResultSet<String> retrieveIds(Map<String, ?> parameters);
+
+    /**
+     * @see ConfigQuery#select(String...)
+     */
+    public ConfigResultSet<Map<String, Object>> select(Map<String, ?> parameters, String... properties);
+
+    /**
+     * @see ConfigQuery#count()
+     */
+    public long count(Map<String, ?> parameters);
+
+    /**
+     * @see ConfigQuery#min(String)
+     */
+    public <A> A min(Map<String, ?> parameters, String property);
+
+    /**
+     * @see ConfigQuery#max(String)
+     */
+    public <A> A max(Map<String, ?> parameters, String property);
+
+    /**
+     * @see ConfigQuery#distinct(String)
+     */
+    public Set<Object> distinct(Map<String, ?> parameters, String property);
+
+    /**
+     * @see ConfigQuery#groupBy(String)
+     */
+    public Map<Object, Long> groupBy(Map<String, ?> parameters, String property);
+}
@@ -0,0 +1,438 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deephacks.confit.apt;
+
+import org.deephacks.confit.Config;
+import org.deephacks.confit.Id;
+import org.deephacks.confit.Index;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic.Kind;
+import javax.tools.FileObject;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardLocation;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Annotation processor that generate a SchemaRegistry for {@link Config} classes at
+ * compile time. One registry is generated for each package and registered as a java
+ * service provider.
+ * <p>
+ * Schemas are generated with the same rules as the reflective schema conversion. Classes
+ * that break these rules are left out of the registry so that the reflective conversion
+ * can report the error at runtime.
+ */
+@SupportedAnnotationTypes("org.deephacks.confit.Config")
+public class ConfigProcessor extends AbstractProcessor {
+    static final String REGISTRY_CLASS = "org.deephacks.confit.serialization.SchemaRegistry";
+    static final String REGISTRY_PREFIX = "ConfitSchemas_";
+    /** generated registries, accumulated over all rounds */
+    private final TreeSet<String> registries = new TreeSet<>();
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        if (roundEnv.processingOver()) {
+            writeResources();
+            return false;
+        }
+        // package -> binary class name -> generated schema method
+        TreeMap<String, TreeMap<String, String>> packages = new TreeMap<>();
+        for (Element element : roundEnv.getElementsAnnotatedWith(Config.class)) {
+            if (element.getKind() != ElementKind.CLASS) {
+                continue;
+            }
+            TypeElement type = (TypeElement) element;
+            String className = binaryName(type);
+            String method = schemaMethod(type);
+            if (method == null) {
+                processingEnv.getMessager().printMessage(Kind.NOTE, className
+                        + " is not supported by the annotation processor, its schema will be "
+                        + "created using reflection.", type);
+                continue;
+            }
+            String packageName = packageName(type);
+            TreeMap<String, String> classes = packages.get(packageName);
+            if (classes == null) {
+                classes = new TreeMap<>();
+                packages.put(packageName, classes);
+            }
+            classes.put(className, method);
+        }
+        for (Map.Entry<String, TreeMap<String, String>> entry : packages.entrySet()) {
+            writeRegistry(entry.getKey(), entry.getValue());
+        }
+        return false;
+    }
+
+    /**
+     * Generate a registry for the classes of a package. The name of the registry is derived
+     * from the classes it contain so that separate compilations, like main and test, does not
+     * generate registries that shadow each other.
+     */
+    private void writeRegistry(String packageName, TreeMap<String, String> classes) {
+        String simpleName = REGISTRY_PREFIX + Integer.toHexString(classes.keySet().hashCode());
+        String registryName = packageName.isEmpty() ? simpleName : packageName + "." + simpleName;
+        StringBuilder sb = new StringBuilder();
+        if (!packageName.isEmpty()) {
+            sb.append("package ").append(packageName).append(";\n\n");
+        }
+        sb.append("import org.deephacks.confit.model.Schema;\n");
+        sb.append("import org.deephacks.confit.model.Schema.SchemaId;\n");
+        sb.append("import org.deephacks.confit.model.Schema.SchemaProperty;\n");
+        sb.append("import org.deephacks.confit.model.Schema.SchemaPropertyList;\n");
+        sb.append("import org.deephacks.confit.model.Schema.SchemaPropertyRef;\n");
+        sb.append("import org.deephacks.confit.model.Schema.SchemaPropertyRefList;\n");
+        sb.append("import org.deephacks.confit.model.Schema.SchemaPropertyRefMap;\n\n");
+        sb.append("import java.util.ArrayList;\n\n");
+        sb.append("/**\n * Generated by ").append(ConfigProcessor.class.getName()).append(".\n */\n");
+        sb.append("public final class ").append(simpleName).append(" extends ")
+                .append(REGISTRY_CLASS).append(" {\n\n");
+        sb.append("    public ").append(simpleName).append("() {\n        super(");
+        String separator = "";
+        for (String className : classes.keySet()) {
+            sb.append(separator).append(literal(className));
+            separator = ",\n              ";
+        }
+        sb.append(");\n    }\n\n");
+        sb.append("    @Override\n    protected Schema create(Class<?> cls) {\n");
+        sb.append("        String name = cls.getName();\n");
+        int i = 0;
+        for (String className : classes.keySet()) {
+            sb.append("        if (").append(literal(className)).append(".equals(name)) {\n");
+            sb.append("            return create").append(i++).append("(cls);\n        }\n");
+        }
+        sb.append("        return null;\n    }\n");
+        i = 0;
+        for (String method : classes.values()) {
+            sb.append("\n    private static Schema create").append(i++).append("(Class<?> cls) {\n");
+            sb.append(method);
+            sb.append("    }\n");
+        }
+        sb.append("}\n");
+        try {
+            JavaFileObject file = processingEnv.getFiler().createSourceFile(registryName);
+            try (Writer writer = file.openWriter()) {
+                writer.write(sb.toString());
+            }
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Kind.ERROR, "Could not write " + registryName
+                    + ": " + e.getMessage());
+            return;
+        }
+        registries.add(registryName);
+    }
+
+    private void writeResources() {
+        if (registries.isEmpty()) {
+            return;
+        }
+        writeResource("META-INF/services/" + REGISTRY_CLASS, registries);
+    }
+
+    private void writeResource(String name, Set<String> lines) {
+        try {
+            FileObject file = processingEnv.getFiler()
+                    .createResource(StandardLocation.CLASS_OUTPUT, "", name);
+            try (Writer writer = file.openWriter()) {
+                for (String line : lines) {
+                    writer.write(line);
+                    writer.write('\n');
+                }
+            }
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Kind.ERROR, "Could not write " + name
+                    + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Generate the body of a method that create the schema of a class, mirroring
+     * ClassToSchemaConverter and FieldToSchemaPropertyConverter.
+     *
+     * @return method body or null if the class is not supported.
+     */
+    private String schemaMethod(TypeElement type) {
+        Config config = type.getAnnotation(Config.class);
+        String className = binaryName(type);
+        Map<String, VariableElement> fields = findFields(type);
+        StringBuilder sb = new StringBuilder();
+        sb.append("        Defaults defaults = defaults(cls);\n");
+
+        List<VariableElement> ids = new ArrayList<>();
+        for (VariableElement field : fields.values()) {
+            if (field.getAnnotation(Id.class) != null) {
+                ids.add(field);
+            }
+        }
+        String schemaId;
+        if (ids.size() == 0) {
+            schemaId = "SchemaId.create(" + literal(config.name()) + ", "
+                    + literal(config.desc()) + ", true)";
+        } else if (ids.size() == 1) {
+            VariableElement id = ids.get(0);
+            boolean isStatic = id.getModifiers().contains(Modifier.STATIC);
+            boolean isFinal = id.getModifiers().contains(Modifier.FINAL);
+            if (isStatic != isFinal) {
+                return null;
+            }
+            Id anno = id.getAnnotation(Id.class);
+            String name = anno.name();
+            if (name == null || "".equals(name)) {
+                name = id.getSimpleName().toString();
+            }
+            schemaId = "SchemaId.create(" + literal(name) + ", " + literal(anno.desc()) + ", false)";
+        } else {
+            return null;
+        }
+        String schemaName = config.name();
+        if (schemaName == null || "".equals(schemaName)) {
+            schemaName = className;
+        }
+        sb.append("        Schema schema = Schema.create(").append(schemaId).append(", ")
+                .append(literal(className)).append(", ").append(literal(schemaName)).append(", ")
+                .append(literal(config.desc())).append(");\n");
+
+        for (VariableElement field : fields.values()) {
+            Set<Modifier> modifiers = field.getModifiers();
+            if (modifiers.contains(Modifier.STATIC) && modifiers.contains(Modifier.FINAL)) {
+                continue;
+            }
+            if (modifiers.contains(Modifier.TRANSIENT)) {
+                continue;
+            }
+            if (modifiers.contains(Modifier.STATIC)) {
+                return null;
+            }
+            String property = propertyStatement(field);
+            if (property == null) {
+                return null;
+            }
+            sb.append("        schema.add(").append(property).append(");\n");
+        }
+        sb.append("        return schema;\n");
+        return sb.toString();
+    }
+
+    private String propertyStatement(VariableElement field) {
+        Config config = field.getAnnotation(Config.class);
+        String fieldName = field.getSimpleName().toString();
+        String name = config == null ? fieldName : config.name();
+        String desc = config == null ? "" : config.desc();
+        if (name == null || "".equals(name)) {
+            name = fieldName;
+        }
+        boolean indexed = field.getAnnotation(Index.class) != null;
+        boolean isFinal = field.getModifiers().contains(Modifier.FINAL);
+        String declaringClass = binaryName((TypeElement) field.getEnclosingElement());
+        TypeMirror type = field.asType();
+        String common = literal(name) + ", " + literal(fieldName) + ", ";
+        String flags = literal(desc) + ", " + isFinal;
+
+        if (isSubtype(type, "java.util.Map")) {
+            List<TypeElement> params = typeArguments(type);
+            if (params == null || params.size() != 2) {
+                return null;
+            }
+            if (!params.get(0).getQualifiedName().contentEquals("java.lang.String")
+                    || params.get(1).getAnnotation(Config.class) == null) {
+                return null;
+            }
+            TypeElement ref = params.get(1);
+            return "SchemaPropertyRefMap.create(" + common + literal(schemaName(ref)) + ", "
+                    + load(ref) + ", " + flags + ", " + literal(rawName(type)) + ", " + indexed + ")";
+        }
+        if (type.getKind() == TypeKind.ARRAY) {
+            return null;
+        }
+        if (isSubtype(type, "java.util.Collection")) {
+            List<TypeElement> params = typeArguments(type);
+            if (params == null || params.size() != 1) {
+                return null;
+            }
+            TypeElement element = params.get(0);
+            String elementName = binaryName(element);
+            if (element.getAnnotation(Config.class) != null) {
+                return "SchemaPropertyRefList.create(" + common + literal(schemaName(element)) + ", "
+                        + load(element) + ", " + flags + ", " + literal(rawName(type)) + ", "
+                        + indexed + ")";
+            }
+            return "SchemaPropertyList.create(" + common + literal(elementName) + ", " + flags
+                    + ", " + enums(element) + ", defaults.values(" + literal(declaringClass) + ", "
+                    + literal(fieldName) + ", " + literal(name) + ", " + literal(elementName)
+                    + "), " + literal(rawName(type)) + ", " + indexed + ")";
+        }
+        String typeName;
+        if (type.getKind().isPrimitive()) {
+            typeName = type.toString();
+        } else if (type.getKind() == TypeKind.DECLARED) {
+            TypeElement element = (TypeElement) ((DeclaredType) type).asElement();
+            if (element.getAnnotation(Config.class) != null) {
+                return "SchemaPropertyRef.create(" + common + literal(schemaName(element)) + ", "
+                        + load(element) + ", " + flags + ", " + isSingleton(element) + ", "
+                        + indexed + ")";
+            }
+            typeName = binaryName(element);
+            return "SchemaProperty.create(" + common + literal(typeName) + ", " + flags + ", "
+                    + enums(element) + ", defaults.value(" + literal(declaringClass) + ", "
+                    + literal(fieldName) + ", " + literal(name) + "), " + indexed + ")";
+        } else {
+            // type variables and other constructs are left to reflection
+            return null;
+        }
+        return "SchemaProperty.create(" + common + literal(typeName) + ", " + flags
+                + ", new ArrayList<String>(), defaults.value(" + literal(declaringClass) + ", "
+                + literal(fieldName) + ", " + literal(name) + "), " + indexed + ")";
+    }
+
+    /**
+     * Find all fields of a class and its superclasses. Fields of superclasses that have the
+     * same name as a field of a subclass are hidden.
+     */
+    private Map<String, VariableElement> findFields(TypeElement type) {
+        LinkedHashMap<String, VariableElement> fields = new LinkedHashMap<>();
+        TypeElement search = type;
+        while (search != null && !search.getQualifiedName().contentEquals("java.lang.Object")) {
+            for (VariableElement field : ElementFilter.fieldsIn(search.getEnclosedElements())) {
+                String name = field.getSimpleName().toString();
+                if (!fields.containsKey(name)) {
+                    fields.put(name, field);
+                }
+            }
+            TypeMirror superclass = search.getSuperclass();
+            if (superclass.getKind() != TypeKind.DECLARED) {
+                break;
+            }
+            search = (TypeElement) ((DeclaredType) superclass).asElement();
+        }
+        return fields;
+    }
+
+    /**
+     * @return classes of the type arguments or null if any argument is not a plain class.
+     */
+    private List<TypeElement> typeArguments(TypeMirror type) {
+        if (type.getKind() != TypeKind.DECLARED) {
+            return null;
+        }
+        List<TypeElement> result = new ArrayList<>();
+        for (TypeMirror arg : ((DeclaredType) type).getTypeArguments()) {
+            if (arg.getKind() != TypeKind.DECLARED || !((DeclaredType) arg).getTypeArguments().isEmpty()) {
+                return null;
+            }
+            result.add((TypeElement) ((DeclaredType) arg).asElement());
+        }
+        return result;
+    }
+
+    private boolean isSubtype(TypeMirror type, String className) {
+        TypeElement element = processingEnv.getElementUtils().getTypeElement(className);
+        if (element == null || type.getKind() != TypeKind.DECLARED) {
+            return false;
+        }
+        return processingEnv.getTypeUtils().isAssignable(
+                processingEnv.getTypeUtils().erasure(type),
+                processingEnv.getTypeUtils().erasure(element.asType()));
+    }
+
+    private boolean isSingleton(TypeElement type) {
+        for (VariableElement field : findFields(type).values()) {
+            if (field.getAnnotation(Id.class) != null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String schemaName(TypeElement type) {
+        String schemaName = type.getAnnotation(Config.class).name();
+        if (schemaName == null || "".equals(schemaName)) {
+            schemaName = binaryName(type);
+        }
+        return schemaName;
+    }
+
+    private String enums(TypeElement type) {
+        if (type.getKind() != ElementKind.ENUM) {
+            return "new ArrayList<String>()";
+        }
+        return "enums(cls, " + literal(binaryName(type)) + ")";
+    }
+
+    private String load(TypeElement type) {
+        return "load(cls, " + literal(binaryName(type)) + ")";
+    }
+
+    private String rawName(TypeMirror type) {
+        return binaryName((TypeElement) ((DeclaredType) type).asElement());
+    }
+
+    private String binaryName(TypeElement type) {
+        return processingEnv.getElementUtils().getBinaryName(type).toString();
+    }
+
+    private String packageName(TypeElement type) {
+        PackageElement pkg = processingEnv.getElementUtils().getPackageOf(type);
+        return pkg.isUnnamed() ? "" : pkg.getQualifiedName().toString();
+    }
+
+    static String literal(String value) {
+        if (value == null) {
+            return "null";
+        }
+        StringBuilder sb = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    if (c < 0x20 || c > 0x7e) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        return sb.append('"').toString();
+    }
+}
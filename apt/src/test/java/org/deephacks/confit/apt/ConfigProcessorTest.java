@@ -0,0 +1,208 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deephacks.confit.apt;
+
+import com.google.common.base.Optional;
+import com.google.common.io.Files;
+import org.deephacks.confit.Config;
+import org.deephacks.confit.model.ClassLoaderHolder;
+import org.deephacks.confit.model.Schema;
+import org.deephacks.confit.model.Schema.AbstractSchemaProperty;
+import org.deephacks.confit.model.Schema.SchemaProperty;
+import org.deephacks.confit.model.Schema.SchemaPropertyList;
+import org.deephacks.confit.model.Schema.SchemaPropertyRef;
+import org.deephacks.confit.model.Schema.SchemaPropertyRefList;
+import org.deephacks.confit.model.Schema.SchemaPropertyRefMap;
+import org.deephacks.confit.serialization.Conversion;
+import org.deephacks.confit.serialization.SchemaRegistry;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import javax.tools.JavaCompiler;
+import javax.tools.JavaCompiler.CompilationTask;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.ServiceLoader;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compile configurable classes with the annotation processor and check that generated
+ * schemas are identical to schemas created using reflection.
+ */
+public class ConfigProcessorTest {
+    private static final String PACKAGE = "org.deephacks.confit.apt.sample";
+    private static final String[][] SOURCES = {
+            {"Parent", "package " + PACKAGE + ";\n"
+                    + "import org.deephacks.confit.*;\n"
+                    + "import java.util.*;\n"
+                    + "import java.util.concurrent.TimeUnit;\n"
+                    + "@Config(name = \"parent\", desc = \"a \\\"quoted\\\" desc\")\n"
+                    + "public class Parent {\n"
+                    + "  public enum Color { RED, GREEN }\n"
+                    + "  static final String CONSTANT = \"constant\";\n"
+                    + "  @Id(desc = \"parent id\") String id;\n"
+                    + "  @Config(desc = \"string\") String s = \"default\";\n"
+                    + "  @Config(name = \"integer\") int i = 7;\n"
+                    + "  final Long l = 3L;\n"
+                    + "  transient int ignored;\n"
+                    + "  @Index @Config Integer indexed;\n"
+                    + "  @Config List<String> list = new ArrayList<>(Arrays.asList(\"a\", \"b\"));\n"
+                    + "  @Config Set<TimeUnit> units = new HashSet<>(Arrays.asList(TimeUnit.SECONDS));\n"
+                    + "  @Config Color color = Color.RED;\n"
+                    + "  @Config(desc = \"child\") Child child;\n"
+                    + "  @Config List<Child> children;\n"
+                    + "  @Config Map<String, Child> childMap;\n"
+                    + "  @Config Single single;\n"
+                    + "}\n"},
+            {"Child", "package " + PACKAGE + ";\n"
+                    + "import org.deephacks.confit.*;\n"
+                    + "@Config\n"
+                    + "public class Child {\n"
+                    + "  @Id String id;\n"
+                    + "  @Config Double d = 1.0;\n"
+                    + "}\n"},
+            {"Single", "package " + PACKAGE + ";\n"
+                    + "import org.deephacks.confit.*;\n"
+                    + "@Config(name = \"single\", desc = \"singleton\")\n"
+                    + "public class Single {\n"
+                    + "  @Config char c = 'x';\n"
+                    + "}\n"},
+            {"Sub", "package " + PACKAGE + ";\n"
+                    + "import org.deephacks.confit.*;\n"
+                    + "@Config(name = \"sub\")\n"
+                    + "public class Sub extends Parent {\n"
+                    + "  @Config String extra = \"extra\";\n"
+                    + "}\n"},
+            {"Unsupported", "package " + PACKAGE + ";\n"
+                    + "import org.deephacks.confit.*;\n"
+                    + "@Config(name = \"unsupported\")\n"
+                    + "public class Unsupported {\n"
+                    + "  @Config String[] array;\n"
+                    + "}\n"},
+    };
+    private static File dir;
+    private static URLClassLoader classLoader;
+    private static SchemaRegistry registry;
+
+    @BeforeClass
+    public static void compile() throws Exception {
+        dir = Files.createTempDir();
+        List<File> files = new ArrayList<>();
+        File pkg = new File(dir, PACKAGE.replace('.', File.separatorChar));
+        assertTrue(pkg.mkdirs());
+        for (String[] source : SOURCES) {
+            File file = new File(pkg, source[0] + ".java");
+            Files.write(source[1], file, Charset.forName("UTF-8"));
+            files.add(file);
+        }
+        String classpath = location(Config.class) + File.pathSeparator + location(SchemaRegistry.class)
+                + File.pathSeparator + location(Optional.class);
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        StandardJavaFileManager fileManager = compiler.getStandardFileManager(null, null, null);
+        Iterable<? extends JavaFileObject> units = fileManager.getJavaFileObjectsFromFiles(files);
+        CompilationTask task = compiler.getTask(null, fileManager, null,
+                Arrays.asList("-d", dir.getAbsolutePath(), "-s", dir.getAbsolutePath(),
+                        "-classpath", classpath), null, units);
+        task.setProcessors(Arrays.asList(new ConfigProcessor()));
+        assertTrue(task.call());
+        fileManager.close();
+
+        classLoader = new URLClassLoader(new URL[]{dir.toURI().toURL()},
+                ConfigProcessorTest.class.getClassLoader());
+        // schema properties resolve their types through the holder
+        ClassLoaderHolder.setClassLoader(classLoader);
+        List<SchemaRegistry> registries = new ArrayList<>();
+        for (SchemaRegistry registry : ServiceLoader.load(SchemaRegistry.class, classLoader)) {
+            registries.add(registry);
+        }
+        assertEquals(1, registries.size());
+        registry = registries.get(0);
+    }
+
+    @AfterClass
+    public static void cleanup() throws Exception {
+        ClassLoaderHolder.setClassLoader(ClassLoader.getSystemClassLoader());
+    }
+
+    @Test
+    public void test_generated_schemas() throws Exception {
+        for (String name : Arrays.asList("Parent", "Child", "Single", "Sub")) {
+            Class<?> cls = classLoader.loadClass(PACKAGE + "." + name);
+            Optional<Schema> generated = registry.getSchema(cls);
+            assertTrue(name, generated.isPresent());
+            assertSchema(Conversion.get().convert(cls, Schema.class), generated.get());
+        }
+    }
+
+    @Test
+    public void test_unsupported_class_left_to_reflection() throws Exception {
+        Class<?> cls = classLoader.loadClass(PACKAGE + ".Unsupported");
+        assertFalse(registry.getSchema(cls).isPresent());
+        assertFalse(registry.getClassNames().contains(cls.getName()));
+    }
+
+    @Test
+    public void test_service_registration() throws Exception {
+        File services = new File(dir, "META-INF/services/" + SchemaRegistry.class.getName());
+        List<String> registries = Files.readLines(services, Charset.forName("UTF-8"));
+        assertEquals(Arrays.asList(registry.getClass().getName()), registries);
+    }
+
+    private static void assertSchema(Schema expected, Schema generated) {
+        assertEquals(expected.getName(), generated.getName());
+        assertEquals(expected.getType(), generated.getType());
+        assertEquals(expected.getDesc(), generated.getDesc());
+        assertEquals(expected.getId(), generated.getId());
+        assertEquals(expected.getId().isSingleton(), generated.getId().isSingleton());
+        assertEquals(expected.getPropertyNames(), generated.getPropertyNames());
+        assertEquals(expected.getReferenceNames(), generated.getReferenceNames());
+        assertProperties(expected.get(SchemaProperty.class), generated.get(SchemaProperty.class));
+        assertProperties(expected.get(SchemaPropertyList.class), generated.get(SchemaPropertyList.class));
+        assertProperties(expected.get(SchemaPropertyRef.class), generated.get(SchemaPropertyRef.class));
+        assertProperties(expected.get(SchemaPropertyRefList.class), generated.get(SchemaPropertyRefList.class));
+        assertProperties(expected.get(SchemaPropertyRefMap.class), generated.get(SchemaPropertyRefMap.class));
+        assertProperties(expected.getIndexed(), generated.getIndexed());
+    }
+
+    private static void assertProperties(Set<? extends AbstractSchemaProperty> expected,
+                                         Set<? extends AbstractSchemaProperty> generated) {
+        assertEquals(expected, generated);
+        for (AbstractSchemaProperty property : expected) {
+            for (AbstractSchemaProperty other : generated) {
+                if (property.getName().equals(other.getName())) {
+                    assertEquals(property.toString(), other.toString());
+                    assertEquals(property.getClassType(), other.getClassType());
+                    assertEquals(property.isIndexed(), other.isIndexed());
+                }
+            }
+        }
+    }
+
+    private static String location(Class<?> cls) throws Exception {
+        return new File(cls.getProtectionDomain().getCodeSource().getLocation().toURI()).getAbsolutePath();
+    }
+}
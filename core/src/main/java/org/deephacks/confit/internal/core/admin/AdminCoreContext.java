@@ -18,6 +18,8 @@ import com.google.common.base.Preconditions;
 import org.deephacks.confit.ConfigChanges;
 import org.deephacks.confit.admin.AdminContext;
 import org.deephacks.confit.admin.query.BeanQuery;
+import org.deephacks.confit.internal.core.config.ConfigSnapshot;
+import org.deephacks.confit.internal.core.config.ConvertedObjectCache;
 import org.deephacks.confit.model.AbortRuntimeException;
 import org.deephacks.confit.model.Bean;
 import org.deephacks.confit.model.BeanId;
@@ -28,6 +30,7 @@ import org.deephacks.confit.model.Schema.SchemaPropertyRef;
 import org.deephacks.confit.spi.BeanManager;
 import org.deephacks.confit.spi.CacheManager;
 import org.deephacks.confit.spi.NotificationManager;
+import org.deephacks.confit.spi.PropertyManager;
 import org.deephacks.confit.spi.SchemaManager;
 import org.deephacks.confit.spi.ValidationManager;
 
@@ -36,8 +39,10 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import static org.deephacks.confit.model.Events.CFG301_MISSING_RUNTIME_REF;
@@ -54,6 +59,7 @@ public final class AdminCoreContext extends AdminContext {
     private NotificationManager notificationManager;
     private Optional<CacheManager> cacheManager;
     private Optional<ValidationManager> validationManager;
+    private int bulkChunkSize = BulkImport.DEFAULT_CHUNK_SIZE;
 
     @Override
     public List<Bean> list(String schemaName) {
@@ -149,12 +155,51 @@ public final class AdminCoreContext extends AdminContext {
             validationManager.get().validate(objects);
         }
         beanManager.create(beans);
+        invalidateSnapshot(beans);
         if (cacheManager.isPresent()) {
             cacheManager.get().putAll(beans);
         }
         notificationManager.fireCreate(beans);
     }
 
+    @Override
+    public void createBulk(Collection<Bean> beans) {
+        if (beans == null || beans.isEmpty()) {
+            return;
+        }
+        doLookup();
+        beanManager.initializeReferences(beans);
+        schemaManager.setSchema(beans);
+        final ArrayList<Bean> created = new ArrayList<>();
+        try {
+            BulkImport.run(BulkImport.chunks(beans, bulkChunkSize), new BulkImport.Stage() {
+                @Override
+                public void apply(List<Bean> chunk) {
+                    schemaManager.validateSchema(chunk);
+                    if (validationManager.isPresent()) {
+                        Collection<Object> objects = schemaManager.convertBeans(chunk);
+                        validationManager.get().validate(objects);
+                    }
+                }
+            }, new BulkImport.Stage() {
+                @Override
+                public void apply(List<Bean> chunk) {
+                    beanManager.create(chunk);
+                    invalidateSnapshot(chunk);
+                    if (cacheManager.isPresent()) {
+                        cacheManager.get().putAll(chunk);
+                    }
+                    created.addAll(chunk);
+                }
+            });
+        } finally {
+            // notify observers of everything that was created, also on failure
+            if (!created.isEmpty()) {
+                notificationManager.fireCreate(created);
+            }
+        }
+    }
+
     @Override
     public void createObjects(Collection <?> objects) throws AbortRuntimeException {
         doLookup();
@@ -192,6 +237,7 @@ public final class AdminCoreContext extends AdminContext {
         schemaManager.setSchema(beans);
         ConfigChanges changes = notificationManager.updated(beans);
         beanManager.set(beans);
+        invalidateSnapshot(beans);
         if (cacheManager.isPresent()) {
             cacheManager.get().putAll(beans);
         }
@@ -234,6 +280,7 @@ public final class AdminCoreContext extends AdminContext {
         schemaManager.setSchema(beans);
         ConfigChanges changes = notificationManager.updated(beans);
         beanManager.merge(beans);
+        invalidateSnapshot(beans);
         if (cacheManager.isPresent()) {
             for (Bean bean : beans) {
                 // must refresh the bean from storage since it is merged.
@@ -268,6 +315,7 @@ public final class AdminCoreContext extends AdminContext {
         if (bean == null) {
             throw Events.CFG304_BEAN_DOESNT_EXIST(beanId);
         }
+        invalidateSnapshot(Arrays.asList(bean));
         if (cacheManager.isPresent()) {
             cacheManager.get().remove(beanId);
         }
@@ -290,6 +338,12 @@ public final class AdminCoreContext extends AdminContext {
         ConfigChanges changes = notificationManager.deleted(name, instances);
         Collection<Bean> beans = beanManager.delete(name, instances);
         schemaManager.setSchema(beans);
+        ConfigSnapshot.invalidate(Arrays.asList(name), schemaManager.getSchemas());
+        ArrayList<BeanId> ids = new ArrayList<>();
+        for (String instance : instances) {
+            ids.add(BeanId.create(instance, name));
+        }
+        ConvertedObjectCache.invalidate(ids);
 
         if (cacheManager.isPresent()) {
             cacheManager.get().remove(name, instances);
@@ -494,6 +548,20 @@ public final class AdminCoreContext extends AdminContext {
         }
     }
 
+    /**
+     * Must be called after beans have been written to the bean manager.
+     */
+    private void invalidateSnapshot(Collection<Bean> beans) {
+        Set<String> schemaNames = new HashSet<>();
+        ArrayList<BeanId> ids = new ArrayList<>();
+        for (Bean bean : beans) {
+            schemaNames.add(bean.getId().getSchemaName());
+            ids.add(bean.getId());
+        }
+        ConfigSnapshot.invalidate(schemaNames, schemaManager.getSchemas());
+        ConvertedObjectCache.invalidate(ids);
+    }
+
     private void doLookup() {
         if (LOOKUP_DONE.get()) {
             return;
@@ -503,6 +571,11 @@ public final class AdminCoreContext extends AdminContext {
         notificationManager = NotificationManager.lookup();
         cacheManager = CacheManager.lookup();
         validationManager = ValidationManager.lookup();
+        PropertyManager propertyManager = PropertyManager.lookup();
+        Optional<String> chunkSize = propertyManager.get(BulkImport.CHUNK_SIZE_PROP);
+        if (chunkSize.isPresent()) {
+            bulkChunkSize = Integer.parseInt(chunkSize.get());
+        }
         LOOKUP_DONE.set(true);
     }
 }
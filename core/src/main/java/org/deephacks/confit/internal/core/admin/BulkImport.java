@@ -0,0 +1,175 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deephacks.confit.internal.core.admin;
+
+import org.deephacks.confit.model.Bean;
+import org.deephacks.confit.model.BeanId;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Pipeline used by AdminCoreContext for bulk creation of beans.
+ * <p>
+ * Beans are ordered so that beans referenced within the import come first and are
+ * then split into chunks. Chunks are validated in parallel, a bounded number of chunks
+ * ahead of storage, while validated chunks are stored one at a time in order.
+ */
+final class BulkImport {
+    /** property for the number of beans stored per chunk */
+    public static final String CHUNK_SIZE_PROP = "confit.admin.bulk.chunksize";
+    static final int DEFAULT_CHUNK_SIZE = 1000;
+
+    private BulkImport() {
+    }
+
+    /**
+     * A stage that is applied on each chunk.
+     */
+    static interface Stage {
+        void apply(List<Bean> chunk);
+    }
+
+    /**
+     * Order beans so that beans referenced by other beans in the import come first and
+     * split them into chunks. Beans that reference each other in a cycle cannot be ordered
+     * and are put together in the last chunk, which may be larger than the chunk size.
+     */
+    static List<List<Bean>> chunks(Collection<Bean> beans, int chunkSize) {
+        ArrayList<Bean> indexed = new ArrayList<>(beans);
+        HashMap<BeanId, Integer> index = new HashMap<>();
+        for (int i = 0; i < indexed.size(); i++) {
+            index.put(indexed.get(i).getId(), i);
+        }
+        // number of unordered references of each bean and the beans that reference it
+        int[] unordered = new int[indexed.size()];
+        List<List<Integer>> successors = new ArrayList<>(indexed.size());
+        for (int i = 0; i < indexed.size(); i++) {
+            successors.add(null);
+        }
+        for (int i = 0; i < indexed.size(); i++) {
+            for (BeanId ref : indexed.get(i).getReferences()) {
+                Integer predecessor = index.get(ref);
+                if (predecessor == null || predecessor == i) {
+                    continue;
+                }
+                if (successors.get(predecessor) == null) {
+                    successors.set(predecessor, new ArrayList<Integer>());
+                }
+                successors.get(predecessor).add(i);
+                unordered[i]++;
+            }
+        }
+        ArrayDeque<Integer> ready = new ArrayDeque<>();
+        for (int i = 0; i < unordered.length; i++) {
+            if (unordered[i] == 0) {
+                ready.add(i);
+            }
+        }
+        boolean[] ordered = new boolean[indexed.size()];
+        List<List<Bean>> chunks = new ArrayList<>();
+        List<Bean> chunk = new ArrayList<>();
+        while (!ready.isEmpty()) {
+            int i = ready.poll();
+            ordered[i] = true;
+            chunk.add(indexed.get(i));
+            if (chunk.size() >= chunkSize) {
+                chunks.add(chunk);
+                chunk = new ArrayList<>();
+            }
+            if (successors.get(i) == null) {
+                continue;
+            }
+            for (int successor : successors.get(i)) {
+                if (--unordered[successor] == 0) {
+                    ready.add(successor);
+                }
+            }
+        }
+        for (int i = 0; i < ordered.length; i++) {
+            if (!ordered[i]) {
+                chunk.add(indexed.get(i));
+            }
+        }
+        if (!chunk.isEmpty()) {
+            chunks.add(chunk);
+        }
+        return chunks;
+    }
+
+    /**
+     * Validate chunks in parallel and store them in order. A chunk is only stored after
+     * it has been validated and all chunks before it have been stored. Nothing more is
+     * stored after the first failure, which is thrown to the caller.
+     */
+    static void run(List<List<Bean>> chunks, final Stage validate, Stage store) {
+        int threads = Math.min(Runtime.getRuntime().availableProcessors(), chunks.size());
+        if (threads <= 1) {
+            for (List<Bean> chunk : chunks) {
+                validate.apply(chunk);
+                store.apply(chunk);
+            }
+            return;
+        }
+        // bound the number of chunks validated ahead of storage
+        int window = threads * 2;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            ArrayDeque<Future<?>> validated = new ArrayDeque<>();
+            int next = 0;
+            for (List<Bean> chunk : chunks) {
+                while (next < chunks.size() && validated.size() < window) {
+                    final List<Bean> toValidate = chunks.get(next++);
+                    validated.add(executor.submit(new Callable<Void>() {
+                        @Override
+                        public Void call() {
+                            validate.apply(toValidate);
+                            return null;
+                        }
+                    }));
+                }
+                await(validated.poll());
+                store.apply(chunk);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void await(Future<?> future) {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+}
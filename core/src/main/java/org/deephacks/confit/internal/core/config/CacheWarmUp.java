@@ -0,0 +1,135 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deephacks.confit.internal.core.config;
+
+import org.deephacks.confit.model.Bean;
+import org.deephacks.confit.model.Schema;
+import org.deephacks.confit.spi.BeanManager;
+import org.deephacks.confit.spi.CacheManager;
+import org.deephacks.confit.spi.SchemaManager;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fill the cache and its query indexes with every bean of registered schemas,
+ * so that queries see all beans and not only those that happen to have been read
+ * or written since startup.
+ * <p>
+ * Schemas are filled in parallel and beans of each schema are put into the cache
+ * in chunks, which update the progress as they go. Schemas that the cache already
+ * have filled, like from a snapshot, are skipped.
+ */
+final class CacheWarmUp {
+    /**
+     * property that enable warm-up when schemas are registered, true or false. Disabled
+     * by default since registration wait until every bean have been read from storage.
+     */
+    static final String WARM_UP_PROP = "confit.cache.warmup";
+    /** property for the number of threads that fill the cache */
+    static final String THREADS_PROP = "confit.cache.warmup.threads";
+    /** number of beans put into the cache at a time */
+    static final int CHUNK_SIZE = 1000;
+    private static final AtomicInteger threadCount = new AtomicInteger();
+
+    private final BeanManager beanManager;
+    private final SchemaManager schemaManager;
+    private final CacheManager<?> cacheManager;
+    private final int threads;
+
+    CacheWarmUp(BeanManager beanManager, SchemaManager schemaManager, CacheManager<?> cacheManager, int threads) {
+        this.beanManager = beanManager;
+        this.schemaManager = schemaManager;
+        this.cacheManager = cacheManager;
+        this.threads = threads;
+    }
+
+    /**
+     * Fill the cache with beans of schemas and wait until done.
+     *
+     * @param progress progress of the schemas, updated as the cache is filled.
+     */
+    void warmUp(Collection<Schema> schemas, final WarmUpProgress progress) {
+        if (schemas.size() <= 1 || threads <= 1) {
+            for (Schema schema : schemas) {
+                warmUp(schema, progress);
+            }
+            return;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, schemas.size()),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "confit-cache-warmup-" + threadCount.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        try {
+            for (final Schema schema : schemas) {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        warmUp(schema, progress);
+                    }
+                });
+            }
+        } finally {
+            executor.shutdown();
+        }
+        try {
+            while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+                // keep waiting, progress can be observed from other threads
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void warmUp(Schema schema, WarmUpProgress progress) {
+        Throwable failure = null;
+        try {
+            if (cacheManager.isFilled(schema.getName())) {
+                return;
+            }
+            Collection<Bean> beans = beanManager.list(schema.getName()).values();
+            schemaManager.setSchema(beans);
+            List<Bean> chunk = new ArrayList<>(Math.min(CHUNK_SIZE, beans.size()));
+            for (Bean bean : beans) {
+                chunk.add(bean);
+                if (chunk.size() == CHUNK_SIZE) {
+                    cacheManager.putAll(chunk);
+                    progress.added(chunk.size());
+                    chunk.clear();
+                }
+            }
+            if (!chunk.isEmpty()) {
+                cacheManager.putAll(chunk);
+                progress.added(chunk.size());
+            }
+            cacheManager.markFilled(schema.getName());
+        } catch (Exception e) {
+            // the cache is filled on demand for schemas that fail
+            failure = e;
+        } finally {
+            progress.completed(schema.getName(), failure);
+        }
+    }
+}
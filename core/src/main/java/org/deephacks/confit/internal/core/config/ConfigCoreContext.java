@@ -14,6 +14,8 @@
 package org.deephacks.confit.internal.core.config;
 
 import com.google.common.base.Optional;
+import com.google.common.base.Predicate;
+import org.deephacks.confit.ConfigChanges.ConfigChange;
 import org.deephacks.confit.ConfigContext;
 import org.deephacks.confit.ConfigObserver;
 import org.deephacks.confit.model.AbortRuntimeException;
@@ -33,6 +35,7 @@ import javax.inject.Singleton;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -54,19 +57,50 @@ public final class ConfigCoreContext extends ConfigContext {
     private static HashMap<BeanId, Bean> FILE_CONFIG;
     private static final ThreadLocal<String> RECURSION_SHORTCIRCUIT = new ThreadLocal<>();
     private AtomicBoolean LOOKUP_DONE = new AtomicBoolean(false);
+    /** serve get/list from ConfigSnapshot */
+    private boolean snapshotReads = false;
+    /** fill the cache with beans of schemas when they are registered */
+    private boolean warmUp = false;
+    private int warmUpThreads = Runtime.getRuntime().availableProcessors();
+    private volatile WarmUpProgress warmUpProgress;
+
+    public ConfigCoreContext() {
+    }
+
+    ConfigCoreContext(boolean snapshotReads) {
+        this.snapshotReads = snapshotReads;
+    }
 
     @Override
     public void register(Class<?>... configurable) {
         doLookup();
         schemaManager.register(configurable);
+        invalidateSnapshot(configurable);
+        ConvertedObjectCache.clear();
         if (cacheManager.isPresent()) {
+            List<Schema> schemas = new ArrayList<>();
             for (Class<?> cls : configurable) {
                 Schema schema = schemaManager.getSchema(cls);
                 cacheManager.get().registerSchema(schema);
+                schemas.add(schema);
+            }
+            if (warmUp) {
+                CacheWarmUp cacheWarmUp = new CacheWarmUp(beanManager, schemaManager, cacheManager.get(), warmUpThreads);
+                // published before the warm-up so that progress can be followed
+                warmUpProgress = new WarmUpProgress(schemas.size());
+                cacheWarmUp.warmUp(schemas, warmUpProgress);
             }
         }
     }
 
+    /**
+     * @return progress of the last time the cache was filled with beans of registered
+     * schemas, absent if it never have been.
+     */
+    public Optional<WarmUpProgress> getWarmUpProgress() {
+        return Optional.fromNullable(warmUpProgress);
+    }
+
     @Override
     public void unregister(Class<?>... configurable) {
         doLookup();
@@ -75,7 +109,9 @@ public final class ConfigCoreContext extends ConfigContext {
             if (cacheManager.isPresent()) {
                 cacheManager.get().removeSchema(schema);
             }
+            ConfigSnapshot.invalidate(Arrays.asList(schema.getName()), schemaManager.getSchemas());
         }
+        ConvertedObjectCache.clear();
     }
 
     @Override
@@ -83,6 +119,19 @@ public final class ConfigCoreContext extends ConfigContext {
         doLookup();
         Schema schema = schemaManager.getSchema(configurable);
         BeanId singleton = getSingletonId(schema, configurable);
+        if (!snapshotReads || configurable.getName().equals(RECURSION_SHORTCIRCUIT.get())) {
+            return getSingleton(schema, singleton, configurable);
+        }
+        ConfigSnapshot snapshot = ConfigSnapshot.current();
+        Object object = snapshot.get(singleton);
+        if (object == null) {
+            object = getSingleton(schema, singleton, configurable);
+            ConfigSnapshot.publish(snapshot, singleton, object);
+        }
+        return (T) object;
+    }
+
+    private <T> T getSingleton(Schema schema, BeanId singleton, Class<T> configurable) {
         Optional<Bean> bean;
         try {
             if (configurable.getName().equals(RECURSION_SHORTCIRCUIT.get())) {
@@ -102,11 +151,7 @@ public final class ConfigCoreContext extends ConfigContext {
                 bean = Optional.of(fileBean);
             }
             if (bean.isPresent()) {
-                T object = (T) schemaManager.convertBean(bean.get());
-                if (cacheManager.isPresent()) {
-                    cacheManager.get().put(bean.get());
-                }
-                return object;
+                return (T) convert(bean.get());
             }
         }
         if (!bean.isPresent()) {
@@ -114,17 +159,29 @@ public final class ConfigCoreContext extends ConfigContext {
         }
         schemaManager.setSchema(Arrays.asList(bean.get()));
         setSingletonReferences(bean.get());
-        T object = (T) schemaManager.convertBean(bean.get());
-        if (cacheManager.isPresent()) {
-            cacheManager.get().put(bean.get());
-        }
-        return object;
+        return (T) convert(bean.get());
     }
 
     @Override
     public <T> List<T> list(Class<T> configurable) {
         doLookup();
         Schema s = schemaManager.getSchema(configurable);
+        if (!snapshotReads) {
+            return new ArrayList<>(list(s, configurable).values());
+        }
+        ConfigSnapshot snapshot = ConfigSnapshot.current();
+        List<Object> objects = snapshot.list(s.getName());
+        if (objects == null) {
+            Map<BeanId, T> listed = list(s, configurable);
+            objects = ConfigSnapshot.publish(snapshot, s.getName(), listed);
+            if (objects == null) {
+                return new ArrayList<>(listed.values());
+            }
+        }
+        return (List<T>) objects;
+    }
+
+    private <T> Map<BeanId, T> list(Schema s, Class<T> configurable) {
         initFile(configurable);
         Map<BeanId, Bean> beans = new HashMap<>();
         Map<BeanId, Bean> found = beanManager.list(s.getName());
@@ -145,14 +202,10 @@ public final class ConfigCoreContext extends ConfigContext {
         schemaManager.setSchema(beans.values());
         for (Bean bean : beans.values()) {
             setSingletonReferences(bean);
-            if (cacheManager.isPresent()) {
-                cacheManager.get().put(bean);
-            }
         }
-        ArrayList<T> objects = new ArrayList<>();
-        for(Object object : schemaManager.convertBeans(beans.values())) {
-            objects.add((T) object);
-
+        Map<BeanId, T> objects = new LinkedHashMap<>();
+        for (Bean bean : beans.values()) {
+            objects.put(bean.getId(), (T) convert(bean));
         }
         return objects;
     }
@@ -162,6 +215,22 @@ public final class ConfigCoreContext extends ConfigContext {
         doLookup();
         Schema s = schemaManager.getSchema(configurable);
         BeanId beanId = BeanId.create(id, s.getName());
+        if (!snapshotReads) {
+            return get(beanId, configurable);
+        }
+        ConfigSnapshot snapshot = ConfigSnapshot.current();
+        Object object = snapshot.get(beanId);
+        if (object != null) {
+            return Optional.of((T) object);
+        }
+        Optional<T> result = get(beanId, configurable);
+        if (result.isPresent()) {
+            ConfigSnapshot.publish(snapshot, beanId, result.get());
+        }
+        return result;
+    }
+
+    private <T> Optional<T> get(BeanId beanId, Class<T> configurable) {
         Optional<Bean> bean = beanManager.getEager(beanId);
         if (!bean.isPresent()) {
             initFile(configurable);
@@ -174,12 +243,7 @@ public final class ConfigCoreContext extends ConfigContext {
         }
         schemaManager.setSchema(Arrays.asList(bean.get()));
         setSingletonReferences(bean.get());
-        T object = (T) schemaManager.convertBean(bean.get());
-
-        if (cacheManager.isPresent()) {
-            cacheManager.get().put(bean.get());
-        }
-        return Optional.of(object);
+        return Optional.of((T) convert(bean.get()));
     }
 
     @Override
@@ -198,10 +262,50 @@ public final class ConfigCoreContext extends ConfigContext {
         notificationManager.register(observer);
     }
 
+    @Override
+    public <T> void registerObserver(ConfigObserver observer, Class<T> configurable,
+                                     Predicate<ConfigChange<T>> filter) {
+        doLookup();
+        notificationManager.register(observer, configurable, filter);
+    }
+
     private BeanId getSingletonId(Schema s, Class<?> configurable) {
         return BeanId.createSingleton(s.getName());
     }
 
+    /**
+     * Convert a bean and put it in the cache, unless an identical bean
+     * have been converted and cached already.
+     */
+    private Object convert(Bean bean) {
+        if (!ConvertedObjectCache.isEnabled()) {
+            Object object = schemaManager.convertBean(bean);
+            if (cacheManager.isPresent()) {
+                cacheManager.get().put(bean);
+            }
+            return object;
+        }
+        long version = ConvertedObjectCache.version(bean);
+        Object object = ConvertedObjectCache.get(bean, version);
+        if (object != null) {
+            return object;
+        }
+        object = schemaManager.convertBean(bean);
+        if (cacheManager.isPresent()) {
+            cacheManager.get().put(bean);
+        }
+        ConvertedObjectCache.put(bean, version, object);
+        return object;
+    }
+
+    private void invalidateSnapshot(Class<?>... configurable) {
+        ArrayList<String> schemaNames = new ArrayList<>();
+        for (Class<?> cls : configurable) {
+            schemaNames.add(schemaManager.getSchema(cls).getName());
+        }
+        ConfigSnapshot.invalidate(schemaNames, schemaManager.getSchemas());
+    }
+
     private void setSingletonReferences(Bean bean) {
         Schema s = bean.getSchema();
         for (SchemaPropertyRef ref : s.get(SchemaPropertyRef.class)) {
@@ -255,6 +359,16 @@ public final class ConfigCoreContext extends ConfigContext {
         validationManager = ValidationManager.lookup();
         notificationManager = NotificationManager.lookup();
         cacheManager = CacheManager.lookup();
+        snapshotReads = snapshotReads || Boolean.parseBoolean(propertyManager.get(ConfigSnapshot.SNAPSHOT_PROP).or("false"));
+        Optional<String> memoSize = propertyManager.get(ConvertedObjectCache.MAX_SIZE_PROP);
+        if (memoSize.isPresent()) {
+            ConvertedObjectCache.setMaximumSize(Long.parseLong(memoSize.get()));
+        }
+        warmUp = Boolean.parseBoolean(propertyManager.get(CacheWarmUp.WARM_UP_PROP).or("false"));
+        Optional<String> threads = propertyManager.get(CacheWarmUp.THREADS_PROP);
+        if (threads.isPresent()) {
+            warmUpThreads = Integer.parseInt(threads.get().trim());
+        }
         LOOKUP_DONE.set(true);
     }
 }
@@ -0,0 +1,193 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deephacks.confit.internal.core.config;
+
+import org.deephacks.confit.model.BeanId;
+import org.deephacks.confit.model.Schema;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable and versioned snapshot of converted configurable instances, used by
+ * ConfigCoreContext to serve get/list without touching the bean manager.
+ * <p>
+ * A snapshot is never modified after it has been published. Readers grab the current
+ * snapshot with a single volatile read and writers publish a new copy. The version is
+ * bumped every time the admin context invalidate schemas, which makes it possible to
+ * reject instances that were read from storage before the invalidation happened.
+ * <p>
+ * Instances are shared between all readers and must be treated as read-only.
+ */
+public final class ConfigSnapshot {
+    /** property for enabling snapshot reads in ConfigContext */
+    public static final String SNAPSHOT_PROP = "confit.config.snapshot";
+
+    private static volatile ConfigSnapshot current = new ConfigSnapshot(0, new HashMap<String, SchemaSnapshot>());
+
+    private final long version;
+    /** schemaName -> instances */
+    private final Map<String, SchemaSnapshot> schemas;
+
+    private ConfigSnapshot(long version, Map<String, SchemaSnapshot> schemas) {
+        this.version = version;
+        this.schemas = schemas;
+    }
+
+    /**
+     * @return the snapshot currently published.
+     */
+    public static ConfigSnapshot current() {
+        return current;
+    }
+
+    /**
+     * @return version of this snapshot.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return the instance or null if it is not part of this snapshot.
+     */
+    public Object get(BeanId id) {
+        SchemaSnapshot schema = schemas.get(id.getSchemaName());
+        if (schema == null) {
+            return null;
+        }
+        return schema.instances.get(id.getInstanceId());
+    }
+
+    /**
+     * @return all instances of the schema or null if the schema have not been
+     * listed since it was last invalidated.
+     */
+    public List<Object> list(String schemaName) {
+        SchemaSnapshot schema = schemas.get(schemaName);
+        if (schema == null) {
+            return null;
+        }
+        return schema.all;
+    }
+
+    /**
+     * Publish an instance that was read when the given snapshot was current. Nothing
+     * is published if the snapshot have been invalidated since then.
+     */
+    static synchronized void publish(ConfigSnapshot readFrom, BeanId id, Object object) {
+        ConfigSnapshot snapshot = current;
+        if (snapshot.version != readFrom.version) {
+            return;
+        }
+        SchemaSnapshot schema = snapshot.schemas.get(id.getSchemaName());
+        HashMap<String, Object> instances = new HashMap<>();
+        List<Object> all = null;
+        if (schema != null) {
+            instances.putAll(schema.instances);
+            all = schema.all;
+        }
+        instances.put(id.getInstanceId(), object);
+        HashMap<String, SchemaSnapshot> schemas = new HashMap<>(snapshot.schemas);
+        schemas.put(id.getSchemaName(), new SchemaSnapshot(instances, all));
+        current = new ConfigSnapshot(snapshot.version, schemas);
+    }
+
+    /**
+     * Publish all instances of a schema that were listed when the given snapshot was
+     * current. Nothing is published if the snapshot have been invalidated since then.
+     *
+     * @return the published list or null if nothing was published.
+     */
+    static synchronized List<Object> publish(ConfigSnapshot readFrom, String schemaName, Map<BeanId, ?> objects) {
+        ConfigSnapshot snapshot = current;
+        if (snapshot.version != readFrom.version) {
+            return null;
+        }
+        HashMap<String, Object> instances = new HashMap<>();
+        for (Map.Entry<BeanId, ?> entry : objects.entrySet()) {
+            instances.put(entry.getKey().getInstanceId(), entry.getValue());
+        }
+        List<Object> all = Collections.unmodifiableList(new ArrayList<>(objects.values()));
+        HashMap<String, SchemaSnapshot> schemas = new HashMap<>(snapshot.schemas);
+        schemas.put(schemaName, new SchemaSnapshot(instances, all));
+        current = new ConfigSnapshot(snapshot.version, schemas);
+        return all;
+    }
+
+    /**
+     * Remove instances of the given schemas, and schemas that directly or indirectly
+     * reference them, from the snapshot. Must be called after changes have been written
+     * to the bean manager.
+     *
+     * @param schemaNames schemas that have changed.
+     * @param schemas all schemas currently available.
+     */
+    public static synchronized void invalidate(Collection<String> schemaNames, Map<String, Schema> schemas) {
+        ConfigSnapshot snapshot = current;
+        Set<String> invalid = referringSchemas(schemaNames, schemas);
+        HashMap<String, SchemaSnapshot> remaining = new HashMap<>(snapshot.schemas);
+        remaining.keySet().removeAll(invalid);
+        current = new ConfigSnapshot(snapshot.version + 1, remaining);
+    }
+
+    /**
+     * Remove all instances from the snapshot.
+     */
+    public static synchronized void clear() {
+        current = new ConfigSnapshot(current.version + 1, new HashMap<String, SchemaSnapshot>());
+    }
+
+    /**
+     * Converted instances embed referenced instances, hence a change to a schema
+     * also affect all schemas that reference it, transitively.
+     */
+    private static Set<String> referringSchemas(Collection<String> schemaNames, Map<String, Schema> schemas) {
+        Set<String> result = new HashSet<>(schemaNames);
+        boolean added = true;
+        while (added) {
+            added = false;
+            for (Schema schema : schemas.values()) {
+                if (result.contains(schema.getName())) {
+                    continue;
+                }
+                for (String name : schema.getReferenceNames()) {
+                    if (result.contains(schema.getReferenceSchemaName(name))) {
+                        result.add(schema.getName());
+                        added = true;
+                        break;
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    private static final class SchemaSnapshot {
+        /** instanceId -> instance */
+        private final Map<String, Object> instances;
+        private final List<Object> all;
+
+        private SchemaSnapshot(Map<String, Object> instances, List<Object> all) {
+            this.instances = instances;
+            this.all = all;
+        }
+    }
+}
@@ -0,0 +1,191 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deephacks.confit.internal.core.config;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.deephacks.confit.model.Bean;
+import org.deephacks.confit.model.BeanId;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Bounded memo of configurable instances already converted by ConfigCoreContext.
+ * <p>
+ * Instances are keyed by bean id and a version computed from the content of the bean
+ * and the beans it reference. A bean that is read from storage with the same content
+ * is served the same instance without conversion. The admin context invalidate
+ * instances of beans that it have changed to release memory early.
+ * <p>
+ * Instances are shared between all readers and must be treated as read-only.
+ */
+public final class ConvertedObjectCache {
+    /** property for the maximum number of memoized instances, 0 disables the memo */
+    public static final String MAX_SIZE_PROP = "confit.config.memo.size";
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    /** beanId -> converted instance, null if disabled */
+    private static volatile Cache<BeanId, Entry> cache;
+
+    private ConvertedObjectCache() {
+    }
+
+    /**
+     * Set the maximum number of memoized instances. Existing instances are dropped.
+     *
+     * @param maximumSize maximum size, 0 disables the memo.
+     */
+    static synchronized void setMaximumSize(long maximumSize) {
+        if (maximumSize <= 0) {
+            cache = null;
+        } else {
+            cache = CacheBuilder.newBuilder().maximumSize(maximumSize).build();
+        }
+    }
+
+    /**
+     * @return true if instances are memoized.
+     */
+    static boolean isEnabled() {
+        return cache != null;
+    }
+
+    /**
+     * @return the instance converted from an identical bean or null if there is none.
+     */
+    static Object get(Bean bean, long version) {
+        Cache<BeanId, Entry> current = cache;
+        if (current == null) {
+            return null;
+        }
+        Entry entry = current.getIfPresent(bean.getId());
+        if (entry == null || entry.version != version) {
+            return null;
+        }
+        return entry.object;
+    }
+
+    static void put(Bean bean, long version, Object object) {
+        Cache<BeanId, Entry> current = cache;
+        if (current == null) {
+            return;
+        }
+        current.put(bean.getId(), new Entry(version, object));
+    }
+
+    /**
+     * Remove instances of beans that have been changed.
+     */
+    public static void invalidate(Collection<BeanId> ids) {
+        Cache<BeanId, Entry> current = cache;
+        if (current == null) {
+            return;
+        }
+        current.invalidateAll(ids);
+    }
+
+    /**
+     * Remove all memoized instances.
+     */
+    public static void clear() {
+        Cache<BeanId, Entry> current = cache;
+        if (current == null) {
+            return;
+        }
+        current.invalidateAll();
+    }
+
+    /**
+     * Calculate a version from the properties and references of a bean, including
+     * the content of referenced beans that have been initialized.
+     */
+    static long version(Bean bean) {
+        return version(bean, new HashSet<BeanId>());
+    }
+
+    private static long version(Bean bean, Set<BeanId> visited) {
+        long version = hash(FNV_OFFSET, bean.getId());
+        if (!visited.add(bean.getId())) {
+            return version;
+        }
+        // entries are mixed in name order to be independent of map iteration order
+        for (String name : new TreeSet<>(bean.getPropertyNames())) {
+            version = hash(version, name);
+            List<String> values = bean.getValues(name);
+            if (values == null) {
+                version = mix(version, -1);
+                continue;
+            }
+            version = mix(version, values.size());
+            for (String value : values) {
+                version = hash(version, value);
+            }
+        }
+        for (String name : new TreeSet<>(bean.getReferenceNames())) {
+            version = hash(version, name);
+            List<BeanId> ids = bean.getReference(name);
+            if (ids == null) {
+                version = mix(version, -1);
+                continue;
+            }
+            version = mix(version, ids.size());
+            for (BeanId id : ids) {
+                if (id.getBean() != null) {
+                    version = mix(version, version(id.getBean(), visited));
+                } else {
+                    version = hash(version, id);
+                }
+            }
+        }
+        return version;
+    }
+
+    private static long hash(long hash, BeanId id) {
+        return hash(hash(hash, id.getSchemaName()), id.getInstanceId());
+    }
+
+    private static long hash(long hash, String value) {
+        if (value == null) {
+            return mix(hash, 0);
+        }
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= FNV_PRIME;
+        }
+        // separate consecutive values
+        return mix(hash, value.length());
+    }
+
+    private static long mix(long hash, long value) {
+        for (int i = 0; i < 8; i++) {
+            hash ^= (value >>> (i * 8)) & 0xff;
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
+
+    private static final class Entry {
+        private final long version;
+        private final Object object;
+
+        private Entry(long version, Object object) {
+            this.version = version;
+            this.object = object;
+        }
+    }
+}
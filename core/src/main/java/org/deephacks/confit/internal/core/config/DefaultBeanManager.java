@@ -1,6 +1,7 @@
 package org.deephacks.confit.internal.core.config;
 
 import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
 import org.deephacks.confit.admin.query.BeanQuery;
 import org.deephacks.confit.admin.query.BeanQueryBuilder.BeanRestriction;
 import org.deephacks.confit.admin.query.BeanQueryBuilder.LogicalRestriction;
@@ -20,26 +21,34 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
 
 import static org.deephacks.confit.model.Events.*;
 
 /**
  * In memory BeanManager.
+ * <p>
+ * Beans are stored in multiple versions. Every write operation is a transaction that
+ * create a new version, copying only the schemas it touch, and publish it when all
+ * checks have passed. Writers are serialized while readers work on the version that
+ * was current when they started, without locking.
  */
 public class DefaultBeanManager extends BeanManager {
     private static final InMemoryStorage storage = new InMemoryStorage();
 
     @Override
     public Optional<Bean> getEager(BeanId id) {
-        return getEagerly(id);
+        return getEagerly(storage.read(), id);
     }
 
-    private Optional<Bean> getEagerly(BeanId id) {
+    private Optional<Bean> getEagerly(Version version, BeanId id) {
         HashMap<BeanId, Bean> found = new HashMap<>();
-        getEagerly(id, found, new HashSet<BeanId>());
+        getEagerly(version, id, found, new HashSet<BeanId>());
         Bean bean = found.get(id);
         if (bean == null) {
             return Optional.absent();
@@ -47,12 +56,12 @@ public class DefaultBeanManager extends BeanManager {
         return Optional.of(bean);
     }
 
-    private void getEagerly(BeanId id, HashMap<BeanId, Bean> found, Set<BeanId> seen) {
+    private void getEagerly(Version version, BeanId id, HashMap<BeanId, Bean> found, Set<BeanId> seen) {
         if (seen.contains(id)) {
             return;
         }
         seen.add(id);
-        Bean bean = found.get(id) == null ? storage.get(id) : found.get(id);
+        Bean bean = found.get(id) == null ? version.get(id) : found.get(id);
         if (bean == null) {
             return;
         }
@@ -62,25 +71,26 @@ public class DefaultBeanManager extends BeanManager {
             if (ref.getBean() != null) {
                 continue;
             }
-            Bean refBean = found.get(ref) == null ? storage.get(ref) : found.get(ref);
+            Bean refBean = found.get(ref) == null ? version.get(ref) : found.get(ref);
             if (refBean == null) {
                 throw CFG301_MISSING_RUNTIME_REF(bean.getId(), ref);
             }
             ref.setBean(refBean);
             found.put(ref, refBean);
-            getEagerly(ref, found, seen);
+            getEagerly(version, ref, found, seen);
         }
 
     }
 
     @Override
     public Optional<Bean> getLazy(BeanId id) throws AbortRuntimeException {
-        Bean bean = storage.get(id);
+        Version version = storage.read();
+        Bean bean = version.get(id);
         if (bean == null) {
             return Optional.absent();
         }
         for (BeanId ref : bean.getReferences()) {
-            Bean refBean = storage.get(ref);
+            Bean refBean = version.get(ref);
             if (refBean == null) {
                 throw CFG301_MISSING_RUNTIME_REF(ref);
             }
@@ -95,20 +105,21 @@ public class DefaultBeanManager extends BeanManager {
      */
     @Override
     public Map<BeanId, Bean> getBeanToValidate(Collection<Bean> beans) throws AbortRuntimeException {
+        Version version = storage.read();
         Map<BeanId, Bean> beansToValidate = new HashMap<>();
         for (Bean bean : beans) {
             Map<BeanId, Bean> predecessors = new HashMap<>();
             // beans read from xml storage will only have their basic properties initialized...
             // ... but we also need set the direct references/predecessors for beans to validate
-            Map<BeanId, Bean> beansToValidateSubset = getDirectSuccessors(bean);
+            Map<BeanId, Bean> beansToValidateSubset = getDirectSuccessors(version, bean);
             beansToValidateSubset.put(bean.getId(), bean);
             for (Bean toValidate : beansToValidateSubset.values()) {
-                predecessors.putAll(getDirectPredecessors(toValidate));
+                predecessors.putAll(getDirectPredecessors(version, toValidate));
             }
 
             for (Bean predecessor : predecessors.values()) {
                 for (BeanId ref : predecessor.getReferences()) {
-                    Bean b = storage.get(ref);
+                    Bean b = version.get(ref);
                     if (b == null) {
                         throw CFG301_MISSING_RUNTIME_REF(predecessor.getId());
                     }
@@ -133,10 +144,10 @@ public class DefaultBeanManager extends BeanManager {
         return beansToValidate;
     }
 
-    private Map<BeanId, Bean> getDirectPredecessors(Bean bean) {
+    private Map<BeanId, Bean> getDirectPredecessors(Version version, Bean bean) {
         Map<BeanId, Bean> predecessors = new HashMap<>();
         for (BeanId ref : bean.getReferences()) {
-            Bean predecessor = storage.get(ref);
+            Bean predecessor = version.get(ref);
             if (predecessor == null) {
                 throw CFG304_BEAN_DOESNT_EXIST(ref);
             }
@@ -145,40 +156,35 @@ public class DefaultBeanManager extends BeanManager {
         return predecessors;
     }
 
-    private Map<BeanId, Bean> getDirectSuccessors(Bean bean) {
+    private Map<BeanId, Bean> getDirectSuccessors(Version version, Bean bean) {
         Map<BeanId, Bean> successors = new HashMap<>();
-        for (Bean b : storage.all()) {
-            List<BeanId> refs = b.getReferences();
-            if (refs.contains(bean.getId())) {
-                successors.put(b.getId(), b);
-            }
+        for (BeanId id : version.successors(bean.getId())) {
+            successors.put(id, version.get(id));
         }
         return successors;
     }
 
     @Override
     public Optional<Bean> getSingleton(String schemaName) throws IllegalArgumentException {
-        for (Bean bean : storage.all()) {
-            if (bean.getId().getSchemaName().equals(schemaName)) {
-                if (!bean.getId().isSingleton()) {
-                    throw new IllegalArgumentException("Schema [" + schemaName
-                            + "] is not a lookup.");
-                }
-                BeanId singletonId = bean.getId();
-                return getEagerly(singletonId);
+        Version version = storage.read();
+        for (Bean bean : version.all(schemaName)) {
+            if (!bean.getId().isSingleton()) {
+                throw new IllegalArgumentException("Schema [" + schemaName
+                        + "] is not a lookup.");
             }
+            BeanId singletonId = bean.getId();
+            return getEagerly(version, singletonId);
         }
         return Optional.of(Bean.create(BeanId.createSingleton(schemaName)));
     }
 
     @Override
     public Map<BeanId, Bean> list(String name) {
+        Version version = storage.read();
         Map<BeanId, Bean> result = new HashMap<>();
-        for (Bean b : storage.all()) {
-            if (b.getId().getSchemaName().equals(name)) {
-                Optional<Bean> bean = getEagerly(b.getId());
-                result.put(bean.get().getId(), bean.get());
-            }
+        for (Bean b : version.all(name)) {
+            Optional<Bean> bean = getEagerly(version, b.getId());
+            result.put(bean.get().getId(), bean.get());
         }
         return result;
     }
@@ -186,16 +192,12 @@ public class DefaultBeanManager extends BeanManager {
     @Override
     public Map<BeanId, Bean> list(String schemaName, Collection<String> ids)
             throws AbortRuntimeException {
+        Version version = storage.read();
         Map<BeanId, Bean> result = new HashMap<>();
-        for (Bean bean : storage.all()) {
-            String schema = bean.getId().getSchemaName();
-            if (!schema.equals(schemaName)) {
-                continue;
-            }
-            for (String id : ids) {
-                if (bean.getId().getInstanceId().equals(id)) {
-                    result.put(bean.getId(), bean);
-                }
+        for (String id : ids) {
+            Optional<Bean> bean = getEagerly(version, BeanId.create(id, schemaName));
+            if (bean.isPresent()) {
+                result.put(bean.get().getId(), bean.get());
             }
         }
         return result;
@@ -203,96 +205,123 @@ public class DefaultBeanManager extends BeanManager {
 
     @Override
     public void create(Bean bean) {
-        checkReferencesExist(bean, new ArrayList<Bean>());
-        checkUniquness(bean);
-        storage.put(bean);
+        synchronized (storage) {
+            Version tx = storage.begin();
+            checkReferencesExist(tx, bean, new ArrayList<Bean>());
+            checkUniquness(tx, bean);
+            tx.put(bean);
+            storage.commit(tx);
+        }
     }
 
     @Override
     public void create(Collection<Bean> set) {
-        // first check uniqueness towards storage
-        for (Bean bean : set) {
-            checkUniquness(bean);
-        }
-        // references may not exist in storage, but are provided
-        // as part of the transactions, so add them before validating references.
-        for (Bean bean : set) {
-            checkReferencesExist(bean, set);
-        }
-        for (Bean bean : set) {
-            storage.put(bean);
+        synchronized (storage) {
+            Version tx = storage.begin();
+            // first check uniqueness towards storage
+            for (Bean bean : set) {
+                checkUniquness(tx, bean);
+            }
+            // references may not exist in storage, but are provided
+            // as part of the transactions, so add them before validating references.
+            for (Bean bean : set) {
+                checkReferencesExist(tx, bean, set);
+            }
+            for (Bean bean : set) {
+                tx.put(bean);
+            }
+            storage.commit(tx);
         }
     }
 
     @Override
     public void createSingleton(BeanId singleton) {
-        Bean bean = Bean.create(singleton);
-        try {
-            checkUniquness(bean);
-        } catch (AbortRuntimeException e) {
-            // ignore and return silently.
-            return;
+        synchronized (storage) {
+            Version tx = storage.begin();
+            Bean bean = Bean.create(singleton);
+            try {
+                checkUniquness(tx, bean);
+            } catch (AbortRuntimeException e) {
+                // ignore and return silently.
+                return;
+            }
+            tx.put(bean);
+            storage.commit(tx);
         }
-        storage.put(bean);
     }
 
     @Override
     public void set(Bean bean) {
-        Bean existing = storage.get(bean.getId());
-        if (existing == null) {
-            throw CFG304_BEAN_DOESNT_EXIST(bean.getId());
+        synchronized (storage) {
+            Version tx = storage.begin();
+            Bean existing = tx.get(bean.getId());
+            if (existing == null) {
+                throw CFG304_BEAN_DOESNT_EXIST(bean.getId());
 
+            }
+            checkReferencesExist(tx, bean, new ArrayList<Bean>());
+            checkInstanceExist(tx, bean);
+            tx.put(bean);
+            storage.commit(tx);
         }
-        checkReferencesExist(bean, new ArrayList<Bean>());
-        checkInstanceExist(bean);
-        storage.put(bean);
     }
 
     @Override
     public void set(Collection<Bean> set) {
         // TODO: check that provided beans are unique among themselves.
-
-        // references may not exist in storage, but are provided
-        // as part of the transactions, so add them before validating references.
-        for (Bean bean : set) {
-            Bean existing = storage.get(bean.getId());
-            if (existing == null) {
-                throw CFG304_BEAN_DOESNT_EXIST(bean.getId());
+        synchronized (storage) {
+            Version tx = storage.begin();
+            // references may not exist in storage, but are provided
+            // as part of the transactions, so add them before validating references.
+            for (Bean bean : set) {
+                Bean existing = tx.get(bean.getId());
+                if (existing == null) {
+                    throw CFG304_BEAN_DOESNT_EXIST(bean.getId());
+                }
+                tx.put(bean);
             }
-            storage.put(bean);
-        }
-        for (Bean bean : set) {
-            checkReferencesExist(bean, set);
+            for (Bean bean : set) {
+                checkReferencesExist(tx, bean, set);
+            }
+            storage.commit(tx);
         }
     }
 
     @Override
     public void merge(Bean bean) {
-        Bean b = storage.get(bean.getId());
-        if (b == null) {
-            throw CFG304_BEAN_DOESNT_EXIST(bean.getId());
+        synchronized (storage) {
+            Version tx = storage.begin();
+            Bean b = tx.get(bean.getId());
+            if (b == null) {
+                throw CFG304_BEAN_DOESNT_EXIST(bean.getId());
+            }
+            replace(tx, b, bean);
+            storage.commit(tx);
         }
-        replace(b, bean);
     }
 
     @Override
     public void merge(Collection<Bean> bean) {
-        for (Bean replace : bean) {
-            Bean target = storage.get(replace.getId());
-            if (target == null) {
-                throw Events.CFG304_BEAN_DOESNT_EXIST(replace.getId());
+        synchronized (storage) {
+            Version tx = storage.begin();
+            for (Bean replace : bean) {
+                Bean target = tx.get(replace.getId());
+                if (target == null) {
+                    throw Events.CFG304_BEAN_DOESNT_EXIST(replace.getId());
+                }
+                replace(tx, target, replace);
+                tx.put(target);
             }
-            replace(target, replace);
-            storage.put(target);
+            storage.commit(tx);
         }
     }
 
-    private void replace(Bean target, Bean replace) {
+    private void replace(Version tx, Bean target, Bean replace) {
         if (target == null) {
             // bean did not exist in storage, create it.
             target = replace;
         }
-        checkReferencesExist(replace, new ArrayList<Bean>());
+        checkReferencesExist(tx, replace, new ArrayList<Bean>());
         for (String name : replace.getPropertyNames()) {
             List<String> values = replace.getValues(name);
             if (values == null || values.size() == 0) {
@@ -316,24 +345,32 @@ public class DefaultBeanManager extends BeanManager {
 
     @Override
     public Bean delete(BeanId id) {
-        checkNoReferencesExist(id);
-        Bean bean = storage.remove(id);
-        return bean;
+        synchronized (storage) {
+            Version tx = storage.begin();
+            checkNoReferencesExist(tx, id);
+            Bean bean = tx.remove(id);
+            storage.commit(tx);
+            return bean;
+        }
     }
 
     @Override
     public Collection<Bean> delete(String schemaName, Collection<String> instanceIds) {
         Collection<Bean> deleted = new ArrayList<>();
-        for (String instance : instanceIds) {
-            checkNoReferencesExist(BeanId.create(instance, schemaName));
-            BeanId id = BeanId.create(instance, schemaName);
-            if (storage.get(id) == null) {
-                throw Events.CFG304_BEAN_DOESNT_EXIST(id);
+        synchronized (storage) {
+            Version tx = storage.begin();
+            for (String instance : instanceIds) {
+                checkNoReferencesExist(tx, BeanId.create(instance, schemaName));
+                BeanId id = BeanId.create(instance, schemaName);
+                if (!tx.contains(id)) {
+                    throw Events.CFG304_BEAN_DOESNT_EXIST(id);
+                }
             }
-        }
-        for (String instance : instanceIds) {
-            BeanId id = BeanId.create(instance, schemaName);
-            storage.remove(id);
+            for (String instance : instanceIds) {
+                BeanId id = BeanId.create(instance, schemaName);
+                tx.remove(id);
+            }
+            storage.commit(tx);
         }
         return deleted;
     }
@@ -351,19 +388,13 @@ public class DefaultBeanManager extends BeanManager {
         return new DefaultBeanQuery(schema, sorted);
     }
 
-    private static void checkNoReferencesExist(BeanId deleted) {
-        Collection<BeanId> hasReferences = new ArrayList<>();
-        for (Bean b : storage.all()) {
-            if (hasReferences(b, deleted)) {
-                hasReferences.add(b.getId());
-            }
-        }
-        if (hasReferences.size() > 0) {
+    private static void checkNoReferencesExist(Version version, BeanId deleted) {
+        if (!version.successors(deleted).isEmpty()) {
             throw CFG302_CANNOT_DELETE_BEAN(Arrays.asList(deleted));
         }
     }
 
-    private static void checkReferencesExist(final Bean bean, Collection<Bean> additional) {
+    private static void checkReferencesExist(Version version, final Bean bean, Collection<Bean> additional) {
         HashMap<BeanId, Bean> additionalMap = new HashMap<>();
         for (Bean b : additional) {
             additionalMap.put(b.getId(), b);
@@ -385,7 +416,7 @@ public class DefaultBeanManager extends BeanManager {
             if (beanId.getInstanceId() == null) {
                 continue;
             }
-            if (storage.get(beanId) == null && additionalMap.get(beanId) == null) {
+            if (!version.contains(beanId) && additionalMap.get(beanId) == null) {
                 missingReferences.add(beanId);
             }
         }
@@ -394,76 +425,279 @@ public class DefaultBeanManager extends BeanManager {
         }
     }
 
-    private static void checkInstanceExist(Bean bean) {
-        Collection<Bean> beans = storage.all();
-        for (Bean existingBean : beans) {
-            if (existingBean.getId().equals(bean.getId())) {
-                return;
-            }
+    private static void checkInstanceExist(Version version, Bean bean) {
+        if (!version.contains(bean.getId())) {
+            throw CFG304_BEAN_DOESNT_EXIST(bean.getId());
         }
-        throw CFG304_BEAN_DOESNT_EXIST(bean.getId());
+    }
 
+    private static void checkUniquness(Version version, Bean bean) {
+        if (version.contains(bean.getId())) {
+            throw CFG303_BEAN_ALREADY_EXIST(bean.getId());
+        }
     }
 
-    private static void checkUniquness(Bean bean) {
-        Collection<Bean> beans = storage.all();
+    @Override
+    public long getVersion() {
+        return storage.read().number;
+    }
 
-        for (Bean existing : beans) {
-            if (bean.getId().equals(existing.getId())) {
-                throw CFG303_BEAN_ALREADY_EXIST(bean.getId());
-            }
+    @Override
+    public Optional<Set<BeanId>> getChangedSince(long version) {
+        synchronized (storage) {
+            return storage.changedSince(version);
+        }
+    }
+
+    public static void clear() {
+        synchronized (storage) {
+            storage.commit(storage.begin().clear());
         }
     }
 
     /**
-     * Returns the a list of property names of the target bean that have
-     * references to the bean id.
+     * Holds the current version of stored beans. Readers get the current version
+     * without locking. Writers must synchronize on the storage while they begin and
+     * commit a new version.
+     * <p>
+     * Ids of beans changed by the latest versions are kept, so that readers can tell
+     * what changed after a version.
      */
-    private static boolean hasReferences(Bean target, BeanId reference) {
-        for (String name : target.getReferenceNames()) {
-            List<BeanId> refs = target.getReference(name);
-            if (refs != null) {
-                for (BeanId ref : target.getReference(name)) {
-                    if (ref.equals(reference)) {
-                        return true;
-                    }
+    private static final class InMemoryStorage {
+        /** number of versions that changes are kept for */
+        private static final int CHANGES_KEPT = 10000;
+        private volatile Version current = new Version();
+        /** version number -> ids of beans changed by the version */
+        private final TreeMap<Long, Set<BeanId>> changes = new TreeMap<>();
+        /** changes are known for every version after this one */
+        private long changesKnownAfter = current.number;
+
+        /**
+         * @return the current version, which must not be modified.
+         */
+        public Version read() {
+            return current;
+        }
+
+        /**
+         * @return a new version that share beans with the current version until they
+         * are written.
+         */
+        public Version begin() {
+            return new Version(current);
+        }
+
+        /**
+         * Publish a version to readers, no further writes are allowed on it.
+         */
+        public void commit(Version version) {
+            version.writable = false;
+            version.owned.clear();
+            if (version.cleared) {
+                changes.clear();
+                changesKnownAfter = version.number;
+            } else {
+                changes.put(version.number, version.changed);
+                if (changes.size() > CHANGES_KEPT) {
+                    changesKnownAfter = changes.pollFirstEntry().getKey();
                 }
             }
+            current = version;
         }
-        return false;
-    }
 
-    public static void clear() {
-        storage.clear();
+        /**
+         * @return ids of beans changed after a version, absent if not known.
+         */
+        public Optional<Set<BeanId>> changedSince(long number) {
+            if (number < changesKnownAfter || number > current.number) {
+                return Optional.absent();
+            }
+            Set<BeanId> ids = new HashSet<>();
+            for (Set<BeanId> changed : changes.tailMap(number, false).values()) {
+                ids.addAll(changed);
+            }
+            return Optional.of(ids);
+        }
     }
 
-    private static final class InMemoryStorage {
-        private static final HashMap<BeanId, Bean> beans = new HashMap<>();
+    /**
+     * Beans partitioned by schema, with a reverse index from referenced beans to
+     * the beans that reference them.
+     * <p>
+     * Stored beans are private copies that are never modified, a changed bean replace
+     * the stored copy. Lookups, listings and referential integrity checks can
+     * therefore read stored beans directly, only beans that are handed out to callers
+     * are copied since callers initialize references and schemas in place.
+     * <p>
+     * A new version copy the maps of a schema the first time it is written, maps of
+     * other schemas are shared with the previous version.
+     * <p>
+     * Versions are numbered from the time the storage was created, so that numbers of
+     * a storage that existed before a restart are not mistaken for numbers of this one.
+     */
+    private static final class Version {
+        private final long number;
+        /** ids of beans written by this version */
+        private final Set<BeanId> changed = new HashSet<>();
+        /** true if all beans were removed by this version */
+        private boolean cleared;
+        /** schemaName -> beanId -> bean */
+        private final HashMap<String, HashMap<BeanId, Bean>> schemas;
+        /** schemaName of predecessor -> predecessor -> successors, i.e. beans that reference the predecessor */
+        private final HashMap<String, HashMap<BeanId, Set<BeanId>>> successors;
+        /** maps and sets created by this version, which can be written without affecting other versions */
+        private final Set<Object> owned = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+        private boolean writable;
+
+        private Version() {
+            this.number = TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis());
+            this.schemas = new HashMap<>();
+            this.successors = new HashMap<>();
+        }
+
+        private Version(Version previous) {
+            this.number = previous.number + 1;
+            this.schemas = new HashMap<>(previous.schemas);
+            this.successors = new HashMap<>(previous.successors);
+            this.writable = true;
+        }
+
+        public Bean get(BeanId id) {
+            return Bean.copy(getStored(id));
+        }
+
+        public boolean contains(BeanId id) {
+            return getStored(id) != null;
+        }
+
+        /**
+         * @return stored beans of a schema, which must not be modified.
+         */
+        public Collection<Bean> all(String schemaName) {
+            HashMap<BeanId, Bean> beans = schemas.get(schemaName);
+            if (beans == null) {
+                return Collections.emptyList();
+            }
+            return beans.values();
+        }
+
+        /**
+         * @return ids of beans that reference the given bean.
+         */
+        public Set<BeanId> successors(BeanId id) {
+            HashMap<BeanId, Set<BeanId>> schema = successors.get(id.getSchemaName());
+            Set<BeanId> ids = schema == null ? null : schema.get(id);
+            if (ids == null) {
+                return Collections.emptySet();
+            }
+            return ids;
+        }
 
         public void put(Bean bean) {
+            Preconditions.checkState(writable, "Version is read-only.");
             // make a copy
-            Bean store =  Bean.copy(bean);
-            beans.put(bean.getId(), store);
+            Bean store = Bean.copy(bean);
+            Bean existing = beansForWrite(bean.getId().getSchemaName()).put(store.getId(), store);
+            changed.add(store.getId());
+            if (existing != null) {
+                unindex(existing);
+            }
+            index(store);
         }
 
-        public Bean get(BeanId id){
-            Bean found = beans.get(id);
-            return Bean.copy(found);
+        public Bean remove(BeanId id) {
+            Preconditions.checkState(writable, "Version is read-only.");
+            if (!contains(id)) {
+                return null;
+            }
+            HashMap<BeanId, Bean> beans = beansForWrite(id.getSchemaName());
+            Bean bean = beans.remove(id);
+            changed.add(id);
+            unindex(bean);
+            if (beans.isEmpty()) {
+                schemas.remove(id.getSchemaName());
+            }
+            return bean;
         }
 
-        public Collection<Bean> all() {
-            return beans.values();
+        public Version clear() {
+            Preconditions.checkState(writable, "Version is read-only.");
+            schemas.clear();
+            successors.clear();
+            cleared = true;
+            return this;
         }
 
-        public void clear() {
-            beans.clear();
+        private Bean getStored(BeanId id) {
+            HashMap<BeanId, Bean> beans = schemas.get(id.getSchemaName());
+            if (beans == null) {
+                return null;
+            }
+            return beans.get(id);
         }
 
-        public Bean remove(BeanId id) {
-            return beans.remove(id);
+        private HashMap<BeanId, Bean> beansForWrite(String schemaName) {
+            HashMap<BeanId, Bean> beans = schemas.get(schemaName);
+            if (beans == null) {
+                beans = new HashMap<>();
+            } else if (!owned.contains(beans)) {
+                beans = new HashMap<>(beans);
+            } else {
+                return beans;
+            }
+            owned.add(beans);
+            schemas.put(schemaName, beans);
+            return beans;
+        }
+
+        private Set<BeanId> successorsForWrite(BeanId id) {
+            HashMap<BeanId, Set<BeanId>> schema = successors.get(id.getSchemaName());
+            if (schema == null) {
+                schema = new HashMap<>();
+            } else if (!owned.contains(schema)) {
+                schema = new HashMap<>(schema);
+            }
+            if (owned.add(schema)) {
+                successors.put(id.getSchemaName(), schema);
+            }
+            Set<BeanId> ids = schema.get(id);
+            if (ids == null) {
+                ids = new HashSet<>();
+            } else if (!owned.contains(ids)) {
+                ids = new HashSet<>(ids);
+            } else {
+                return ids;
+            }
+            owned.add(ids);
+            schema.put(id, ids);
+            return ids;
+        }
+
+        private void index(Bean bean) {
+            for (BeanId ref : bean.getReferences()) {
+                successorsForWrite(ref).add(bean.getId());
+            }
+        }
+
+        private void unindex(Bean bean) {
+            for (BeanId ref : bean.getReferences()) {
+                if (successors(ref).isEmpty()) {
+                    continue;
+                }
+                Set<BeanId> ids = successorsForWrite(ref);
+                ids.remove(bean.getId());
+                if (ids.isEmpty()) {
+                    HashMap<BeanId, Set<BeanId>> schema = successors.get(ref.getSchemaName());
+                    schema.remove(ref);
+                    if (schema.isEmpty()) {
+                        successors.remove(ref.getSchemaName());
+                    }
+                }
+            }
         }
     }
 
+
     public class DefaultBeanQuery implements BeanQuery {
         private final ArrayList<Bean> beans;
         private final Schema schema;
@@ -0,0 +1,120 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deephacks.confit.internal.core.config;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Progress of filling the cache with beans of registered schemas, which is
+ * updated while the cache is filled.
+ */
+public final class WarmUpProgress {
+    private final int schemas;
+    private final long startNanos = System.nanoTime();
+    private final AtomicInteger completedSchemas = new AtomicInteger();
+    private final AtomicLong beans = new AtomicLong();
+    /** schemaName -> cause, in the order schemas failed */
+    private final Map<String, Throwable> failures = Collections.synchronizedMap(new LinkedHashMap<String, Throwable>());
+    private volatile long elapsedNanos = -1;
+
+    WarmUpProgress(int schemas) {
+        this.schemas = schemas;
+        if (schemas == 0) {
+            elapsedNanos = 0;
+        }
+    }
+
+    void added(int beans) {
+        this.beans.addAndGet(beans);
+    }
+
+    /**
+     * @param failure cause if the schema could not be filled, null otherwise.
+     */
+    void completed(String schemaName, Throwable failure) {
+        if (failure != null) {
+            failures.put(schemaName, failure);
+        }
+        if (completedSchemas.incrementAndGet() == schemas) {
+            elapsedNanos = System.nanoTime() - startNanos;
+        }
+    }
+
+    /**
+     * @return number of schemas to fill the cache with.
+     */
+    public int getSchemas() {
+        return schemas;
+    }
+
+    /**
+     * @return number of schemas that have been filled into the cache, or failed.
+     */
+    public int getCompletedSchemas() {
+        return completedSchemas.get();
+    }
+
+    /**
+     * @return names of schemas that could not be filled into the cache.
+     */
+    public List<String> getFailedSchemas() {
+        synchronized (failures) {
+            return new ArrayList<>(failures.keySet());
+        }
+    }
+
+    /**
+     * @return schemaName -> cause, of schemas that could not be filled into the cache.
+     */
+    public Map<String, Throwable> getFailures() {
+        synchronized (failures) {
+            return new LinkedHashMap<>(failures);
+        }
+    }
+
+    /**
+     * @return number of beans filled into the cache so far.
+     */
+    public long getBeans() {
+        return beans.get();
+    }
+
+    public boolean isDone() {
+        return completedSchemas.get() == schemas;
+    }
+
+    /**
+     * @return time taken so far, or in total if done.
+     */
+    public long getElapsedMillis() {
+        long elapsed = elapsedNanos;
+        if (elapsed < 0) {
+            elapsed = System.nanoTime() - startNanos;
+        }
+        return TimeUnit.NANOSECONDS.toMillis(elapsed);
+    }
+
+    @Override
+    public String toString() {
+        return "WarmUpProgress{schemas=" + getCompletedSchemas() + "/" + schemas + ", beans=" + getBeans()
+                + ", failedSchemas=" + getFailedSchemas() + ", elapsedMillis=" + getElapsedMillis() + "}";
+    }
+}
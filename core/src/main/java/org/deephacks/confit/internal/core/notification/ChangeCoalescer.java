@@ -0,0 +1,85 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deephacks.confit.internal.core.notification;
+
+import com.google.common.base.Optional;
+import org.deephacks.confit.ConfigChanges;
+import org.deephacks.confit.ConfigChanges.ConfigChange;
+import org.deephacks.confit.model.Bean;
+import org.deephacks.confit.model.BeanId;
+
+import java.util.LinkedHashMap;
+
+/**
+ * Merge changes of beans that are fired within a window into one change per bean,
+ * keeping the state before the first change and after the last change.
+ * <p>
+ * A bean that is created and then deleted within the window is left out entirely,
+ * while a bean that is deleted and created again becomes an update.
+ */
+final class ChangeCoalescer {
+    /** beanId -> merged change, in the order each bean was first changed */
+    private final LinkedHashMap<BeanId, Pending> pending = new LinkedHashMap<>();
+
+    /**
+     * Add changes of beans to the window.
+     *
+     * @return number of beans changed within the window.
+     */
+    @SuppressWarnings("unchecked")
+    synchronized int add(ConfigChanges changes) {
+        for (ConfigChange<?> change : changes.getChanges()) {
+            Optional<Bean> before = (Optional<Bean>) change.before();
+            Optional<Bean> after = (Optional<Bean>) change.after();
+            BeanId id = after.isPresent() ? after.get().getId() : before.get().getId();
+            Pending merged = pending.get(id);
+            if (merged == null) {
+                pending.put(id, new Pending(before, after));
+            } else {
+                merged.after = after;
+            }
+        }
+        return pending.size();
+    }
+
+    /**
+     * Close the window.
+     *
+     * @return merged changes of beans changed within the window.
+     */
+    synchronized ConfigChanges drain() {
+        ConfigChanges changes = new ConfigChanges();
+        for (Pending merged : pending.values()) {
+            if (merged.before.isPresent() && merged.after.isPresent()) {
+                changes.add(ConfigChange.updated(merged.before.get(), merged.after.get()));
+            } else if (merged.before.isPresent()) {
+                changes.add(ConfigChange.deleted(merged.before.get()));
+            } else if (merged.after.isPresent()) {
+                changes.add(ConfigChange.created(merged.after.get()));
+            }
+        }
+        pending.clear();
+        return changes;
+    }
+
+    private static final class Pending {
+        private final Optional<Bean> before;
+        private Optional<Bean> after;
+
+        private Pending(Optional<Bean> before, Optional<Bean> after) {
+            this.before = before;
+            this.after = after;
+        }
+    }
+}
@@ -1,43 +1,338 @@
 package org.deephacks.confit.internal.core.notification;
 
+import com.google.common.base.Optional;
 import org.deephacks.confit.ConfigChanges;
 import org.deephacks.confit.ConfigChanges.ConfigChange;
 import org.deephacks.confit.ConfigObserver;
 import org.deephacks.confit.model.Bean;
+import org.deephacks.confit.model.Schema;
 import org.deephacks.confit.spi.NotificationManager;
+import org.deephacks.confit.spi.PropertyManager;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Default notification manager that forwards notifications to observers
  * that have been registered.
+ * <p>
+ * Changes are converted into objects once and only for classes that have
+ * observers. Observers that subscribe to a class only receive changes of that
+ * class accepted by their filter, and are not notified if there are none.
+ * <p>
+ * Observers are notified on the thread that fire changes, unless asynchronous
+ * dispatch is enabled. Each observer then have its own thread and bounded queue
+ * so that a slow observer does not delay the writer or other observers.
+ * <p>
+ * Changes can also be coalesced within a time window, or until a number of beans
+ * have changed. Observers are then notified once per window, from a background
+ * thread, with one change per bean holding the state before the first change and
+ * after the last change. Changes that are coalesced when the JVM shuts down are
+ * delivered from a shutdown hook, but notifications that are queued for asynchronous
+ * observers at that time are lost.
  */
 public class DefaultNotificationManager extends NotificationManager  {
+    /** property that enable asynchronous dispatch, true or false */
+    public static final String ASYNC_PROP = "confit.notification.async";
+    /** property for the number of notifications queued for each observer */
+    public static final String QUEUE_SIZE_PROP = "confit.notification.queue.size";
+    /** property for the {@link Overflow} policy of full queues */
+    public static final String OVERFLOW_PROP = "confit.notification.overflow";
+    /** property for the time in milliseconds that changes are coalesced, 0 disables coalescing */
+    public static final String COALESCE_WINDOW_PROP = "confit.notification.coalesce.window";
+    /** property for the number of changed beans that close a coalescing window early */
+    public static final String COALESCE_SIZE_PROP = "confit.notification.coalesce.size";
+    static final int DEFAULT_QUEUE_SIZE = 1024;
+    static final int DEFAULT_COALESCE_SIZE = 10000;
+    private static final AtomicBoolean LOOKUP_DONE = new AtomicBoolean(false);
+    /** observer -> dispatcher, only used when dispatch is asynchronous */
+    private static final ConcurrentHashMap<ConfigObserver, ObserverDispatcher> dispatchers = new ConcurrentHashMap<>();
+    private static volatile boolean async = false;
+    private static volatile int queueSize = DEFAULT_QUEUE_SIZE;
+    private static volatile Overflow overflow = Overflow.BLOCK;
+    private static final ChangeCoalescer coalescer = new ChangeCoalescer();
+    /** serialize delivery of coalesced changes to keep them in order */
+    private static final Object flushLock = new Object();
+    /** guard the scheduler and the flush that close the current window */
+    private static final Object scheduleLock = new Object();
+    private static ScheduledExecutorService scheduler;
+    private static ScheduledFuture<?> scheduledFlush;
+    private static volatile long coalesceWindow = 0;
+    private static volatile int coalesceSize = DEFAULT_COALESCE_SIZE;
+
+    /**
+     * What to do with notifications for an observer whose queue is full.
+     */
+    public static enum Overflow {
+        /** wait until the observer have taken a notification from the queue */
+        BLOCK,
+        /** drop the notification */
+        DROP,
+        /** merge the notification with the last notification in the queue */
+        COALESCE
+    }
 
     @Override
     public void fire(ConfigChanges changes) {
+        if (!hasObservers()) {
+            return;
+        }
+        doLookup();
+        if (coalesceWindow <= 0) {
+            deliver(changes);
+            return;
+        }
+        if (coalescer.add(changes) >= coalesceSize) {
+            flush();
+        } else {
+            scheduleFlush();
+        }
+    }
+
+    /**
+     * Remove an observer and stop its dispatcher, if any. Notifications that are
+     * queued for the observer are discarded.
+     */
+    @Override
+    public void unregister(ConfigObserver observer) {
+        super.unregister(observer);
+        ObserverDispatcher dispatcher = dispatchers.remove(observer);
+        if (dispatcher != null) {
+            dispatcher.shutdown();
+        }
+    }
+
+    /**
+     * Deliver changes that have been coalesced and close the current window.
+     */
+    private void flush() {
+        synchronized (flushLock) {
+            ConfigChanges changes;
+            synchronized (scheduleLock) {
+                if (scheduledFlush != null) {
+                    scheduledFlush.cancel(false);
+                    scheduledFlush = null;
+                }
+                changes = coalescer.drain();
+            }
+            if (changes.size() > 0) {
+                deliver(changes);
+            }
+        }
+    }
+
+    /**
+     * Flush when the current window close, unless a flush is already scheduled.
+     */
+    private void scheduleFlush() {
+        synchronized (scheduleLock) {
+            if (scheduledFlush != null) {
+                return;
+            }
+            if (scheduler == null) {
+                scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "confit-notification-coalescer");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+                Runtime.getRuntime().addShutdownHook(new Thread("confit-notification-flush") {
+                    @Override
+                    public void run() {
+                        flush();
+                    }
+                });
+            }
+            scheduledFlush = scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    flush();
+                }
+            }, coalesceWindow, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void deliver(ConfigChanges changes) {
+        // only convert changes of classes that someone observe
+        Set<String> classNames = new HashSet<>();
+        for (Subscription subscription : subscriptions) {
+            classNames.add(subscription.getClassName());
+        }
+        boolean convertAll = !observers.isEmpty();
         ConfigChanges objectChanges = new ConfigChanges();
         for (ConfigChange<?> change : changes.getChanges()) {
-            if (change.before().isPresent() && change.after().isPresent() ) {
-                Object after = schemaManager.convertBean((Bean) change.after().get());
-                Object before = schemaManager.convertBean((Bean) change.before().get());
-                objectChanges.add(ConfigChange.updated(before, after));
-            } else if (change.before().isPresent() && !change.after().isPresent()) {
-                Object before = schemaManager.convertBean((Bean) change.before().get());
-                objectChanges.add(ConfigChange.deleted(before));
-            } else if (!change.before().isPresent() && change.after().isPresent()) {
-                Object after = schemaManager.convertBean((Bean) change.after().get());
-                objectChanges.add(ConfigChange.created(after));
-            } else {
-                throw new IllegalArgumentException("ConfigChanges are invalid.");
+            if (convertAll || classNames.contains(getClassName(change))) {
+                objectChanges.add(convert(change));
             }
         }
-
         for (ConfigObserver observer : observers) {
-            try {
-                observer.notify(objectChanges);
-            } catch (Throwable e) {
-                // ignore exceptions to guarantee notification delivery
-                // to other observers.
+            notify(observer, objectChanges);
+        }
+        if (subscriptions.isEmpty()) {
+            return;
+        }
+        // observer -> changes accepted by any of its subscriptions
+        Map<ConfigObserver, ConfigChanges> subscribed = new LinkedHashMap<>();
+        Set<ConfigObserver> accepted = new HashSet<>();
+        for (ConfigChange<?> change : objectChanges.getChanges()) {
+            String className = change.getChangeClass().getName();
+            accepted.clear();
+            for (Subscription subscription : subscriptions) {
+                ConfigObserver observer = subscription.getObserver();
+                if (!subscription.getClassName().equals(className) || accepted.contains(observer)
+                        || !subscription.accept(change)) {
+                    continue;
+                }
+                accepted.add(observer);
+                ConfigChanges observerChanges = subscribed.get(observer);
+                if (observerChanges == null) {
+                    observerChanges = new ConfigChanges();
+                    subscribed.put(observer, observerChanges);
+                }
+                observerChanges.add(change);
+            }
+        }
+        for (Map.Entry<ConfigObserver, ConfigChanges> entry : subscribed.entrySet()) {
+            notify(entry.getKey(), entry.getValue());
+        }
+    }
+
+    private void notify(ConfigObserver observer, ConfigChanges changes) {
+        if (async) {
+            getDispatcher(observer).dispatch(changes);
+            return;
+        }
+        try {
+            observer.notify(changes);
+        } catch (Throwable e) {
+            // ignore exceptions to guarantee notification delivery
+            // to other observers.
+        }
+    }
+
+    private ConfigChange<?> convert(ConfigChange<?> change) {
+        if (change.before().isPresent() && change.after().isPresent() ) {
+            Object after = schemaManager.convertBean((Bean) change.after().get());
+            Object before = schemaManager.convertBean((Bean) change.before().get());
+            return ConfigChange.updated(before, after);
+        } else if (change.before().isPresent() && !change.after().isPresent()) {
+            Object before = schemaManager.convertBean((Bean) change.before().get());
+            return ConfigChange.deleted(before);
+        } else if (!change.before().isPresent() && change.after().isPresent()) {
+            Object after = schemaManager.convertBean((Bean) change.after().get());
+            return ConfigChange.created(after);
+        } else {
+            throw new IllegalArgumentException("ConfigChanges are invalid.");
+        }
+    }
+
+    /**
+     * @return name of the configurable class of a change of beans.
+     */
+    private static String getClassName(ConfigChange<?> change) {
+        Bean bean = (Bean) (change.after().isPresent() ? change.after().get() : change.before().get());
+        Schema schema = bean.getSchema();
+        if (schema == null) {
+            schema = schemaManager.getSchema(bean.getId().getSchemaName());
+        }
+        return schema.getType();
+    }
+
+    /**
+     * @return statistics of each observer that have been notified asynchronously.
+     */
+    public Map<ConfigObserver, ObserverStats> getStats() {
+        Map<ConfigObserver, ObserverStats> stats = new HashMap<>();
+        for (Map.Entry<ConfigObserver, ObserverDispatcher> entry : dispatchers.entrySet()) {
+            stats.put(entry.getKey(), entry.getValue().getStats());
+        }
+        return stats;
+    }
+
+    /**
+     * Change how observers are notified. Dispatchers of observers are stopped and
+     * notifications waiting for delivery are discarded.
+     *
+     * @param async true if observers should be notified asynchronously.
+     * @param queueSize number of notifications queued for each observer.
+     * @param overflow policy of full queues.
+     */
+    static synchronized void setAsync(boolean async, int queueSize, Overflow overflow) {
+        LOOKUP_DONE.set(true);
+        for (ObserverDispatcher dispatcher : dispatchers.values()) {
+            dispatcher.shutdown();
+        }
+        dispatchers.clear();
+        DefaultNotificationManager.queueSize = queueSize;
+        DefaultNotificationManager.overflow = overflow;
+        DefaultNotificationManager.async = async;
+    }
+
+    /**
+     * Change how changes are coalesced. Changes that are already coalesced are
+     * delivered when the current window close.
+     *
+     * @param windowMillis time that changes are coalesced, 0 disables coalescing.
+     * @param size number of changed beans that close a window early.
+     */
+    static synchronized void setCoalesce(long windowMillis, int size) {
+        LOOKUP_DONE.set(true);
+        DefaultNotificationManager.coalesceSize = size;
+        DefaultNotificationManager.coalesceWindow = windowMillis;
+    }
+
+    private static ObserverDispatcher getDispatcher(ConfigObserver observer) {
+        ObserverDispatcher dispatcher = dispatchers.get(observer);
+        if (dispatcher != null) {
+            return dispatcher;
+        }
+        synchronized (DefaultNotificationManager.class) {
+            dispatcher = dispatchers.get(observer);
+            if (dispatcher == null) {
+                dispatcher = new ObserverDispatcher(observer, queueSize, overflow);
+                dispatchers.put(observer, dispatcher);
             }
+            return dispatcher;
+        }
+    }
+
+    private static void doLookup() {
+        if (LOOKUP_DONE.get()) {
+            return;
+        }
+        PropertyManager propertyManager = PropertyManager.lookup();
+        Optional<String> value = propertyManager.get(QUEUE_SIZE_PROP);
+        if (value.isPresent()) {
+            queueSize = Integer.parseInt(value.get());
+        }
+        value = propertyManager.get(OVERFLOW_PROP);
+        if (value.isPresent()) {
+            overflow = Overflow.valueOf(value.get().trim().toUpperCase());
+        }
+        value = propertyManager.get(COALESCE_SIZE_PROP);
+        if (value.isPresent()) {
+            coalesceSize = Integer.parseInt(value.get());
+        }
+        value = propertyManager.get(COALESCE_WINDOW_PROP);
+        if (value.isPresent()) {
+            coalesceWindow = Long.parseLong(value.get());
+        }
+        value = propertyManager.get(ASYNC_PROP);
+        if (value.isPresent()) {
+            async = Boolean.parseBoolean(value.get().trim());
         }
+        LOOKUP_DONE.set(true);
     }
 }
@@ -0,0 +1,186 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deephacks.confit.internal.core.notification;
+
+import org.deephacks.confit.ConfigChanges;
+import org.deephacks.confit.ConfigChanges.ConfigChange;
+import org.deephacks.confit.ConfigObserver;
+import org.deephacks.confit.internal.core.notification.DefaultNotificationManager.Overflow;
+
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Deliver notifications to a single observer from its own thread.
+ * <p>
+ * Notifications are queued in a bounded queue and delivered in the order they were
+ * fired. The overflow policy decide what happens when an observer cannot keep up
+ * and the queue is full.
+ */
+final class ObserverDispatcher {
+    private static final AtomicInteger THREAD_NUMBER = new AtomicInteger();
+    /** time that a blocked writer wait on a full queue before it check if the dispatcher stopped */
+    private static final long OFFER_TIMEOUT_MS = 100;
+    private final ConfigObserver observer;
+    private final Overflow overflow;
+    private final LinkedBlockingDeque<Notification> queue;
+    private final Thread thread;
+    /** true when stopped, writers no longer queue or wait for space */
+    private volatile boolean stopped;
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong lastLagNanos = new AtomicLong();
+    private final AtomicLong maxLagNanos = new AtomicLong();
+
+    ObserverDispatcher(ConfigObserver observer, int queueSize, Overflow overflow) {
+        this.observer = observer;
+        this.overflow = overflow;
+        this.queue = new LinkedBlockingDeque<>(queueSize);
+        this.thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                deliver();
+            }
+        }, "confit-observer-" + THREAD_NUMBER.incrementAndGet());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Queue changes for delivery according to the overflow policy. Only coalescing
+     * hold the monitor of the dispatcher, a writer that block on a full queue does
+     * not prevent other writers from dropping or coalescing.
+     */
+    void dispatch(ConfigChanges changes) {
+        if (stopped) {
+            dropped.incrementAndGet();
+            return;
+        }
+        Notification notification = new Notification(changes, System.nanoTime());
+        switch (overflow) {
+            case BLOCK:
+                block(notification);
+                break;
+            case DROP:
+                if (!queue.offer(notification)) {
+                    dropped.incrementAndGet();
+                }
+                break;
+            case COALESCE:
+                coalesce(notification);
+                break;
+            default:
+                throw new IllegalStateException("Unknown overflow policy " + overflow);
+        }
+    }
+
+    /**
+     * Wait for space in the queue, in rounds so that a writer give up once the
+     * dispatcher is stopped and no one will ever take from the queue.
+     */
+    private void block(Notification notification) {
+        try {
+            while (!stopped) {
+                if (queue.offer(notification, OFFER_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        dropped.incrementAndGet();
+    }
+
+    private synchronized void coalesce(Notification notification) {
+        while (!queue.offer(notification)) {
+            // the observer may have taken the last notification meanwhile
+            Notification last = queue.pollLast();
+            if (last != null) {
+                notification = last.merge(notification);
+                coalesced.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Stop delivering notifications. Notifications that are queued are discarded
+     * and writers that wait for space in the queue return.
+     */
+    void shutdown() {
+        stopped = true;
+        thread.interrupt();
+        queue.clear();
+    }
+
+    ObserverStats getStats() {
+        return new ObserverStats(queue.size(), delivered.get(), dropped.get(), coalesced.get(),
+                failed.get(), TimeUnit.NANOSECONDS.toMillis(lastLagNanos.get()),
+                TimeUnit.NANOSECONDS.toMillis(maxLagNanos.get()));
+    }
+
+    private void deliver() {
+        while (!Thread.currentThread().isInterrupted()) {
+            Notification notification;
+            try {
+                notification = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                observer.notify(notification.changes);
+            } catch (Throwable e) {
+                // ignore exceptions to guarantee delivery of later notifications
+                failed.incrementAndGet();
+            }
+            long lag = System.nanoTime() - notification.fired;
+            lastLagNanos.set(lag);
+            long max = maxLagNanos.get();
+            while (lag > max && !maxLagNanos.compareAndSet(max, lag)) {
+                max = maxLagNanos.get();
+            }
+            delivered.incrementAndGet();
+        }
+    }
+
+    /**
+     * Changes waiting for delivery and the time they were fired.
+     */
+    private static final class Notification {
+        private final ConfigChanges changes;
+        private final long fired;
+
+        private Notification(ConfigChanges changes, long fired) {
+            this.changes = changes;
+            this.fired = fired;
+        }
+
+        /**
+         * Merge with changes fired later, keeping the time of the earliest.
+         */
+        private Notification merge(Notification later) {
+            ConfigChanges merged = new ConfigChanges();
+            for (ConfigChange<?> change : changes.getChanges()) {
+                merged.add(change);
+            }
+            for (ConfigChange<?> change : later.changes.getChanges()) {
+                merged.add(change);
+            }
+            return new Notification(merged, fired);
+        }
+    }
+}
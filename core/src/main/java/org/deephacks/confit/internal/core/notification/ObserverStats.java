@@ -0,0 +1,97 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deephacks.confit.internal.core.notification;
+
+/**
+ * Statistics of notifications delivered asynchronously to an observer.
+ * <p>
+ * Lag is the time from when changes were fired until the observer returned
+ * from being notified of them.
+ */
+public final class ObserverStats {
+    private final int queued;
+    private final long delivered;
+    private final long dropped;
+    private final long coalesced;
+    private final long failed;
+    private final long lastLagMillis;
+    private final long maxLagMillis;
+
+    ObserverStats(int queued, long delivered, long dropped, long coalesced, long failed,
+                  long lastLagMillis, long maxLagMillis) {
+        this.queued = queued;
+        this.delivered = delivered;
+        this.dropped = dropped;
+        this.coalesced = coalesced;
+        this.failed = failed;
+        this.lastLagMillis = lastLagMillis;
+        this.maxLagMillis = maxLagMillis;
+    }
+
+    /**
+     * @return number of notifications waiting for delivery.
+     */
+    public int getQueued() {
+        return queued;
+    }
+
+    /**
+     * @return number of notifications delivered, including those where the observer failed.
+     */
+    public long getDelivered() {
+        return delivered;
+    }
+
+    /**
+     * @return number of notifications dropped because the queue was full.
+     */
+    public long getDropped() {
+        return dropped;
+    }
+
+    /**
+     * @return number of times a notification was merged with a queued notification.
+     */
+    public long getCoalesced() {
+        return coalesced;
+    }
+
+    /**
+     * @return number of notifications where the observer threw an exception.
+     */
+    public long getFailed() {
+        return failed;
+    }
+
+    /**
+     * @return lag of the last delivered notification.
+     */
+    public long getLastLagMillis() {
+        return lastLagMillis;
+    }
+
+    /**
+     * @return maximum lag of any delivered notification.
+     */
+    public long getMaxLagMillis() {
+        return maxLagMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "ObserverStats{queued=" + queued + ", delivered=" + delivered
+                + ", dropped=" + dropped + ", coalesced=" + coalesced + ", failed=" + failed
+                + ", lastLagMillis=" + lastLagMillis + ", maxLagMillis=" + maxLagMillis + "}";
+    }
+}
@@ -1,18 +1,23 @@
 package org.deephacks.confit.internal.core.schema;
 
+import com.google.common.base.Optional;
 import org.deephacks.confit.Config;
 import org.deephacks.confit.model.Bean;
 import org.deephacks.confit.model.BeanId;
 import org.deephacks.confit.model.Schema;
 import org.deephacks.confit.serialization.Conversion;
+import org.deephacks.confit.serialization.SchemaRegistry;
 import org.deephacks.confit.spi.SchemaManager;
 
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import static org.deephacks.confit.model.Events.CFG101_SCHEMA_NOT_EXIST;
 import static org.deephacks.confit.model.Events.CFG102_NOT_CONFIGURABLE;
@@ -24,6 +29,8 @@ public class DefaultSchemaManager extends SchemaManager {
     private static final HashMap<String, Schema> NAME_TO_SCHEMA = new HashMap<>();
     private static final HashMap<Class<?>, Schema> CLASS_TO_SCHEMA = new HashMap<>();
     private static final Conversion CONVERSION = Conversion.get();
+    /** registries generated at compile time, loaded on first registration */
+    private static List<SchemaRegistry> registries;
     public DefaultSchemaManager() {
     }
 
@@ -34,16 +41,15 @@ public class DefaultSchemaManager extends SchemaManager {
 
     @Override
     public void setSchema(Collection<Bean> beans) {
-        setSchema(beans, new ArrayList<BeanId>());
+        setSchema(beans, Collections.newSetFromMap(new IdentityHashMap<BeanId, Boolean>()));
     }
 
-    private void setSchema(Collection<Bean> beans, List<BeanId> seen) {
+    private void setSchema(Collection<Bean> beans, Set<BeanId> seen) {
 
         for (Bean bean : beans) {
-            if (contains(seen, bean.getId())) {
+            if (!seen.add(bean.getId())) {
                 continue;
             }
-            seen.add(bean.getId());
             Schema schema = NAME_TO_SCHEMA.get(bean.getId().getSchemaName());
             if (schema == null) {
                 throw CFG101_SCHEMA_NOT_EXIST(bean.getId().getSchemaName());
@@ -60,15 +66,6 @@ public class DefaultSchemaManager extends SchemaManager {
         }
     }
 
-    private boolean contains(List<BeanId> seen, BeanId id) {
-        for (BeanId anId : seen) {
-            if (anId == id) {
-                return true;
-            }
-        }
-        return false;
-    }
-
     @Override
     public Schema getSchema(String schemaName) {
         Schema schema = NAME_TO_SCHEMA.get(schemaName);
@@ -103,7 +100,7 @@ public class DefaultSchemaManager extends SchemaManager {
             if (schemaName == null || "".equals(schemaName)) {
                 schemaName = cls.getName();
             }
-            Schema schema = CONVERSION.convert(cls, Schema.class);
+            Schema schema = createSchema(cls);
             CLASS_TO_SCHEMA.put(cls, schema);
             NAME_TO_SCHEMA.put(schemaName, schema);
             for (Class<?> refCls : schema.getReferenceSchemaTypes()) {
@@ -114,6 +111,27 @@ public class DefaultSchemaManager extends SchemaManager {
         }
     }
 
+    /**
+     * Use schemas generated at compile time if available, otherwise create the
+     * schema using reflection.
+     */
+    private static Schema createSchema(Class<?> cls) {
+        for (SchemaRegistry registry : getRegistries()) {
+            Optional<Schema> schema = registry.getSchema(cls);
+            if (schema.isPresent()) {
+                return schema.get();
+            }
+        }
+        return CONVERSION.convert(cls, Schema.class);
+    }
+
+    private static synchronized List<SchemaRegistry> getRegistries() {
+        if (registries == null) {
+            registries = SchemaRegistry.lookup();
+        }
+        return registries;
+    }
+
     @Override
     public Schema remove(Class<?> cls) {
         return CLASS_TO_SCHEMA.remove(cls);
@@ -0,0 +1,107 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deephacks.confit.internal.core.admin;
+
+import org.deephacks.confit.internal.core.admin.BulkImport.Stage;
+import org.deephacks.confit.model.Bean;
+import org.deephacks.confit.model.BeanId;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BulkImportTest {
+
+    @Test
+    public void test_references_are_ordered_first() {
+        List<Bean> beans = new ArrayList<>();
+        // each bean reference the next, reversed so that no bean is initially ordered
+        for (int i = 0; i < 100; i++) {
+            Bean bean = bean(i);
+            if (i < 99) {
+                bean.addReference("ref", BeanId.create(Integer.toString(i + 1), "schema"));
+            }
+            beans.add(bean);
+        }
+        Collections.shuffle(beans);
+        List<List<Bean>> chunks = BulkImport.chunks(beans, 7);
+        assertEquals(15, chunks.size());
+        Set<BeanId> ordered = new HashSet<>();
+        for (List<Bean> chunk : chunks) {
+            assertTrue(chunk.size() <= 7);
+            for (Bean bean : chunk) {
+                ordered.add(bean.getId());
+            }
+            for (Bean bean : chunk) {
+                for (BeanId ref : bean.getReferences()) {
+                    assertTrue(ordered.contains(ref));
+                }
+            }
+        }
+        assertEquals(100, ordered.size());
+    }
+
+    @Test
+    public void test_cycles_are_put_last() {
+        Bean a = bean(0);
+        Bean b = bean(1);
+        a.addReference("ref", b.getId());
+        b.addReference("ref", a.getId());
+        List<Bean> beans = Arrays.asList(a, b, bean(2), bean(3), bean(4));
+        List<List<Bean>> chunks = BulkImport.chunks(beans, 2);
+        assertEquals(2, chunks.size());
+        assertEquals(3, chunks.get(1).size());
+        assertTrue(chunks.get(1).containsAll(Arrays.asList(a, b)));
+    }
+
+    @Test
+    public void test_nothing_stored_after_failure() {
+        List<Bean> beans = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            beans.add(bean(i));
+        }
+        final List<Bean> stored = Collections.synchronizedList(new ArrayList<Bean>());
+        try {
+            BulkImport.run(BulkImport.chunks(beans, 10), new Stage() {
+                @Override
+                public void apply(List<Bean> chunk) {
+                    if (chunk.contains(bean(55))) {
+                        throw new IllegalArgumentException();
+                    }
+                }
+            }, new Stage() {
+                @Override
+                public void apply(List<Bean> chunk) {
+                    stored.addAll(chunk);
+                }
+            });
+            fail("validation should fail");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        assertEquals(beans.subList(0, 50), stored);
+    }
+
+    private static Bean bean(int i) {
+        return Bean.create(BeanId.create(Integer.toString(i), "schema"));
+    }
+}
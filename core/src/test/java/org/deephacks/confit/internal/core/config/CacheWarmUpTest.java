@@ -0,0 +1,141 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deephacks.confit.internal.core.config;
+
+import org.deephacks.confit.model.Bean;
+import org.deephacks.confit.model.BeanId;
+import org.deephacks.confit.model.Schema;
+import org.deephacks.confit.query.ConfigQuery;
+import org.deephacks.confit.spi.CacheManager;
+import org.deephacks.confit.spi.SchemaManager;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.deephacks.confit.test.ConfigTestData.*;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CacheWarmUpTest {
+    private final DefaultBeanManager beanManager = new DefaultBeanManager();
+    private final SchemaManager schemaManager = SchemaManager.lookup();
+    private final RecordingCacheManager cacheManager = new RecordingCacheManager();
+
+    @Before
+    public void before() {
+        DefaultBeanManager.clear();
+        schemaManager.register(Grandfather.class, Parent.class, Child.class);
+    }
+
+    @Test
+    public void test_warm_up_schemas_in_parallel() {
+        List<Bean> beans = new ArrayList<>();
+        for (int i = 0; i < 2500; i++) {
+            beans.add(Bean.create(BeanId.create("c" + i, CHILD_SCHEMA_NAME)));
+        }
+        for (int i = 0; i < 10; i++) {
+            beans.add(Bean.create(BeanId.create("p" + i, PARENT_SCHEMA_NAME)));
+        }
+        beanManager.create(beans);
+        cacheManager.failing = GRANDFATHER_SCHEMA_NAME;
+
+        List<Schema> schemas = Arrays.asList(schemaManager.getSchema(Child.class),
+                schemaManager.getSchema(Parent.class), schemaManager.getSchema(Grandfather.class));
+        beanManager.create(Bean.create(BeanId.create("g", GRANDFATHER_SCHEMA_NAME)));
+        WarmUpProgress progress = new WarmUpProgress(schemas.size());
+        new CacheWarmUp(beanManager, schemaManager, cacheManager, 2).warmUp(schemas, progress);
+
+        assertTrue(progress.isDone());
+        assertEquals(3, progress.getCompletedSchemas());
+        assertEquals(2510, progress.getBeans());
+        assertEquals(Arrays.asList(GRANDFATHER_SCHEMA_NAME), progress.getFailedSchemas());
+        assertTrue(progress.getFailures().get(GRANDFATHER_SCHEMA_NAME) instanceof IllegalStateException);
+        assertEquals(2510, cacheManager.ids.size());
+        assertTrue(cacheManager.ids.contains(BeanId.create("c2499", CHILD_SCHEMA_NAME)));
+        assertTrue(cacheManager.ids.contains(BeanId.create("p9", PARENT_SCHEMA_NAME)));
+        assertEquals(new HashSet<>(Arrays.asList(CHILD_SCHEMA_NAME, PARENT_SCHEMA_NAME)), cacheManager.filled);
+    }
+
+    private static final class RecordingCacheManager extends CacheManager<Object> {
+        private final Set<BeanId> ids = Collections.newSetFromMap(new ConcurrentHashMap<BeanId, Boolean>());
+        private final Set<String> filled = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        private volatile String failing;
+
+        @Override
+        public void putAll(Collection<Bean> beans) {
+            for (Bean bean : beans) {
+                if (bean.getId().getSchemaName().equals(failing)) {
+                    throw new IllegalStateException(failing);
+                }
+                ids.add(bean.getId());
+            }
+        }
+
+        @Override
+        public void markFilled(String schemaName) {
+            filled.add(schemaName);
+        }
+
+        @Override
+        public void registerSchema(Schema schema) {
+        }
+
+        @Override
+        public void removeSchema(Schema schema) {
+        }
+
+        @Override
+        public Object get(BeanId id) {
+            return null;
+        }
+
+        @Override
+        public List<Object> get(String schemaName) {
+            return null;
+        }
+
+        @Override
+        public void put(Bean bean) {
+        }
+
+        @Override
+        public void remove(BeanId beanId) {
+        }
+
+        @Override
+        public void remove(String schemaName, Collection<String> instances) {
+        }
+
+        @Override
+        public void clear(String schemaName) {
+        }
+
+        @Override
+        public void clear() {
+        }
+
+        @Override
+        public ConfigQuery newQuery(Schema schema) {
+            return null;
+        }
+    }
+}
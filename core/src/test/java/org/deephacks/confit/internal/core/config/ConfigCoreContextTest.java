@@ -13,15 +13,21 @@
  */
 package org.deephacks.confit.internal.core.config;
 
+import com.google.common.base.Predicate;
 import org.deephacks.confit.Config;
+import org.deephacks.confit.ConfigChanges;
+import org.deephacks.confit.ConfigChanges.ConfigChange;
+import org.deephacks.confit.ConfigObserver;
 import org.deephacks.confit.Id;
 import org.deephacks.confit.model.AbortRuntimeException;
 import org.deephacks.confit.model.Bean;
 import org.deephacks.confit.model.BeanId;
+import org.deephacks.confit.spi.NotificationManager;
 import org.deephacks.confit.test.ConfigDefaultSetup;
 import org.deephacks.confit.test.ConfigTestData.*;
 import org.deephacks.confit.test.DateTime;
 import org.deephacks.confit.test.DurationTime;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.unitils.reflectionassert.ReflectionComparatorMode;
@@ -34,6 +40,7 @@ import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 import static org.deephacks.confit.model.Events.CFG108;
+import static org.deephacks.confit.model.Events.CFG304;
 import static org.deephacks.confit.model.Events.CFG306;
 import static org.deephacks.confit.test.ConfigTestData.*;
 import static org.hamcrest.CoreMatchers.*;
@@ -43,12 +50,23 @@ import static org.unitils.reflectionassert.ReflectionAssert.assertReflectionEqua
 
 public class ConfigCoreContextTest extends ConfigDefaultSetup {
 
+    /** observers registered by a test, unregistered after it */
+    private final List<ConfigObserver> observers = new ArrayList<>();
+
     @Before
     public void before() {
         DefaultBeanManager.clear();
+        ConfigSnapshot.clear();
         setupDefaultConfigData();
     }
 
+    @After
+    public void after() {
+        for (ConfigObserver observer : observers) {
+            NotificationManager.lookup().unregister(observer);
+        }
+    }
+
     @Test
     public void test_get() {
         admin.create(defaultBeans);
@@ -56,6 +74,14 @@ public class ConfigCoreContextTest extends ConfigDefaultSetup {
         assertReflectionEquals(g1, g_runtime, ReflectionComparatorMode.LENIENT_ORDER);
     }
 
+    @Test
+    public void test_bulk_create() {
+        admin.createBulk(defaultBeans);
+        Grandfather g_runtime = config.get("g1", Grandfather.class).get();
+        assertReflectionEquals(g1, g_runtime, ReflectionComparatorMode.LENIENT_ORDER);
+        assertThat(admin.list(defaultBeans.iterator().next().getId().getSchemaName()).isEmpty(), is(false));
+    }
+
     @Test
     public void test_all() {
         admin.create(defaultBeans);
@@ -76,6 +102,167 @@ public class ConfigCoreContextTest extends ConfigDefaultSetup {
         assertReflectionEquals(g_list, result, ReflectionComparatorMode.LENIENT_ORDER);
     }
 
+    /**
+     * Test that observers are notified with before-images fetched from storage.
+     */
+    @Test
+    public void test_notify_before_images() {
+        final List<ConfigChanges> notified = new ArrayList<>();
+        ConfigObserver observer = new ConfigObserver() {
+            @Override
+            public void notify(ConfigChanges changes) {
+                notified.add(changes);
+            }
+        };
+        observers.add(observer);
+        config.registerObserver(observer);
+        admin.create(defaultBeans);
+        float before = getChild("c1").getProp11();
+        Child c1_changed = getChild("c1");
+        c1_changed.setProp11(9.9f);
+        notified.clear();
+        admin.setObject(c1_changed);
+        assertThat(notified.size(), is(1));
+        ConfigChange<Child> change = notified.get(0).getChanges(Child.class).iterator().next();
+        assertThat(change.before().get().getProp11(), is(before));
+        assertThat(change.after().get().getProp11(), is(9.9f));
+
+        admin.createObject(getChild("unreferenced"));
+        notified.clear();
+        admin.delete(CHILD_SCHEMA_NAME, Arrays.asList("unreferenced"));
+        assertThat(notified.size(), is(1));
+        change = notified.get(0).getChanges(Child.class).iterator().next();
+        assertThat(change.before().get().getBeanId().getInstanceId(), is("unreferenced"));
+        assertFalse(change.after().isPresent());
+    }
+
+    /**
+     * Test that instances are checked to exist when nothing is observed.
+     */
+    @Test
+    public void test_update_missing_without_observers() {
+        admin.create(defaultBeans);
+        try {
+            admin.setObject(getChild("missing"));
+            fail("missing does not exist");
+        } catch (AbortRuntimeException e) {
+            assertThat(e.getEvent().getCode(), is(CFG304));
+        }
+        try {
+            admin.delete(CHILD_SCHEMA_NAME, Arrays.asList("missing"));
+            fail("missing does not exist");
+        } catch (AbortRuntimeException e) {
+            assertThat(e.getEvent().getCode(), is(CFG304));
+        }
+    }
+
+    /**
+     * Test that observers of a class only are notified of accepted changes of that class.
+     */
+    @Test
+    public void test_notify_subscribed_class() {
+        final List<ConfigChanges> notified = new ArrayList<>();
+        ConfigObserver observer = new ConfigObserver() {
+            @Override
+            public void notify(ConfigChanges changes) {
+                notified.add(changes);
+            }
+        };
+        observers.add(observer);
+        config.registerObserver(observer, Child.class, new Predicate<ConfigChange<Child>>() {
+            @Override
+            public boolean apply(ConfigChange<Child> change) {
+                return change.after().isPresent() && change.after().get().getProp11() > 100f;
+            }
+        });
+        admin.create(defaultBeans);
+        notified.clear();
+        Child c1_changed = getChild("c1");
+        c1_changed.setProp11(9.9f);
+        admin.setObject(c1_changed);
+        assertThat(notified.size(), is(0));
+
+        Child c2_changed = getChild("c2");
+        c2_changed.setProp11(999f);
+        admin.setObjects(Arrays.asList(c2_changed, getParent("p1")));
+        assertThat(notified.size(), is(1));
+        assertThat(notified.get(0).size(), is(1));
+        ConfigChange<Child> change = notified.get(0).getChanges(Child.class).iterator().next();
+        assertThat(change.after().get().getBeanId().getInstanceId(), is("c2"));
+    }
+
+    /**
+     * Test that snapshot reads return the same instances until admin changes
+     * the instance itself or an instance that it reference.
+     */
+    @Test
+    public void test_snapshot_reads() {
+        ConfigCoreContext snapshotConfig = new ConfigCoreContext(true);
+        admin.create(defaultBeans);
+        Grandfather g1_runtime = snapshotConfig.get("g1", Grandfather.class).get();
+        assertSame(g1_runtime, snapshotConfig.get("g1", Grandfather.class).get());
+        List<Grandfather> all = snapshotConfig.list(Grandfather.class);
+        assertSame(all, snapshotConfig.list(Grandfather.class));
+
+        Child c1_changed = getChild("c1");
+        c1_changed.setProp11(9.9f);
+        admin.setObject(c1_changed);
+
+        Grandfather g1_changed = snapshotConfig.get("g1", Grandfather.class).get();
+        assertNotSame(g1_runtime, g1_changed);
+        for (Parent p : g1_changed.getProp7()) {
+            for (Child c : p.getProp7()) {
+                if (c.getBeanId().getInstanceId().equals("c1")) {
+                    assertThat(c.getProp11(), is(9.9f));
+                }
+            }
+        }
+        assertNotSame(all, snapshotConfig.list(Grandfather.class));
+    }
+
+    /**
+     * Test that memoized instances are returned for unchanged beans and that
+     * changes to referenced beans produce new instances.
+     */
+    @Test
+    public void test_memoized_reads() {
+        ConvertedObjectCache.setMaximumSize(100);
+        try {
+            admin.create(defaultBeans);
+            Parent p1_runtime = config.get("p1", Parent.class).get();
+            assertSame(p1_runtime, config.get("p1", Parent.class).get());
+
+            Child c1_changed = getChild("c1");
+            c1_changed.setProp11(9.9f);
+            admin.setObject(c1_changed);
+
+            Parent p1_changed = config.get("p1", Parent.class).get();
+            assertNotSame(p1_runtime, p1_changed);
+            assertThat(p1_changed.getProp6().getProp11(), is(9.9f));
+            assertSame(p1_changed, config.get("p1", Parent.class).get());
+        } finally {
+            ConvertedObjectCache.setMaximumSize(0);
+        }
+    }
+
+    /**
+     * Versions of beans that have the same values in other properties must differ.
+     */
+    @Test
+    public void test_memoized_version_is_order_sensitive() {
+        Bean b1 = Bean.create(BeanId.create("1", "version"));
+        b1.setProperty("a", "x");
+        b1.setProperty("b", "y");
+        Bean b2 = Bean.create(BeanId.create("1", "version"));
+        b2.setProperty("a", "y");
+        b2.setProperty("b", "x");
+        Bean b3 = Bean.create(BeanId.create("1", "version"));
+        b3.setProperty("b", "y");
+        b3.setProperty("a", "x");
+        assertThat(ConvertedObjectCache.version(b1), not(ConvertedObjectCache.version(b2)));
+        assertThat(ConvertedObjectCache.version(b1), is(ConvertedObjectCache.version(b3)));
+    }
+
     @Config(name = "immutable", desc = "")
     static class ImmutableConfig {
         @Id(desc = "")
@@ -0,0 +1,139 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deephacks.confit.internal.core.config;
+
+import org.deephacks.confit.model.AbortRuntimeException;
+import org.deephacks.confit.model.Bean;
+import org.deephacks.confit.model.BeanId;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.deephacks.confit.model.Events.CFG304;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DefaultBeanManagerTest {
+    private static final String SCHEMA = "schema";
+    private final DefaultBeanManager manager = new DefaultBeanManager();
+
+    @Before
+    public void before() {
+        DefaultBeanManager.clear();
+    }
+
+    @Test
+    public void test_failed_write_is_not_visible() {
+        manager.create(Arrays.asList(bean("a", "1"), bean("b", "1")));
+        try {
+            manager.set(Arrays.asList(bean("a", "2"), bean("c", "2")));
+            fail("c does not exist");
+        } catch (AbortRuntimeException e) {
+            assertEquals(CFG304, e.getEvent().getCode());
+        }
+        assertEquals("1", manager.getEager(BeanId.create("a", SCHEMA)).get().getSingleValue("value"));
+    }
+
+    @Test
+    public void test_readers_see_consistent_versions() throws Exception {
+        manager.create(Arrays.asList(bean("a", "0"), bean("b", "0"), bean("c", "0")));
+        final AtomicBoolean done = new AtomicBoolean();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        Future<?> writer = executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (int i = 1; i < 2000; i++) {
+                        String value = Integer.toString(i);
+                        manager.set(Arrays.asList(bean("a", value), bean("b", value), bean("c", value)));
+                    }
+                } finally {
+                    done.set(true);
+                }
+            }
+        });
+        Runnable reader = new Runnable() {
+            @Override
+            public void run() {
+                while (!done.get()) {
+                    Map<BeanId, Bean> beans = manager.list(SCHEMA);
+                    assertEquals(3, beans.size());
+                    String value = null;
+                    for (Bean bean : beans.values()) {
+                        if (value == null) {
+                            value = bean.getSingleValue("value");
+                        }
+                        assertEquals(value, bean.getSingleValue("value"));
+                    }
+                }
+            }
+        };
+        Future<?>[] readers = new Future<?>[3];
+        for (int i = 0; i < readers.length; i++) {
+            readers[i] = executor.submit(reader);
+        }
+        writer.get();
+        for (Future<?> future : readers) {
+            future.get();
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals("1999", manager.getEager(BeanId.create("c", SCHEMA)).get().getSingleValue("value"));
+    }
+
+    @Test
+    public void test_list_ids_fetch_references_eagerly() {
+        Bean b = bean("b", "1");
+        b.addReference("ref", BeanId.create("a", SCHEMA));
+        manager.create(Arrays.asList(bean("a", "1"), b));
+        Map<BeanId, Bean> beans = manager.list(SCHEMA, Arrays.asList("b", "c"));
+        assertEquals(1, beans.size());
+        Bean ref = beans.get(BeanId.create("b", SCHEMA)).getFirstReference("ref").getBean();
+        assertEquals("1", ref.getSingleValue("value"));
+    }
+
+    @Test
+    public void test_changed_since() {
+        long version = manager.getVersion();
+        manager.create(Arrays.asList(bean("a", "1"), bean("b", "1")));
+        long created = manager.getVersion();
+        manager.set(bean("a", "2"));
+        manager.delete(BeanId.create("b", SCHEMA));
+        assertEquals(new HashSet<>(Arrays.asList(BeanId.create("a", SCHEMA), BeanId.create("b", SCHEMA))),
+                manager.getChangedSince(version).get());
+        assertEquals(new HashSet<>(Arrays.asList(BeanId.create("a", SCHEMA), BeanId.create("b", SCHEMA))),
+                manager.getChangedSince(created).get());
+        assertTrue(manager.getChangedSince(manager.getVersion()).get().isEmpty());
+        // versions before a clear or of another storage are not known
+        DefaultBeanManager.clear();
+        assertFalse(manager.getChangedSince(created).isPresent());
+        assertFalse(manager.getChangedSince(manager.getVersion() + 1).isPresent());
+    }
+
+    private static Bean bean(String instanceId, String value) {
+        Bean bean = Bean.create(BeanId.create(instanceId, SCHEMA));
+        bean.setProperty("value", value);
+        return bean;
+    }
+}
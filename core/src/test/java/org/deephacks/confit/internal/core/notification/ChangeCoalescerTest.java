@@ -0,0 +1,82 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deephacks.confit.internal.core.notification;
+
+import org.deephacks.confit.ConfigChanges;
+import org.deephacks.confit.ConfigChanges.ConfigChange;
+import org.deephacks.confit.model.Bean;
+import org.deephacks.confit.model.BeanId;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+
+public class ChangeCoalescerTest {
+    private final ChangeCoalescer coalescer = new ChangeCoalescer();
+
+    @Test
+    public void test_first_before_and_last_after() {
+        Bean a1 = bean("a", "1");
+        Bean a2 = bean("a", "2");
+        Bean a3 = bean("a", "3");
+        Bean b1 = bean("b", "1");
+        assertEquals(1, coalescer.add(changes(ConfigChange.updated(a1, a2))));
+        assertEquals(2, coalescer.add(changes(ConfigChange.created(b1))));
+        assertEquals(2, coalescer.add(changes(ConfigChange.updated(a2, a3))));
+        List<ConfigChange<Object>> changes = new ArrayList<>(coalescer.drain().getChanges());
+        assertEquals(2, changes.size());
+        assertSame(a1, changes.get(0).before().get());
+        assertSame(a3, changes.get(0).after().get());
+        assertFalse(changes.get(1).before().isPresent());
+        assertSame(b1, changes.get(1).after().get());
+        assertEquals(0, coalescer.drain().size());
+    }
+
+    @Test
+    public void test_created_and_deleted() {
+        Bean a1 = bean("a", "1");
+        Bean a2 = bean("a", "2");
+        coalescer.add(changes(ConfigChange.created(a1)));
+        coalescer.add(changes(ConfigChange.deleted(a1)));
+        assertEquals(0, coalescer.drain().size());
+
+        coalescer.add(changes(ConfigChange.deleted(a1)));
+        coalescer.add(changes(ConfigChange.created(a2)));
+        ConfigChange<Object> change = coalescer.drain().getChanges().iterator().next();
+        assertSame(a1, change.before().get());
+        assertSame(a2, change.after().get());
+
+        coalescer.add(changes(ConfigChange.updated(a1, a2)));
+        coalescer.add(changes(ConfigChange.deleted(a2)));
+        change = coalescer.drain().getChanges().iterator().next();
+        assertSame(a1, change.before().get());
+        assertFalse(change.after().isPresent());
+    }
+
+    private static ConfigChanges changes(ConfigChange<?> change) {
+        ConfigChanges changes = new ConfigChanges();
+        changes.add(change);
+        return changes;
+    }
+
+    private static Bean bean(String instanceId, String value) {
+        Bean bean = Bean.create(BeanId.create(instanceId, "schema"));
+        bean.setProperty("value", value);
+        return bean;
+    }
+}
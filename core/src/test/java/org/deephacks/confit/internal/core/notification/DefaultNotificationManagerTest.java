@@ -0,0 +1,224 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deephacks.confit.internal.core.notification;
+
+import org.deephacks.confit.ConfigChanges;
+import org.deephacks.confit.ConfigChanges.ConfigChange;
+import org.deephacks.confit.ConfigObserver;
+import org.deephacks.confit.internal.core.config.ConfigSnapshot;
+import org.deephacks.confit.internal.core.config.DefaultBeanManager;
+import org.deephacks.confit.internal.core.notification.DefaultNotificationManager.Overflow;
+import org.deephacks.confit.spi.NotificationManager;
+import org.deephacks.confit.test.ConfigDefaultSetup;
+import org.deephacks.confit.test.ConfigTestData.Child;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.deephacks.confit.test.ConfigTestData.getChild;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DefaultNotificationManagerTest extends ConfigDefaultSetup {
+    private final DefaultNotificationManager manager = (DefaultNotificationManager) NotificationManager.lookup();
+    /** observers registered by a test, unregistered after it */
+    private final List<ConfigObserver> observers = new ArrayList<>();
+
+    @Before
+    public void before() {
+        DefaultBeanManager.clear();
+        ConfigSnapshot.clear();
+        setupDefaultConfigData();
+        admin.create(defaultBeans);
+    }
+
+    @After
+    public void after() {
+        for (ConfigObserver observer : observers) {
+            manager.unregister(observer);
+        }
+        DefaultNotificationManager.setAsync(false, DefaultNotificationManager.DEFAULT_QUEUE_SIZE, Overflow.BLOCK);
+        DefaultNotificationManager.setCoalesce(0, DefaultNotificationManager.DEFAULT_COALESCE_SIZE);
+    }
+
+    /**
+     * Test that changes are delivered from the thread of the observer, in order.
+     */
+    @Test
+    public void test_async_delivery() throws Exception {
+        DefaultNotificationManager.setAsync(true, 16, Overflow.BLOCK);
+        final List<String> threads = new CopyOnWriteArrayList<>();
+        final List<Float> values = new CopyOnWriteArrayList<>();
+        final CountDownLatch latch = new CountDownLatch(3);
+        ConfigObserver observer = new ConfigObserver() {
+            @Override
+            public void notify(ConfigChanges changes) {
+                threads.add(Thread.currentThread().getName());
+                for (ConfigChange<Child> change : changes.getChanges(Child.class)) {
+                    values.add(change.after().get().getProp11());
+                }
+                latch.countDown();
+            }
+        };
+        register(observer);
+        for (int i = 1; i <= 3; i++) {
+            Child child = getChild("c1");
+            child.setProp11((float) i);
+            admin.setObject(child);
+        }
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        assertEquals(3, values.size());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(i + 1, values.get(i), 0);
+            assertFalse(Thread.currentThread().getName().equals(threads.get(i)));
+        }
+        // delivered is counted after the observer returns
+        long deadline = System.currentTimeMillis() + 10000;
+        while (manager.getStats().get(observer).getDelivered() < 3 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(3, manager.getStats().get(observer).getDelivered());
+    }
+
+    /**
+     * Test that the dispatcher of an observer is stopped and removed when the
+     * observer is unregistered.
+     */
+    @Test
+    public void test_unregister_removes_dispatcher() throws Exception {
+        DefaultNotificationManager.setAsync(true, 16, Overflow.BLOCK);
+        final CountDownLatch latch = new CountDownLatch(1);
+        ConfigObserver observer = new ConfigObserver() {
+            @Override
+            public void notify(ConfigChanges changes) {
+                latch.countDown();
+            }
+        };
+        register(observer);
+        admin.setObject(getChild("c1"));
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        assertTrue(manager.getStats().containsKey(observer));
+        manager.unregister(observer);
+        assertFalse(manager.getStats().containsKey(observer));
+    }
+
+    /**
+     * Test that a writer that block on the full queue of an observer return when
+     * the observer is unregistered.
+     */
+    @Test
+    public void test_unregister_releases_blocked_writer() throws Exception {
+        DefaultNotificationManager.setAsync(true, 1, Overflow.BLOCK);
+        final CountDownLatch notified = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        ConfigObserver observer = new ConfigObserver() {
+            @Override
+            public void notify(ConfigChanges changes) {
+                notified.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        register(observer);
+        // taken by the observer, which then block
+        admin.setObject(getChild("c1"));
+        assertTrue(notified.await(10, TimeUnit.SECONDS));
+        // fill the queue
+        admin.setObject(getChild("c1"));
+        final CountDownLatch written = new CountDownLatch(1);
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                admin.setObject(getChild("c1"));
+                written.countDown();
+            }
+        });
+        writer.start();
+        try {
+            assertFalse(written.await(200, TimeUnit.MILLISECONDS));
+            manager.unregister(observer);
+            assertTrue(written.await(10, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+        }
+    }
+
+    /**
+     * Test that changes fired within a window are delivered once when the window
+     * close, as one change per bean.
+     */
+    @Test
+    public void test_coalesce_window() throws Exception {
+        DefaultNotificationManager.setCoalesce(200, DefaultNotificationManager.DEFAULT_COALESCE_SIZE);
+        final List<ConfigChanges> notified = new CopyOnWriteArrayList<>();
+        final CountDownLatch latch = new CountDownLatch(1);
+        ConfigObserver observer = new ConfigObserver() {
+            @Override
+            public void notify(ConfigChanges changes) {
+                notified.add(changes);
+                latch.countDown();
+            }
+        };
+        register(observer);
+        float before = getChild("c1").getProp11();
+        for (int i = 1; i <= 3; i++) {
+            Child child = getChild("c1");
+            child.setProp11((float) i);
+            admin.setObject(child);
+        }
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        assertEquals(1, notified.size());
+        assertEquals(1, notified.get(0).size());
+        ConfigChange<Child> change = notified.get(0).getChanges(Child.class).iterator().next();
+        assertEquals(before, change.before().get().getProp11(), 0);
+        assertEquals(3, change.after().get().getProp11(), 0);
+    }
+
+    /**
+     * Test that a window is closed early when enough beans have changed.
+     */
+    @Test
+    public void test_coalesce_size() throws Exception {
+        DefaultNotificationManager.setCoalesce(TimeUnit.MINUTES.toMillis(10), 2);
+        final List<ConfigChanges> notified = new CopyOnWriteArrayList<>();
+        ConfigObserver observer = new ConfigObserver() {
+            @Override
+            public void notify(ConfigChanges changes) {
+                notified.add(changes);
+            }
+        };
+        register(observer);
+        admin.setObject(getChild("c1"));
+        assertEquals(0, notified.size());
+        admin.setObject(getChild("c2"));
+        // delivered by the writer that closed the window
+        assertEquals(1, notified.size());
+        assertEquals(2, notified.get(0).size());
+    }
+
+    private void register(ConfigObserver observer) {
+        observers.add(observer);
+        config.registerObserver(observer);
+    }
+}
@@ -0,0 +1,116 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deephacks.confit.internal.core.notification;
+
+import org.deephacks.confit.ConfigChanges;
+import org.deephacks.confit.ConfigChanges.ConfigChange;
+import org.deephacks.confit.ConfigObserver;
+import org.deephacks.confit.internal.core.notification.DefaultNotificationManager.Overflow;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ObserverDispatcherTest {
+    private final CountDownLatch entered = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final List<ConfigChanges> notified = new CopyOnWriteArrayList<>();
+    private ObserverDispatcher dispatcher;
+
+    /** observer that block on the first notification until released */
+    private final ConfigObserver slowObserver = new ConfigObserver() {
+        @Override
+        public void notify(ConfigChanges changes) {
+            entered.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            notified.add(changes);
+        }
+    };
+
+    @After
+    public void after() {
+        release.countDown();
+        if (dispatcher != null) {
+            dispatcher.shutdown();
+        }
+    }
+
+    @Test
+    public void test_drop() throws Exception {
+        dispatcher = new ObserverDispatcher(slowObserver, 1, Overflow.DROP);
+        dispatcher.dispatch(changes("1"));
+        assertTrue(entered.await(10, TimeUnit.SECONDS));
+        dispatcher.dispatch(changes("2"));
+        dispatcher.dispatch(changes("3"));
+        assertEquals(1, dispatcher.getStats().getQueued());
+        assertEquals(1, dispatcher.getStats().getDropped());
+        release.countDown();
+        awaitDelivered(2);
+        assertEquals("2", notified.get(1).getChanges().iterator().next().after().get());
+    }
+
+    @Test
+    public void test_coalesce() throws Exception {
+        dispatcher = new ObserverDispatcher(slowObserver, 1, Overflow.COALESCE);
+        dispatcher.dispatch(changes("1"));
+        assertTrue(entered.await(10, TimeUnit.SECONDS));
+        dispatcher.dispatch(changes("2"));
+        dispatcher.dispatch(changes("3"));
+        assertEquals(1, dispatcher.getStats().getCoalesced());
+        release.countDown();
+        awaitDelivered(2);
+        assertEquals(2, notified.get(1).size());
+        assertEquals(0, dispatcher.getStats().getDropped());
+    }
+
+    @Test
+    public void test_block_delivers_in_order() throws Exception {
+        dispatcher = new ObserverDispatcher(slowObserver, 10, Overflow.BLOCK);
+        for (int i = 0; i < 10; i++) {
+            dispatcher.dispatch(changes(Integer.toString(i)));
+        }
+        assertTrue(entered.await(10, TimeUnit.SECONDS));
+        release.countDown();
+        awaitDelivered(10);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(Integer.toString(i), notified.get(i).getChanges().iterator().next().after().get());
+        }
+        assertTrue(dispatcher.getStats().getMaxLagMillis() >= dispatcher.getStats().getLastLagMillis());
+    }
+
+    private void awaitDelivered(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (dispatcher.getStats().getDelivered() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, dispatcher.getStats().getDelivered());
+        assertEquals(count, notified.size());
+    }
+
+    private static ConfigChanges changes(String value) {
+        ConfigChanges changes = new ConfigChanges();
+        changes.add(ConfigChange.created(value));
+        return changes;
+    }
+}
@@ -0,0 +1,175 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deephacks.confit.internal.cached;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Number of bytes that entries of one or more off-heap caches may use.
+ * <p>
+ * A cache that exceed the budget evict entries of every cache within the budget,
+ * in the order of the eviction policy, until the budget is below its low watermark.
+ * Evicting a batch of entries at a time amortize the cost of ranking entries over
+ * many writes.
+ * <p>
+ * Entries are ranked in a single pass that only keep the entries needed to get below
+ * the low watermark, rather than sorting every entry of every cache.
+ */
+final class ByteBudget {
+    /** fraction of the budget that eviction free memory down to */
+    static final double LOW_WATERMARK = 0.9;
+    private final long maxBytes;
+    private final EvictionPolicy policy;
+    private final List<OffHeapCache<?, ?>> caches = new CopyOnWriteArrayList<>();
+    private final AtomicLong usedBytes = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong evictedBytes = new AtomicLong();
+    /** only one thread evict entries at a time, others proceed without waiting */
+    private final ReentrantLock evicting = new ReentrantLock();
+
+    /**
+     * @param maxBytes number of bytes that entries may use, 0 if unbounded.
+     * @param policy order that entries are evicted in.
+     */
+    ByteBudget(long maxBytes, EvictionPolicy policy) {
+        this.maxBytes = maxBytes;
+        this.policy = policy;
+    }
+
+    void register(OffHeapCache<?, ?> cache) {
+        caches.add(cache);
+    }
+
+    void unregister(OffHeapCache<?, ?> cache) {
+        caches.remove(cache);
+    }
+
+    EvictionPolicy getPolicy() {
+        return policy;
+    }
+
+    void add(long bytes) {
+        usedBytes.addAndGet(bytes);
+    }
+
+    /**
+     * Account for an entry that have been evicted, by this or another budget.
+     */
+    void evicted(long bytes) {
+        usedBytes.addAndGet(-bytes);
+        evictions.incrementAndGet();
+        evictedBytes.addAndGet(bytes);
+    }
+
+    boolean isExceeded() {
+        return maxBytes > 0 && usedBytes.get() > maxBytes;
+    }
+
+    /**
+     * Evict entries if the budget have been exceeded, unless another thread already
+     * evict entries.
+     */
+    void evict() {
+        if (!isExceeded() || !evicting.tryLock()) {
+            return;
+        }
+        try {
+            long lowWatermark = (long) (maxBytes * LOW_WATERMARK);
+            Selection selection = new Selection(usedBytes.get() - lowWatermark);
+            for (OffHeapCache<?, ?> cache : caches) {
+                cache.addCandidates(selection, policy);
+            }
+            for (Candidate candidate : selection.sorted()) {
+                if (usedBytes.get() <= lowWatermark) {
+                    return;
+                }
+                candidate.cache.evict(candidate.key, candidate.entry);
+            }
+        } finally {
+            evicting.unlock();
+        }
+    }
+
+    OffHeapStats getStats() {
+        return new OffHeapStats(usedBytes.get(), maxBytes, evictions.get(), evictedBytes.get());
+    }
+
+    /**
+     * Entries with the lowest priority that together free a number of bytes. Entries
+     * are kept in a heap with the highest priority first, which is dropped whenever
+     * the other entries free enough bytes without it.
+     */
+    static final class Selection {
+        private final long bytesToFree;
+        private final PriorityQueue<Candidate> heap = new PriorityQueue<>(16, Collections.reverseOrder());
+        private long selectedBytes;
+
+        private Selection(long bytesToFree) {
+            this.bytesToFree = bytesToFree;
+        }
+
+        void offer(Candidate candidate) {
+            if (bytesToFree <= 0) {
+                return;
+            }
+            if (selectedBytes >= bytesToFree && candidate.priority >= heap.peek().priority) {
+                return;
+            }
+            heap.add(candidate);
+            selectedBytes += candidate.bytes;
+            while (selectedBytes - heap.peek().bytes >= bytesToFree) {
+                selectedBytes -= heap.poll().bytes;
+            }
+        }
+
+        /**
+         * @return selected entries with the lowest priority first.
+         */
+        private List<Candidate> sorted() {
+            List<Candidate> candidates = new ArrayList<>(heap);
+            Collections.sort(candidates);
+            return candidates;
+        }
+    }
+
+    /**
+     * An entry that may be evicted, if it have not been replaced when its turn come.
+     */
+    static final class Candidate implements Comparable<Candidate> {
+        private final OffHeapCache<?, ?> cache;
+        private final Object key;
+        private final Object entry;
+        private final double priority;
+        private final int bytes;
+
+        Candidate(OffHeapCache<?, ?> cache, Object key, Object entry, double priority, int bytes) {
+            this.cache = cache;
+            this.key = key;
+            this.entry = entry;
+            this.priority = priority;
+            this.bytes = bytes;
+        }
+
+        @Override
+        public int compareTo(Candidate other) {
+            return Double.compare(priority, other.priority);
+        }
+    }
+}
@@ -0,0 +1,333 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deephacks.confit.internal.cached;
+
+import com.google.common.base.Optional;
+import org.deephacks.cached.buffer.ByteBuf;
+import org.deephacks.cached.buffer.Unpooled;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A file with the serialized proxies and indexed values of each schema, taken at
+ * a version of the bean manager. The file is memory mapped when read and proxies
+ * are served from the mapping without being copied.
+ * <p>
+ * The file starts with a header that hold the version and the index of a directory,
+ * which is written last and locate the section of each schema. Each section start
+ * with the layout and class id of proxies and if the section hold every instance of
+ * the schema, followed by records of indexed values and proxies. Sections are mapped separately and must each be smaller than 2GB.
+ * <p>
+ * A snapshot is written into a temporary file that replace the previous snapshot
+ * when complete, so that proxies served from a mapping of the previous snapshot
+ * are left intact.
+ */
+final class CacheSnapshot implements Closeable {
+    private static final int MAGIC = 0x43464753;
+    private static final int FORMAT_VERSION = 2;
+    /** magic, format version, watermark and directory index */
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 8;
+    private static final byte END = 0;
+    private static final byte INDEXED = 1;
+    private static final byte PROXY = 2;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final FileChannel channel;
+    private final long watermark;
+    /** schemaName -> offset and length of its section */
+    private final HashMap<String, long[]> sections;
+
+    private CacheSnapshot(FileChannel channel, long watermark, HashMap<String, long[]> sections) {
+        this.channel = channel;
+        this.watermark = watermark;
+        this.sections = sections;
+    }
+
+    /**
+     * @return the snapshot of a file, absent if the file does not exist or is not
+     * a complete snapshot.
+     */
+    static Optional<CacheSnapshot> open(File file) {
+        if (!file.isFile()) {
+            return Optional.absent();
+        }
+        FileChannel channel = null;
+        try {
+            channel = new RandomAccessFile(file, "r").getChannel();
+            if (channel.size() < HEADER_SIZE) {
+                channel.close();
+                return Optional.absent();
+            }
+            MappedByteBuffer header = channel.map(MapMode.READ_ONLY, 0, HEADER_SIZE);
+            if (header.getInt() != MAGIC || header.getInt() != FORMAT_VERSION) {
+                channel.close();
+                return Optional.absent();
+            }
+            long watermark = header.getLong();
+            long directoryIndex = header.getLong();
+            MappedByteBuffer directory = channel.map(MapMode.READ_ONLY, directoryIndex, channel.size() - directoryIndex);
+            HashMap<String, long[]> sections = new HashMap<>();
+            int size = directory.getInt();
+            for (int i = 0; i < size; i++) {
+                String schemaName = readString(directory);
+                sections.put(schemaName, new long[] { directory.getLong(), directory.getLong() });
+            }
+            return Optional.of(new CacheSnapshot(channel, watermark, sections));
+        } catch (Exception e) {
+            closeQuietly(channel);
+            return Optional.absent();
+        }
+    }
+
+    /**
+     * @return version of the bean manager that the snapshot was taken at.
+     */
+    long getWatermark() {
+        return watermark;
+    }
+
+    /**
+     * Map the section of a schema, which can only be taken once since proxies of
+     * a schema should only be restored once.
+     *
+     * @return section of the schema, absent if the snapshot does not have the schema.
+     */
+    synchronized Optional<Section> takeSection(String schemaName) throws IOException {
+        long[] section = sections.remove(schemaName);
+        if (section == null) {
+            return Optional.absent();
+        }
+        return Optional.of(new Section(channel.map(MapMode.READ_ONLY, section[0], section[1])));
+    }
+
+    /**
+     * Close the file, sections that have been mapped stay valid.
+     */
+    @Override
+    public void close() {
+        closeQuietly(channel);
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // nothing to do
+        }
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, UTF8);
+    }
+
+    /**
+     * Proxies and indexed values of a schema.
+     */
+    static final class Section {
+        private final String layout;
+        private final int classId;
+        private final boolean complete;
+        /** instanceId -> property name -> indexed values */
+        private final LinkedHashMap<String, Map<String, List<String>>> indexed = new LinkedHashMap<>();
+        /** instanceId -> proxy, backed by the mapping */
+        private final LinkedHashMap<String, ByteBuf> proxies = new LinkedHashMap<>();
+
+        private Section(ByteBuffer buffer) {
+            layout = readString(buffer);
+            classId = buffer.getInt();
+            complete = buffer.get() != 0;
+            for (byte type = buffer.get(); type != END; type = buffer.get()) {
+                String instanceId = readString(buffer);
+                if (type == INDEXED) {
+                    HashMap<String, List<String>> values = new HashMap<>();
+                    int properties = buffer.getInt();
+                    for (int i = 0; i < properties; i++) {
+                        String property = readString(buffer);
+                        int size = buffer.getInt();
+                        ArrayList<String> list = new ArrayList<>(size);
+                        for (int j = 0; j < size; j++) {
+                            list.add(readString(buffer));
+                        }
+                        values.put(property, list);
+                    }
+                    indexed.put(instanceId, values);
+                } else {
+                    int length = buffer.getInt();
+                    ByteBuffer proxy = buffer.duplicate();
+                    proxy.limit(proxy.position() + length);
+                    proxies.put(instanceId, Unpooled.wrappedBuffer(proxy.slice()));
+                    buffer.position(buffer.position() + length);
+                }
+            }
+        }
+
+        /**
+         * @return names and types of proxy fields that the proxies were written with.
+         */
+        String getLayout() {
+            return layout;
+        }
+
+        /**
+         * @return class id that the proxies were written with.
+         */
+        int getClassId() {
+            return classId;
+        }
+
+        /**
+         * @return true if the cache had every instance of the schema when written.
+         */
+        boolean isComplete() {
+            return complete;
+        }
+
+        Map<String, Map<String, List<String>>> getIndexed() {
+            return indexed;
+        }
+
+        Map<String, ByteBuf> getProxies() {
+            return proxies;
+        }
+    }
+
+    /**
+     * Write a snapshot one schema at a time. The snapshot replace the file when
+     * committed, or is discarded if closed before that.
+     */
+    static final class Writer implements Closeable {
+        private final File file;
+        private final File tmp;
+        private final FileChannel channel;
+        private final DataOutputStream out;
+        /** schemaName -> offset and length of its section */
+        private final LinkedHashMap<String, long[]> sections = new LinkedHashMap<>();
+        private String schemaName;
+        private long sectionIndex;
+        private boolean committed = false;
+
+        Writer(File file, long watermark) throws IOException {
+            this.file = file;
+            this.tmp = new File(file.getPath() + ".tmp");
+            this.channel = new RandomAccessFile(tmp, "rw").getChannel();
+            channel.truncate(0);
+            this.out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(watermark);
+            // directory index is written on commit
+            out.writeLong(0);
+        }
+
+        /**
+         * @param complete true if the cache have every instance of the schema.
+         */
+        void beginSchema(String schemaName, String layout, int classId, boolean complete) throws IOException {
+            this.schemaName = schemaName;
+            this.sectionIndex = position();
+            writeString(layout);
+            out.writeInt(classId);
+            out.writeBoolean(complete);
+        }
+
+        void writeIndexed(String instanceId, Map<String, List<String>> values) throws IOException {
+            out.writeByte(INDEXED);
+            writeString(instanceId);
+            out.writeInt(values.size());
+            for (Map.Entry<String, List<String>> entry : values.entrySet()) {
+                writeString(entry.getKey());
+                out.writeInt(entry.getValue().size());
+                for (String value : entry.getValue()) {
+                    writeString(value);
+                }
+            }
+        }
+
+        void writeProxy(String instanceId, ByteBuf buf) throws IOException {
+            out.writeByte(PROXY);
+            writeString(instanceId);
+            out.writeInt(buf.capacity());
+            buf.getBytes(0, out, buf.capacity());
+        }
+
+        void endSchema() throws IOException {
+            out.writeByte(END);
+            sections.put(schemaName, new long[] { sectionIndex, position() - sectionIndex });
+        }
+
+        /**
+         * Write the directory and replace the file with the snapshot.
+         */
+        void commit() throws IOException {
+            long directoryIndex = position();
+            out.writeInt(sections.size());
+            for (Map.Entry<String, long[]> section : sections.entrySet()) {
+                writeString(section.getKey());
+                out.writeLong(section.getValue()[0]);
+                out.writeLong(section.getValue()[1]);
+            }
+            out.flush();
+            ByteBuffer index = ByteBuffer.allocate(8);
+            index.putLong(0, directoryIndex);
+            channel.write(index, HEADER_SIZE - 8);
+            channel.force(true);
+            channel.close();
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            committed = true;
+        }
+
+        @Override
+        public void close() {
+            closeQuietly(channel);
+            if (!committed) {
+                tmp.delete();
+            }
+        }
+
+        private long position() throws IOException {
+            out.flush();
+            return channel.position();
+        }
+
+        private void writeString(String value) throws IOException {
+            byte[] bytes = value.getBytes(UTF8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+}
@@ -13,26 +13,42 @@
  */
 package org.deephacks.confit.internal.cached;
 
+import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
 import org.deephacks.cached.Cache;
-import org.deephacks.cached.CacheBuilder;
+import org.deephacks.cached.buffer.ByteBuf;
+import org.deephacks.cached.buffer.Unpooled;
 import org.deephacks.cached.buffer.util.internal.chmv8.ConcurrentHashMapV8;
+import org.deephacks.confit.internal.cached.OffHeapCache.BufferVisitor;
 import org.deephacks.confit.internal.cached.proxy.ConfigProxyGenerator;
 import org.deephacks.confit.internal.cached.query.ConfigIndex;
+import org.deephacks.confit.internal.cached.query.ConfigIndexFields;
 import org.deephacks.confit.internal.cached.query.ConfigIndexedCollection;
 import org.deephacks.confit.model.Bean;
 import org.deephacks.confit.model.BeanId;
 import org.deephacks.confit.model.Events;
 import org.deephacks.confit.model.Schema;
 import org.deephacks.confit.query.ConfigQuery;
+import org.deephacks.confit.serialization.Conversion;
+import org.deephacks.confit.spi.BeanManager;
 import org.deephacks.confit.spi.CacheManager;
+import org.deephacks.confit.spi.PropertyManager;
+import org.deephacks.confit.spi.SchemaManager;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static org.deephacks.confit.internal.cached.proxy.ConfigProxyGenerator.PROXY_CLASS_SUFFIX;
 
@@ -46,11 +62,78 @@ import static org.deephacks.confit.internal.cached.proxy.ConfigProxyGenerator.PR
  * This is a de-duplicating measure to save memory and simplify cache consistency.
  * Avoiding cache serialization of instances that potentially come from different
  * configurable object hierarchies.
+ *
+ * Proxies are deserialized with all their properties when fetched from the cache,
+ * unless flyweight proxies are enabled. Flyweight proxies are fetched without
+ * deserialization and decode a property from the off-heap cache each time it is read,
+ * which is faster when few properties are read from each proxy.
+ *
+ * Proxies that have been fetched can also be kept in a bounded on-heap cache, shared
+ * by all schemas, that serve frequently fetched proxies without deserialization.
+ * Proxies are evicted in least recently used order and invalidated when their
+ * bean is put or removed.
+ *
+ * The memory used by off-heap caches can be bounded by a global byte budget and
+ * a byte budget for each schema. Proxies are evicted by an {@link EvictionPolicy}
+ * when a budget is exceeded and read through from the BeanManager when they are
+ * fetched again.
+ *
+ * Proxies and indexes can be written into a snapshot file, taken at a version of the
+ * BeanManager. A node that restart map the snapshot and serve proxies from it, and only
+ * replay beans changed after that version from the BeanManager, instead of filling
+ * the cache with every bean. Snapshots require a versioned BeanManager, like the
+ * default and MapDB bean managers.
  */
 public class CachedCacheManager extends CacheManager<Object> {
+    /** property that enable flyweight proxies, true or false */
+    public static final String FLYWEIGHT_PROP = "confit.cache.flyweight";
+    /** property for the maximum number of proxies kept on-heap, 0 disables the on-heap cache */
+    public static final String L1_SIZE_PROP = "confit.cache.l1.size";
+    /** property for the number of bytes used by all off-heap caches, 0 is unbounded */
+    public static final String MAX_BYTES_PROP = "confit.cache.max.bytes";
+    /**
+     * property for the number of bytes used by the off-heap cache of each schema, 0 is
+     * unbounded. A schema can have its own budget in a property with the schema name
+     * appended, like confit.cache.schema.max.bytes.name
+     */
+    public static final String SCHEMA_MAX_BYTES_PROP = "confit.cache.schema.max.bytes";
+    /** property for the eviction policy, LRU, LFU, SIZE or the name of an {@link EvictionPolicy} class */
+    public static final String EVICTION_PROP = "confit.cache.eviction";
+    /**
+     * property for the path of a snapshot file, which is restored when schemas are
+     * registered and written when the JVM shut down
+     */
+    public static final String SNAPSHOT_PROP = "confit.cache.snapshot";
+    /**
+     * property for the maximum number of query results cached for each schema, 0
+     * disables the cache. Results are cached until instances of the schema are written.
+     */
+    public static final String QUERY_CACHE_SIZE_PROP = "confit.query.cache.size";
+    private static final AtomicBoolean LOOKUP_DONE = new AtomicBoolean(false);
+    private static volatile boolean flyweight = false;
+    /** beanId -> proxy, null if disabled */
+    private static volatile com.google.common.cache.Cache<BeanId, Object> l1;
+    private static volatile EvictionPolicy evictionPolicy = EvictionPolicy.LRU;
+    private static volatile long schemaMaxBytes = 0;
+    private static volatile long queryCacheSize = 0;
+    /** budget shared by the caches of all schemas */
+    private static volatile ByteBudget globalBudget = new ByteBudget(0, EvictionPolicy.LRU);
+    /** schemaName -> budget of the cache of the schema */
+    private static final ConcurrentHashMapV8<String, ByteBudget> schemaBudgets = new ConcurrentHashMapV8<>();
+
+    /** snapshot that schemas are restored from, null if none */
+    private static volatile CacheSnapshot snapshot;
+    /** beans changed after the version of the snapshot */
+    private static volatile Set<BeanId> snapshotChanges = Collections.emptySet();
+    /** schemas that the cache have every instance of, from a warm-up or a complete snapshot */
+    private static final Set<String> filledSchemas = Collections.newSetFromMap(new ConcurrentHashMapV8<String, Boolean>());
+    private static final Conversion conversion = Conversion.get();
+
+    /** schemaName -> schema */
+    private static final ConcurrentHashMapV8<String, Schema> schemas = new ConcurrentHashMapV8<>();
 
     /** SchemaName -> Cache */
-    private static final ConcurrentHashMapV8<String, Cache<BeanId, Object>> caches = new ConcurrentHashMapV8<>();
+    private static final ConcurrentHashMapV8<String, OffHeapCache<BeanId, Object>> caches = new ConcurrentHashMapV8<>();
 
     /** generate proxies that are stored in schema-specific caches */
     private static final ConfigProxyGenerator proxyGenerator = new ConfigProxyGenerator();
@@ -58,6 +141,9 @@ public class CachedCacheManager extends CacheManager<Object> {
     /** proxies are serialized into binary ByteBuf form using this serializer */
     private static final DefaultCacheValueSerializer defaultSerializer = new DefaultCacheValueSerializer();
 
+    /** proxies are read as flyweights using this serializer */
+    private static final DefaultCacheValueSerializer flyweightSerializer = new DefaultCacheValueSerializer(true);
+
     /** schemaName -> index */
     private static final HashMap<String, ConfigIndex> configIndexes = new HashMap<>();
 
@@ -66,14 +152,18 @@ public class CachedCacheManager extends CacheManager<Object> {
 
     @Override
     public void registerSchema(Schema schema) {
+        schemas.put(schema.getName(), schema);
         proxyGenerator.put(schema);
         defaultSerializer.put(schema);
         putIndex(schema);
+        restore(schema);
     }
 
     @Override
     public void removeSchema(Schema schema) {
         String schemaName = schema.getName();
+        schemas.remove(schemaName);
+        filledSchemas.remove(schemaName);
         clear(schemaName);
         indexCollections.remove(schemaName);
         configIndexes.remove(schemaName);
@@ -83,10 +173,40 @@ public class CachedCacheManager extends CacheManager<Object> {
     public Object get(BeanId id) {
         Cache<BeanId, Object> cache = getCache(id.getSchemaName());
         Object proxy = cache.get(id);
+        if (proxy == null) {
+            proxy = load(id);
+            if (proxy == null) {
+                return null;
+            }
+        }
         validateCacheObject(proxy);
         return proxy;
     }
 
+    /**
+     * Read through to the BeanManager for proxies that have been evicted or
+     * never were put into the cache.
+     */
+    private Object load(BeanId id) {
+        BeanManager beanManager = BeanManager.lookup();
+        if (beanManager == null) {
+            return null;
+        }
+        Optional<Bean> bean = beanManager.getEager(id);
+        if (!bean.isPresent()) {
+            return null;
+        }
+        SchemaManager.lookup().setSchema(Arrays.asList(bean.get()));
+        // nothing was written, so indexes and cached query results are left alone
+        putProxies(bean.get());
+        Object proxy = getCache(id.getSchemaName()).get(id);
+        if (proxy == null) {
+            // evicted already by a budget that is smaller than the proxy
+            proxy = proxyGenerator.generateConfigProxy(bean.get());
+        }
+        return proxy;
+    }
+
     @Override
     public List<Object> get(String schemaName) {
         Cache<BeanId, Object> cache = getCache(schemaName);
@@ -103,16 +223,27 @@ public class CachedCacheManager extends CacheManager<Object> {
         Preconditions.checkNotNull(schema, "Missing schema");
         ConfigIndexedCollection col = indexCollections.get(bean.getId().getSchemaName());
         col.add(bean);
+        col.modified();
+        for (Bean b : putProxies(bean)) {
+            modified(b.getId().getSchemaName());
+        }
+    }
 
-        BeanId id = bean.getId();
+    /**
+     * Put proxies of a bean and the beans it reference into the cache, without
+     * indexing them.
+     *
+     * @return beans that proxies were put for.
+     */
+    private Set<Bean> putProxies(Bean bean) {
         Set<Bean> beans = flattenReferences(bean);
-
         for (Bean b : beans) {
             Object proxy = proxyGenerator.generateConfigProxy(b);
             validateCacheObject(proxy);
             Cache<BeanId, Object> cache = getCache(b.getId().getSchemaName());
-            cache.put(id, proxy);
+            cache.put(b.getId(), proxy);
         }
+        return beans;
     }
 
     @Override
@@ -162,6 +293,7 @@ public class CachedCacheManager extends CacheManager<Object> {
         }
         ConfigIndexedCollection col = indexCollections.get(beanId.getSchemaName());
         col.remove(beanId);
+        col.modified();
     }
 
     @Override
@@ -177,12 +309,26 @@ public class CachedCacheManager extends CacheManager<Object> {
         if(cache != null) {
             cache.clear();
         }
+        filledSchemas.remove(schemaName);
+        modified(schemaName);
     }
 
     @Override
     public void clear() {
         for (String key : caches.keySet()) {
             caches.get(key).clear();
+            modified(key);
+        }
+        filledSchemas.clear();
+    }
+
+    /**
+     * Invalidate cached query results of a schema.
+     */
+    private static void modified(String schemaName) {
+        ConfigIndexedCollection col = indexCollections.get(schemaName);
+        if (col != null) {
+            col.modified();
         }
     }
 
@@ -195,24 +341,413 @@ public class CachedCacheManager extends CacheManager<Object> {
         return new org.deephacks.confit.internal.cached.query.ConfigQuery<>(collection, this);
     }
 
+    @Override
+    public boolean isFilled(String schemaName) {
+        return filledSchemas.contains(schemaName);
+    }
+
+    @Override
+    public void markFilled(String schemaName) {
+        filledSchemas.add(schemaName);
+    }
+
+    /**
+     * Write proxies and indexes of all schemas into a snapshot file, which replace
+     * the file when complete. Proxies that are replaced while the snapshot is written
+     * are replayed when it is restored, but beans that are written into the BeanManager
+     * and not yet put into the cache are missed, so snapshots should be written when
+     * no beans are being changed.
+     *
+     * Only schemas that the cache is filled with are restored as filled, other schemas
+     * are restored with the proxies they had and filled from the BeanManager as usual.
+     *
+     * @return false if the BeanManager is not versioned, in which case no snapshot is written.
+     */
+    public boolean writeSnapshot(File file) throws IOException {
+        BeanManager beanManager = BeanManager.lookup();
+        // taken before proxies are written, so that any change that race the snapshot is replayed
+        long watermark = beanManager == null ? -1 : beanManager.getVersion();
+        if (watermark < 0) {
+            return false;
+        }
+        try (final CacheSnapshot.Writer writer = new CacheSnapshot.Writer(file, watermark)) {
+            for (Schema schema : schemas.values()) {
+                ConfigIndexedCollection col = indexCollections.get(schema.getName());
+                if (col == null) {
+                    continue;
+                }
+                Class<?> cls = proxyGenerator.getConfigProxyClass(schema);
+                writer.beginSchema(schema.getName(), defaultSerializer.getLayout(cls), defaultSerializer.getClassId(cls),
+                        filledSchemas.contains(schema.getName()));
+                for (Object fields : col.all()) {
+                    ConfigIndexFields indexed = (ConfigIndexFields) fields;
+                    writer.writeIndexed(indexed.getBeanId().getInstanceId(), toStrings(indexed.fields));
+                }
+                OffHeapCache<BeanId, Object> cache = caches.get(schema.getName());
+                if (cache != null) {
+                    cache.visitBuffers(new BufferVisitor<BeanId>() {
+                        @Override
+                        public void visit(BeanId id, ByteBuf buf) throws IOException {
+                            writer.writeProxy(id.getInstanceId(), buf);
+                        }
+                    });
+                }
+                writer.endSchema();
+            }
+            writer.commit();
+        }
+        return true;
+    }
+
+    private static Map<String, List<String>> toStrings(Map<String, Object> fields) {
+        Map<String, List<String>> values = new HashMap<>();
+        for (Map.Entry<String, Object> field : fields.entrySet()) {
+            if (field.getValue() instanceof Collection) {
+                values.put(field.getKey(), new ArrayList<>(conversion.convert((Collection<?>) field.getValue(), String.class)));
+            } else {
+                values.put(field.getKey(), Arrays.asList(conversion.convert(field.getValue(), String.class)));
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Restore proxies and indexes of a schema from the snapshot, unless proxies of the
+     * schema have changed layout, and replay beans that have changed after it was taken.
+     */
+    private void restore(Schema schema) {
+        synchronized (caches) {
+            doLookup();
+            CacheSnapshot current = snapshot;
+            if (current == null) {
+                return;
+            }
+            Optional<CacheSnapshot.Section> section;
+            try {
+                section = current.takeSection(schema.getName());
+            } catch (IOException e) {
+                return;
+            }
+            if (!section.isPresent()) {
+                return;
+            }
+            Class<?> cls = proxyGenerator.getConfigProxyClass(schema);
+            if (!section.get().getLayout().equals(defaultSerializer.getLayout(cls))) {
+                return;
+            }
+            int classId = defaultSerializer.getClassId(cls);
+            ConfigIndexedCollection col = indexCollections.get(schema.getName());
+            for (Map.Entry<String, Map<String, List<String>>> indexed : section.get().getIndexed().entrySet()) {
+                col.add(toIndexedBean(schema, indexed.getKey(), indexed.getValue()));
+            }
+            OffHeapCache<BeanId, Object> cache = getCache(schema.getName());
+            for (Map.Entry<String, ByteBuf> proxy : section.get().getProxies().entrySet()) {
+                ByteBuf buf = proxy.getValue();
+                if (section.get().getClassId() != classId) {
+                    // class ids are assigned per JVM, copy the proxy to replace it
+                    buf = Unpooled.directBuffer(buf.capacity()).writeBytes(buf, 0, buf.capacity());
+                    buf.setInt(0, classId);
+                }
+                cache.putBuffer(BeanId.create(proxy.getKey(), schema.getName()), buf);
+            }
+            replay(schema.getName());
+            if (section.get().isComplete()) {
+                filledSchemas.add(schema.getName());
+            }
+        }
+    }
+
+    private static Bean toIndexedBean(Schema schema, String instanceId, Map<String, List<String>> values) {
+        Bean bean = Bean.create(BeanId.create(instanceId, schema.getName()));
+        bean.set(schema);
+        for (Map.Entry<String, List<String>> value : values.entrySet()) {
+            String property = value.getKey();
+            if (schema.isReference(property)) {
+                String schemaName = schema.getReferenceSchemaName(property);
+                List<BeanId> ids = new ArrayList<>();
+                for (String id : value.getValue()) {
+                    ids.add(BeanId.create(id, schemaName));
+                }
+                bean.addReference(property, ids);
+            } else {
+                bean.addProperty(property, value.getValue());
+            }
+        }
+        return bean;
+    }
+
+    /**
+     * Put or remove beans of a schema that have changed after the snapshot was taken.
+     */
+    private void replay(String schemaName) {
+        BeanManager beanManager = BeanManager.lookup();
+        for (BeanId id : snapshotChanges) {
+            if (!id.getSchemaName().equals(schemaName)) {
+                continue;
+            }
+            remove(id);
+            Optional<Bean> bean = beanManager.getEager(id);
+            if (bean.isPresent()) {
+                SchemaManager.lookup().setSchema(Arrays.asList(bean.get()));
+                put(bean.get());
+            }
+        }
+    }
+
+    /**
+     * Use a snapshot file to restore schemas that are registered from now on. The
+     * snapshot is not used if the file does not exist or if the BeanManager cannot
+     * tell what changed after the snapshot was taken.
+     */
+    static void setSnapshot(File file) {
+        synchronized (caches) {
+            LOOKUP_DONE.set(true);
+            openSnapshot(file);
+        }
+    }
+
+    private static void openSnapshot(File file) {
+        if (snapshot != null) {
+            snapshot.close();
+            snapshot = null;
+        }
+        snapshotChanges = Collections.emptySet();
+        Optional<CacheSnapshot> opened = CacheSnapshot.open(file);
+        if (!opened.isPresent()) {
+            return;
+        }
+        BeanManager beanManager = BeanManager.lookup();
+        Optional<Set<BeanId>> changes = Optional.absent();
+        if (beanManager != null) {
+            changes = beanManager.getChangedSince(opened.get().getWatermark());
+        }
+        if (!changes.isPresent()) {
+            opened.get().close();
+            return;
+        }
+        snapshot = opened.get();
+        snapshotChanges = changes.get();
+    }
+
     private void putIndex(Schema schema) {
         if(configIndexes.get(schema.getName()) != null) {
             return;
         }
+        doLookup();
         ConfigIndex index = new ConfigIndex(schema);
         configIndexes.put(schema.getName(), index);
-        indexCollections.put(schema.getName(), new ConfigIndexedCollection(index));
+        ConfigIndexedCollection col = new ConfigIndexedCollection(index);
+        col.setResultCacheSize(queryCacheSize);
+        indexCollections.put(schema.getName(), col);
     }
 
-    private Cache<BeanId, Object> getCache(String schemaName) {
-        Cache<BeanId, Object> cache = caches.get(schemaName);
+    private OffHeapCache<BeanId, Object> getCache(String schemaName) {
+        OffHeapCache<BeanId, Object> cache = caches.get(schemaName);
         if(cache == null) {
             synchronized (caches) {
-                cache = CacheBuilder.<BeanId, Object>newBuilder()
-                        .serializer(defaultSerializer).build();
-                caches.put(schemaName, cache);
+                cache = caches.get(schemaName);
+                if (cache == null) {
+                    doLookup();
+                    List<ByteBudget> budgets = Arrays.asList(getSchemaBudget(schemaName), globalBudget);
+                    if (flyweight) {
+                        // flyweights keep references to buffers that must not be released
+                        cache = new OffHeapCache<>(flyweightSerializer, false, l1, budgets);
+                    } else {
+                        cache = new OffHeapCache<>(defaultSerializer, true, l1, budgets);
+                    }
+                    caches.put(schemaName, cache);
+                }
             }
         }
         return cache;
     }
+
+    /**
+     * @return statistics of the on-heap cache, which are all zero if it is disabled.
+     */
+    public CacheStats getL1Stats() {
+        com.google.common.cache.Cache<BeanId, Object> current = l1;
+        if (current == null) {
+            return new CacheStats(0, 0, 0, 0, 0, 0);
+        }
+        return current.stats();
+    }
+
+    private static ByteBudget getSchemaBudget(String schemaName) {
+        long maxBytes = schemaMaxBytes;
+        PropertyManager propertyManager = PropertyManager.lookup();
+        if (propertyManager != null) {
+            Optional<String> value = propertyManager.get(SCHEMA_MAX_BYTES_PROP + "." + schemaName);
+            if (value.isPresent()) {
+                maxBytes = Long.parseLong(value.get().trim());
+            }
+        }
+        ByteBudget budget = new ByteBudget(maxBytes, evictionPolicy);
+        schemaBudgets.put(schemaName, budget);
+        return budget;
+    }
+
+    /**
+     * @return statistics of cached query results of a schema, which are all zero if
+     * the cache is disabled.
+     */
+    public CacheStats getQueryCacheStats(String schemaName) {
+        ConfigIndexedCollection col = indexCollections.get(schemaName);
+        if (col == null) {
+            throw Events.CFG101_SCHEMA_NOT_EXIST(schemaName);
+        }
+        return col.getResultCacheStats();
+    }
+
+    /**
+     * @return memory used by the off-heap caches of all schemas.
+     */
+    public OffHeapStats getOffHeapStats() {
+        return globalBudget.getStats();
+    }
+
+    /**
+     * @return memory used by the off-heap cache of a schema.
+     */
+    public OffHeapStats getOffHeapStats(String schemaName) {
+        getCache(schemaName);
+        return schemaBudgets.get(schemaName).getStats();
+    }
+
+    /**
+     * Change if proxies are read as flyweights. Caches are dropped and must be
+     * filled again.
+     */
+    static void setFlyweight(boolean flyweight) {
+        synchronized (caches) {
+            LOOKUP_DONE.set(true);
+            dropCaches();
+            CachedCacheManager.flyweight = flyweight;
+        }
+    }
+
+    /**
+     * Set the maximum number of proxies kept on-heap. Caches are dropped and must be
+     * filled again.
+     *
+     * @param maximumSize maximum size, 0 disables the on-heap cache.
+     */
+    static void setL1Size(long maximumSize) {
+        synchronized (caches) {
+            LOOKUP_DONE.set(true);
+            dropCaches();
+            l1 = newL1(maximumSize);
+        }
+    }
+
+    /**
+     * Set the byte budgets of off-heap caches. Caches are dropped and must be
+     * filled again.
+     *
+     * @param maxBytes number of bytes used by all caches, 0 is unbounded.
+     * @param schemaMaxBytes number of bytes used by the cache of each schema, 0 is unbounded.
+     * @param policy order that proxies are evicted in.
+     */
+    static void setBudgets(long maxBytes, long schemaMaxBytes, EvictionPolicy policy) {
+        synchronized (caches) {
+            LOOKUP_DONE.set(true);
+            dropCaches();
+            CachedCacheManager.evictionPolicy = policy;
+            CachedCacheManager.schemaMaxBytes = schemaMaxBytes;
+            globalBudget = new ByteBudget(maxBytes, policy);
+        }
+    }
+
+    /**
+     * Set the maximum number of query results cached for each schema, cached
+     * results are dropped.
+     *
+     * @param maximumSize maximum size, 0 disables the cache.
+     */
+    static void setQueryCacheSize(long maximumSize) {
+        synchronized (caches) {
+            doLookup();
+            queryCacheSize = maximumSize;
+            for (ConfigIndexedCollection col : indexCollections.values()) {
+                col.setResultCacheSize(maximumSize);
+            }
+        }
+    }
+
+    private static void dropCaches() {
+        for (OffHeapCache<BeanId, Object> cache : caches.values()) {
+            cache.close();
+        }
+        caches.clear();
+        schemaBudgets.clear();
+    }
+
+    private static com.google.common.cache.Cache<BeanId, Object> newL1(long maximumSize) {
+        if (maximumSize <= 0) {
+            return null;
+        }
+        return CacheBuilder.newBuilder().maximumSize(maximumSize).recordStats().build();
+    }
+
+    private static void doLookup() {
+        if (LOOKUP_DONE.get()) {
+            return;
+        }
+        PropertyManager propertyManager = PropertyManager.lookup();
+        Optional<String> value = propertyManager.get(FLYWEIGHT_PROP);
+        if (value.isPresent()) {
+            flyweight = Boolean.parseBoolean(value.get().trim());
+        }
+        value = propertyManager.get(L1_SIZE_PROP);
+        if (value.isPresent()) {
+            l1 = newL1(Long.parseLong(value.get().trim()));
+        }
+        value = propertyManager.get(EVICTION_PROP);
+        if (value.isPresent()) {
+            evictionPolicy = newEvictionPolicy(value.get().trim());
+        }
+        value = propertyManager.get(SCHEMA_MAX_BYTES_PROP);
+        if (value.isPresent()) {
+            schemaMaxBytes = Long.parseLong(value.get().trim());
+        }
+        value = propertyManager.get(MAX_BYTES_PROP);
+        long maxBytes = value.isPresent() ? Long.parseLong(value.get().trim()) : 0;
+        globalBudget = new ByteBudget(maxBytes, evictionPolicy);
+        value = propertyManager.get(QUERY_CACHE_SIZE_PROP);
+        if (value.isPresent()) {
+            queryCacheSize = Long.parseLong(value.get().trim());
+        }
+        value = propertyManager.get(SNAPSHOT_PROP);
+        if (value.isPresent()) {
+            final File file = new File(value.get().trim());
+            openSnapshot(file);
+            Runtime.getRuntime().addShutdownHook(new Thread("confit-cache-snapshot") {
+                @Override
+                public void run() {
+                    try {
+                        new CachedCacheManager().writeSnapshot(file);
+                    } catch (IOException e) {
+                        // the cache is filled from the BeanManager on next start
+                    }
+                }
+            });
+        }
+        LOOKUP_DONE.set(true);
+    }
+
+    private static EvictionPolicy newEvictionPolicy(String name) {
+        switch (name.toUpperCase()) {
+            case "LRU":
+                return EvictionPolicy.LRU;
+            case "LFU":
+                return EvictionPolicy.LFU;
+            case "SIZE":
+                return EvictionPolicy.SIZE;
+        }
+        try {
+            return (EvictionPolicy) Class.forName(name).newInstance();
+        } catch (Exception e) {
+            throw new IllegalArgumentException("Could not create eviction policy " + name, e);
+        }
+    }
 }
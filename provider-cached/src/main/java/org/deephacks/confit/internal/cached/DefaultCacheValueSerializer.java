@@ -2,11 +2,16 @@ package org.deephacks.confit.internal.cached;
 
 import org.deephacks.cached.CacheValueSerializer;
 import org.deephacks.cached.buffer.ByteBuf;
+import org.deephacks.cached.buffer.ByteBufAllocator;
+import org.deephacks.cached.buffer.PooledByteBufAllocator;
 import org.deephacks.cached.buffer.Unpooled;
 import org.deephacks.cached.buffer.util.internal.chmv8.ConcurrentHashMapV8;
 import org.deephacks.confit.internal.cached.DefaultCacheValueSerializer.UniqueId.ByteArrayReader;
+import org.deephacks.confit.internal.cached.DefaultCacheValueSerializer.UniqueId.ByteBufReader;
 import org.deephacks.confit.internal.cached.DefaultCacheValueSerializer.UniqueId.DataType;
 import org.deephacks.confit.internal.cached.DefaultCacheValueSerializer.UniqueId.UnsafeSetOp;
+import org.deephacks.confit.internal.cached.DefaultCacheValueSerializer.UniqueId.ValueReader;
+import org.deephacks.confit.internal.cached.proxy.ConfigFlyweight;
 import org.deephacks.confit.internal.cached.proxy.ConfigProxyGenerator;
 import org.deephacks.confit.internal.cached.proxy.ConfigReferenceHolder;
 import org.deephacks.confit.model.Schema;
@@ -15,7 +20,9 @@ import org.deephacks.confit.model.Schema.SchemaPropertyList;
 import org.deephacks.confit.serialization.Conversion;
 import sun.misc.Unsafe;
 
+import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
@@ -34,15 +41,18 @@ import static org.deephacks.confit.internal.cached.UnsafeUtils.getUnsafe;
  *
  * Each class is given an integer id which is used to correlate how to read objects
  * from a byte buffer without actually writing the whole class into the buffer.
+ *
+ * The class id is followed by a table with the index of each field in the buffer,
+ * which allow flyweight proxies to decode a single field without reading the fields
+ * written before it.
  */
 public class DefaultCacheValueSerializer extends CacheValueSerializer<Object>  {
 
-    /** keeps track of class -> id */
-    private static final ConcurrentHashMapV8<Class<?>, Integer> classToId = new ConcurrentHashMapV8<>();
+    /** keeps track of class -> plan */
+    private static final ConcurrentHashMapV8<Class<?>, ClassPlan> classToPlan = new ConcurrentHashMapV8<>();
 
-    /** keeps track of id -> class */
-    private static final ConcurrentHashMapV8<Integer, Class<?>> idToClass = new ConcurrentHashMapV8<>();
-    private static final ConcurrentHashMapV8<Integer, UniqueId> idToUniqueIds = new ConcurrentHashMapV8<>();
+    /** keeps track of id -> plan */
+    private static final ConcurrentHashMapV8<Integer, ClassPlan> idToPlan = new ConcurrentHashMapV8<>();
 
     private static final ConcurrentHashMapV8<String, Schema> schemas = new ConcurrentHashMapV8<>();
     private static final Unsafe unsafe = getUnsafe();
@@ -50,44 +60,101 @@ public class DefaultCacheValueSerializer extends CacheValueSerializer<Object>  {
     /** maintain unique ids to classes */
     private static final AtomicInteger clsCount = new AtomicInteger(0);
     private static final Conversion conversion = Conversion.get();
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    /** proxies are written into pooled direct buffers */
+    private static final ByteBufAllocator pooled = PooledByteBufAllocator.DEFAULT;
+    private final boolean flyweight;
 
-    @Override
-    public ByteBuf write(Object value) {
-        Class<?> cls = value.getClass();
-        Integer id = classToId.get(cls);
-        if(id == null) {
-            id = clsCount.incrementAndGet();
-            classToId.put(cls, id);
-            idToClass.put(id, cls);
-        }
-        UniqueId uniqueId = idToUniqueIds.get(id);
-        if(uniqueId == null) {
-            uniqueId = new UniqueId();
-            idToUniqueIds.put(id, uniqueId);
-        }
-        ByteBuf buf = Unpooled.directBuffer();
-        buf.writeInt(id);
-        Schema schema = schemas.get(cls.getName());
+    public DefaultCacheValueSerializer() {
+        this(false);
+    }
 
-        writeId(value, schema.getId().getName(), buf, uniqueId);
+    /**
+     * @param flyweight true if proxies read should be flyweights that decode fields
+     *                  from the buffer when they are accessed.
+     */
+    public DefaultCacheValueSerializer(boolean flyweight) {
+        this.flyweight = flyweight;
+    }
 
-        for (SchemaProperty property : schema.get(SchemaProperty.class)) {
-            writeProperty(value, property, buf, uniqueId);
+    /**
+     * Buffers are allocated with their exact encoded size from a pool and must be
+     * released when they are no longer used, see {@link OffHeapCache}.
+     *
+     * Flyweight proxies may hold on to a buffer long after it have been removed from
+     * the cache, so their buffers are not pooled and must never be released. Their
+     * memory is instead reclaimed when the buffer is garbage collected.
+     */
+    @Override
+    public ByteBuf write(Object value) {
+        ClassPlan plan = getPlan(value.getClass());
+        String instanceId = (String) plan.schemaId.get(value);
+        ConfigReferenceHolder holder = (ConfigReferenceHolder) plan.holder.get(value);
+        // read each field once and compute the size before allocating the buffer
+        Object[] values = new Object[plan.fields.length];
+        int size = plan.dataIndex + 4 + sizeOf(instanceId) + sizeOf(holder);
+        for (int i = 0; i < values.length; i++) {
+            FieldPlan field = plan.fields[i];
+            Object fieldValue = field.get(value);
+            if (fieldValue == null) {
+                continue;
+            }
+            if (field.type == DataType.OBJECT) {
+                fieldValue = conversion.convert(fieldValue, String.class);
+            } else if (field.type == DataType.OBJECT_LIST || field.type == DataType.OBJECT_SET) {
+                fieldValue = conversion.convert((Collection<?>) fieldValue, String.class);
+            }
+            values[i] = fieldValue;
+            size += 4;
+            if (field.collection) {
+                size += sizeOf(field.type, (Collection<?>) fieldValue);
+            } else {
+                size += sizeOf(field.type, fieldValue);
+            }
         }
-        for (SchemaPropertyList property : schema.get(SchemaPropertyList.class)) {
-            writeProperty(value, property, buf, uniqueId);
+        ByteBuf buf = flyweight ? Unpooled.directBuffer(size) : pooled.directBuffer(size);
+        buf.writeInt(plan.id);
+        // offset table, fields that are not written are left as zero
+        buf.writeZero(plan.dataIndex - 4);
+        writeFieldId(plan.schemaId.id, buf);
+        writeString(instanceId, buf);
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] == null) {
+                continue;
+            }
+            FieldPlan field = plan.fields[i];
+            writeFieldId(field.id, buf);
+            if (field.collection) {
+                writeValues(field.type, (Collection<?>) values[i], buf);
+            } else {
+                writeValue(field.type, values[i], buf);
+            }
         }
-        writeReferenceHolder(value, buf, uniqueId);
+        writeReferenceHolder(holder, plan.holder.id, buf);
         return buf;
     }
 
+    /**
+     * Write the id of a field and its index into the offset table.
+     */
+    private static void writeFieldId(int id, ByteBuf buf) {
+        buf.writeInt(id);
+        buf.setInt(id * 4, buf.writerIndex());
+    }
+
+    /**
+     * Buffers are read with absolute indexes since they may be read concurrently.
+     */
     @Override
     public Object read(ByteBuf buf) {
-        buf.resetReaderIndex();
-        int id = buf.readInt();
-        UniqueId uniqueId = idToUniqueIds.get(id);
-        Object object = createObject(id);
-        setProperties(object, uniqueId, buf);
+        int id = buf.getInt(0);
+        ClassPlan plan = idToPlan.get(id);
+        Object object = plan.newInstance();
+        if (flyweight) {
+            unsafe.putObject(object, plan.flyweightOffset, new Flyweight(plan, buf));
+        } else {
+            setProperties(object, plan.ops, new ByteArrayReader(buf, plan.dataIndex));
+        }
         return object;
     }
 
@@ -95,495 +162,645 @@ public class DefaultCacheValueSerializer extends CacheValueSerializer<Object>  {
         schemas.put(schema.getClassType().getName() + ConfigProxyGenerator.PROXY_CLASS_SUFFIX, schema);
     }
 
-    private void writeId(Object object, String fieldName, ByteBuf buf, UniqueId uniqueId) {
-        Field field;
-        Class<?> cls = object.getClass();
-        try {
-            field = cls.getDeclaredField(fieldName);
-            field.setAccessible(true);
-        } catch (Exception e) {
-            throw new RuntimeException(e);
+    /**
+     * Plans are created when a proxy class is written the first time, since proxy
+     * classes are generated lazily after their schema have been put.
+     */
+    private ClassPlan getPlan(Class<?> cls) {
+        ClassPlan plan = classToPlan.get(cls);
+        if (plan != null) {
+            return plan;
+        }
+        synchronized (classToPlan) {
+            plan = classToPlan.get(cls);
+            if (plan == null) {
+                plan = new ClassPlan(clsCount.incrementAndGet(), cls, schemas.get(cls.getName()));
+                idToPlan.put(plan.id, plan);
+                classToPlan.put(cls, plan);
+            }
+            return plan;
         }
-        Integer id = getId(uniqueId, field, fieldName, DataType.SCHEMA_ID, String.class);
+    }
 
-        buf.writeInt(id);
-        String value = (String) getValue(object, fieldName);
-        byte[] bytes = value.getBytes();
-        buf.writeInt(bytes.length);
-        buf.writeBytes(bytes);
+    /**
+     * @return id written into buffers of a proxy class, which is only valid within
+     * this JVM.
+     */
+    int getClassId(Class<?> cls) {
+        return getPlan(cls).id;
     }
 
-    private Integer getId(UniqueId uniqueId, Field field, String fieldName, DataType type, Class<?> cls) {
-        return uniqueId.getId(new UnsafeSetOp(field, fieldName, type, cls));
+    /**
+     * @return names and types of fields of a proxy class in the order of their ids,
+     * buffers written with the same layout can be read after the class id is replaced.
+     */
+    String getLayout(Class<?> cls) {
+        ClassPlan plan = getPlan(cls);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 1; i < plan.ops.length; i++) {
+            sb.append(plan.ops[i].getFieldName()).append(':').append(plan.ops[i].getType()).append(',');
+        }
+        return sb.toString();
     }
 
-    private Integer getId(UniqueId uniqueId, Field field, String fieldName, DataType type) {
-        return uniqueId.getId(new UnsafeSetOp(field, fieldName, type));
+    /**
+     * Encode a string as UTF-8 directly into the buffer, prefixed by its length.
+     * Unpaired surrogates are encoded as '?', like String.getBytes does.
+     */
+    private static void writeString(String value, ByteBuf buf) {
+        buf.writeInt(utf8Length(value));
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                buf.writeByte(c);
+            } else if (c < 0x800) {
+                buf.writeByte(0xc0 | c >> 6);
+                buf.writeByte(0x80 | c & 0x3f);
+            } else if (Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                buf.writeByte(0xf0 | codePoint >> 18);
+                buf.writeByte(0x80 | codePoint >> 12 & 0x3f);
+                buf.writeByte(0x80 | codePoint >> 6 & 0x3f);
+                buf.writeByte(0x80 | codePoint & 0x3f);
+            } else if (Character.isSurrogate(c)) {
+                buf.writeByte('?');
+            } else {
+                buf.writeByte(0xe0 | c >> 12);
+                buf.writeByte(0x80 | c >> 6 & 0x3f);
+                buf.writeByte(0x80 | c & 0x3f);
+            }
+        }
     }
 
-    private void writeReferenceHolder(Object object, ByteBuf buf, UniqueId uniqueId) {
-        Class<?> cls = object.getClass();
-        String fieldName = ConfigProxyGenerator.PROXY_FIELD_NAME;
-        Field field = null;
-        ConfigReferenceHolder holder;
-        try {
-            field = cls.getDeclaredField(ConfigProxyGenerator.PROXY_FIELD_NAME);
-            field.setAccessible(true);
-            holder = (ConfigReferenceHolder) field.get(object);
-        } catch (Exception e) {
-            throw new RuntimeException(e);
-        }
-        Integer id = getId(uniqueId, field, fieldName, DataType.REFERENCE_HOLDER);
-        // Integer id = uniqueId.getBeanId(new SetOp(field, fieldName, DataType.REFERENCE_HOLDER, String.class));
+    /**
+     * @return number of bytes of a string encoded as UTF-8.
+     */
+    static int utf8Length(String value) {
+        int length = value.length();
+        int bytes = length;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                continue;
+            } else if (c < 0x800) {
+                bytes += 1;
+            } else if (Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                // two chars into four bytes
+                bytes += 2;
+                i++;
+            } else if (!Character.isSurrogate(c)) {
+                bytes += 2;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * @return number of bytes of a length prefixed string.
+     */
+    private static int sizeOf(String value) {
+        return 4 + utf8Length(value);
+    }
+
+    private static int sizeOf(ConfigReferenceHolder holder) {
         Map<String, List<String>> references = holder.getReferences();
+        int size = 4 + 4;
+        for (Map.Entry<String, List<String>> entry : references.entrySet()) {
+            size += sizeOf(entry.getKey()) + 4;
+            for (String instanceId : entry.getValue()) {
+                size += sizeOf(instanceId);
+            }
+        }
+        return size;
+    }
 
-        buf.writeInt(id);
+    private static int sizeOf(DataType type, Object value) {
+        switch (type) {
+            case BYTE:
+            case BOOLEAN:
+                return 1;
+            case SHORT:
+                return 2;
+            case INTEGER:
+            case FLOAT:
+                return 4;
+            case LONG:
+            case DOUBLE:
+                return 8;
+            default:
+                return sizeOf(value.toString());
+        }
+    }
+
+    private static int sizeOf(DataType type, Collection<?> values) {
+        switch (type) {
+            case BYTE_LIST:
+            case BYTE_SET:
+            case BOOLEAN_LIST:
+            case BOOLEAN_SET:
+                return 4 + values.size();
+            case SHORT_LIST:
+            case SHORT_SET:
+                return 4 + values.size() * 2;
+            case INTEGER_LIST:
+            case INTEGER_SET:
+            case FLOAT_LIST:
+            case FLOAT_SET:
+                return 4 + values.size() * 4;
+            case LONG_LIST:
+            case LONG_SET:
+            case DOUBLE_LIST:
+            case DOUBLE_SET:
+                return 4 + values.size() * 8;
+            default:
+                int size = 4;
+                for (Object value : values) {
+                    size += sizeOf(value.toString());
+                }
+                return size;
+        }
+    }
+
+    private void writeReferenceHolder(ConfigReferenceHolder holder, int id, ByteBuf buf) {
+        Map<String, List<String>> references = holder.getReferences();
+
+        writeFieldId(id, buf);
         Collection<String> properties = references.keySet();
         buf.writeInt(properties.size());
         for (String property : properties) {
             List<String> instanceIds = references.get(property);
-            byte[] bytes = property.getBytes();
-            buf.writeInt(bytes.length);
-            buf.writeBytes(bytes);
+            writeString(property, buf);
             buf.writeInt(instanceIds.size());
             for (String instanceId : instanceIds)  {
-                bytes = instanceId.getBytes();
-                buf.writeInt(bytes.length);
-                buf.writeBytes(bytes);
+                writeString(instanceId, buf);
             }
         }
     }
 
-    private Object createObject(int id)  {
-        try {
-            Class<?> cls = idToClass.get(id);
-            return cls.newInstance();
-        } catch (Exception e) {
-            throw new RuntimeException(e);
+    private void writeValues(DataType type, Collection<?> collection, ByteBuf buf) {
+        buf.writeInt(collection.size());
+        switch (type) {
+            case BYTE_LIST:
+            case BYTE_SET:
+                for (Object value : collection) {
+                    buf.writeByte((Byte) value);
+                }
+                break;
+            case SHORT_LIST:
+            case SHORT_SET:
+                for (Object value : collection) {
+                    buf.writeShort((Short) value);
+                }
+                break;
+            case INTEGER_LIST:
+            case INTEGER_SET:
+                for (Object value : collection) {
+                    buf.writeInt((Integer) value);
+                }
+                break;
+            case LONG_LIST:
+            case LONG_SET:
+                for (Object value : collection) {
+                    buf.writeLong((Long) value);
+                }
+                break;
+            case FLOAT_LIST:
+            case FLOAT_SET:
+                for (Object value : collection) {
+                    buf.writeFloat((Float) value);
+                }
+                break;
+            case DOUBLE_LIST:
+            case DOUBLE_SET:
+                for (Object value : collection) {
+                    buf.writeDouble((Double) value);
+                }
+                break;
+            case BOOLEAN_LIST:
+            case BOOLEAN_SET:
+                for (Object value : collection) {
+                    buf.writeByte((Boolean) value ? 1 : 0);
+                }
+                break;
+            case STRING_LIST:
+            case STRING_SET:
+                for (Object value : collection) {
+                    writeString(value.toString(), buf);
+                }
+                break;
+            default:
+                // values are already converted into strings
+                for (Object value : collection) {
+                    writeString((String) value, buf);
+                }
         }
     }
 
-    private void writeProperty(Object object, SchemaPropertyList property, ByteBuf buf, UniqueId uniqueId) {
-        Class<?> cls = object.getClass();
-        Class<?> propertyClassType = property.getClassType();
-        String fieldName = property.getFieldName();
-        Field field;
-        try {
-            field = cls.getDeclaredField(fieldName);
-        } catch (NoSuchFieldException e) {
-            throw new RuntimeException(e);
-        }
-        field.setAccessible(true);
-        Collection collection = (Collection) getValue(object, fieldName);
-        boolean isSet = Set.class.isAssignableFrom(collection.getClass());
-        if(collection == null) {
-            return;
-        }
-        int size = collection.size();
-        if(Byte.class.isAssignableFrom(propertyClassType) || byte.class.isAssignableFrom(propertyClassType)) {
-            Integer id;
-            if(isSet) {
-                id = getId(uniqueId, field, fieldName, DataType.BYTE_SET);
-            } else {
-                id = getId(uniqueId, field, fieldName, DataType.BYTE_LIST);
-            }
-            buf.writeInt(id);
-            buf.writeInt(size);
-            for (Object value : collection) {
+    private void writeValue(DataType type, Object value, ByteBuf buf) {
+        switch (type) {
+            case BYTE:
                 buf.writeByte((Byte) value);
-            }
-
-        } else if (Short.class.isAssignableFrom(propertyClassType) || short.class.isAssignableFrom(propertyClassType)) {
-            Integer id;
-            if(isSet) {
-                id = getId(uniqueId, field, fieldName, DataType.SHORT_SET);
-            } else {
-                id = getId(uniqueId, field, fieldName, DataType.SHORT_LIST);
-            }
-            buf.writeInt(id);
-            buf.writeInt(size);
-            for (Object value : collection) {
+                break;
+            case SHORT:
                 buf.writeShort((Short) value);
-            }
-        } else if (Integer.class.isAssignableFrom(propertyClassType) || int.class.isAssignableFrom(propertyClassType)) {
-            Integer id;
-            if(isSet) {
-                id = getId(uniqueId, field, fieldName, DataType.INTEGER_SET);
-            } else {
-                id = getId(uniqueId, field, fieldName, DataType.INTEGER_LIST);
-            }
-            buf.writeInt(id);
-            buf.writeInt(size);
-            for (Object value : collection) {
+                break;
+            case INTEGER:
                 buf.writeInt((Integer) value);
-            }
-        } else if (Long.class.isAssignableFrom(propertyClassType) || long.class.isAssignableFrom(propertyClassType)) {
-            Integer id;
-            if(isSet) {
-                id = getId(uniqueId, field, fieldName, DataType.LONG_SET);
-            } else {
-                id = getId(uniqueId, field, fieldName, DataType.LONG_LIST);
-            }
-            buf.writeInt(id);
-            buf.writeInt(size);
-            for (Object value : collection) {
+                break;
+            case LONG:
                 buf.writeLong((Long) value);
-            }
-        } else if (Float.class.isAssignableFrom(propertyClassType) || float.class.isAssignableFrom(propertyClassType)) {
-            Integer id;
-            if(isSet) {
-                id = getId(uniqueId, field, fieldName, DataType.FLOAT_SET);
-            } else {
-                id = getId(uniqueId, field, fieldName, DataType.FLOAT_LIST);
-            }
-            buf.writeInt(id);
-            buf.writeInt(size);
-            for (Object value : collection) {
+                break;
+            case FLOAT:
                 buf.writeFloat((Float) value);
-            }
-        } else if (Double.class.isAssignableFrom(propertyClassType) || double.class.isAssignableFrom(propertyClassType)) {
-            Integer id;
-            if(isSet) {
-                id = getId(uniqueId, field, fieldName, DataType.DOUBLE_SET);
-            } else {
-                id = getId(uniqueId, field, fieldName, DataType.DOUBLE_LIST);
-            }
-            buf.writeInt(id);
-            buf.writeInt(size);
-            for (Object value : collection) {
+                break;
+            case DOUBLE:
                 buf.writeDouble((Double) value);
-            }
-        } else if (Boolean.class.isAssignableFrom(propertyClassType) || boolean.class.isAssignableFrom(propertyClassType)) {
-            Integer id;
-            if(isSet) {
-                id = getId(uniqueId, field, fieldName, DataType.BOOLEAN_SET);
-            } else {
-                id = getId(uniqueId, field, fieldName, DataType.BOOLEAN_LIST);
-            }
-            buf.writeInt(id);
-            buf.writeInt(size);
-            for (Object value : collection) {
-                if ((Boolean) value) {
-                    buf.writeByte(1);
-                } else {
-                    buf.writeByte(0);
+                break;
+            case BOOLEAN:
+                buf.writeByte((Boolean) value ? 1 : 0);
+                break;
+            case STRING:
+                writeString(value.toString(), buf);
+                break;
+            default:
+                // value is already converted into a string
+                writeString((String) value, buf);
+        }
+    }
+
+    /**
+     * This is where performance gets really important since we want to serialize each
+     * off-heap ByteBuf into an instance and return it to the client as fast as possible.
+     */
+    private static void setProperties(Object object, UnsafeSetOp[] ops, ValueReader reader) {
+        while(reader.available()) {
+            int id = reader.readInt();
+            UnsafeSetOp op = ops[id];
+            op.set(object, readValue(op.getType(), op.getObjectClass(), reader));
+        }
+    }
+
+    private static Object readValue(DataType type, Class<?> objectClass, ValueReader reader) {
+        Object value;
+        int size;
+        int length;
+        ArrayList<Object> list;
+        HashSet<Object> set;
+        switch (type) {
+            case SCHEMA_ID:
+                length = reader.readInt();
+                return reader.readString(length);
+            case BYTE:
+                return (byte) reader.readByte();
+            case SHORT:
+                return (short) reader.readShort();
+            case INTEGER:
+                return reader.readInt();
+            case LONG:
+                return reader.readLong();
+            case FLOAT:
+                return reader.readFloat();
+            case DOUBLE:
+                return reader.readDouble();
+            case STRING:
+                length = reader.readInt();
+                return reader.readString(length);
+            case BOOLEAN:
+                return reader.readBoolean();
+            case OBJECT:
+                length = reader.readInt();
+                return conversion.convert(reader.readString(length), objectClass);
+            case BYTE_LIST:
+                size = reader.readInt();
+                list = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    list.add(reader.readByte());
+                }
+                return list;
+            case SHORT_LIST:
+                size = reader.readInt();
+                list = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    list.add(reader.readShort());
+                }
+                return list;
+            case INTEGER_LIST:
+                size = reader.readInt();
+                list = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    list.add(reader.readInt());
+                }
+                return list;
+            case LONG_LIST:
+                size = reader.readInt();
+                list = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    list.add(reader.readLong());
+                }
+                return list;
+            case FLOAT_LIST:
+                size = reader.readInt();
+                list = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    list.add(reader.readFloat());
+                }
+                return list;
+            case DOUBLE_LIST:
+                size = reader.readInt();
+                list = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    list.add(reader.readDouble());
+                }
+                return list;
+            case STRING_LIST:
+                size = reader.readInt();
+                list = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    length = reader.readInt();
+                    list.add(reader.readString(length));
+                }
+                return list;
+            case BOOLEAN_LIST:
+                size = reader.readInt();
+                list = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    list.add(reader.readBoolean());
+                }
+                return list;
+            case OBJECT_LIST:
+                size = reader.readInt();
+                list = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    length = reader.readInt();
+                    String stringValue = reader.readString(length);
+                    value = conversion.convert(stringValue, objectClass);
+                    list.add(value);
+                }
+                return list;
+            case BYTE_SET:
+                size = reader.readInt();
+                set = new HashSet<>();
+                for (int i = 0; i < size; i++) {
+                    set.add(reader.readByte());
+                }
+                return set;
+            case SHORT_SET:
+                size = reader.readInt();
+                set = new HashSet<>();
+                for (int i = 0; i < size; i++) {
+                    set.add(reader.readShort());
+                }
+                return set;
+            case INTEGER_SET:
+                size = reader.readInt();
+                set = new HashSet<>();
+                for (int i = 0; i < size; i++) {
+                    set.add(reader.readInt());
+                }
+                return set;
+            case LONG_SET:
+                size = reader.readInt();
+                set = new HashSet<>();
+                for (int i = 0; i < size; i++) {
+                    set.add(reader.readLong());
+                }
+                return set;
+            case FLOAT_SET:
+                size = reader.readInt();
+                set = new HashSet<>();
+                for (int i = 0; i < size; i++) {
+                    set.add(reader.readFloat());
+                }
+                return set;
+            case DOUBLE_SET:
+                size = reader.readInt();
+                set = new HashSet<>();
+                for (int i = 0; i < size; i++) {
+                    set.add(reader.readDouble());
+                }
+                return set;
+            case STRING_SET:
+                size = reader.readInt();
+                set = new HashSet<>();
+                for (int i = 0; i < size; i++) {
+                    length = reader.readInt();
+                    set.add(reader.readString(length));
+                }
+                return set;
+            case BOOLEAN_SET:
+                size = reader.readInt();
+                set = new HashSet<>();
+                for (int i = 0; i < size; i++) {
+                    set.add(reader.readBoolean());
+                }
+                return set;
+            case OBJECT_SET:
+                size = reader.readInt();
+                set = new HashSet<>();
+                for (int i = 0; i < size; i++) {
+                    length = reader.readInt();
+                    String stringValue = reader.readString(length);
+                    value = conversion.convert(stringValue, objectClass);
+                    set.add(value);
+                }
+                return set;
+            case REFERENCE_HOLDER:
+                Map<String, List<String>> references = new HashMap<>();
+                ConfigReferenceHolder holder = new ConfigReferenceHolder(references);
+                int numProperties = reader.readInt();
+                for (int i = 0; i < numProperties; i++) {
+                    length = reader.readInt();
+                    String property = reader.readString(length);
+                    int numInstances = reader.readInt();
+                    ArrayList<String> instances = new ArrayList<>();
+                    for (int j = 0; j < numInstances; j++) {
+                        length = reader.readInt();
+                        instances.add(reader.readString(length));
+                    }
+                    references.put(property, instances);
                 }
+                return holder;
+            default:
+                throw new IllegalArgumentException("Unknown type " + type);
+        }
+    }
+
+    /**
+     * Fields of a proxy class resolved once into unsafe offsets, type tags and ids
+     * of the binary form, so that objects are written and read without reflection.
+     */
+    private static final class ClassPlan {
+        private final int id;
+        private final Constructor<?> constructor;
+        private final FieldPlan schemaId;
+        /** properties followed by collection properties, in schema order */
+        private final FieldPlan[] fields;
+        private final FieldPlan holder;
+        /** field id -> operation that set the field of a read object */
+        private final UnsafeSetOp[] ops;
+        /** fieldName -> field, of fields that flyweights decode */
+        private final HashMap<String, FieldPlan> fieldsByName = new HashMap<>();
+        /** index of the first field, after the class id and offset table */
+        private final int dataIndex;
+        private final long flyweightOffset;
+
+        private ClassPlan(int id, Class<?> cls, Schema schema) {
+            this.id = id;
+            try {
+                constructor = cls.getDeclaredConstructor();
+                constructor.setAccessible(true);
+            } catch (NoSuchMethodException e) {
+                throw new RuntimeException(e);
             }
-        } else if (String.class.isAssignableFrom(propertyClassType)) {
-            Integer id;
-            if(isSet) {
-                id = getId(uniqueId, field, fieldName, DataType.STRING_SET);
-            } else {
-                id = getId(uniqueId, field, fieldName, DataType.STRING_LIST);
+            UniqueId uniqueId = new UniqueId();
+            schemaId = new FieldPlan(uniqueId, cls, schema.getId().getName(), DataType.SCHEMA_ID, String.class, false);
+            List<FieldPlan> fields = new ArrayList<>();
+            for (SchemaProperty property : schema.get(SchemaProperty.class)) {
+                Class<?> type = property.getClassType();
+                fields.add(new FieldPlan(uniqueId, cls, property.getFieldName(), getType(type), type, false));
             }
-            buf.writeInt(id);
-            buf.writeInt(size);
-            for (Object value : collection) {
-                byte[] bytes = value.toString().getBytes();
-                buf.writeInt(bytes.length);
-                buf.writeBytes(bytes);
+            for (SchemaPropertyList property : schema.get(SchemaPropertyList.class)) {
+                Class<?> type = property.getClassType();
+                String suffix = Set.class.isAssignableFrom(property.getClassCollectionType()) ? "_SET" : "_LIST";
+                DataType dataType = DataType.valueOf(getType(type).name() + suffix);
+                fields.add(new FieldPlan(uniqueId, cls, property.getFieldName(), dataType, type, true));
             }
-        } else {
-            Integer id;
-            if(isSet) {
-                id = getId(uniqueId, field, fieldName, DataType.OBJECT_SET, propertyClassType);
-            } else {
-                id = getId(uniqueId, field, fieldName, DataType.OBJECT_LIST, propertyClassType);
+            this.fields = fields.toArray(new FieldPlan[fields.size()]);
+            holder = new FieldPlan(uniqueId, cls, ConfigProxyGenerator.PROXY_FIELD_NAME,
+                    DataType.REFERENCE_HOLDER, null, false);
+            ops = new UnsafeSetOp[uniqueId.counter.get() + 1];
+            for (int i = 1; i < ops.length; i++) {
+                ops[i] = uniqueId.getUnsafeSetOp(i);
             }
-            buf.writeInt(id);
-            buf.writeInt(size);
-            Collection<String> stringValue = conversion.convert(collection, String.class);
-            for (String value : stringValue) {
-                byte[] bytes = value.getBytes();
-                buf.writeInt(bytes.length);
-                buf.writeBytes(bytes);
+            fieldsByName.put(ops[schemaId.id].getFieldName(), schemaId);
+            for (FieldPlan field : this.fields) {
+                fieldsByName.put(ops[field.id].getFieldName(), field);
+            }
+            // field ids start at 1 and each have an int in the table
+            dataIndex = ops.length * 4;
+            try {
+                flyweightOffset = unsafe.objectFieldOffset(
+                        cls.getDeclaredField(ConfigProxyGenerator.FLYWEIGHT_FIELD_NAME));
+            } catch (NoSuchFieldException e) {
+                throw new RuntimeException(e);
             }
         }
-    }
 
-    private void writeProperty(Object object, SchemaProperty property, ByteBuf buf, UniqueId uniqueId) {
-        Class<?> cls = object.getClass();
-        Class<?> propertyClassType = property.getClassType();
-        String fieldName = property.getFieldName();
-        Field field;
-        try {
-            field = cls.getDeclaredField(fieldName);
-        } catch (NoSuchFieldException e) {
-            throw new RuntimeException(e);
-        }
-        field.setAccessible(true);
-        Object value = getValue(object, fieldName);
-        if(value == null) {
-            return;
-        }
-        if(Byte.class.isAssignableFrom(propertyClassType) || byte.class.isAssignableFrom(propertyClassType)) {
-            Integer id = getId(uniqueId, field, fieldName, DataType.BYTE);
-            buf.writeInt(id);
-            buf.writeByte((Byte) value);
-        } else if (Short.class.isAssignableFrom(propertyClassType) || short.class.isAssignableFrom(propertyClassType)) {
-            Integer id = getId(uniqueId, field, fieldName, DataType.SHORT);
-            buf.writeInt(id);
-            buf.writeShort((Short) value);
-        } else if (Integer.class.isAssignableFrom(propertyClassType) || int.class.isAssignableFrom(propertyClassType)) {
-            Integer id = getId(uniqueId, field, fieldName, DataType.INTEGER);
-            buf.writeInt(id);
-            buf.writeInt((Integer) value);
-        } else if (Long.class.isAssignableFrom(propertyClassType) || long.class.isAssignableFrom(propertyClassType)) {
-            Integer id = getId(uniqueId, field, fieldName, DataType.LONG);
-            buf.writeInt(id);
-            buf.writeLong((Long) value);
-        } else if (Float.class.isAssignableFrom(propertyClassType) || float.class.isAssignableFrom(propertyClassType)) {
-            Integer id = getId(uniqueId, field, fieldName, DataType.FLOAT);
-            buf.writeInt(id);
-            buf.writeFloat((Float) value);
-        } else if (Double.class.isAssignableFrom(propertyClassType) || double.class.isAssignableFrom(propertyClassType)) {
-            Integer id = getId(uniqueId, field, fieldName, DataType.DOUBLE);
-            buf.writeInt(id);
-            buf.writeDouble((Double) value);
-        } else if (Boolean.class.isAssignableFrom(propertyClassType) || boolean.class.isAssignableFrom(propertyClassType)) {
-            Integer id = getId(uniqueId, field, fieldName, DataType.BOOLEAN);
-            buf.writeInt(id);
-            if ((Boolean) value) {
-                buf.writeByte(1);
-            } else {
-                buf.writeByte(0);
-            }
-        } else if (String.class.isAssignableFrom(propertyClassType)) {
-            Integer id = getId(uniqueId, field, fieldName, DataType.STRING);
-            buf.writeInt(id);
-            byte[] bytes = value.toString().getBytes();
-            buf.writeInt(bytes.length);
-            buf.writeBytes(bytes);
-        } else {
-            Integer id = getId(uniqueId, field, fieldName, DataType.OBJECT, propertyClassType);
-            buf.writeInt(id);
-            String stringValue = conversion.convert(value, String.class);
-            byte[] bytes = stringValue.getBytes();
-            buf.writeInt(bytes.length);
-            buf.writeBytes(bytes);
+        private Object newInstance() {
+            try {
+                return constructor.newInstance();
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        private static DataType getType(Class<?> type) {
+            if (Byte.class.isAssignableFrom(type) || byte.class.isAssignableFrom(type)) {
+                return DataType.BYTE;
+            } else if (Short.class.isAssignableFrom(type) || short.class.isAssignableFrom(type)) {
+                return DataType.SHORT;
+            } else if (Integer.class.isAssignableFrom(type) || int.class.isAssignableFrom(type)) {
+                return DataType.INTEGER;
+            } else if (Long.class.isAssignableFrom(type) || long.class.isAssignableFrom(type)) {
+                return DataType.LONG;
+            } else if (Float.class.isAssignableFrom(type) || float.class.isAssignableFrom(type)) {
+                return DataType.FLOAT;
+            } else if (Double.class.isAssignableFrom(type) || double.class.isAssignableFrom(type)) {
+                return DataType.DOUBLE;
+            } else if (Boolean.class.isAssignableFrom(type) || boolean.class.isAssignableFrom(type)) {
+                return DataType.BOOLEAN;
+            } else if (String.class.isAssignableFrom(type)) {
+                return DataType.STRING;
+            }
+            return DataType.OBJECT;
         }
     }
 
     /**
-     * This is where performance gets really important since we want to serialize each
-     * off-heap ByteBuf into an instance and return it to the client as fast as possible.
+     * Decode fields of a proxy directly from the buffer it was read from, using
+     * the offset table to find each field.
      */
-    private void setProperties(Object object, UniqueId uniqueId, ByteBuf byteBuf) {
-        ByteArrayReader reader = new ByteArrayReader(byteBuf);
+    private static final class Flyweight implements ConfigFlyweight {
+        private final ClassPlan plan;
+        private final ByteBuf buf;
+        private volatile ConfigReferenceHolder holder;
+
+        private Flyweight(ClassPlan plan, ByteBuf buf) {
+            this.plan = plan;
+            this.buf = buf;
+        }
 
-        while(reader.available()) {
-            int id = reader.readInt();
-            UnsafeSetOp op = uniqueId.getUnsafeSetOp(id);
-            Object value;
-            int size;
-            ArrayList<Object> list = new ArrayList<>();
-            HashSet<Object> set = new HashSet<>();
-            switch (op.getType()) {
-                case SCHEMA_ID:
-                    int length = reader.readInt();
-                    value = reader.readString(length);
-                    op.set(object, value);
-                    break;
-                case BYTE:
-                    byte byteValue = (byte) reader.readByte();
-                    op.set(object, byteValue);
-                    break;
-                case SHORT:
-                    short shortVvalue = (short) reader.readShort();
-                    op.set(object, shortVvalue);
-                    break;
-                case INTEGER:
-                    int intValue = reader.readInt();
-                    op.set(object, intValue);
-                    break;
-                case LONG:
-                    long longValue = reader.readLong();
-                    op.set(object, longValue);
-                    break;
-                case FLOAT:
-                    float floatValue = reader.readFloat();
-                    op.set(object, floatValue);
-                    break;
-                case DOUBLE:
-                    double doubleValue = reader.readDouble();
-                    op.set(object, doubleValue);
-                    break;
-                case STRING:
-                    length = reader.readInt();
-                    value = reader.readString(length);
-                    op.set(object, value);
-                    break;
-                case BOOLEAN:
-                    value = reader.readBoolean();
-                    op.set(object, value);
-                    break;
-                case OBJECT:
-                    length = reader.readInt();
-                    value = conversion.convert(reader.readString(length), op.getObjectClass());
-                    op.set(object, value);
-                    break;
-                case BYTE_LIST:
-                    size = reader.readInt();
-                    for (int i = 0; i < size; i++) {
-                        list.add(reader.readByte());
-                    }
-                    op.set(object, list);
-                    break;
-                case SHORT_LIST:
-                    size = reader.readInt();
-                    for (int i = 0; i < size; i++) {
-                        list.add(reader.readShort());
-                    }
-                    op.set(object, list);
-                    break;
-                case INTEGER_LIST:
-                    size = reader.readInt();
-                    for (int i = 0; i < size; i++) {
-                        list.add(reader.readInt());
-                    }
-                    op.set(object, list);
-                    break;
-                case LONG_LIST:
-                    size = reader.readInt();
-                    for (int i = 0; i < size; i++) {
-                        list.add(reader.readLong());
-                    }
-                    op.set(object, list);
-                    break;
-                case FLOAT_LIST:
-                    size = reader.readInt();
-                    for (int i = 0; i < size; i++) {
-                        list.add(reader.readFloat());
-                    }
-                    op.set(object, list);
-                    break;
-                case DOUBLE_LIST:
-                    size = reader.readInt();
-                    for (int i = 0; i < size; i++) {
-                        list.add(reader.readDouble());
-                    }
-                    op.set(object, list);
-                    break;
-                case STRING_LIST:
-                    size = reader.readInt();
-                    for (int i = 0; i < size; i++) {
-                        length = reader.readInt();
-                        list.add(reader.readString(length));
-                    }
-                    op.set(object, list);
-                    break;
-                case BOOLEAN_LIST:
-                    size = reader.readInt();
-                    for (int i = 0; i < size; i++) {
-                        list.add(reader.readBoolean());
-                    }
-                    op.set(object, list);
-                    break;
-                case OBJECT_LIST:
-                    size = reader.readInt();
-                    for (int i = 0; i < size; i++) {
-                        length = reader.readInt();
-                        String stringValue = reader.readString(length);
-                        value = conversion.convert(stringValue, op.getObjectClass());
-                        list.add(value);
-                    }
-                    op.set(object, list);
-                    break;
-                case BYTE_SET:
-                    size = reader.readInt();
-                    for (int i = 0; i < size; i++) {
-                        set.add(reader.readByte());
-                    }
-                    op.set(object, set);
-                    break;
-                case SHORT_SET:
-                    size = reader.readInt();
-                    for (int i = 0; i < size; i++) {
-                        set.add(reader.readShort());
-                    }
-                    op.set(object, set);
-                    break;
-                case INTEGER_SET:
-                    size = reader.readInt();
-                    for (int i = 0; i < size; i++) {
-                        set.add(reader.readInt());
-                    }
-                    op.set(object, set);
-                    break;
-                case LONG_SET:
-                    size = reader.readInt();
-                    for (int i = 0; i < size; i++) {
-                        set.add(reader.readLong());
-                    }
-                    op.set(object, set);
-                    break;
-                case FLOAT_SET:
-                    size = reader.readInt();
-                    for (int i = 0; i < size; i++) {
-                        set.add(reader.readFloat());
-                    }
-                    op.set(object, set);
-                    break;
-                case DOUBLE_SET:
-                    size = reader.readInt();
-                    for (int i = 0; i < size; i++) {
-                        set.add(reader.readDouble());
-                    }
-                    op.set(object, set);
-                    break;
-                case STRING_SET:
-                    size = reader.readInt();
-                    for (int i = 0; i < size; i++) {
-                        length = reader.readInt();
-                        set.add(reader.readString(length));
-                    }
-                    op.set(object, set);
-                    break;
-                case BOOLEAN_SET:
-                    size = reader.readInt();
-                    for (int i = 0; i < size; i++) {
-                        set.add(reader.readBoolean());
-                    }
-                    op.set(object, set);
-                    break;
-                case OBJECT_SET:
-                    size = reader.readInt();
-                    for (int i = 0; i < size; i++) {
-                        length = reader.readInt();
-                        String stringValue = reader.readString(length);
-                        value = conversion.convert(stringValue, op.getObjectClass());
-                        set.add(value);
-                    }
-                    op.set(object, set);
-                    break;
-                case REFERENCE_HOLDER:
-                    Map<String, List<String>> references = new HashMap<>();
-                    ConfigReferenceHolder holder = new ConfigReferenceHolder(references);
-                    int numProperties = reader.readInt();
-                    for (int i = 0; i < numProperties; i++) {
-                        length = reader.readInt();
-                        String property = reader.readString(length);
-                        int numInstances = reader.readInt();
-                        ArrayList<String> instances = new ArrayList<>();
-                        for (int j = 0; j < numInstances; j++) {
-                            length = reader.readInt();
-                            instances.add(reader.readString(length));
-                        }
-                        references.put(property, instances);
-                    }
-                    op.set(object, holder);
-                    break;
+        @Override
+        public Object get(String fieldName) {
+            return read(plan.fieldsByName.get(fieldName));
+        }
+
+        @Override
+        public ConfigReferenceHolder getReferenceHolder() {
+            // references are needed for every reference read, decode them once
+            if (holder == null) {
+                holder = (ConfigReferenceHolder) read(plan.holder);
             }
+            return holder;
+        }
+
+        private Object read(FieldPlan field) {
+            int index = buf.getInt(field.id * 4);
+            if (index == 0) {
+                return null;
+            }
+            UnsafeSetOp op = plan.ops[field.id];
+            return readValue(op.getType(), op.getObjectClass(), new ByteBufReader(buf, index));
         }
     }
 
-    private Object getValue(Object object, String field) {
-        try {
-            Field f = object.getClass().getDeclaredField(field);
-            f.setAccessible(true);
-            return f.get(object);
-        } catch (Exception e) {
-            throw new RuntimeException(e);
+    /**
+     * A field of a proxy class and its id in the binary form.
+     */
+    private static final class FieldPlan {
+        private final int id;
+        private final DataType type;
+        private final boolean collection;
+        private final Class<?> fieldType;
+        private final long offset;
+
+        private FieldPlan(UniqueId uniqueId, Class<?> cls, String fieldName, DataType type,
+                          Class<?> objectClass, boolean collection) {
+            Field field;
+            try {
+                field = cls.getDeclaredField(fieldName);
+            } catch (NoSuchFieldException e) {
+                throw new RuntimeException(e);
+            }
+            this.id = uniqueId.getId(new UnsafeSetOp(field, fieldName, type, objectClass));
+            this.type = type;
+            this.collection = collection;
+            this.fieldType = field.getType();
+            this.offset = unsafe.objectFieldOffset(field);
+        }
+
+        private Object get(Object object) {
+            if (!fieldType.isPrimitive()) {
+                return unsafe.getObject(object, offset);
+            } else if (fieldType == int.class) {
+                return unsafe.getInt(object, offset);
+            } else if (fieldType == long.class) {
+                return unsafe.getLong(object, offset);
+            } else if (fieldType == boolean.class) {
+                return unsafe.getBoolean(object, offset);
+            } else if (fieldType == double.class) {
+                return unsafe.getDouble(object, offset);
+            } else if (fieldType == float.class) {
+                return unsafe.getFloat(object, offset);
+            } else if (fieldType == short.class) {
+                return unsafe.getShort(object, offset);
+            } else if (fieldType == byte.class) {
+                return unsafe.getByte(object, offset);
+            }
+            return unsafe.getChar(object, offset);
         }
     }
 
@@ -733,6 +950,35 @@ public class DefaultCacheValueSerializer extends CacheValueSerializer<Object>  {
             REFERENCE_HOLDER, SCHEMA_ID
         }
 
+        /**
+         * Reads values of an instance in sequence and keep track of a read index.
+         */
+        public static abstract class ValueReader {
+            public abstract int readByte();
+
+            public abstract long readShort();
+
+            public abstract int readInt();
+
+            public abstract long readLong();
+
+            public float readFloat() {
+                return Float.intBitsToFloat(readInt());
+            }
+
+            public double readDouble() {
+                return Double.longBitsToDouble(readLong());
+            }
+
+            public boolean readBoolean() {
+                return readByte() != 0;
+            }
+
+            public abstract String readString(int length);
+
+            public abstract boolean available();
+        }
+
         /**
          * This class reads data from a byte array (representing an instance) and
          * keep track of a read index of where we are in the byte array.
@@ -740,16 +986,14 @@ public class DefaultCacheValueSerializer extends CacheValueSerializer<Object>  {
          * We could read data directly from the ByteBuf, but this is slower than
          * instead reading the whole buffer and operate on a byte array.
          */
-        public static class ByteArrayReader {
+        public static class ByteArrayReader extends ValueReader {
             private byte[] data;
             private int idx;
             private int length;
 
-            public ByteArrayReader(ByteBuf byteBuf) {
-
-
-                byte[] data = new byte[byteBuf.readableBytes()];
-                byteBuf.readBytes(data);
+            public ByteArrayReader(ByteBuf byteBuf, int index) {
+                byte[] data = new byte[byteBuf.writerIndex() - index];
+                byteBuf.getBytes(index, data);
                 this.data = data;
                 this.length = data.length;
             }
@@ -768,7 +1012,7 @@ public class DefaultCacheValueSerializer extends CacheValueSerializer<Object>  {
                 return (short) (b[offset] << 8 | b[offset + 1] & 0xFF);
             }
 
-            private int readInt() {
+            public int readInt() {
                 int value = getInt(data, idx);
                 idx = idx + 4;
                 return value;
@@ -792,27 +1036,60 @@ public class DefaultCacheValueSerializer extends CacheValueSerializer<Object>  {
                         | (b[offset + 6] & 0xFFL) << 8 | (b[offset + 7] & 0xFFL) << 0;
             }
 
-            public float readFloat() {
-                return Float.intBitsToFloat(readInt());
+            public String readString(int length) {
+                String value = new String(data, idx, length, UTF8);
+                idx = idx + length;
+                return value;
             }
 
-            public double readDouble() {
-                return Double.longBitsToDouble(readLong());
+            public boolean available() {
+                return idx < length;
             }
+        }
 
-            public boolean readBoolean() {
-                return readByte() != 0;
+        /**
+         * This class reads a single value directly from a ByteBuf, starting at
+         * an absolute index, without copying the rest of the instance.
+         */
+        public static class ByteBufReader extends ValueReader {
+            private final ByteBuf buf;
+            private int idx;
+
+            public ByteBufReader(ByteBuf buf, int index) {
+                this.buf = buf;
+                this.idx = index;
+            }
+
+            public int readByte() {
+                return buf.getByte(idx++);
+            }
+
+            public long readShort() {
+                long value = buf.getShort(idx);
+                idx = idx + 2;
+                return value;
+            }
+
+            public int readInt() {
+                int value = buf.getInt(idx);
+                idx = idx + 4;
+                return value;
+            }
+
+            public long readLong() {
+                long value = buf.getLong(idx);
+                idx = idx + 8;
+                return value;
             }
 
             public String readString(int length) {
-                byte[] bytes = new byte[length];
-                System.arraycopy(data, idx, bytes, 0, length);
+                String value = buf.toString(idx, length, UTF8);
                 idx = idx + length;
-                return new String(bytes);
+                return value;
             }
 
             public boolean available() {
-                return idx < length;
+                return idx < buf.writerIndex();
             }
         }
     }
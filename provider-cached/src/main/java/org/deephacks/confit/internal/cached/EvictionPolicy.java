@@ -0,0 +1,52 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deephacks.confit.internal.cached;
+
+/**
+ * Decide which entries are evicted from an off-heap cache that have exceeded its
+ * byte budget. Entries with the lowest priority are evicted first.
+ */
+public interface EvictionPolicy {
+    /** evict entries that were least recently accessed */
+    public static final EvictionPolicy LRU = new EvictionPolicy() {
+        @Override
+        public double priority(long lastAccess, long accesses, int bytes) {
+            return lastAccess;
+        }
+    };
+
+    /** evict entries that were least frequently accessed */
+    public static final EvictionPolicy LFU = new EvictionPolicy() {
+        @Override
+        public double priority(long lastAccess, long accesses, int bytes) {
+            return accesses;
+        }
+    };
+
+    /** evict entries that were least frequently accessed per byte, large entries first */
+    public static final EvictionPolicy SIZE = new EvictionPolicy() {
+        @Override
+        public double priority(long lastAccess, long accesses, int bytes) {
+            return (double) accesses / bytes;
+        }
+    };
+
+    /**
+     * @param lastAccess time in nanoseconds when the entry was last written or read.
+     * @param accesses number of times the entry have been written or read.
+     * @param bytes size of the entry.
+     * @return priority to keep the entry.
+     */
+    double priority(long lastAccess, long accesses, int bytes);
+}
@@ -0,0 +1,373 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deephacks.confit.internal.cached;
+
+import org.deephacks.cached.Cache;
+import org.deephacks.cached.CacheValueSerializer;
+import org.deephacks.cached.buffer.ByteBuf;
+import org.deephacks.cached.buffer.util.internal.chmv8.ConcurrentHashMapV8;
+import org.deephacks.confit.internal.cached.ByteBudget.Candidate;
+import org.deephacks.confit.internal.cached.ByteBudget.Selection;
+
+import java.io.IOException;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Off-heap cache that release the buffers of values that are replaced or removed,
+ * which allow values to be written into pooled buffers.
+ * <p>
+ * Released buffers are returned to the pool and reused, so they must not be released
+ * while being read. Values are therefore read under a shared lock while buffers are
+ * swapped out of the cache under an exclusive lock. Values are serialized before the
+ * lock is taken and released buffers are returned to the pool after it is released.
+ * <p>
+ * Previous values are not deserialized by put, which always return null.
+ * <p>
+ * Buffers are never released if values read from the cache may keep a reference
+ * to them, like flyweight proxies do.
+ * <p>
+ * Values that have been read can also be kept in an on-heap cache, which serve
+ * them again without deserialization. The on-heap cache is filled under the shared
+ * lock and invalidated under the exclusive lock, so it never keep a value that have
+ * been replaced.
+ * <p>
+ * The size of entries can be accounted for in byte budgets, that evict entries when
+ * exceeded. Reads and writes of entries are tracked for eviction policies, including
+ * reads served by the on-heap cache.
+ */
+final class OffHeapCache<K, V> implements Cache<K, V> {
+    private final ConcurrentHashMapV8<K, Entry> cache = new ConcurrentHashMapV8<>();
+    private final CacheValueSerializer<V> serializer;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    /** false if buffers are referenced by values that have been read */
+    private final boolean release;
+    /** on-heap cache of values that have been read, null if disabled */
+    private final com.google.common.cache.Cache<K, V> objects;
+    /** budgets that entries are accounted in */
+    private final List<ByteBudget> budgets;
+
+    OffHeapCache(CacheValueSerializer<V> serializer) {
+        this(serializer, true, null, Collections.<ByteBudget>emptyList());
+    }
+
+    /**
+     * @param serializer serializer of values.
+     * @param release true if buffers of values that are replaced or removed should be released.
+     * @param objects on-heap cache of values that have been read, may be shared with
+     *                other caches that have keys that are not in this cache, or null.
+     * @param budgets budgets that entries are accounted in, may be shared with other caches.
+     */
+    OffHeapCache(CacheValueSerializer<V> serializer, boolean release,
+                 com.google.common.cache.Cache<K, V> objects, List<ByteBudget> budgets) {
+        this.serializer = serializer;
+        this.release = release;
+        this.objects = objects;
+        this.budgets = budgets;
+        for (ByteBudget budget : budgets) {
+            budget.register(this);
+        }
+    }
+
+    @Override
+    public int size() {
+        return cache.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return cache.isEmpty();
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return cache.containsKey(key);
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        ByteBuf buf = serializer.write((V) value);
+        try {
+            lock.readLock().lock();
+            try {
+                for (Entry entry : cache.values()) {
+                    if (entry.buf.equals(buf)) {
+                        return true;
+                    }
+                }
+                return false;
+            } finally {
+                lock.readLock().unlock();
+            }
+        } finally {
+            release(buf);
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        if (objects != null) {
+            V value = objects.getIfPresent(key);
+            if (value != null) {
+                // entries only record accesses, so the lock is not needed to rank a hit
+                Entry entry = cache.get(key);
+                if (entry != null) {
+                    entry.access();
+                }
+                return value;
+            }
+        }
+        lock.readLock().lock();
+        try {
+            Entry entry = cache.get(key);
+            if (entry == null) {
+                return null;
+            }
+            entry.access();
+            V value = serializer.read(entry.buf);
+            if (objects != null) {
+                objects.put((K) key, value);
+            }
+            return value;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public V put(K key, V value) {
+        putBuffer(key, serializer.write(value));
+        return null;
+    }
+
+    /**
+     * Put a value that is already serialized, like one restored from a snapshot.
+     */
+    void putBuffer(K key, ByteBuf buf) {
+        Entry entry = new Entry(buf);
+        Entry previous;
+        lock.writeLock().lock();
+        try {
+            previous = cache.put(key, entry);
+            invalidate(key);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        account(entry.bytes - (previous == null ? 0 : previous.bytes));
+        release(previous);
+        for (ByteBudget budget : budgets) {
+            budget.evict();
+        }
+    }
+
+    @Override
+    public V remove(Object key) {
+        Entry previous;
+        V value = null;
+        lock.writeLock().lock();
+        try {
+            previous = cache.remove(key);
+            invalidate(key);
+            if (previous != null) {
+                value = serializer.read(previous.buf);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        if (previous != null) {
+            account(-previous.bytes);
+        }
+        release(previous);
+        return value;
+    }
+
+    @Override
+    public void putAll(Map<? extends K, ? extends V> map) {
+        for (Map.Entry<? extends K, ? extends V> entry : map.entrySet()) {
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    @Override
+    public void clear() {
+        Collection<Entry> released = new ArrayList<>();
+        lock.writeLock().lock();
+        try {
+            for (K key : cache.keySet()) {
+                Entry entry = cache.remove(key);
+                invalidate(key);
+                if (entry != null) {
+                    released.add(entry);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        for (Entry entry : released) {
+            account(-entry.bytes);
+            release(entry);
+        }
+    }
+
+    /**
+     * Remove all entries and the cache from its budgets.
+     */
+    void close() {
+        clear();
+        for (ByteBudget budget : budgets) {
+            budget.unregister(this);
+        }
+    }
+
+    @Override
+    public Set<K> keySet() {
+        return Collections.unmodifiableSet(cache.keySet());
+    }
+
+    @Override
+    public Collection<V> values() {
+        Collection<V> values = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for (Entry entry : cache.values()) {
+                values.add(serializer.read(entry.buf));
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return values;
+    }
+
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+        Set<Map.Entry<K, V>> entries = new HashSet<>();
+        lock.readLock().lock();
+        try {
+            for (Map.Entry<K, Entry> entry : cache.entrySet()) {
+                entries.add(new SimpleImmutableEntry<>(entry.getKey(), serializer.read(entry.getValue().buf)));
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return entries;
+    }
+
+    /**
+     * Visit the buffer of each entry. Buffers are visited under the shared lock, which
+     * keep entries from being replaced or removed until all have been visited.
+     */
+    void visitBuffers(BufferVisitor<K> visitor) throws IOException {
+        lock.readLock().lock();
+        try {
+            for (Map.Entry<K, Entry> entry : cache.entrySet()) {
+                visitor.visit(entry.getKey(), entry.getValue().buf);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Add entries of this cache that may be evicted, ranked by a policy.
+     */
+    void addCandidates(Selection selection, EvictionPolicy policy) {
+        for (Map.Entry<K, Entry> entry : cache.entrySet()) {
+            Entry value = entry.getValue();
+            double priority = policy.priority(value.lastAccess, value.accesses, value.bytes);
+            selection.offer(new Candidate(this, entry.getKey(), value, priority, value.bytes));
+        }
+    }
+
+    /**
+     * Evict an entry, unless it have been replaced or removed since it was ranked.
+     * Values of evicted entries are left in the on-heap cache since they are still
+     * the latest values.
+     */
+    void evict(Object key, Object entry) {
+        lock.writeLock().lock();
+        try {
+            if (!cache.remove(key, entry)) {
+                return;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        Entry evicted = (Entry) entry;
+        for (ByteBudget budget : budgets) {
+            budget.evicted(evicted.bytes);
+        }
+        release(evicted);
+    }
+
+    private void account(long bytes) {
+        for (ByteBudget budget : budgets) {
+            budget.add(bytes);
+        }
+    }
+
+    private void invalidate(Object key) {
+        if (objects != null) {
+            objects.invalidate(key);
+        }
+    }
+
+    private void release(Entry entry) {
+        if (entry != null) {
+            release(entry.buf);
+        }
+    }
+
+    private void release(ByteBuf buf) {
+        if (release && buf != null) {
+            buf.release();
+        }
+    }
+
+    interface BufferVisitor<K> {
+        void visit(K key, ByteBuf buf) throws IOException;
+    }
+
+    /**
+     * A buffer in the cache and how it have been accessed. Entries are read
+     * concurrently, so accesses are counted atomically without an object per entry.
+     */
+    private static final class Entry {
+        private static final AtomicLongFieldUpdater<Entry> ACCESSES =
+                AtomicLongFieldUpdater.newUpdater(Entry.class, "accesses");
+        private final ByteBuf buf;
+        private final int bytes;
+        private volatile long lastAccess;
+        private volatile long accesses;
+
+        private Entry(ByteBuf buf) {
+            this.buf = buf;
+            this.bytes = buf.capacity();
+            access();
+        }
+
+        private void access() {
+            lastAccess = System.nanoTime();
+            ACCESSES.incrementAndGet(this);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deephacks.confit.internal.cached;
+
+/**
+ * Statistics of the memory used by off-heap caches within a byte budget.
+ */
+public final class OffHeapStats {
+    private final long usedBytes;
+    private final long maxBytes;
+    private final long evictions;
+    private final long evictedBytes;
+
+    OffHeapStats(long usedBytes, long maxBytes, long evictions, long evictedBytes) {
+        this.usedBytes = usedBytes;
+        this.maxBytes = maxBytes;
+        this.evictions = evictions;
+        this.evictedBytes = evictedBytes;
+    }
+
+    /**
+     * @return number of bytes used by entries.
+     */
+    public long getUsedBytes() {
+        return usedBytes;
+    }
+
+    /**
+     * @return number of bytes that entries may use, 0 if unbounded.
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * @return number of entries evicted to stay within the budget.
+     */
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * @return number of bytes of evicted entries.
+     */
+    public long getEvictedBytes() {
+        return evictedBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "OffHeapStats{usedBytes=" + usedBytes + ", maxBytes=" + maxBytes
+                + ", evictions=" + evictions + ", evictedBytes=" + evictedBytes + "}";
+    }
+}
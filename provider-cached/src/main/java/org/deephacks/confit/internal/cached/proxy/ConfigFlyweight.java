@@ -0,0 +1,37 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deephacks.confit.internal.cached.proxy;
+
+/**
+ * Binary form of a proxy that decode its properties one at a time when they are
+ * read, instead of all at once when the proxy is fetched from the cache.
+ *
+ * Proxies that have a flyweight attached read their fields through it. Each read
+ * decode the property again, so values are not shared between reads.
+ */
+public interface ConfigFlyweight {
+
+    /**
+     * Decode a property.
+     *
+     * @param fieldName name of the field of the property.
+     * @return the value or null if the property was not set.
+     */
+    Object get(String fieldName);
+
+    /**
+     * @return references to other configurable objects.
+     */
+    ConfigReferenceHolder getReferenceHolder();
+}
@@ -38,6 +38,7 @@ import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Modifier;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
@@ -56,6 +57,9 @@ import static com.google.common.base.Preconditions.checkNotNull;
  * - Fields that reference other configurable classes must be accessed using
  *   accessor/getter methods (i.e. public fields will not work).
  *
+ * Proxies can also be flyweights that decode each field from the off-heap cache
+ * when it is read, see {@link ConfigFlyweight}. Fields of such proxies are never set
+ * and must therefore be accessed through methods of the configurable class as well.
  */
 public class ConfigProxyGenerator {
     /** classname suffix of each generated proxy class */
@@ -64,6 +68,9 @@ public class ConfigProxyGenerator {
     /** name of the field that store the ConfigReferenceHolder */
     public static final String PROXY_FIELD_NAME = "__reference_holder";
 
+    /** name of the field that store the ConfigFlyweight, if any */
+    public static final String FLYWEIGHT_FIELD_NAME = "__flyweight";
+
     /** schemaName -> Schema, schema awareness is needed to fetch references */
     private static final HashMap<String, Schema> schemas = new HashMap<>();
 
@@ -110,6 +117,17 @@ public class ConfigProxyGenerator {
         }
     }
 
+    /**
+     * @return the proxy class of a schema, which is generated if needed.
+     */
+    public Class<?> getConfigProxyClass(Schema schema) {
+        try {
+            return getProxyClass(schema);
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     private void setId(Object proxyObject, Bean bean) throws Exception {
         String fieldName = bean.getSchema().getId().getName();
         Field f = findField(proxyObject.getClass(), fieldName);
@@ -173,6 +191,10 @@ public class ConfigProxyGenerator {
         CtField f = new CtField(referenceHolder, PROXY_FIELD_NAME, proxy);
         f.setModifiers(Modifier.PUBLIC);
         proxy.addField(f);
+        CtClass flyweight = pool.get(ConfigFlyweight.class.getName());
+        f = new CtField(flyweight, FLYWEIGHT_FIELD_NAME, proxy);
+        f.setModifiers(Modifier.PUBLIC);
+        proxy.addField(f);
 
         for (SchemaPropertyRef ref : schema.get(SchemaPropertyRef.class)) {
             instrument(proxy, ref);
@@ -183,9 +205,47 @@ public class ConfigProxyGenerator {
         for (SchemaPropertyRefMap ref : schema.get(SchemaPropertyRefMap.class)) {
             instrument(proxy, ref);
         }
+        instrumentFlyweight(proxy, schema);
         return createProxyClass(schema, proxy);
     }
 
+    /**
+     * Instrument reads of the id and property fields to decode the value from the
+     * ConfigFlyweight of the proxy, if it has one. Reads of fields of other objects
+     * of the same class use the flyweight of that object.
+     */
+    private void instrumentFlyweight(final CtClass proxy, Schema schema) throws Exception {
+        final Set<String> fieldNames = new HashSet<>();
+        fieldNames.add(schema.getId().getName());
+        for (SchemaProperty property : schema.get(SchemaProperty.class)) {
+            fieldNames.add(property.getFieldName());
+        }
+        for (SchemaPropertyList property : schema.get(SchemaPropertyList.class)) {
+            fieldNames.add(property.getFieldName());
+        }
+        proxy.instrument(new ExprEditor() {
+            public void edit(FieldAccess f) throws CannotCompileException {
+                if (f.isReader() && !f.isStatic() && fieldNames.contains(f.getFieldName())
+                        && f.getClassName().equals(proxy.getName())) {
+                    StringBuilder code = new StringBuilder();
+                    code.append("{");
+                    code.append("if ($0."+FLYWEIGHT_FIELD_NAME+" == null) { $_ = $proceed(); } ");
+                    code.append("else { $_ = ($r) $0."+FLYWEIGHT_FIELD_NAME+".get(\""+f.getFieldName()+"\"); }");
+                    code.append("}");
+                    f.replace(code.toString());
+                }
+            }
+        });
+    }
+
+    /**
+     * @return code that evaluate to the ConfigReferenceHolder of a proxy.
+     */
+    private static String referenceHolder() {
+        return "(this."+PROXY_FIELD_NAME+" != null ? this."+PROXY_FIELD_NAME+" : this."
+                +FLYWEIGHT_FIELD_NAME+".getReferenceHolder())";
+    }
+
     /**
      * Instrument a single reference field, using the ConfigReferenceHolder to fetch the real
      * reference from the cache and replace it with a real object.
@@ -201,7 +261,7 @@ public class ConfigProxyGenerator {
                 if (f.getFieldName().equals(ref.getFieldName())) {
                     StringBuilder code = new StringBuilder();
                     code.append("{");
-                    code.append("$_=("+schema.getType()+") this."+PROXY_FIELD_NAME+".getObjectReference(\""+fieldName+"\", \""+schema.getName()+"\");");
+                    code.append("$_=("+schema.getType()+") "+referenceHolder()+".getObjectReference(\""+fieldName+"\", \""+schema.getName()+"\");");
                     code.append("}");
                     f.replace(code.toString());
                 }
@@ -224,7 +284,7 @@ public class ConfigProxyGenerator {
                 if (f.getFieldName().equals(ref.getFieldName())) {
                     StringBuilder code = new StringBuilder();
                     code.append("{");
-                    code.append("$_=(java.util.List) this."+PROXY_FIELD_NAME+".getObjectReferenceList(\""+fieldName+"\", \""+schema.getName()+"\");");
+                    code.append("$_=(java.util.List) "+referenceHolder()+".getObjectReferenceList(\""+fieldName+"\", \""+schema.getName()+"\");");
                     code.append("}");
                     f.replace(code.toString());
                 }
@@ -247,7 +307,7 @@ public class ConfigProxyGenerator {
                 if (f.getFieldName().equals(ref.getFieldName())) {
                     StringBuilder code = new StringBuilder();
                     code.append("{");
-                    code.append("$_=(java.util.Map) this."+PROXY_FIELD_NAME+".getObjectReferenceMap(\""+fieldName+"\", \""+schema.getName()+"\");");
+                    code.append("$_=(java.util.Map) "+referenceHolder()+".getObjectReferenceMap(\""+fieldName+"\", \""+schema.getName()+"\");");
                     code.append("}");
                     f.replace(code.toString());
                 }
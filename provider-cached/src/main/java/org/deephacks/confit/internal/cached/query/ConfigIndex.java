@@ -19,15 +19,25 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 public class ConfigIndex {
     private Class<?> cls;
     private HashMap<String, Attribute<?, ?>> attributes = new HashMap<>();
+    /** propertyName -> kind of index, as annotated on the field */
+    private HashMap<String, Index.Kind> kinds = new HashMap<>();
 
     public ConfigIndex(Schema schema) {
+        cls = getClassType(schema);
         for(AbstractSchemaProperty property : schema.getIndexed()) {
             String propertyName = property.getName();
             Class<?> type = getType(property);
+            Index.Kind kind = getKind(property);
+            if (kind == Index.Kind.SUFFIX && !isString(property)) {
+                throw new IllegalArgumentException("Field [" + propertyName + "] must be a String to have a "
+                        + kind + " index.");
+            }
+            kinds.put(propertyName, kind);
             if(Number.class.isAssignableFrom(type) || isPrimitiveNumber(type)) {
                 NumberAttribute attr = new NumberAttribute(propertyName);
                 attributes.put(propertyName, attr);
@@ -58,6 +68,51 @@ public class ConfigIndex {
         }
     }
 
+    private static Class<?> getClassType(Schema schema) {
+        try {
+            return schema.getClassType();
+        } catch (IllegalStateException e) {
+            // classes of schemas are not always available, use default indexes
+            return null;
+        }
+    }
+
+    private Index.Kind getKind(AbstractSchemaProperty property) {
+        for (Class<?> c = cls; c != null; c = c.getSuperclass()) {
+            try {
+                Index index = c.getDeclaredField(property.getFieldName()).getAnnotation(Index.class);
+                return index == null ? Index.Kind.NAVIGABLE : index.value();
+            } catch (NoSuchFieldException e) {
+                // try the superclass
+            }
+        }
+        return Index.Kind.NAVIGABLE;
+    }
+
+    private static boolean isString(AbstractSchemaProperty property) {
+        if (property instanceof SchemaProperty) {
+            return String.class.equals(((SchemaProperty) property).getClassType());
+        } else if (property instanceof SchemaPropertyList) {
+            return String.class.equals(((SchemaPropertyList) property).getClassType());
+        }
+        // references are indexed by their instance ids
+        return true;
+    }
+
+    /**
+     * @return kind of index of a field.
+     */
+    public Index.Kind getKind(String field) {
+        return kinds.get(field);
+    }
+
+    /**
+     * @return names of indexed fields.
+     */
+    public Set<String> getFields() {
+        return attributes.keySet();
+    }
+
     public Attribute get(String field) {
         return attributes.get(field);
     }
@@ -85,6 +140,8 @@ public class ConfigIndex {
         private final String field;
 
         public ObjectAttribute(String field) {
+            // attributes are equal by name, unnamed attributes of a class would share indexes
+            super(field);
             this.field = field;
         }
 
@@ -127,6 +184,7 @@ public class ConfigIndex {
         private final String field;
 
         public NumberAttribute(String field) {
+            super(field);
             this.field = field;
         }
 
@@ -2,34 +2,126 @@ package org.deephacks.confit.internal.cached.query;
 
 import com.googlecode.cqengine.CQEngine;
 import com.googlecode.cqengine.IndexedCollection;
+import com.google.common.base.Predicate;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.Iterables;
 import com.googlecode.cqengine.attribute.Attribute;
+import com.googlecode.cqengine.attribute.SimpleNullableAttribute;
+import com.googlecode.cqengine.index.AttributeIndex;
+import com.googlecode.cqengine.index.hash.HashIndex;
 import com.googlecode.cqengine.index.navigable.NavigableIndex;
+import com.googlecode.cqengine.index.suffix.SuffixTreeIndex;
+import com.googlecode.cqengine.index.unique.UniqueIndex;
 import com.googlecode.cqengine.query.Query;
 import com.googlecode.cqengine.resultset.ResultSet;
+import com.googlecode.cqengine.resultset.stored.StoredResultSet;
+import org.deephacks.confit.Index;
 import org.deephacks.confit.model.Bean;
 import org.deephacks.confit.model.BeanId;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.googlecode.cqengine.query.QueryFactory.equal;
 
 public class ConfigIndexedCollection<T> {
     final IndexedCollection<ConfigIndexFields> collection = CQEngine.newInstance();
+    /**
+     * bean id -> fields that are stored in the collection. Indexes find entries by the
+     * values of their fields, so the stored fields must be removed from the collection
+     * and not an instance that only has an equal id.
+     */
+    private final HashMap<BeanId, ConfigIndexFields> stored = new HashMap<>();
     private final ConfigIndex index;
+    /** fieldName -> navigable index of a single valued field */
+    private final HashMap<String, SortedIndex> sortedIndexes = new HashMap<>();
+    /** number of writes to instances of the collection, cached results of fewer writes are stale */
+    private final AtomicLong modifications = new AtomicLong();
+    /** results of queries, null if results are not cached */
+    private volatile QueryResultCache resultCache;
 
     public ConfigIndexedCollection(ConfigIndex index) {
         this.index = index;
-        for(Attribute a : index.get()) {
-            collection.addIndex(NavigableIndex.onAttribute(a));
+        for (String field : index.getFields()) {
+            Attribute attribute = index.get(field);
+            Index.Kind kind = index.getKind(field);
+            if (kind == Index.Kind.NAVIGABLE && attribute instanceof SimpleNullableAttribute) {
+                SortedIndex sorted = new SortedIndex(attribute);
+                sortedIndexes.put(field, sorted);
+                collection.addIndex(sorted);
+            } else {
+                collection.addIndex(newIndex(attribute, kind));
+            }
+        }
+    }
+
+    /**
+     * Create an index of the kind that was chosen for an attribute, which decide
+     * what queries are served by the index.
+     */
+    private static AttributeIndex newIndex(Attribute attribute, Index.Kind kind) {
+        switch (kind) {
+            case HASH:
+                return HashIndex.onAttribute(attribute);
+            case SUFFIX:
+                return SuffixTreeIndex.onAttribute(attribute);
+            case UNIQUE:
+                return UniqueIndex.onAttribute(attribute);
+            default:
+                return NavigableIndex.onAttribute(attribute);
         }
     }
 
-    public void add(Bean bean) {
+    /**
+     * Add or replace the fields of a bean. Fields of a bean that is already in the
+     * collection are removed first, so that indexes do not keep its old values.
+     */
+    public synchronized void add(Bean bean) {
         ConfigIndexFields fields = new ConfigIndexFields(bean);
+        checkUnique(fields);
+        ConfigIndexFields previous = stored.remove(bean.getId());
+        if (previous != null) {
+            collection.remove(previous);
+        }
         collection.add(fields);
+        stored.put(bean.getId(), fields);
     }
 
-    public void remove(BeanId beanId) {
-        ConfigIndexFields id = new ConfigIndexFields(beanId);
-        collection.remove(id);
+    /**
+     * Unique indexes reject a value that another instance has after some indexes
+     * have been updated, and remove values regardless of the instance that has them,
+     * so values are checked before the collection is touched.
+     */
+    private void checkUnique(ConfigIndexFields fields) {
+        for (String field : index.getFields()) {
+            if (index.getKind(field) != Index.Kind.UNIQUE) {
+                continue;
+            }
+            Attribute attribute = index.get(field);
+            for (Object value : attribute.getValues(fields)) {
+                ResultSet<ConfigIndexFields> matching = collection.retrieve(equal(attribute, value));
+                for (ConfigIndexFields existing : matching) {
+                    if (!existing.getBeanId().equals(fields.getBeanId())) {
+                        throw new IllegalArgumentException("Field [" + field + "] of " + fields.getBeanId()
+                                + " has value [" + value + "] which is not unique, it is also the value of "
+                                + existing.getBeanId());
+                    }
+                }
+            }
+        }
+    }
+
+    public synchronized void remove(BeanId beanId) {
+        ConfigIndexFields previous = stored.remove(beanId);
+        if (previous != null) {
+            collection.remove(previous);
+        }
     }
 
     Attribute getAttribute(String prop) {
@@ -40,6 +132,143 @@ public class ConfigIndexedCollection<T> {
         return attr;
     }
 
+    /**
+     * Order a result set by a single valued field, instances that do not have a value
+     * come last.
+     * <p>
+     * Fields that have a navigable index are ordered by walking the index, which
+     * stop as soon as enough results have been iterated. Other fields are ordered by
+     * sorting all results.
+     */
+    Iterable<ConfigIndexFields> order(final ResultSet<ConfigIndexFields> resultSet, final String field,
+                                      boolean ascending) {
+        Attribute attribute = getAttribute(field);
+        if (!(attribute instanceof SimpleNullableAttribute)) {
+            throw new IllegalArgumentException("Field [" + field + "] has multiple values and cannot be ordered.");
+        }
+        Iterable<ConfigIndexFields> missing = Iterables.filter(resultSet, new Predicate<ConfigIndexFields>() {
+            @Override
+            public boolean apply(ConfigIndexFields fields) {
+                return fields.fields.get(field) == null;
+            }
+        });
+        SortedIndex sorted = sortedIndexes.get(field);
+        if (sorted != null) {
+            Iterable<ConfigIndexFields> indexed = Iterables.concat(sorted.values(ascending));
+            Iterable<ConfigIndexFields> matching = Iterables.filter(indexed, new Predicate<ConfigIndexFields>() {
+                @Override
+                public boolean apply(ConfigIndexFields fields) {
+                    return resultSet.contains(fields);
+                }
+            });
+            return Iterables.concat(matching, missing);
+        }
+        ArrayList<ConfigIndexFields> list = new ArrayList<>();
+        for (ConfigIndexFields fields : resultSet) {
+            if (fields.fields.get(field) != null) {
+                list.add(fields);
+            }
+        }
+        Comparator<ConfigIndexFields> comparator = new Comparator<ConfigIndexFields>() {
+            @Override
+            public int compare(ConfigIndexFields o1, ConfigIndexFields o2) {
+                return ((Comparable) o1.fields.get(field)).compareTo(o2.fields.get(field));
+            }
+        };
+        Collections.sort(list, ascending ? comparator : Collections.reverseOrder(comparator));
+        return Iterables.concat(list, missing);
+    }
+
+    /**
+     * @return smallest or largest value of a field among a result set, null if no
+     * instance has a value. Single valued fields with a navigable index are read from
+     * the index, which stop at the first instance of the result set.
+     */
+    Object extreme(ResultSet<ConfigIndexFields> resultSet, String field, boolean smallest) {
+        Attribute attribute = getAttribute(field);
+        if (sortedIndexes.containsKey(field)) {
+            Iterator<ConfigIndexFields> it = order(resultSet, field, smallest).iterator();
+            return it.hasNext() ? it.next().fields.get(field) : null;
+        }
+        Comparable extreme = null;
+        for (ConfigIndexFields fields : resultSet) {
+            for (Object value : attribute.getValues(fields)) {
+                Comparable comparable = (Comparable) value;
+                if (extreme == null || (smallest ? comparable.compareTo(extreme) < 0 : comparable.compareTo(extreme) > 0)) {
+                    extreme = comparable;
+                }
+            }
+        }
+        return extreme;
+    }
+
+    /**
+     * Count instances of a result set for each value of a field. Single valued fields
+     * with a navigable index are counted from the index when the result set is every
+     * instance of the collection.
+     *
+     * @param all true if the result set is every instance of the collection.
+     * @return value -> number of instances.
+     */
+    Map<Object, Long> groupBy(ResultSet<ConfigIndexFields> resultSet, String field, boolean all) {
+        Attribute attribute = getAttribute(field);
+        SortedIndex<?> sorted = sortedIndexes.get(field);
+        if (all && sorted != null) {
+            LinkedHashMap<Object, Long> groups = new LinkedHashMap<>();
+            for (Map.Entry<?, StoredResultSet<ConfigIndexFields>> entry : sorted.entries()) {
+                groups.put(entry.getKey(), (long) entry.getValue().size());
+            }
+            return groups;
+        }
+        HashMap<Object, Long> groups = new HashMap<>();
+        for (ConfigIndexFields fields : resultSet) {
+            for (Object value : attribute.getValues(fields)) {
+                Long count = groups.get(value);
+                groups.put(value, count == null ? 1 : count + 1);
+            }
+        }
+        return groups;
+    }
+
+    /**
+     * Invalidate cached results, called when instances of the collection are written.
+     */
+    public void modified() {
+        modifications.incrementAndGet();
+        QueryResultCache current = resultCache;
+        if (current != null) {
+            current.invalidate();
+        }
+    }
+
+    long getModifications() {
+        return modifications.get();
+    }
+
+    /**
+     * Set the maximum number of cached query results, cached results are dropped.
+     *
+     * @param maximumSize maximum size, 0 disables the cache.
+     */
+    public void setResultCacheSize(long maximumSize) {
+        resultCache = maximumSize <= 0 ? null : new QueryResultCache(maximumSize);
+    }
+
+    /**
+     * @return statistics of cached query results, which are all zero if disabled.
+     */
+    public CacheStats getResultCacheStats() {
+        QueryResultCache current = resultCache;
+        if (current == null) {
+            return new CacheStats(0, 0, 0, 0, 0, 0);
+        }
+        return current.stats();
+    }
+
+    QueryResultCache getResultCache() {
+        return resultCache;
+    }
+
     public ResultSet<ConfigIndexFields> retrieve(Query query) {
         return collection.retrieve(query);
     }
@@ -1,34 +1,34 @@
 package org.deephacks.confit.internal.cached.query;
 
 
-import com.googlecode.cqengine.attribute.Attribute;
+import com.google.common.base.Function;
+import com.google.common.base.Preconditions;
 import com.googlecode.cqengine.query.Query;
-import org.deephacks.confit.query.ConfigQueryBuilder.And;
-import org.deephacks.confit.query.ConfigQueryBuilder.Between;
-import org.deephacks.confit.query.ConfigQueryBuilder.Equals;
-import org.deephacks.confit.query.ConfigQueryBuilder.GreaterThan;
-import org.deephacks.confit.query.ConfigQueryBuilder.Has;
-import org.deephacks.confit.query.ConfigQueryBuilder.In;
-import org.deephacks.confit.query.ConfigQueryBuilder.LessThan;
-import org.deephacks.confit.query.ConfigQueryBuilder.LogicalRestriction;
-import org.deephacks.confit.query.ConfigQueryBuilder.Not;
-import org.deephacks.confit.query.ConfigQueryBuilder.Or;
-import org.deephacks.confit.query.ConfigQueryBuilder.PropertyRestriction;
+import com.googlecode.cqengine.resultset.ResultSet;
+import org.deephacks.confit.query.ConfigQuery.Order;
 import org.deephacks.confit.query.ConfigQueryBuilder.Restriction;
-import org.deephacks.confit.query.ConfigQueryBuilder.StringContains;
+import org.deephacks.confit.query.PreparedConfigQuery;
 import org.deephacks.confit.spi.CacheManager;
 
 import java.util.ArrayList;
-import java.util.Collection;
-
-import static com.googlecode.cqengine.query.QueryFactory.*;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 
 public class ConfigQuery<T> implements org.deephacks.confit.query.ConfigQuery {
 
-    private Query query;
+    /** restrictions compiled into a plan, null if unrestricted */
+    private QueryPlan.Node plan;
     private ConfigIndexedCollection collection;
     private final CacheManager cacheManager;
+    /** field to order by, null if unordered */
+    private String orderBy;
+    private Order order = Order.ASC;
+    private int offset = 0;
+    private int limit = Integer.MAX_VALUE;
 
     public ConfigQuery(ConfigIndexedCollection collection, CacheManager cacheManager) {
         this.collection = collection;
@@ -36,113 +36,252 @@ public class ConfigQuery<T> implements org.deephacks.confit.query.ConfigQuery {
     }
 
     public ConfigQuery(ConfigIndexedCollection collection, Query query, CacheManager cacheManager) {
-        this.query = query;
+        this.plan = query == null ? null : QueryPlan.constant(query);
         this.collection = collection;
         this.cacheManager = cacheManager;
     }
 
     public Query getQuery() {
-        return query;
+        return build(null);
+    }
+
+    /**
+     * Build the plan with values of its parameters.
+     *
+     * @param parameters parameter name -> value, null if the query is not prepared.
+     * @return the query, null if unrestricted.
+     */
+    private Query build(Map<String, ?> parameters) {
+        if (plan == null) {
+            return null;
+        }
+        if (parameters == null && plan.hasParameters()) {
+            throw new IllegalArgumentException("Query has parameters, prepare the query "
+                    + "and execute it with values of its parameters.");
+        }
+        return plan.build(parameters);
+    }
+
+    /**
+     * @return a query with another plan and the same order and page as this query.
+     */
+    private ConfigQuery<T> with(QueryPlan.Node plan) {
+        ConfigQuery<T> q = new ConfigQuery<>(collection, cacheManager);
+        q.plan = plan;
+        q.orderBy = orderBy;
+        q.order = order;
+        q.offset = offset;
+        q.limit = limit;
+        return q;
+    }
+
+    @Override
+    public org.deephacks.confit.query.ConfigQuery orderBy(String property, Order order) {
+        Preconditions.checkNotNull(property, "property must not be null");
+        Preconditions.checkNotNull(order, "order must not be null");
+        ConfigQuery<T> q = with(plan);
+        q.orderBy = property;
+        q.order = order;
+        return q;
+    }
+
+    @Override
+    public org.deephacks.confit.query.ConfigQuery offset(int offset) {
+        Preconditions.checkArgument(offset >= 0, "offset must not be negative");
+        ConfigQuery<T> q = with(plan);
+        q.offset = offset;
+        return q;
+    }
+
+    @Override
+    public org.deephacks.confit.query.ConfigQuery limit(int limit) {
+        Preconditions.checkArgument(limit >= 0, "limit must not be negative");
+        ConfigQuery<T> q = with(plan);
+        q.limit = limit;
+        return q;
     }
 
     @Override
     public org.deephacks.confit.query.ConfigQuery add(Restriction restriction) {
-        if(restriction instanceof PropertyRestriction) {
-            String property = ((PropertyRestriction) restriction).getProperty();
-            Attribute attr = collection.getAttribute(property);
-            if (restriction instanceof Equals) {
-                Query q = equal(attr, ((Equals) restriction).getValue());
-                if(query != null) {
-                    q = and(query, q);
-                }
-                return new ConfigQuery<>(collection, q, cacheManager);
-            } else if (restriction instanceof StringContains) {
-                Query q = contains(attr, ((StringContains) restriction).getValue());
-                if(query != null) {
-                    q = and(query, q);
-                }
-                return new ConfigQuery<>(collection, q, cacheManager);
-            } else if (restriction instanceof Between) {
-                Between _between = ((Between) restriction);
-                Query q = between(attr, _between.getLower(), _between.getUpper());
-                if(query != null) {
-                    q = and(query, q);
-                }
-                return new ConfigQuery<>(collection, q, cacheManager);
-            } else if (restriction instanceof GreaterThan) {
-                Query q = greaterThan(attr, ((GreaterThan) restriction).getValue());
-                if(query != null) {
-                    q = and(query, q);
-                }
-                return new ConfigQuery<>(collection, q, cacheManager);
-            } else if (restriction instanceof LessThan) {
-                LessThan lesser = ((LessThan) restriction);
-                Query q = lessThan(attr, lesser.getValue());
-                if(query != null) {
-                    q = and(query, q);
-                }
+        QueryPlan.Node node = QueryPlan.compile(collection, restriction);
+        if (plan != null) {
+            node = QueryPlan.and(plan, node);
+        }
+        return with(node);
+    }
 
-                return new ConfigQuery<>(collection, q, cacheManager);
-            } else if (restriction instanceof Has) {
-                Query q = has(attr);
-                if(query != null) {
-                    q = and(query, q);
-                }
-                return new ConfigQuery<>(collection, q, cacheManager);
-            } else if (restriction instanceof In) {
-                In _in = ((In) restriction);
-                Query q = in(attr, _in.getValues());
-                if(query != null) {
-                    q = and(query, q);
-                }
-                return new ConfigQuery<>(collection, q, cacheManager);
-            } else {
-                throw new IllegalArgumentException("Could not identify restriction: " + restriction);
+    @Override
+    public PreparedConfigQuery prepare() {
+        return new PreparedConfigQuery() {
+            @Override
+            public org.deephacks.confit.query.ConfigResultSet retrieve(Map parameters) {
+                return ConfigQuery.this.retrieve(build(bound(parameters)));
             }
-        } else if(restriction instanceof LogicalRestriction) {
-            if (restriction instanceof And) {
-                And and = (And) restriction;
-                Collection<Query> restrictions = new ArrayList<>();
-                for (Restriction res : and.getRestrictions()) {
-                    restrictions.add(((ConfigQuery)add(res)).getQuery());
-                }
-                Query q = new com.googlecode.cqengine.query.logical.And(restrictions);
-                if(query != null) {
-                    q = and(query, q);
-                }
-                return new ConfigQuery<>(collection, q, cacheManager);
-            } else if (restriction instanceof Or) {
-                Or and = (Or) restriction;
-                Collection<Query> restrictions = new ArrayList<>();
-                for (Restriction res : and.getRestrictions()) {
-                    restrictions.add(((ConfigQuery) add(res)).getQuery());
-                }
-                Query q = new com.googlecode.cqengine.query.logical.Or(restrictions, true);
-                if(query != null) {
-                    q = and(query, q);
-                }
-                return new ConfigQuery<>(collection, q, cacheManager);
-            } else if (restriction instanceof Not) {
-                Not not = (Not) restriction;
-                Restriction res = not.getRestrictions().get(0);
-                Query q = new com.googlecode.cqengine.query.logical.Not(((ConfigQuery)add(res)).getQuery());
-                if(query != null) {
-                    q = and(query, q);
-                }
-                return new ConfigQuery<>(collection, q, cacheManager);
-            } else {
-                throw new IllegalArgumentException("Could not identify restriction: " + restriction);
+
+            @Override
+            public org.deephacks.confit.query.ConfigResultSet retrieveIds(Map parameters) {
+                return ConfigQuery.this.retrieveIds(build(bound(parameters)));
             }
-        }
-        throw new IllegalArgumentException("Could not identify restriction: " + restriction);
+
+            @Override
+            public org.deephacks.confit.query.ConfigResultSet select(Map parameters, String... properties) {
+                return ConfigQuery.this.select(build(bound(parameters)), properties);
+            }
+
+            @Override
+            public long count(Map parameters) {
+                return resultSet(build(bound(parameters))).size();
+            }
+
+            @Override
+            public Object min(Map parameters, String property) {
+                return collection.extreme(resultSet(build(bound(parameters))), property, true);
+            }
+
+            @Override
+            public Object max(Map parameters, String property) {
+                return collection.extreme(resultSet(build(bound(parameters))), property, false);
+            }
+
+            @Override
+            public Set<Object> distinct(Map parameters, String property) {
+                return groupBy(parameters, property).keySet();
+            }
+
+            @Override
+            public Map<Object, Long> groupBy(Map parameters, String property) {
+                return ConfigQuery.this.groupBy(build(bound(parameters)), property);
+            }
+        };
+    }
+
+    /**
+     * @return parameters of a prepared query, never null.
+     */
+    private static Map<String, ?> bound(Map<String, ?> parameters) {
+        return parameters == null ? Collections.<String, Object>emptyMap() : parameters;
     }
 
     @Override
     public org.deephacks.confit.query.ConfigResultSet retrieve() {
+        return retrieve(build(null));
+    }
+
+    private org.deephacks.confit.query.ConfigResultSet retrieve(Query query) {
+        QueryResultCache cache = collection.getResultCache();
+        if (cache == null) {
+            return execute(query);
+        }
+        // read before executing so that writes during execution make the result stale
+        long modifications = collection.getModifications();
+        List<Object> key = QueryResultCache.key(query, orderBy, order, offset, limit);
+        List<ConfigIndexFields> fields = cache.get(key, modifications);
+        if (fields == null) {
+            fields = Collections.unmodifiableList(page(query));
+            cache.put(key, modifications, fields);
+        }
+        return new ConfigResultSet(fields, cacheManager);
+    }
+
+    /**
+     * @return index fields of instances in the page of the query, without fetching instances.
+     */
+    private List<ConfigIndexFields> page(Query query) {
+        ConfigResultSet page = new ConfigResultSet(order(query), offset, limit, new Function<ConfigIndexFields, Object>() {
+            @Override
+            public Object apply(ConfigIndexFields fields) {
+                return fields;
+            }
+        });
+        List<ConfigIndexFields> fields = new ArrayList<>();
+        for (Object value : page) {
+            fields.add((ConfigIndexFields) value);
+        }
+        return fields;
+    }
+
+    private ConfigResultSet execute(Query query) {
+        return new ConfigResultSet(order(query), offset, limit, cacheManager);
+    }
+
+    private Iterable<ConfigIndexFields> order(Query query) {
+        ResultSet<ConfigIndexFields> resultSet = resultSet(query);
+        if (orderBy == null) {
+            return resultSet;
+        }
+        return collection.order(resultSet, orderBy, order == Order.ASC);
+    }
+
+    @Override
+    public org.deephacks.confit.query.ConfigResultSet retrieveIds() {
+        return retrieveIds(build(null));
+    }
+
+    private org.deephacks.confit.query.ConfigResultSet retrieveIds(Query query) {
+        return new ConfigResultSet(order(query), offset, limit, new Function<ConfigIndexFields, Object>() {
+            @Override
+            public Object apply(ConfigIndexFields fields) {
+                return fields.getBeanId().getInstanceId();
+            }
+        });
+    }
+
+    @Override
+    public org.deephacks.confit.query.ConfigResultSet select(final String... properties) {
+        return select(build(null), properties);
+    }
+
+    private org.deephacks.confit.query.ConfigResultSet select(Query query, final String... properties) {
+        for (String property : properties) {
+            // fail early on fields that are not indexed
+            collection.getAttribute(property);
+        }
+        return new ConfigResultSet(order(query), offset, limit, new Function<ConfigIndexFields, Object>() {
+            @Override
+            public Object apply(ConfigIndexFields fields) {
+                LinkedHashMap<String, Object> values = new LinkedHashMap<>();
+                for (String property : properties) {
+                    values.put(property, fields.fields.get(property));
+                }
+                return values;
+            }
+        });
+    }
+
+    @Override
+    public long count() {
+        return resultSet(build(null)).size();
+    }
+
+    @Override
+    public Object min(String property) {
+        return collection.extreme(resultSet(build(null)), property, true);
+    }
+
+    @Override
+    public Object max(String property) {
+        return collection.extreme(resultSet(build(null)), property, false);
+    }
+
+    @Override
+    public Set<Object> distinct(String property) {
+        return groupBy(property).keySet();
+    }
+
+    @Override
+    public Map<Object, Long> groupBy(String property) {
+        return groupBy(build(null), property);
+    }
+
+    private Map<Object, Long> groupBy(Query query, String property) {
+        return collection.groupBy(resultSet(query), property, query == null);
+    }
+
+    private ResultSet<ConfigIndexFields> resultSet(Query query) {
         if(query == null) {
-            return new ConfigResultSet(collection.all(), cacheManager);
+            return collection.all();
+        } else {
+            return collection.retrieve(query);
         }
-        com.googlecode.cqengine.resultset.ResultSet resultSet = collection.retrieve(query);
-        return (org.deephacks.confit.query.ConfigResultSet) new ConfigResultSet(resultSet, cacheManager);
     }
 }
@@ -1,31 +1,62 @@
 package org.deephacks.confit.internal.cached.query;
 
+import com.google.common.base.Function;
 import org.deephacks.confit.spi.CacheManager;
 
 import java.util.Iterator;
 
-
+/**
+ * Instances are fetched from the cache as they are iterated, so only instances
+ * within the offset and limit are fetched. Result sets can also give values that
+ * are read from the index, in which case instances are never fetched.
+ */
 public class ConfigResultSet extends org.deephacks.confit.query.ConfigResultSet<Object> {
-    private final com.googlecode.cqengine.resultset.ResultSet resultSet;
-    private final CacheManager cacheManager;
+    private final Iterable<ConfigIndexFields> resultSet;
+    private final int offset;
+    private final int limit;
+    /** index fields -> value of the result set */
+    private final Function<ConfigIndexFields, Object> resolver;
+
+    public ConfigResultSet(Iterable<ConfigIndexFields> resultSet, CacheManager cacheManager) {
+        this(resultSet, 0, Integer.MAX_VALUE, cacheManager);
+    }
+
+    public ConfigResultSet(Iterable<ConfigIndexFields> resultSet, int offset, int limit, final CacheManager cacheManager) {
+        this(resultSet, offset, limit, new Function<ConfigIndexFields, Object>() {
+            @Override
+            public Object apply(ConfigIndexFields fields) {
+                return cacheManager.get(fields.getBeanId());
+            }
+        });
+    }
 
-    public ConfigResultSet(com.googlecode.cqengine.resultset.ResultSet resultSet, CacheManager cacheManager) {
+    public ConfigResultSet(Iterable<ConfigIndexFields> resultSet, int offset, int limit,
+                           Function<ConfigIndexFields, Object> resolver) {
         this.resultSet = resultSet;
-        this.cacheManager = cacheManager;
+        this.offset = offset;
+        this.limit = limit;
+        this.resolver = resolver;
     }
 
     @Override
     public Iterator<Object> iterator() {
+        // result sets of cqengine must not be asked for a next result more than once
+        final Iterator<ConfigIndexFields> it = resultSet.iterator();
+        for (int i = 0; i < offset && it.hasNext(); i++) {
+            it.next();
+        }
         return new Iterator<Object>() {
-            Iterator<ConfigIndexFields> it = resultSet.iterator();
+            int remaining = limit;
+
             @Override
             public boolean hasNext() {
-                return it.hasNext();
+                return remaining > 0 && it.hasNext();
             }
 
             @Override
             public Object next() {
-                return cacheManager.get(it.next().getBeanId());
+                remaining--;
+                return resolver.apply(it.next());
             }
 
             @Override
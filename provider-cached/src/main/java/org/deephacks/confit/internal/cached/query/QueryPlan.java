@@ -0,0 +1,360 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deephacks.confit.internal.cached.query;
+
+import com.googlecode.cqengine.attribute.Attribute;
+import com.googlecode.cqengine.query.Query;
+import org.deephacks.confit.query.ConfigQueryBuilder.And;
+import org.deephacks.confit.query.ConfigQueryBuilder.Between;
+import org.deephacks.confit.query.ConfigQueryBuilder.Equals;
+import org.deephacks.confit.query.ConfigQueryBuilder.GreaterThan;
+import org.deephacks.confit.query.ConfigQueryBuilder.Has;
+import org.deephacks.confit.query.ConfigQueryBuilder.In;
+import org.deephacks.confit.query.ConfigQueryBuilder.LessThan;
+import org.deephacks.confit.query.ConfigQueryBuilder.Not;
+import org.deephacks.confit.query.ConfigQueryBuilder.Or;
+import org.deephacks.confit.query.ConfigQueryBuilder.Parameter;
+import org.deephacks.confit.query.ConfigQueryBuilder.PropertyRestriction;
+import org.deephacks.confit.query.ConfigQueryBuilder.Restriction;
+import org.deephacks.confit.query.ConfigQueryBuilder.StringContains;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import static com.googlecode.cqengine.query.QueryFactory.*;
+
+/**
+ * A restriction tree compiled into nodes that have their attributes resolved.
+ * <p>
+ * Parts of the tree that do not have parameters are built into a query once, when
+ * compiled. Parameters are bound to leaves and their ancestors each time the plan is
+ * built, since queries of CQEngine have final values and indexes match queries by
+ * their class, so a query must be built for every value.
+ */
+final class QueryPlan {
+
+    private QueryPlan() {
+    }
+
+    /**
+     * Compile a restriction, attributes of the collection are resolved for every
+     * property of the restriction.
+     */
+    static Node compile(ConfigIndexedCollection collection, Restriction restriction) {
+        if (restriction instanceof PropertyRestriction) {
+            String property = ((PropertyRestriction) restriction).getProperty();
+            Attribute attr = collection.getAttribute(property);
+            Node node;
+            if (restriction instanceof Equals) {
+                node = new EqualNode(attr, ((Equals) restriction).getValue());
+            } else if (restriction instanceof StringContains) {
+                StringContains contains = (StringContains) restriction;
+                Object value = contains.getParameter() != null ? contains.getParameter() : contains.getValue();
+                node = new ContainsNode(attr, value);
+            } else if (restriction instanceof Between) {
+                Between between = (Between) restriction;
+                node = new BetweenNode(attr, between.getLower(), between.getUpper());
+            } else if (restriction instanceof GreaterThan) {
+                node = new GreaterThanNode(attr, ((GreaterThan) restriction).getValue());
+            } else if (restriction instanceof LessThan) {
+                node = new LessThanNode(attr, ((LessThan) restriction).getValue());
+            } else if (restriction instanceof Has) {
+                node = new Constant(has(attr));
+            } else if (restriction instanceof In) {
+                node = new InNode(attr, ((In) restriction).getValues());
+            } else {
+                throw new IllegalArgumentException("Could not identify restriction: " + restriction);
+            }
+            return fold(node);
+        } else if (restriction instanceof And) {
+            return fold(new AndNode(compile(collection, ((And) restriction).getRestrictions())));
+        } else if (restriction instanceof Or) {
+            return fold(new OrNode(compile(collection, ((Or) restriction).getRestrictions())));
+        } else if (restriction instanceof Not) {
+            Restriction res = ((Not) restriction).getRestrictions().get(0);
+            return fold(new NotNode(compile(collection, res)));
+        }
+        throw new IllegalArgumentException("Could not identify restriction: " + restriction);
+    }
+
+    /**
+     * @return a node that match both nodes.
+     */
+    static Node and(Node left, Node right) {
+        return fold(new AndNode(Arrays.asList(left, right)));
+    }
+
+    /**
+     * @return a node of a query that has already been built.
+     */
+    static Node constant(Query query) {
+        return new Constant(query);
+    }
+
+    private static List<Node> compile(ConfigIndexedCollection collection, List<Restriction> restrictions) {
+        List<Node> nodes = new ArrayList<>();
+        for (Restriction res : restrictions) {
+            nodes.add(compile(collection, res));
+        }
+        return nodes;
+    }
+
+    /**
+     * Build nodes without parameters into a constant.
+     */
+    private static Node fold(Node node) {
+        if (node instanceof Constant || node.hasParameters()) {
+            return node;
+        }
+        return new Constant(node.build(null));
+    }
+
+    private static Object bind(Object value, Map<String, ?> parameters) {
+        if (!(value instanceof Parameter)) {
+            return value;
+        }
+        String name = ((Parameter) value).getName();
+        if (parameters == null || !parameters.containsKey(name)) {
+            throw new IllegalArgumentException("Parameter [" + name + "] is not bound.");
+        }
+        return parameters.get(name);
+    }
+
+    /**
+     * A node of a plan. Nodes are immutable and can be built concurrently.
+     */
+    static abstract class Node {
+        /**
+         * Build the query of this node.
+         *
+         * @param parameters parameter name -> value
+         */
+        abstract Query build(Map<String, ?> parameters);
+
+        abstract boolean hasParameters();
+    }
+
+    private static final class Constant extends Node {
+        private final Query query;
+
+        private Constant(Query query) {
+            this.query = query;
+        }
+
+        @Override
+        Query build(Map<String, ?> parameters) {
+            return query;
+        }
+
+        @Override
+        boolean hasParameters() {
+            return false;
+        }
+    }
+
+    private static abstract class ValueNode extends Node {
+        final Attribute attr;
+        final Object value;
+
+        private ValueNode(Attribute attr, Object value) {
+            this.attr = attr;
+            this.value = value;
+        }
+
+        @Override
+        boolean hasParameters() {
+            return value instanceof Parameter;
+        }
+    }
+
+    private static final class EqualNode extends ValueNode {
+        private EqualNode(Attribute attr, Object value) {
+            super(attr, value);
+        }
+
+        @Override
+        Query build(Map<String, ?> parameters) {
+            return equal(attr, bind(value, parameters));
+        }
+    }
+
+    private static final class ContainsNode extends ValueNode {
+        private ContainsNode(Attribute attr, Object value) {
+            super(attr, value);
+        }
+
+        @Override
+        Query build(Map<String, ?> parameters) {
+            return contains(attr, (String) bind(value, parameters));
+        }
+    }
+
+    private static final class GreaterThanNode extends ValueNode {
+        private GreaterThanNode(Attribute attr, Object value) {
+            super(attr, value);
+        }
+
+        @Override
+        Query build(Map<String, ?> parameters) {
+            return greaterThan(attr, (Comparable) bind(value, parameters));
+        }
+    }
+
+    private static final class LessThanNode extends ValueNode {
+        private LessThanNode(Attribute attr, Object value) {
+            super(attr, value);
+        }
+
+        @Override
+        Query build(Map<String, ?> parameters) {
+            return lessThan(attr, (Comparable) bind(value, parameters));
+        }
+    }
+
+    private static final class BetweenNode extends Node {
+        private final Attribute attr;
+        private final Object lower;
+        private final Object upper;
+
+        private BetweenNode(Attribute attr, Object lower, Object upper) {
+            this.attr = attr;
+            this.lower = lower;
+            this.upper = upper;
+        }
+
+        @Override
+        Query build(Map<String, ?> parameters) {
+            return between(attr, (Comparable) bind(lower, parameters), (Comparable) bind(upper, parameters));
+        }
+
+        @Override
+        boolean hasParameters() {
+            return lower instanceof Parameter || upper instanceof Parameter;
+        }
+    }
+
+    /**
+     * Parameters of an in node that are bound to a collection are expanded into
+     * the values of the collection.
+     */
+    private static final class InNode extends Node {
+        private final Attribute attr;
+        private final List<Object> values;
+
+        private InNode(Attribute attr, List<Object> values) {
+            this.attr = attr;
+            this.values = values;
+        }
+
+        @Override
+        Query build(Map<String, ?> parameters) {
+            if (!hasParameters()) {
+                return in(attr, values);
+            }
+            List<Object> bound = new ArrayList<>();
+            for (Object value : values) {
+                if (value instanceof Parameter) {
+                    Object param = bind(value, parameters);
+                    if (param instanceof Collection) {
+                        bound.addAll((Collection<?>) param);
+                    } else {
+                        bound.add(param);
+                    }
+                } else {
+                    bound.add(value);
+                }
+            }
+            return in(attr, bound);
+        }
+
+        @Override
+        boolean hasParameters() {
+            for (Object value : values) {
+                if (value instanceof Parameter) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static abstract class LogicalNode extends Node {
+        final List<Node> nodes;
+
+        private LogicalNode(List<Node> nodes) {
+            this.nodes = nodes;
+        }
+
+        List<Query> buildAll(Map<String, ?> parameters) {
+            List<Query> queries = new ArrayList<>(nodes.size());
+            for (Node node : nodes) {
+                queries.add(node.build(parameters));
+            }
+            return queries;
+        }
+
+        @Override
+        boolean hasParameters() {
+            for (Node node : nodes) {
+                if (node.hasParameters()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static final class AndNode extends LogicalNode {
+        private AndNode(List<Node> nodes) {
+            super(nodes);
+        }
+
+        @Override
+        Query build(Map<String, ?> parameters) {
+            return new com.googlecode.cqengine.query.logical.And(buildAll(parameters));
+        }
+    }
+
+    private static final class OrNode extends LogicalNode {
+        private OrNode(List<Node> nodes) {
+            super(nodes);
+        }
+
+        @Override
+        Query build(Map<String, ?> parameters) {
+            return new com.googlecode.cqengine.query.logical.Or(buildAll(parameters), true);
+        }
+    }
+
+    private static final class NotNode extends Node {
+        private final Node node;
+
+        private NotNode(Node node) {
+            this.node = node;
+        }
+
+        @Override
+        Query build(Map<String, ?> parameters) {
+            return new com.googlecode.cqengine.query.logical.Not(node.build(parameters));
+        }
+
+        @Override
+        boolean hasParameters() {
+            return node.hasParameters();
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deephacks.confit.internal.cached.query;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.googlecode.cqengine.query.Query;
+import com.googlecode.cqengine.query.logical.And;
+import com.googlecode.cqengine.query.logical.LogicalQuery;
+import com.googlecode.cqengine.query.logical.Not;
+import com.googlecode.cqengine.query.logical.Or;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Results of queries of a collection, which are dropped when the collection is
+ * modified. Results are kept as the index fields of matching instances, which are
+ * resolved into instances every time the result is iterated, so that a miss does
+ * not fetch instances that may never be read. Each result is also tagged with the number of modifications of the
+ * collection when the query was executed, so that results of queries that raced
+ * with a write are never served.
+ */
+final class QueryResultCache {
+    /** key of a query -> index fields of instances retrieved by the query */
+    private final Cache<List<Object>, Result> results;
+
+    QueryResultCache(long maximumSize) {
+        this.results = CacheBuilder.newBuilder().maximumSize(maximumSize).recordStats().build();
+    }
+
+    /**
+     * @return index fields of instances retrieved by the query, null if not cached or stale.
+     */
+    List<ConfigIndexFields> get(List<Object> key, long modifications) {
+        Result result = results.getIfPresent(key);
+        if (result == null) {
+            return null;
+        }
+        if (result.modifications != modifications) {
+            results.asMap().remove(key, result);
+            return null;
+        }
+        return result.values;
+    }
+
+    void put(List<Object> key, long modifications, List<ConfigIndexFields> values) {
+        results.put(key, new Result(modifications, values));
+    }
+
+    void invalidate() {
+        results.invalidateAll();
+    }
+
+    CacheStats stats() {
+        return results.stats();
+    }
+
+    /**
+     * @return a key of a query, order and page that is equal for queries that only
+     * differ in the order of their logical operands.
+     */
+    static List<Object> key(Query query, String orderBy, Object order, int offset, int limit) {
+        return Arrays.asList(query == null ? null : normalize(query), orderBy, order, offset, limit);
+    }
+
+    /**
+     * Simple queries of CQEngine are equal by attribute and value, but logical queries
+     * are equal by the order of their operands and negations do not have a hash code,
+     * so logical queries are replaced with sets of their operands.
+     */
+    private static Object normalize(Query query) {
+        if (query instanceof Not) {
+            return Arrays.asList(Not.class, normalize(((Not) query).getNegatedQuery()));
+        } else if (query instanceof And || query instanceof Or) {
+            LogicalQuery logical = (LogicalQuery) query;
+            Set<Object> operands = new HashSet<>();
+            for (Object operand : logical.getSimpleQueries()) {
+                operands.add(operand);
+            }
+            for (Object operand : logical.getLogicalQueries()) {
+                operands.add(normalize((Query) operand));
+            }
+            return Arrays.asList(query.getClass(), operands);
+        }
+        return query;
+    }
+
+    private static final class Result {
+        private final long modifications;
+        private final List<ConfigIndexFields> values;
+
+        private Result(long modifications, List<ConfigIndexFields> values) {
+            this.modifications = modifications;
+            this.values = values;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deephacks.confit.internal.cached.query;
+
+import com.googlecode.cqengine.attribute.Attribute;
+import com.googlecode.cqengine.index.navigable.NavigableIndex;
+import com.googlecode.cqengine.resultset.stored.StoredResultSet;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A navigable index that also expose the indexed objects in the order of their
+ * values, so that results can be ordered by walking the index instead of sorting
+ * every result.
+ */
+final class SortedIndex<A extends Comparable<A>> extends NavigableIndex<A, ConfigIndexFields> {
+
+    SortedIndex(Attribute<ConfigIndexFields, A> attribute) {
+        super(new DefaultIndexMapFactory<A, ConfigIndexFields>(),
+                new DefaultValueSetFactory<ConfigIndexFields>(), attribute);
+    }
+
+    /**
+     * @return indexed objects grouped by value, in ascending or descending order of
+     * values. Objects that do not have a value are not indexed.
+     */
+    Iterable<StoredResultSet<ConfigIndexFields>> values(boolean ascending) {
+        return ascending ? indexMap.values() : indexMap.descendingMap().values();
+    }
+
+    /**
+     * @return values in ascending order with the objects that have each value.
+     */
+    Set<Map.Entry<A, StoredResultSet<ConfigIndexFields>>> entries() {
+        return indexMap.entrySet();
+    }
+}
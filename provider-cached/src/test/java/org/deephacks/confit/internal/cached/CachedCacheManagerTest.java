@@ -13,13 +13,21 @@
  */
 package org.deephacks.confit.internal.cached;
 
+import com.google.common.collect.Iterables;
+import org.deephacks.confit.model.Bean;
 import org.deephacks.confit.model.BeanId;
 import org.deephacks.confit.model.Schema;
+import org.deephacks.confit.spi.BeanManager;
 import org.deephacks.confit.spi.SchemaManager;
 import org.deephacks.confit.test.ConfigTestData.*;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 import static org.deephacks.confit.internal.core.schema.ConversionUtils.toBean;
 import static org.deephacks.confit.test.ConfigTestData.*;
 import static org.junit.Assert.*;
@@ -78,6 +86,229 @@ public class CachedCacheManagerTest {
 
     }
 
+    @Test
+    public void test_flyweight() throws Exception {
+        CachedCacheManager.setFlyweight(true);
+        try {
+            parent.setProp6(child);
+            manager.put(toBean(parent));
+            manager.put(toBean(child));
+
+            Parent p = (Parent) manager.get(p1);
+            Child c = (Child) manager.get(c1);
+            assertEquals(parent.getBeanId(), p.getBeanId());
+            assertEquals(parent.getProp1(), p.getProp1());
+            assertEquals(parent.getProp2(), p.getProp2());
+            assertEquals(parent.getProp9(), p.getProp9());
+            assertEquals(parent.getProp4().toString(), p.getProp4().toString());
+            assertEquals(child.getProp9(), c.getProp9());
+            assertEquals(c1, p.getProp6().getBeanId());
+
+            // proxies fetched before a value is replaced keep the previous value
+            child.getProp2().remove("a");
+            manager.put(toBean(child));
+            assertTrue(c.getProp2().contains("a"));
+            assertFalse(((Child) manager.get(c1)).getProp2().contains("a"));
+        } finally {
+            CachedCacheManager.setFlyweight(false);
+        }
+    }
+
+    @Test
+    public void test_l1() throws Exception {
+        CachedCacheManager.setL1Size(100);
+        try {
+            manager.put(toBean(child));
+            Child c = (Child) manager.get(c1);
+            assertSame(c, manager.get(c1));
+            assertEquals(1, manager.getL1Stats().hitCount());
+            assertEquals(1, manager.getL1Stats().missCount());
+
+            // put invalidate the proxy that was kept on-heap
+            child.getProp2().remove("a");
+            manager.put(toBean(child));
+            Child replaced = (Child) manager.get(c1);
+            assertNotSame(c, replaced);
+            assertFalse(replaced.getProp2().contains("a"));
+
+            manager.remove(c1);
+            assertEquals(0, manager.get(CHILD_SCHEMA_NAME).size());
+        } finally {
+            CachedCacheManager.setL1Size(0);
+        }
+    }
+
+    @Test
+    public void test_budget_eviction_and_read_through() throws Exception {
+        manager.put(toBean(getChild("evict0")));
+        long bytes = manager.getOffHeapStats(CHILD_SCHEMA_NAME).getUsedBytes();
+        assertTrue(bytes > 0);
+        CachedCacheManager.setBudgets(0, bytes * 3, EvictionPolicy.LRU);
+        try {
+            BeanManager beanManager = BeanManager.lookup();
+            for (int i = 0; i < 10; i++) {
+                Bean bean = toBean(getChild("evict" + i));
+                beanManager.create(bean);
+                manager.put(bean);
+            }
+            OffHeapStats stats = manager.getOffHeapStats(CHILD_SCHEMA_NAME);
+            assertTrue(stats.getUsedBytes() <= bytes * 3);
+            assertTrue(stats.getEvictions() >= 7);
+            assertEquals(stats.getEvictions(), manager.getOffHeapStats().getEvictions());
+
+            // least recently used proxies are evicted and read through on miss
+            BeanId evicted = BeanId.create("evict0", CHILD_SCHEMA_NAME);
+            Child c = (Child) manager.get(evicted);
+            assertEquals(evicted, c.getBeanId());
+            assertNull(manager.get(BeanId.create("missing", CHILD_SCHEMA_NAME)));
+        } finally {
+            CachedCacheManager.setBudgets(0, 0, EvictionPolicy.LRU);
+        }
+    }
+
+    /**
+     * Test that proxies served from the on-heap cache are ranked as accessed
+     * by the eviction policy of the off-heap cache.
+     */
+    @Test
+    public void test_l1_hits_keep_proxies_from_eviction() throws Exception {
+        manager.put(toBean(getChild("lru0")));
+        long bytes = manager.getOffHeapStats(CHILD_SCHEMA_NAME).getUsedBytes();
+        manager.clear();
+        CachedCacheManager.setL1Size(100);
+        CachedCacheManager.setBudgets(0, bytes * 3, EvictionPolicy.LRU);
+        try {
+            BeanId hot = BeanId.create("lru0", CHILD_SCHEMA_NAME);
+            manager.put(toBean(getChild("lru0")));
+            manager.get(hot);
+            manager.put(toBean(getChild("lru1")));
+            manager.put(toBean(getChild("lru2")));
+            manager.get(hot);
+            assertEquals(1, manager.getL1Stats().hitCount());
+
+            // exceeding the budget evict the two least recently used proxies
+            manager.put(toBean(getChild("lru3")));
+            assertEquals(2, manager.getOffHeapStats(CHILD_SCHEMA_NAME).getEvictions());
+            // evicted proxies are not stored by the bean manager and cannot be read through
+            assertNull(manager.get(BeanId.create("lru1", CHILD_SCHEMA_NAME)));
+            assertNull(manager.get(BeanId.create("lru2", CHILD_SCHEMA_NAME)));
+            assertNotNull(manager.get(BeanId.create("lru3", CHILD_SCHEMA_NAME)));
+        } finally {
+            CachedCacheManager.setBudgets(0, 0, EvictionPolicy.LRU);
+            CachedCacheManager.setL1Size(0);
+        }
+    }
+
+    /**
+     * Test that proxies that are read through while a cached query result is
+     * iterated do not invalidate the result.
+     */
+    @Test
+    public void test_read_through_keeps_query_results() throws Exception {
+        manager.put(toBean(getChild("query0")));
+        long bytes = manager.getOffHeapStats(CHILD_SCHEMA_NAME).getUsedBytes();
+        manager.clear();
+        CachedCacheManager.setBudgets(0, bytes * 3, EvictionPolicy.LRU);
+        CachedCacheManager.setQueryCacheSize(100);
+        try {
+            BeanManager beanManager = BeanManager.lookup();
+            for (int i = 0; i < 10; i++) {
+                Bean bean = toBean(getChild("query" + i));
+                beanManager.create(bean);
+                manager.put(bean);
+            }
+            assertTrue(manager.getOffHeapStats(CHILD_SCHEMA_NAME).getEvictions() > 0);
+            // evicted proxies are read through while the result is iterated
+            Iterables.size(manager.newQuery(cSchema).retrieve());
+            manager.newQuery(cSchema).retrieve();
+            assertEquals(1, manager.getQueryCacheStats(CHILD_SCHEMA_NAME).hitCount());
+        } finally {
+            CachedCacheManager.setQueryCacheSize(0);
+            CachedCacheManager.setBudgets(0, 0, EvictionPolicy.LRU);
+        }
+    }
+
+    @Test
+    public void test_put_replace_non_ascii() throws Exception {
+        BeanId id = BeanId.create("c\u00e5\u20ac", CHILD_SCHEMA_NAME);
+        Child child = getChild(id.getInstanceId());
+        child.getProp2().add("\u00f6\u4e2d\ud83d\ude00");
+        manager.put(toBean(child));
+        Child c = (Child) manager.get(id);
+        assertEquals(id, c.getBeanId());
+        assertEquals(child.getProp2(), c.getProp2());
+
+        // replacing the value release the buffer of the previous value
+        child.getProp2().remove("a");
+        manager.put(toBean(child));
+        c = (Child) manager.get(id);
+        assertEquals(child.getProp2(), c.getProp2());
+    }
+
+    @Test
+    public void test_snapshot_restore_and_replay() throws Exception {
+        BeanManager beanManager = BeanManager.lookup();
+        List<Bean> beans = Arrays.asList(toBean(getChild("snap0")), toBean(getChild("snap1")),
+                toBean(getChild("snap2")));
+        beanManager.create(beans);
+        manager.putAll(beans);
+        manager.markFilled(CHILD_SCHEMA_NAME);
+        File file = File.createTempFile("confit-cache", ".snapshot");
+        file.deleteOnExit();
+        assertTrue(manager.writeSnapshot(file));
+
+        // changes after the snapshot was taken
+        Child changed = getChild("snap1");
+        changed.getProp2().remove("a");
+        beanManager.set(toBean(changed));
+        beanManager.delete(BeanId.create("snap0", CHILD_SCHEMA_NAME));
+        beanManager.create(toBean(getChild("snap3")));
+
+        // restart the cache of the schema from the snapshot
+        manager.removeSchema(cSchema);
+        CachedCacheManager.setSnapshot(file);
+        try {
+            manager.registerSchema(cSchema);
+            assertTrue(manager.isFilled(CHILD_SCHEMA_NAME));
+            List<String> ids = new ArrayList<>();
+            for (Object proxy : manager.get(CHILD_SCHEMA_NAME)) {
+                ids.add(((Child) proxy).getBeanId().getInstanceId());
+            }
+            assertTrue(ids.containsAll(Arrays.asList("snap1", "snap2", "snap3")));
+            assertFalse(ids.contains("snap0"));
+            Child c = (Child) manager.get(BeanId.create("snap1", CHILD_SCHEMA_NAME));
+            assertFalse(c.getProp2().contains("a"));
+            assertEquals(getChild("snap2").getProp2(),
+                    ((Child) manager.get(BeanId.create("snap2", CHILD_SCHEMA_NAME))).getProp2());
+        } finally {
+            CachedCacheManager.setSnapshot(new File(file.getPath() + ".missing"));
+        }
+    }
+
+    /**
+     * Test that schemas the cache was not filled with are restored, but not as filled.
+     */
+    @Test
+    public void test_snapshot_of_unfilled_schema() throws Exception {
+        Bean bean = toBean(getChild("partial0"));
+        BeanManager.lookup().create(bean);
+        manager.put(bean);
+        assertFalse(manager.isFilled(CHILD_SCHEMA_NAME));
+        File file = File.createTempFile("confit-cache", ".snapshot");
+        file.deleteOnExit();
+        assertTrue(manager.writeSnapshot(file));
+
+        manager.removeSchema(cSchema);
+        CachedCacheManager.setSnapshot(file);
+        try {
+            manager.registerSchema(cSchema);
+            assertFalse(manager.isFilled(CHILD_SCHEMA_NAME));
+            assertEquals(bean.getId(), ((Child) manager.get(bean.getId())).getBeanId());
+        } finally {
+            CachedCacheManager.setSnapshot(new File(file.getPath() + ".missing"));
+        }
+    }
+
 
 
 }
@@ -13,14 +13,23 @@
  */
 package org.deephacks.confit.internal.cached;
 
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
+import org.deephacks.confit.Config;
 import org.deephacks.confit.ConfigContext;
+import org.deephacks.confit.Id;
+import org.deephacks.confit.Index;
 import org.deephacks.confit.admin.AdminContext;
+import org.deephacks.confit.internal.cached.query.ConfigIndex;
 import org.deephacks.confit.internal.core.config.DefaultBeanManager;
+import org.deephacks.confit.model.BeanId;
+import org.deephacks.confit.query.ConfigQuery;
 import org.deephacks.confit.query.ConfigResultSet;
+import org.deephacks.confit.query.PreparedConfigQuery;
 import org.deephacks.confit.spi.CacheManager;
 import org.deephacks.confit.spi.Lookup;
+import org.deephacks.confit.spi.SchemaManager;
 import org.deephacks.confit.test.ConfigTestData.Child;
 import org.deephacks.confit.test.ConfigTestData.Grandfather;
 import org.deephacks.confit.test.ConfigTestData.Parent;
@@ -32,10 +41,12 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import static org.deephacks.confit.internal.core.schema.ConversionUtils.toBean;
 import static org.deephacks.confit.query.ConfigQueryBuilder.*;
+import static org.deephacks.confit.test.ConfigTestData.GRANDFATHER_SCHEMA_NAME;
 import static org.deephacks.confit.test.ConfigTestData.getGrandfather;
 import static org.deephacks.confit.test.ConfigTestData.getParent;
 import static org.hamcrest.core.Is.is;
@@ -158,6 +169,320 @@ public class ConfigQueryTest {
         assertThat(ids, hasItems(new String[]{"g1", "g3"}));
     }
 
+    /**
+     * Include instances that have a field that contain a certain value in the middle,
+     * served by a suffix tree index.
+     */
+    @Test
+    public void test_contains_suffix_index() {
+        runtime.register(Suffixed.class);
+        try {
+            ConfigIndex index = new ConfigIndex(SchemaManager.lookup().getSchema(Suffixed.class));
+            assertEquals(Index.Kind.SUFFIX, index.getKind("name"));
+            assertEquals(Index.Kind.NAVIGABLE, index.getKind("rank"));
+            admin.create(toBean(new Suffixed("s1", "value", 1.0)));
+            admin.create(toBean(new Suffixed("s2", "test", 2.0)));
+            admin.create(toBean(new Suffixed("s3", "values", 3.0)));
+            ConfigResultSet<Suffixed> result = runtime.newQuery(Suffixed.class)
+                    .add(contains("name", "alu"))
+                    .retrieve();
+            ArrayList<String> ids = new ArrayList<>();
+            for (Suffixed s : result) {
+                ids.add(s.getId());
+            }
+            assertThat(ids.size(), is(2));
+            assertThat(ids, hasItems(new String[]{"s1", "s3"}));
+        } finally {
+            runtime.unregister(Suffixed.class);
+        }
+    }
+
+    /**
+     * Test that hash and unique indexes drop old values of instances that are
+     * updated, so that values can move between instances.
+     */
+    @Test
+    public void test_hash_and_unique_index_update() {
+        runtime.register(Keyed.class);
+        try {
+            admin.createObject(new Keyed("k1", "a", "x"));
+            admin.createObject(new Keyed("k2", "b", "y"));
+            admin.setObject(new Keyed("k1", "c", "z"));
+            assertEquals(0, runtime.newQuery(Keyed.class).add(equal("code", "x")).count());
+            assertEquals(0, runtime.newQuery(Keyed.class).add(equal("name", "a")).count());
+            assertEquals(Arrays.asList("k1"), keyed(runtime.newQuery(Keyed.class).add(equal("code", "z"))));
+            assertEquals(Arrays.asList("k1"), keyed(runtime.newQuery(Keyed.class).add(equal("name", "c"))));
+
+            // the value of k1 has been released and can be taken by k2
+            admin.setObject(new Keyed("k2", "b", "x"));
+            assertEquals(Arrays.asList("k2"), keyed(runtime.newQuery(Keyed.class).add(equal("code", "x"))));
+            assertEquals(0, runtime.newQuery(Keyed.class).add(equal("code", "y")).count());
+        } finally {
+            runtime.unregister(Keyed.class);
+        }
+    }
+
+    /**
+     * Test that a unique value of a deleted instance can be given to a new instance.
+     */
+    @Test
+    public void test_unique_index_delete_then_recreate() {
+        runtime.register(Keyed.class);
+        try {
+            admin.createObject(new Keyed("k1", "a", "x"));
+            admin.deleteObject(new Keyed("k1", "a", "x"));
+            assertEquals(0, runtime.newQuery(Keyed.class).add(equal("code", "x")).count());
+            assertEquals(0, runtime.newQuery(Keyed.class).add(equal("name", "a")).count());
+            admin.createObject(new Keyed("k3", "a", "x"));
+            assertEquals(Arrays.asList("k3"), keyed(runtime.newQuery(Keyed.class).add(equal("code", "x"))));
+            assertEquals(Arrays.asList("k3"), keyed(runtime.newQuery(Keyed.class).add(equal("name", "a"))));
+        } finally {
+            runtime.unregister(Keyed.class);
+        }
+    }
+
+    private static List<String> keyed(ConfigQuery<Keyed> query) {
+        ArrayList<String> ids = new ArrayList<>();
+        for (Keyed k : query.retrieve()) {
+            ids.add(k.getId());
+        }
+        return ids;
+    }
+
+    /**
+     * Order instances by an indexed field and retrieve a page of them.
+     */
+    @Test
+    public void test_order_limit_offset() {
+        ConfigResultSet<Grandfather> result = runtime.newQuery(Grandfather.class)
+                .orderBy("prop12", ConfigQuery.Order.DESC)
+                .offset(1)
+                .limit(2)
+                .retrieve();
+        ArrayList<String> ids = new ArrayList<>();
+        for (Grandfather g : result) {
+            ids.add(g.getId());
+        }
+        assertEquals(Arrays.asList("g3", "g2"), ids);
+
+        // restrictions are applied before the page is taken
+        result = runtime.newQuery(Grandfather.class)
+                .add(lessThan("prop12", 4.0))
+                .orderBy("prop12", ConfigQuery.Order.ASC)
+                .limit(2)
+                .retrieve();
+        ids.clear();
+        for (Grandfather g : result) {
+            ids.add(g.getId());
+        }
+        assertEquals(Arrays.asList("g1", "g2"), ids);
+
+        // fields without a navigable index are sorted, instances without a value come last
+        result = runtime.newQuery(Grandfather.class)
+                .orderBy("prop1", ConfigQuery.Order.ASC)
+                .retrieve();
+        ids.clear();
+        for (Grandfather g : result) {
+            ids.add(g.getId());
+        }
+        assertEquals(4, ids.size());
+        assertEquals("g2", ids.get(0));
+        assertEquals("g4", ids.get(3));
+    }
+
+    /**
+     * Instances that are updated must only be ordered by their current value.
+     */
+    @Test
+    public void test_order_after_set() {
+        g1.setProp12(5.0);
+        admin.set(toBean(g1));
+        ConfigQuery<Grandfather> query = runtime.newQuery(Grandfather.class)
+                .orderBy("prop12", ConfigQuery.Order.ASC);
+        assertEquals(Arrays.asList("g2", "g3", "g4", "g1"), ids(query.retrieve()));
+        assertEquals(Arrays.asList("g3", "g4"), ids(query.offset(1).limit(2).retrieve()));
+        assertEquals(Arrays.asList("g1", "g4"), ids(runtime.newQuery(Grandfather.class)
+                .orderBy("prop12", ConfigQuery.Order.DESC).limit(2).retrieve()));
+    }
+
+    /**
+     * Prepare a query once and retrieve it with different parameters.
+     */
+    @Test
+    public void test_prepared_query() {
+        PreparedConfigQuery<Grandfather> query = runtime.newQuery(Grandfather.class)
+                .add(and(equal("prop1", param("value")), lessThan("prop12", param("max"))))
+                .orderBy("prop12", ConfigQuery.Order.ASC)
+                .prepare();
+        assertEquals(Arrays.asList("g1", "g3"), ids(query.retrieve(ImmutableMap.of("value", "value", "max", 4.0))));
+        assertEquals(Arrays.asList("g1"), ids(query.retrieve(ImmutableMap.of("value", "value", "max", 2.0))));
+        assertEquals(Arrays.asList("g2"), ids(query.retrieve(ImmutableMap.of("value", "test", "max", 4.0))));
+
+        // parameters of in queries can be given collections of values
+        PreparedConfigQuery<Grandfather> in = runtime.newQuery(Grandfather.class)
+                .add(in("prop3", param("values")))
+                .orderBy("prop12", ConfigQuery.Order.ASC)
+                .prepare();
+        assertEquals(Arrays.asList("g1", "g4"), ids(in.retrieve(ImmutableMap.of("values", Arrays.asList(1, 8)))));
+
+        try {
+            query.retrieve(ImmutableMap.of("value", "value"));
+            fail("max is not bound");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("max"));
+        }
+    }
+
+    /**
+     * Retrieve ids, select and aggregate a prepared query with values of its parameters.
+     */
+    @Test
+    public void test_prepared_ids_select_and_aggregations() {
+        ConfigQuery<Grandfather> unprepared = runtime.newQuery(Grandfather.class)
+                .add(equal("prop1", param("value")))
+                .orderBy("prop12", ConfigQuery.Order.ASC);
+        PreparedConfigQuery<Grandfather> query = unprepared.prepare();
+        Map<String, String> value = ImmutableMap.of("value", "value");
+        assertEquals(Arrays.asList("g1", "g3"), Lists.newArrayList(query.retrieveIds(value)));
+        List<Map<String, Object>> rows = Lists.newArrayList(query.select(value, "prop12"));
+        assertEquals(2, rows.size());
+        assertEquals(3.0, rows.get(1).get("prop12"));
+        assertEquals(2, query.count(value));
+        assertEquals(1, query.count(ImmutableMap.of("value", "test")));
+        assertEquals(1.0, query.min(value, "prop12"));
+        assertEquals(3.0, query.max(value, "prop12"));
+        assertEquals(Sets.<Object>newHashSet(1.0, 3.0), query.distinct(value, "prop12"));
+        assertEquals(Long.valueOf(1), query.groupBy(value, "prop3").get(5));
+
+        // queries that have parameters must be prepared
+        try {
+            unprepared.count();
+            fail("value is not bound");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("prepare"));
+        }
+    }
+
+    /**
+     * Results are cached until an instance of the schema is written.
+     */
+    @Test
+    public void test_query_result_cache() {
+        CachedCacheManager cacheManager = new CachedCacheManager();
+        CachedCacheManager.setQueryCacheSize(100);
+        try {
+            ConfigQuery<Grandfather> query = runtime.newQuery(Grandfather.class)
+                    .add(equal("prop1", "value"))
+                    .orderBy("prop12", ConfigQuery.Order.ASC);
+            assertEquals(Arrays.asList("g1", "g3"), ids(query.retrieve()));
+            assertEquals(Arrays.asList("g1", "g3"), ids(query.retrieve()));
+            // operands in another order are the same query
+            assertEquals(Arrays.asList("g1", "g3"), ids(runtime.newQuery(Grandfather.class)
+                    .add(and(equal("prop1", "value"), lessThan("prop12", 5.0)))
+                    .orderBy("prop12", ConfigQuery.Order.ASC).retrieve()));
+            assertEquals(Arrays.asList("g1", "g3"), ids(runtime.newQuery(Grandfather.class)
+                    .add(and(lessThan("prop12", 5.0), equal("prop1", "value")))
+                    .orderBy("prop12", ConfigQuery.Order.ASC).retrieve()));
+            assertEquals(2, cacheManager.getQueryCacheStats(GRANDFATHER_SCHEMA_NAME).hitCount());
+
+            Grandfather g5 = getGrandfather("g5");
+            g5.setProp1("value");
+            g5.setProp12(5.0);
+            admin.create(toBean(g5));
+            assertEquals(Arrays.asList("g1", "g3", "g5"), ids(query.retrieve()));
+            assertEquals(2, cacheManager.getQueryCacheStats(GRANDFATHER_SCHEMA_NAME).hitCount());
+        } finally {
+            CachedCacheManager.setQueryCacheSize(0);
+        }
+    }
+
+    /**
+     * Aggregate indexed values of matching instances.
+     */
+    @Test
+    public void test_aggregations() {
+        ConfigQuery<Grandfather> all = runtime.newQuery(Grandfather.class);
+        assertEquals(4, all.count());
+        assertEquals(1.0, all.min("prop12"));
+        assertEquals(4.0, all.max("prop12"));
+        assertEquals(Sets.<Object>newHashSet("value", "test"), all.distinct("prop1"));
+        Map<Object, Long> groups = all.groupBy("prop12");
+        assertEquals(Arrays.<Object>asList(1.0, 2.0, 3.0, 4.0), new ArrayList<>(groups.keySet()));
+        assertEquals(Long.valueOf(1), groups.get(3.0));
+
+        ConfigQuery<Grandfather> value = runtime.newQuery(Grandfather.class).add(equal("prop1", "value"));
+        assertEquals(2, value.count());
+        assertEquals(1.0, value.min("prop12"));
+        assertEquals(3.0, value.max("prop12"));
+        // fields with multiple values are aggregated by each value
+        assertEquals(7, value.max("prop3"));
+        groups = value.groupBy("prop3");
+        assertEquals(6, groups.size());
+        assertEquals(Long.valueOf(1), groups.get(5));
+
+        ConfigQuery<Grandfather> none = runtime.newQuery(Grandfather.class).add(equal("prop1", "none"));
+        assertEquals(0, none.count());
+        assertNull(none.max("prop12"));
+        assertTrue(none.groupBy("prop3").isEmpty());
+    }
+
+    /**
+     * Aggregations read from indexes must only see current values of instances
+     * that are updated or deleted.
+     */
+    @Test
+    public void test_aggregations_after_set_and_delete() {
+        g2.setProp12(10.0);
+        admin.set(toBean(g2));
+        admin.delete(BeanId.create("g4", GRANDFATHER_SCHEMA_NAME));
+        ConfigQuery<Grandfather> all = runtime.newQuery(Grandfather.class);
+        assertEquals(3, all.count());
+        assertEquals(1.0, all.min("prop12"));
+        assertEquals(10.0, all.max("prop12"));
+        assertEquals(Sets.<Object>newHashSet(1.0, 3.0, 10.0), all.distinct("prop12"));
+        Map<Object, Long> groups = all.groupBy("prop12");
+        assertEquals(Arrays.<Object>asList(1.0, 3.0, 10.0), new ArrayList<>(groups.keySet()));
+        long counted = 0;
+        for (Long count : groups.values()) {
+            counted += count;
+        }
+        assertEquals(all.count(), counted);
+    }
+
+    /**
+     * Retrieve ids and values of indexed fields without fetching instances.
+     */
+    @Test
+    public void test_retrieve_ids_and_select() {
+        ConfigQuery<Grandfather> query = runtime.newQuery(Grandfather.class)
+                .add(lessThan("prop12", 4.0))
+                .orderBy("prop12", ConfigQuery.Order.DESC)
+                .limit(2);
+        assertEquals(Arrays.asList("g3", "g2"), Lists.newArrayList(query.retrieveIds()));
+
+        List<Map<String, Object>> rows = Lists.newArrayList(query.select("prop12", "prop1"));
+        assertEquals(2, rows.size());
+        assertEquals(Arrays.asList("prop12", "prop1"), new ArrayList<>(rows.get(0).keySet()));
+        assertEquals(3.0, rows.get(0).get("prop12"));
+        assertEquals("value", rows.get(0).get("prop1"));
+        assertEquals("test", rows.get(1).get("prop1"));
+
+        try {
+            query.select("prop2");
+            fail("prop2 is not indexed");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("prop2"));
+        }
+    }
+
+    private static List<String> ids(ConfigResultSet<Grandfather> result) {
+        ArrayList<String> ids = new ArrayList<>();
+        for (Grandfather g : result) {
+            ids.add(g.getId());
+        }
+        return ids;
+    }
+
     /**
      * Include instances that have a field that does not than a certain value.
      */
@@ -321,4 +646,70 @@ public class ConfigQueryTest {
         assertEquals(found.getId(), "g3");
         assertThat(parentIds, hasItems(new String[]{"p1", "p2"}));
     }
-}
\ No newline at end of file
+
+    @Config(name = "suffixed", desc = "")
+    public static class Suffixed {
+        @Id(desc = "")
+        private String id;
+        @Config(desc = "")
+        @Index(Index.Kind.SUFFIX)
+        private String name;
+        @Config(desc = "")
+        @Index
+        private double rank;
+
+        public Suffixed() {
+        }
+
+        public Suffixed(String id, String name, double rank) {
+            this.id = id;
+            this.name = name;
+            this.rank = rank;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public double getRank() {
+            return rank;
+        }
+    }
+
+    @Config(name = "keyed", desc = "")
+    public static class Keyed {
+        @Id(desc = "")
+        private String id;
+        @Config(desc = "")
+        @Index(Index.Kind.HASH)
+        private String name;
+        @Config(desc = "")
+        @Index(Index.Kind.UNIQUE)
+        private String code;
+
+        public Keyed() {
+        }
+
+        public Keyed(String id, String name, String code) {
+            this.id = id;
+            this.name = name;
+            this.code = code;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getCode() {
+            return code;
+        }
+    }
+}
@@ -0,0 +1,232 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deephacks.confit.internal.cached;
+
+import org.deephacks.cached.buffer.ByteBuf;
+import org.deephacks.confit.Config;
+import org.deephacks.confit.Id;
+import org.deephacks.confit.internal.cached.proxy.ConfigProxyGenerator;
+import org.deephacks.confit.model.Bean;
+import org.deephacks.confit.model.BeanId;
+import org.deephacks.confit.model.Schema;
+import org.deephacks.confit.serialization.Conversion;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class DefaultCacheValueSerializerTest {
+    /** read proxies as copies and as flyweights */
+    private static final boolean[] FLYWEIGHT = {false, true};
+    private static final ConfigProxyGenerator generator = new ConfigProxyGenerator();
+    private static final Schema valuesSchema = Conversion.get().convert(Values.class, Schema.class);
+    private static final Schema finalsSchema = Conversion.get().convert(Finals.class, Schema.class);
+
+    static {
+        generator.put(valuesSchema);
+        generator.put(finalsSchema);
+    }
+
+    @Test
+    public void test_primitives() {
+        for (boolean flyweight : FLYWEIGHT) {
+            Bean bean = newBean(valuesSchema, "v");
+            bean.setProperty("intValue", "-12");
+            bean.setProperty("longValue", "1000000000000");
+            bean.setProperty("booleanValue", "true");
+            bean.setProperty("doubleValue", "1.5");
+            bean.setProperty("floatValue", "2.5");
+            bean.setProperty("shortValue", "123");
+            bean.setProperty("byteValue", "7");
+            bean.setProperty("stringValue", "åäö 😀");
+            Values values = (Values) roundTrip(flyweight, bean);
+            assertEquals("v", values.getId());
+            assertEquals(-12, values.getIntValue());
+            assertEquals(1000000000000L, values.getLongValue());
+            assertEquals(true, values.getBooleanValue());
+            assertEquals(1.5, values.getDoubleValue(), 0);
+            assertEquals(2.5f, values.getFloatValue(), 0);
+            assertEquals(123, values.getShortValue());
+            assertEquals(7, values.getByteValue());
+            assertEquals("åäö 😀", values.getStringValue());
+        }
+    }
+
+    @Test
+    public void test_nulls() {
+        for (boolean flyweight : FLYWEIGHT) {
+            Values values = (Values) roundTrip(flyweight, newBean(valuesSchema, "v"));
+            assertEquals("v", values.getId());
+            assertNull(values.getStringValue());
+            assertNull(values.getStrings());
+            assertNull(values.getLongs());
+            assertNull(values.getFinals());
+        }
+    }
+
+    @Test
+    public void test_collections() {
+        for (boolean flyweight : FLYWEIGHT) {
+            Bean bean = newBean(valuesSchema, "v");
+            bean.setProperty("strings", Arrays.asList("a", "b", "a"));
+            bean.setProperty("longs", Arrays.asList("1", "-2", "3"));
+            Values values = (Values) roundTrip(flyweight, bean);
+            assertEquals(Arrays.asList("a", "b", "a"), values.getStrings());
+            assertEquals(new HashSet<>(Arrays.asList(1L, -2L, 3L)), values.getLongs());
+        }
+    }
+
+    @Test
+    public void test_final_fields() {
+        for (boolean flyweight : FLYWEIGHT) {
+            Bean bean = newBean(finalsSchema, "f");
+            bean.setProperty("name", "written");
+            bean.setProperty("count", "42");
+            Finals finals = (Finals) roundTrip(flyweight, bean);
+            assertEquals("f", finals.getId());
+            assertEquals("written", finals.getName());
+            assertEquals(42, finals.getCount());
+        }
+    }
+
+    /**
+     * Write a proxy of a bean and read it back. Flyweights keep the buffer that
+     * they were read from, so only buffers of copies are released.
+     */
+    private static Object roundTrip(boolean flyweight, Bean bean) {
+        DefaultCacheValueSerializer serializer = new DefaultCacheValueSerializer(flyweight);
+        serializer.put(bean.getSchema());
+        ByteBuf buf = serializer.write(generator.generateConfigProxy(bean));
+        Object read = serializer.read(buf);
+        if (!flyweight) {
+            buf.release();
+        }
+        return read;
+    }
+
+    private static Bean newBean(Schema schema, String id) {
+        Bean bean = Bean.create(BeanId.create(id, schema.getName()));
+        bean.set(schema);
+        return bean;
+    }
+
+    @Config(name = "serializerValues", desc = "")
+    public static class Values {
+        @Id(desc = "")
+        private String id;
+        @Config(desc = "")
+        private int intValue;
+        @Config(desc = "")
+        private long longValue;
+        @Config(desc = "")
+        private boolean booleanValue;
+        @Config(desc = "")
+        private double doubleValue;
+        @Config(desc = "")
+        private float floatValue;
+        @Config(desc = "")
+        private short shortValue;
+        @Config(desc = "")
+        private byte byteValue;
+        @Config(desc = "")
+        private String stringValue;
+        @Config(desc = "")
+        private List<String> strings;
+        @Config(desc = "")
+        private Set<Long> longs;
+        @Config(desc = "")
+        private Finals finals;
+
+        public String getId() {
+            return id;
+        }
+
+        public int getIntValue() {
+            return intValue;
+        }
+
+        public long getLongValue() {
+            return longValue;
+        }
+
+        public boolean getBooleanValue() {
+            return booleanValue;
+        }
+
+        public double getDoubleValue() {
+            return doubleValue;
+        }
+
+        public float getFloatValue() {
+            return floatValue;
+        }
+
+        public short getShortValue() {
+            return shortValue;
+        }
+
+        public byte getByteValue() {
+            return byteValue;
+        }
+
+        public String getStringValue() {
+            return stringValue;
+        }
+
+        public List<String> getStrings() {
+            return strings;
+        }
+
+        public Set<Long> getLongs() {
+            return longs;
+        }
+
+        public Finals getFinals() {
+            return finals;
+        }
+    }
+
+    @Config(name = "serializerFinals", desc = "")
+    public static class Finals {
+        @Id(desc = "")
+        private String id;
+        @Config(desc = "")
+        private final String name;
+        @Config(desc = "")
+        private final int count;
+
+        public Finals() {
+            // assigned in the constructor so that reads are not inlined as constants
+            this.name = null;
+            this.count = 0;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getCount() {
+            return count;
+        }
+    }
+}
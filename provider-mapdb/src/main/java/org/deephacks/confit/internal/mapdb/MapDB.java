@@ -13,6 +13,7 @@
  */
 package org.deephacks.confit.internal.mapdb;
 
+import com.google.common.base.Optional;
 import org.deephacks.confit.model.Bean;
 import org.deephacks.confit.model.BeanId;
 import org.deephacks.confit.model.BeanId.BinaryBeanId;
@@ -24,7 +25,9 @@ import org.mapdb.TxRollbackException;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.Set;
 import java.util.concurrent.ConcurrentNavigableMap;
 
 public class MapDB {
@@ -32,6 +35,12 @@ public class MapDB {
     public static final String ID_TO_NAME = "confit.id_to_name";
     public static final String NAME_TO_ID = "confit.name_to_id";
     public static final String PROPERTY_COUNTER = "confit.property_counter";
+    /** bean id -> version of its last change */
+    public static final String CHANGES = "confit.changes";
+    /** version -> bean id changed at that version */
+    public static final String CHANGE_LOG = "confit.change_log";
+    /** key of the version in the counters */
+    private static final String VERSION = "confit.version";
     private static final SchemaManager schemaManager = SchemaManager.lookup();
     private final TxMaker txMaker;
     private static final ThreadLocal<DB> tx = new ThreadLocal<>();
@@ -67,6 +76,58 @@ public class MapDB {
         return value;
     }
 
+    private ConcurrentNavigableMap<BinaryBeanId, Long> getChanges() {
+        DB db = getDb();
+        return db.getTreeMap(CHANGES);
+    }
+
+    private ConcurrentNavigableMap<Long, BinaryBeanId> getChangeLog() {
+        DB db = getDb();
+        return db.getTreeMap(CHANGE_LOG);
+    }
+
+    /**
+     * Record a change of a bean at the next version. Only the last change of each
+     * bean is kept, so the log does not grow beyond the number of beans ever stored.
+     */
+    private void changed(BinaryBeanId id) {
+        DB db = getDb();
+        ConcurrentNavigableMap<String, Long> counters = db.getTreeMap(PROPERTY_COUNTER);
+        Long version = counters.get(VERSION);
+        version = version == null ? 1L : version + 1;
+        counters.put(VERSION, version);
+        Long previous = getChanges().put(id, version);
+        if (previous != null) {
+            getChangeLog().remove(previous);
+        }
+        getChangeLog().put(version, id);
+    }
+
+    /**
+     * @return version of the last change, 0 if nothing has been changed.
+     */
+    public long getVersion() {
+        DB db = getDb();
+        ConcurrentNavigableMap<String, Long> counters = db.getTreeMap(PROPERTY_COUNTER);
+        Long version = counters.get(VERSION);
+        return version == null ? 0 : version;
+    }
+
+    /**
+     * @return ids of beans changed after a version, absent if the version is
+     * newer than the stored version and hence belong to another storage.
+     */
+    public Optional<Set<BeanId>> getChangedSince(long version) {
+        if (version > getVersion()) {
+            return Optional.absent();
+        }
+        Set<BeanId> changed = new HashSet<>();
+        for (BinaryBeanId id : getChangeLog().tailMap(version, false).values()) {
+            changed.add(id.getBeanId());
+        }
+        return Optional.of(changed);
+    }
+
     public String getNameFromStorage(long id) {
         String name = getIdToName().get(id);
         if (name != null) {
@@ -177,16 +238,24 @@ public class MapDB {
 
     public Bean remove(BeanId id) {
         Bean bean = get(id);
-        getBeanStorage().remove(new BinaryBeanId(id));
+        BinaryBeanId binaryId = new BinaryBeanId(id);
+        getBeanStorage().remove(binaryId);
+        changed(binaryId);
         return bean;
     }
 
     public void put(Bean bean) {
-        getBeanStorage().put(new BinaryBeanId(bean.getId()), bean.write());
+        BinaryBeanId binaryId = new BinaryBeanId(bean.getId());
+        getBeanStorage().put(binaryId, bean.write());
+        changed(binaryId);
     }
 
     public void clear() {
-        getBeanStorage().clear();
+        ConcurrentNavigableMap<BinaryBeanId, byte[]> storage = getBeanStorage();
+        for (BinaryBeanId id : new ArrayList<>(storage.keySet())) {
+            changed(id);
+        }
+        storage.clear();
     }
 
 }
@@ -485,6 +485,30 @@ public class MapdbBeanManager extends BeanManager {
         return new DefaultBeanQuery(schema, sorted);
     }
 
+    @Override
+    public long getVersion() {
+        try {
+            long version = mapDB.getVersion();
+            mapDB.commit();
+            return version;
+        } catch (Throwable e) {
+            mapDB.rollback(e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public Optional<Set<BeanId>> getChangedSince(long version) {
+        try {
+            Optional<Set<BeanId>> changed = mapDB.getChangedSince(version);
+            mapDB.commit();
+            return changed;
+        } catch (Throwable e) {
+            mapDB.rollback(e);
+            throw new RuntimeException(e);
+        }
+    }
+
     private void checkNoReferencesExist(BeanId deleted) {
         Collection<BeanId> hasReferences = new ArrayList<>();
         for (Bean b : mapDB.values()) {
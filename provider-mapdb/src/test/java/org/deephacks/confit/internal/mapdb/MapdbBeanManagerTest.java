@@ -0,0 +1,101 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deephacks.confit.internal.mapdb;
+
+import org.deephacks.confit.Config;
+import org.deephacks.confit.Id;
+import org.deephacks.confit.model.Bean;
+import org.deephacks.confit.model.BeanId;
+import org.deephacks.confit.model.Schema;
+import org.deephacks.confit.serialization.Conversion;
+import org.deephacks.confit.spi.SchemaManager;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MapdbBeanManagerTest {
+    private static MapdbBeanManager manager;
+    private static Schema schema;
+
+    @BeforeClass
+    public static void beforeClass() {
+        MapdbUtil.create();
+        manager = new MapdbBeanManager();
+        SchemaManager.lookup().register(Versioned.class);
+        schema = Conversion.get().convert(Versioned.class, Schema.class);
+    }
+
+    @Before
+    public void before() {
+        MapdbUtil.delete();
+    }
+
+    @Test
+    public void test_changed_since() {
+        long start = manager.getVersion();
+        manager.create(newBean("a", "1"));
+        manager.create(newBean("b", "1"));
+        long created = manager.getVersion();
+        assertTrue(created > start);
+        assertEquals(ids("a", "b"), manager.getChangedSince(start).get());
+
+        manager.set(newBean("a", "2"));
+        long set = manager.getVersion();
+        assertTrue(set > created);
+        assertEquals(ids("a"), manager.getChangedSince(created).get());
+        // only the last change of a bean is kept
+        assertEquals(ids("a", "b"), manager.getChangedSince(start).get());
+
+        manager.delete(BeanId.create("b", schema.getName()));
+        assertEquals(ids("b"), manager.getChangedSince(set).get());
+        assertEquals(ids(), manager.getChangedSince(manager.getVersion()).get());
+    }
+
+    @Test
+    public void test_changed_since_unknown_version() {
+        manager.create(newBean("a", "1"));
+        // a version from another storage that is ahead of this one
+        assertFalse(manager.getChangedSince(manager.getVersion() + 1).isPresent());
+    }
+
+    private static Bean newBean(String id, String value) {
+        Bean bean = Bean.create(BeanId.create(id, schema.getName()));
+        bean.set(schema);
+        bean.setProperty("value", value);
+        return bean;
+    }
+
+    private static HashSet<BeanId> ids(String... ids) {
+        HashSet<BeanId> result = new HashSet<>();
+        for (String id : Arrays.asList(ids)) {
+            result.add(BeanId.create(id, schema.getName()));
+        }
+        return result;
+    }
+
+    @Config(name = "mapdbVersioned", desc = "")
+    public static class Versioned {
+        @Id(desc = "")
+        private String id;
+        @Config(desc = "")
+        private String value;
+    }
+}